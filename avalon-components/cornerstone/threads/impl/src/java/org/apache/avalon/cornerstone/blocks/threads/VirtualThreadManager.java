@@ -0,0 +1,61 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avalon.cornerstone.blocks.threads;
+
+import java.util.Map;
+import org.apache.avalon.excalibur.thread.impl.VirtualThreadPool;
+import org.apache.avalon.framework.configuration.Configuration;
+import org.apache.avalon.framework.configuration.ConfigurationException;
+
+/**
+ * Implementation of ThreadManager whose pools run every piece of work on a
+ * virtual thread of its own, so there is no limit on the number of threads.
+ * On JVMs without virtual threads the pools use daemon platform threads.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @avalon.component name="virtual-thread-manager" lifestyle="singleton"
+ * @avalon.service type="org.apache.avalon.cornerstone.services.threads.ThreadManager"
+ */
+public class VirtualThreadManager
+    extends AbstractThreadManager
+{
+    protected void configureThreadPool( final Map threadPools,
+                                        final Configuration configuration )
+        throws ConfigurationException
+    {
+        final String name = configuration.getChild( "name" ).getValue();
+
+        try
+        {
+            final VirtualThreadPool threadPool = new VirtualThreadPool( name );
+            threadPool.enableLogging( getLogger() );
+            threadPools.put( name, threadPool );
+
+            if( !threadPool.isVirtual() && getLogger().isWarnEnabled() )
+            {
+                getLogger().warn( "Virtual threads are not available, ThreadPool named "
+                                  + name + " uses platform threads" );
+            }
+        }
+        catch( final Exception e )
+        {
+            final String message = "Error creating ThreadPool named " + name;
+            throw new ConfigurationException( message, e );
+        }
+    }
+}
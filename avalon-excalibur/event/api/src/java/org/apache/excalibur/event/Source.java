@@ -34,7 +34,9 @@ public interface Source
     /**
      * Sets the timeout on a blocking Source.  Values above <code>1</code>
      * will force all <code>dequeue</code> operations to block for up to that
-     * number of milliseconds waiting for new elements.  Values below
+     * number of milliseconds waiting for new elements.  A blocked
+     * <code>dequeue</code> returns as soon as an element is enqueued, so
+     * a consumer does not need to poll the Source.  Values below
      * <code>1</code> will turn off blocking for Source.  This is intentional
      * because a Source should never block indefinitely.
      *
@@ -51,6 +51,15 @@ public abstract class AbstractThreadManager extends AbstractLogEnabled
     /** Whether this class has been initialized or not */
     private volatile boolean m_initialized = false;
 
+    /** The smallest number of events handed to an EventHandler at once */
+    private int m_minBatchSize = 1;
+
+    /** The largest number of events handed to an EventHandler at once, 0 is unlimited */
+    private int m_maxBatchSize = 0;
+
+    /** The number of milliseconds a batch should take, 0 for fixed batches */
+    private long m_targetBatchLatency = 0L;
+
     /** Return whether the thread manager has been initialized or not */
     protected boolean isInitialized()
     {
@@ -75,6 +84,24 @@ public abstract class AbstractThreadManager extends AbstractLogEnabled
         return m_sleepTime;
     }
 
+    /**
+     * Set the batching policy for pipelines registered from now on.  See
+     * {@link BatchController} for how the batch size is chosen.  With the
+     * defaults, all pending events are handed over at once.
+     *
+     * @param minBatchSize    the smallest batch
+     * @param maxBatchSize    the largest batch, 0 means no limit
+     * @param targetLatency   the number of milliseconds the EventHandler
+     *                        should spend on a batch, 0 to always use the
+     *                        largest batch
+     */
+    protected void setBatchPolicy( int minBatchSize, int maxBatchSize, long targetLatency )
+    {
+        m_minBatchSize = minBatchSize;
+        m_maxBatchSize = maxBatchSize;
+        m_targetBatchLatency = targetLatency;
+    }
+
     /**
      * Set the executor we are using
      *
@@ -123,7 +150,8 @@ public abstract class AbstractThreadManager extends AbstractLogEnabled
 
         try
         {
-            PipelineRunner runner = new PipelineRunner( pipeline );
+            PipelineRunner runner = new PipelineRunner( pipeline, m_minBatchSize,
+                                                        m_maxBatchSize, m_targetBatchLatency );
             runner.enableLogging( getLogger() );
             m_pipelines.put( pipeline, runner );
 
@@ -242,7 +270,9 @@ public abstract class AbstractThreadManager extends AbstractLogEnabled
 
     /**
      * The PipelineRunner class pulls all the events from the Source, and puts them in the EventHandler.
-     * Both of those objects are part of the EventPipeline.
+     * Both of those objects are part of the EventPipeline.  When the batch size is limited, the events
+     * are handed over in batches, taking turns between the Sources, until the events that were waiting
+     * when the run started have been handled.
      */
     public static final class PipelineRunner
         extends AbstractLogEnabled
@@ -251,14 +281,40 @@ public abstract class AbstractThreadManager extends AbstractLogEnabled
         /** The pipeline we are managing */
         private final EventPipeline m_pipeline;
 
+        /** The batch size for each Source, or null to dequeue everything */
+        private final BatchController[] m_controllers;
+
         /**
          * Create a PipelineRunner.
          *
          * @param pipeline  The EventPipeline we are running
          */
         protected PipelineRunner( EventPipeline pipeline )
+        {
+            this( pipeline, 1, 0, 0L );
+        }
+
+        /**
+         * Create a PipelineRunner that hands over events in batches.
+         *
+         * @param pipeline       The EventPipeline we are running
+         * @param minBatchSize   The smallest batch
+         * @param maxBatchSize   The largest batch, 0 means no limit
+         * @param targetLatency  The number of milliseconds a batch should take
+         */
+        protected PipelineRunner( EventPipeline pipeline, int minBatchSize,
+                                  int maxBatchSize, long targetLatency )
         {
             m_pipeline = pipeline;
+
+            final int count = pipeline.getSources().length;
+            BatchController[] controllers = new BatchController[ count ];
+            for( int i = 0; i < count; i++ )
+            {
+                controllers[ i ] = new BatchController( minBatchSize, maxBatchSize, targetLatency );
+            }
+
+            m_controllers = ( count > 0 && controllers[ 0 ].isBounded() ) ? controllers : null;
         }
 
         /**
@@ -269,23 +325,72 @@ public abstract class AbstractThreadManager extends AbstractLogEnabled
             Source[] sources = m_pipeline.getSources();
             EventHandler handler = m_pipeline.getEventHandler();
 
-            for( int i = 0; i < sources.length; i++ )
+            if( null == m_controllers || m_controllers.length != sources.length )
             {
-                try
+                for( int i = 0; i < sources.length; i++ )
                 {
-                    handler.handleEvents( sources[i].dequeueAll() );
+                    handle( handler, sources[i].dequeueAll() );
                 }
-                catch( Exception e )
+
+                return;
+            }
+
+            // only handle what is there now, or a handler that feeds its
+            // own Source would keep this thread forever
+            int[] remaining = new int[ sources.length ];
+            for( int i = 0; i < sources.length; i++ )
+            {
+                remaining[ i ] = sources[ i ].size();
+            }
+
+            boolean more = true;
+            while( more )
+            {
+                more = false;
+
+                for( int i = 0; i < sources.length; i++ )
                 {
-                    // We want to catch this, because this is the only
-                    // place where exceptions happening in this thread
-                    // can be logged
+                    if( remaining[ i ] <= 0 )
+                    {
+                        continue;
+                    }
 
-                    if( getLogger().isErrorEnabled() )
+                    final BatchController controller = m_controllers[ i ];
+                    final Object[] events =
+                        sources[ i ].dequeue( Math.min( remaining[ i ], controller.getBatchSize() ) );
+
+                    if( events.length == 0 )
                     {
-                        getLogger().error( "Exception processing EventPipeline [msg: "
-                                           + e.getMessage() + "]", e );
+                        remaining[ i ] = 0;
+                        continue;
                     }
+
+                    final long start = System.currentTimeMillis();
+                    handle( handler, events );
+                    controller.update( events.length, System.currentTimeMillis() - start );
+
+                    remaining[ i ] -= events.length;
+                    more |= remaining[ i ] > 0;
+                }
+            }
+        }
+
+        private void handle( EventHandler handler, Object[] events )
+        {
+            try
+            {
+                handler.handleEvents( events );
+            }
+            catch( Exception e )
+            {
+                // We want to catch this, because this is the only
+                // place where exceptions happening in this thread
+                // can be logged
+
+                if( getLogger().isErrorEnabled() )
+                {
+                    getLogger().error( "Exception processing EventPipeline [msg: "
+                                       + e.getMessage() + "]", e );
                 }
             }
         }
@@ -0,0 +1,146 @@
+/* 
+ * Copyright 1999-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.event.command;
+
+/**
+ * The BatchController decides how many events a pipeline runner dequeues
+ * and hands to the <code>EventHandler</code> at once.  Large batches give
+ * the best throughput, but while a handler works through a batch every
+ * other event in it waits.  The controller keeps a moving average of the
+ * time the handler needs per event, and picks the largest batch that it
+ * expects to finish within the target latency, bounded by the minimum and
+ * maximum batch size.  The batch size shrinks at once when the handler
+ * slows down, and grows by at most a factor of two per batch when it
+ * speeds up.
+ *
+ * <p>
+ *   Without a target latency, the controller always uses the maximum batch
+ *   size.  A maximum batch size below 1 means there is no limit, which is
+ *   the same as dequeueing everything.
+ * </p>
+ *
+ * <p>
+ *   The design follows the batching controller of
+ *   <a href="mailto:mdw@cs.berkeley.edu">Matt Welsh</a>'s SandStorm server.
+ * </p>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class BatchController
+{
+    /** The weight of the newest measurement in the moving average */
+    private static final double SMOOTHING = 0.3;
+
+    private final int m_minBatchSize;
+    private final int m_maxBatchSize;
+    private final long m_targetLatency;
+    private int m_batchSize;
+
+    /** The average handler time per event in milliseconds, or -1 */
+    private double m_serviceTime = -1;
+
+    /**
+     * Create a new BatchController.
+     *
+     * @param minBatchSize   the smallest batch, at least 1
+     * @param maxBatchSize   the largest batch, below 1 means no limit
+     * @param targetLatency  the number of milliseconds a batch should take,
+     *                       below 1 to always use the largest batch
+     */
+    public BatchController( final int minBatchSize,
+                            final int maxBatchSize,
+                            final long targetLatency )
+    {
+        m_minBatchSize = Math.max( 1, minBatchSize );
+        m_maxBatchSize = ( maxBatchSize < 1 )
+            ? Integer.MAX_VALUE : Math.max( m_minBatchSize, maxBatchSize );
+        m_targetLatency = targetLatency;
+        m_batchSize = ( m_targetLatency > 0 ) ? m_minBatchSize : m_maxBatchSize;
+    }
+
+    /**
+     * Get the number of events to dequeue for the next batch.
+     *
+     * @return the batch size
+     */
+    public synchronized int getBatchSize()
+    {
+        return m_batchSize;
+    }
+
+    /**
+     * Get the average time the handler needs per event.
+     *
+     * @return the service time in milliseconds, or -1 if no batch has
+     *         been measured yet
+     */
+    public synchronized double getServiceTime()
+    {
+        return m_serviceTime;
+    }
+
+    /**
+     * Whether the batch size is limited at all.  If not, the runner may
+     * just as well dequeue everything at once.
+     *
+     * @return <code>true</code> if batches are limited
+     */
+    public boolean isBounded()
+    {
+        return m_targetLatency > 0 || m_maxBatchSize < Integer.MAX_VALUE;
+    }
+
+    /**
+     * Record how long the handler took for a batch, and adjust the batch
+     * size accordingly.
+     *
+     * @param events   the number of events in the batch
+     * @param elapsed  the number of milliseconds the handler took
+     */
+    public synchronized void update( final int events, final long elapsed )
+    {
+        if( events < 1 )
+        {
+            return;
+        }
+
+        final double perEvent = (double)elapsed / events;
+        if( m_serviceTime < 0 )
+        {
+            m_serviceTime = perEvent;
+        }
+        else
+        {
+            m_serviceTime += SMOOTHING * ( perEvent - m_serviceTime );
+        }
+
+        if( m_targetLatency < 1 )
+        {
+            return;
+        }
+
+        long size = ( m_serviceTime > 0 )
+            ? (long)( m_targetLatency / m_serviceTime ) : m_maxBatchSize;
+
+        if( size > m_batchSize )
+        {
+            size = Math.min( size, 2L * m_batchSize );
+        }
+
+        m_batchSize = (int)Math.max( m_minBatchSize, Math.min( m_maxBatchSize, size ) );
+    }
+}
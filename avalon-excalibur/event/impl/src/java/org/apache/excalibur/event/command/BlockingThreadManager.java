@@ -0,0 +1,341 @@
+/* 
+ * Copyright 1999-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.event.command;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.avalon.framework.activity.Disposable;
+import org.apache.avalon.framework.activity.Initializable;
+import org.apache.avalon.framework.logger.AbstractLogEnabled;
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.avalon.framework.parameters.ParameterException;
+import org.apache.avalon.framework.parameters.Parameterizable;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.commons.collections.StaticBucketMap;
+import org.apache.excalibur.event.EventHandler;
+import org.apache.excalibur.event.Source;
+
+import EDU.oswego.cs.dl.util.concurrent.PooledExecutor;
+import EDU.oswego.cs.dl.util.concurrent.ThreadFactory;
+
+/**
+ * This is a <code>ThreadManager</code> that dedicates one thread to each
+ * <code>Source</code> of every registered <code>EventPipeline</code>.
+ * Instead of polling the sources and sleeping in between, each thread
+ * blocks inside the <code>dequeue</code> call: the timeout of every source
+ * is set to the configured <code>block-timeout</code>, so the thread is
+ * woken up as soon as an event is enqueued and uses no CPU while the
+ * source is idle.
+ *
+ * <p>
+ *   The sources should be queues that honour the timeout, such as the
+ *   <code>DefaultQueue</code> or the <code>ConcurrentQueue</code>.
+ * </p>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class BlockingThreadManager extends AbstractLogEnabled
+    implements ThreadManager, Parameterizable, Initializable, Disposable
+{
+    /** The runners for each pipeline we are managing */
+    private final StaticBucketMap m_pipelines = new StaticBucketMap();
+    private PooledExecutor m_threadPool;
+    private long m_blockTimeout = 1000L;
+    private boolean m_hardShutdown = false;
+    private int m_minBatchSize = 1;
+    private int m_maxBatchSize = 0;
+    private long m_targetBatchLatency = 0L;
+
+    /** Whether this class has been initialized or not */
+    private volatile boolean m_initialized = false;
+
+    /**
+     * The following parameters can be set for this class:
+     *
+     * <table>
+     *   <tr>
+     *     <th>Name</th> <th>Description</th> <th>Default Value</th>
+     *   </tr>
+     *   <tr>
+     *     <td>block-timeout</td>
+     *     <td>Time (in milliseconds) a thread blocks on an empty source
+     *         before it checks whether it should keep running</td>
+     *     <td>1000</td>
+     *   </tr>
+     *   <tr>
+     *     <td>force-shutdown</td>
+     *     <td>At shutdown time, allow currently handled events to finish, or immediately quit</td>
+     *     <td>false</td>
+     *   </tr>
+     *   <tr>
+     *     <td>min-batch-size</td>
+     *     <td>Smallest number of events handed to an EventHandler at once</td>
+     *     <td>1</td>
+     *   </tr>
+     *   <tr>
+     *     <td>max-batch-size</td>
+     *     <td>Largest number of events handed to an EventHandler at once (0 is unlimited)</td>
+     *     <td>0</td>
+     *   </tr>
+     *   <tr>
+     *     <td>target-batch-latency</td>
+     *     <td>Time (in milliseconds) an EventHandler should spend on one batch; the batch size
+     *         is adapted to the measured handler time (0 turns adaptation off)</td>
+     *     <td>0</td>
+     *   </tr>
+     * </table>
+     *
+     * @param parameters  The Parameters object
+     *
+     * @throws ParameterException if there is a problem with the parameters.
+     */
+    public void parameterize( Parameters parameters ) throws ParameterException
+    {
+        m_blockTimeout = Math.max( 1L, parameters.getParameterAsLong( "block-timeout", 1000L ) );
+
+        m_hardShutdown = ( parameters.getParameterAsBoolean( "force-shutdown", false ) );
+
+        m_minBatchSize = parameters.getParameterAsInteger( "min-batch-size", 1 );
+        m_maxBatchSize = parameters.getParameterAsInteger( "max-batch-size", 0 );
+        m_targetBatchLatency = parameters.getParameterAsLong( "target-batch-latency", 0L );
+    }
+
+    public void initialize() throws Exception
+    {
+        if( m_initialized )
+        {
+            throw new IllegalStateException( "ThreadManager is already initailized" );
+        }
+
+        // Every runner owns its thread until it is deregistered, so the
+        // pool must never queue a runner behind another one.
+        m_threadPool = new PooledExecutor();
+        m_threadPool.setMinimumPoolSize( 1 );
+        m_threadPool.setMaximumPoolSize( Integer.MAX_VALUE );
+        m_threadPool.setKeepAliveTime( m_blockTimeout );
+        m_threadPool.setThreadFactory( new ThreadFactory() {
+            public Thread newThread(Runnable run) {
+                Thread newThread = new Thread(run);
+
+                newThread.setDaemon( true );
+
+                return newThread;
+            }
+        });
+
+        if( null == getLogger() )
+        {
+            this.enableLogging( new NullLogger() );
+        }
+
+        m_initialized = true;
+    }
+
+    /**
+     * Register an EventPipeline with the ThreadManager.  A thread is
+     * started for each of the pipeline's sources right away.
+     *
+     * @param pipeline  The pipeline we are registering
+     */
+    public void register( EventPipeline pipeline )
+    {
+        if( !m_initialized )
+        {
+            throw new IllegalStateException( "ThreadManager must be initialized before "
+                                             + "registering a pipeline" );
+        }
+
+        Source[] sources = pipeline.getSources();
+        EventHandler handler = pipeline.getEventHandler();
+        List runners = new ArrayList( sources.length );
+
+        for( int i = 0; i < sources.length; i++ )
+        {
+            sources[ i ].setTimeout( m_blockTimeout );
+
+            SourceRunner runner = new SourceRunner( sources[ i ], handler,
+                new BatchController( m_minBatchSize, m_maxBatchSize, m_targetBatchLatency ) );
+            runner.enableLogging( getLogger() );
+
+            try
+            {
+                m_threadPool.execute( runner );
+                runners.add( runner );
+            }
+            catch( InterruptedException ie )
+            {
+                getLogger().warn( "Caught InterruptedException in register", ie );
+            }
+        }
+
+        m_pipelines.put( pipeline, runners );
+    }
+
+    /**
+     * Deregister an EventPipeline with the ThreadManager.  The threads of
+     * the pipeline stop after the event batch they are handling, or when
+     * their current <code>dequeue</code> times out.
+     *
+     * @param pipeline  The pipeline to unregister
+     */
+    public void deregister( EventPipeline pipeline )
+    {
+        if( !m_initialized )
+        {
+            throw new IllegalStateException( "ThreadManager must be initialized before "
+                                             + "deregistering a pipeline" );
+        }
+
+        List runners = (List)m_pipelines.remove( pipeline );
+
+        if( null != runners )
+        {
+            Iterator it = runners.iterator();
+            while( it.hasNext() )
+            {
+                ( (SourceRunner)it.next() ).stop();
+            }
+        }
+    }
+
+    /**
+     * Deregisters all EventPipelines from this ThreadManager
+     */
+    public void deregisterAll()
+    {
+        Iterator it = m_pipelines.keySet().iterator();
+        while( it.hasNext() )
+        {
+            deregister( (EventPipeline)it.next() );
+        }
+    }
+
+    /**
+     * Get rid of the ThreadManager.
+     */
+    public void dispose()
+    {
+        deregisterAll();
+
+        if( m_hardShutdown )
+        {
+            m_threadPool.shutdownNow();
+
+            // wake up the threads that are still blocked in a dequeue
+            m_threadPool.interruptAll();
+        }
+        else
+        {
+            // the runners end once their dequeue times out, without
+            // interrupting a handler in the middle of its events
+            m_threadPool.shutdownAfterProcessingCurrentlyQueuedTasks();
+        }
+
+        try
+        {
+            if( !m_threadPool.awaitTerminationAfterShutdown( m_blockTimeout ) )
+            {
+                getLogger().warn( "Thread pool took longer than " + m_blockTimeout +
+                                  " ms to shut down" );
+            }
+        }
+        catch( InterruptedException ie )
+        {
+            getLogger().warn( "Thread pool was interrupted while waiting for shutdown to complete.", ie );
+        }
+    }
+
+    /**
+     * The SourceRunner blocks on a single Source and hands what it dequeues
+     * to the EventHandler, in batches sized by its BatchController.
+     */
+    protected static final class SourceRunner
+        extends AbstractLogEnabled
+        implements Runnable
+    {
+        private final Source m_source;
+        private final EventHandler m_handler;
+        private final BatchController m_controller;
+        private volatile boolean m_keepProcessing;
+
+        /**
+         * Create a new SourceRunner.
+         *
+         * @param source      The source to pull events from.
+         * @param handler     The handler to send events to.
+         * @param controller  The controller for the batch size.
+         */
+        protected SourceRunner( final Source source, final EventHandler handler,
+                                final BatchController controller )
+        {
+            if( source == null ) throw new NullPointerException( "source" );
+            if( handler == null ) throw new NullPointerException( "handler" );
+            if( controller == null ) throw new NullPointerException( "controller" );
+            m_source = source;
+            m_handler = handler;
+            m_controller = controller;
+            m_keepProcessing = true;
+        }
+
+        /**
+         * Dequeue and handle events until the runner is stopped.
+         */
+        public void run()
+        {
+            final boolean bounded = m_controller.isBounded();
+
+            while( m_keepProcessing )
+            {
+                Object[] events = bounded
+                    ? m_source.dequeue( m_controller.getBatchSize() )
+                    : m_source.dequeueAll();
+
+                if( events.length > 0 )
+                {
+                    final long start = System.currentTimeMillis();
+                    try
+                    {
+                        m_handler.handleEvents( events );
+                    }
+                    catch( Exception e )
+                    {
+                        // We want to catch this, because this is the only
+                        // place where exceptions happening in this thread
+                        // can be logged
+
+                        if( getLogger().isErrorEnabled() )
+                        {
+                            getLogger().error( "Exception processing EventPipeline [msg: "
+                                               + e.getMessage() + "]", e );
+                        }
+                    }
+                    m_controller.update( events.length, System.currentTimeMillis() - start );
+                }
+            }
+        }
+
+        /**
+         * Stop the runner nicely.
+         */
+        public void stop()
+        {
+            m_keepProcessing = false;
+        }
+    }
+}
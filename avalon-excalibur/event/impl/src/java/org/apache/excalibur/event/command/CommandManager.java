@@ -19,14 +19,14 @@ package org.apache.excalibur.event.command;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.avalon.framework.activity.Disposable;
 import org.apache.avalon.framework.logger.AbstractLogEnabled;
 import org.apache.avalon.framework.logger.NullLogger;
-import org.apache.commons.collections.Buffer;
-import org.apache.commons.collections.UnboundedFifoBuffer;
 import org.apache.excalibur.event.*;
 import org.apache.excalibur.event.impl.DefaultQueue;
 
@@ -63,6 +63,14 @@ import EDU.oswego.cs.dl.util.concurrent.ReentrantLock;
  threadManager.register( commandManager );
  * </pre>
  *
+ * <p>
+ *   {@link DelayedCommand}s and {@link RepeatedCommand}s are kept in a
+ *   {@link TimingWheel}.  A timer thread moves them back onto the command
+ *   queue when they are due, so they run on time even when no other
+ *   commands arrive.  A pending command can be withdrawn with
+ *   {@link #cancel(DelayedCommand)}.
+ * </p>
+ *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  */
 public class CommandManager extends AbstractLogEnabled
@@ -72,14 +80,29 @@ public class CommandManager extends AbstractLogEnabled
     private final ReentrantLock m_mutex;
     private final EventHandler m_eventHandler;
     private final Source[] m_sources;
+    private final TimingWheel m_timingWheel;
+    private final Map m_pendingCommands;
     private CommandFailureHandler m_failureHandler;
     private boolean m_isAccepting;
+    private Thread m_timerThread;
 
     /**
      * Create the CommandManager
      */
     public CommandManager() {
+        this(10L);
+    }
+
+    /**
+     * Create the CommandManager with the given timer precision.
+     *
+     * @param tickDuration  the number of milliseconds between checks for
+     *                      delayed commands that are due
+     */
+    public CommandManager(long tickDuration) {
         m_queue = new DefaultQueue();
+        m_timingWheel = new TimingWheel(tickDuration, System.currentTimeMillis());
+        m_pendingCommands = new IdentityHashMap();
         m_signalHandlers = new HashMap();
         m_mutex = new ReentrantLock();
         m_eventHandler = new CommandEventHandler(Collections.unmodifiableMap(m_signalHandlers));
@@ -180,12 +203,50 @@ public class CommandManager extends AbstractLogEnabled
         }
     }
 
+    /**
+     * Cancel a {@link DelayedCommand} or {@link RepeatedCommand} that is
+     * waiting for its delay to pass.  If the same command instance was
+     * enqueued more than once, all of its pending runs are cancelled.  A
+     * command that is still in the command queue has not been scheduled
+     * yet and cannot be cancelled.
+     *
+     * @param command  the command to cancel
+     * @return <code>true</code> if the command was still pending
+     */
+    public boolean cancel(DelayedCommand command) {
+        synchronized (m_timingWheel) {
+            List infos = (List) m_pendingCommands.remove(command);
+
+            if (null == infos) {
+                return false;
+            }
+
+            for (int i = 0; i < infos.size(); i++) {
+                DelayedCommandInfo info = (DelayedCommandInfo) infos.get(i);
+                info.m_cancelled = true;
+                m_timingWheel.cancel(info.m_timeout);
+            }
+
+            return true;
+        }
+    }
+
     /**
      * When you are done with CommandManager, call this and it will
      * clean up all its resources.
      */
     public void dispose() {
         m_isAccepting = false;
+
+        synchronized (m_timingWheel) {
+            if (null != m_timerThread) {
+                m_timerThread.interrupt();
+                m_timerThread = null;
+            }
+        }
+
+        // the ThreadManager may have set a timeout, don't wait for it
+        m_queue.setTimeout(0);
         Object[] remainingElements = m_queue.dequeueAll();
         for (int i = 0; i < remainingElements.length; i++) {
             getEventHandler().handleEvent(remainingElements[i]);
@@ -212,9 +273,89 @@ public class CommandManager extends AbstractLogEnabled
         return m_eventHandler;
     }
 
+    /**
+     * Put a delayed command on the timing wheel, and start the timer
+     * thread if it is not running yet.
+     *
+     * @param info   the command to schedule
+     * @param delay  the number of milliseconds from now it is due
+     */
+    private void schedule(DelayedCommandInfo info, long delay) {
+        synchronized (m_timingWheel) {
+            if (info.m_cancelled || !m_isAccepting) {
+                return;
+            }
+
+            info.m_timeout = m_timingWheel.schedule(info, System.currentTimeMillis() + delay);
+
+            if (null == m_timerThread) {
+                m_timerThread = new Thread(new TimerRunner(), "CommandManager timer");
+                m_timerThread.setDaemon(true);
+                m_timerThread.start();
+            }
+
+            m_timingWheel.notify();
+        }
+    }
+
+    /**
+     * Forget a delayed command that will not run again.
+     *
+     * @param info  the command that is done
+     */
+    private void complete(DelayedCommandInfo info) {
+        synchronized (m_timingWheel) {
+            List infos = (List) m_pendingCommands.get(info.m_command);
+
+            if (null != infos && infos.remove(info) && infos.isEmpty()) {
+                m_pendingCommands.remove(info.m_command);
+            }
+        }
+    }
+
+    /**
+     * The TimerRunner advances the timing wheel once per tick and puts the
+     * commands that are due back on the command queue.  It waits without
+     * ticking while there are no delayed commands.
+     */
+    private final class TimerRunner implements Runnable {
+        public void run() {
+            final List expired = new ArrayList();
+            final long tickDuration = m_timingWheel.getTickDuration();
+
+            try {
+                while (m_isAccepting) {
+                    synchronized (m_timingWheel) {
+                        if (0 == m_timingWheel.size()) {
+                            m_timingWheel.wait();
+                        } else {
+                            m_timingWheel.wait(tickDuration);
+                        }
+
+                        m_timingWheel.expire(System.currentTimeMillis(), expired);
+                    }
+
+                    if (!expired.isEmpty()) {
+                        try {
+                            m_queue.enqueue(expired.toArray());
+                        } catch (SinkException se) {
+                            if (getLogger().isWarnEnabled()) {
+                                getLogger().warn("Could not requeue " + expired.size()
+                                        + " delayed commands", se);
+                            }
+                        }
+
+                        expired.clear();
+                    }
+                }
+            } catch (InterruptedException ie) {
+                // we are being disposed
+            }
+        }
+    }
+
     private final class CommandEventHandler implements EventHandler {
         private final Map m_signalHandlers;
-        private final Buffer m_delayedCommands = new UnboundedFifoBuffer();
 
         protected CommandEventHandler(Map signalHandlers) {
             m_signalHandlers = signalHandlers;
@@ -224,40 +365,48 @@ public class CommandManager extends AbstractLogEnabled
             for (int i = 0; i < elements.length; i++) {
                 handleEvent(elements[i]);
             }
+        }
 
-            int size = m_delayedCommands.size();
-            for (int i = 0; i < size; i++) {
-                DelayedCommandInfo command = (DelayedCommandInfo) m_delayedCommands.remove();
+        /**
+         * Run a delayed command that has come due, and schedule it again if
+         * it is a repeated command with runs left.
+         *
+         * @param command  the command that is due
+         */
+        private void runDelayedCommand(DelayedCommandInfo command) {
+            if (command.m_cancelled) {
+                return;
+            }
 
-                if (System.currentTimeMillis() >= command.m_nextRunTime) {
-                    try {
-                        command.m_command.execute();
-                    } catch (Exception e) {
-                        if (getLogger().isWarnEnabled()) {
-                            getLogger().warn("Exception during Command.execute()", e);
-                        }
-                    }
+            try {
+                command.m_command.execute();
+            } catch (Exception e) {
+                if (getLogger().isWarnEnabled()) {
+                    getLogger().warn("Exception during Command.execute()", e);
+                }
+            }
 
-                    command.m_numExecutions++;
+            command.m_numExecutions++;
 
-                    if (command.m_repeatable) {
-                        RepeatedCommand cmd = (RepeatedCommand) command.m_command;
-                        int numRepeats = cmd.getNumberOfRepeats();
+            if (command.m_repeatable) {
+                RepeatedCommand cmd = (RepeatedCommand) command.m_command;
+                int numRepeats = cmd.getNumberOfRepeats();
 
-                        if ((numRepeats < 1) || (command.m_numExecutions < numRepeats)) {
-                            command.m_nextRunTime = System.currentTimeMillis() +
-                                    cmd.getRepeatInterval();
-                            m_delayedCommands.add(command);
-                        }
-                    }
-                } else {
-                    // not yet executed, wait some more
-                    m_delayedCommands.add(command);
+                if ((numRepeats < 1) || (command.m_numExecutions < numRepeats)) {
+                    schedule(command, cmd.getRepeatInterval());
+                    return;
                 }
             }
+
+            complete(command);
         }
 
         public final void handleEvent(Object element) {
+            if (element instanceof DelayedCommandInfo) {
+                runDelayedCommand((DelayedCommandInfo) element);
+                return;
+            }
+
             if (!(element instanceof Signal)) {
                 return;
             }
@@ -280,12 +429,21 @@ public class CommandManager extends AbstractLogEnabled
             if (element instanceof DelayedCommand) {
                 DelayedCommandInfo commandInfo = new DelayedCommandInfo();
                 commandInfo.m_command = (DelayedCommand) element;
-                commandInfo.m_nextRunTime = System.currentTimeMillis() +
-                        commandInfo.m_command.getDelayInterval();
                 commandInfo.m_numExecutions = 0;
                 commandInfo.m_repeatable = element instanceof RepeatedCommand;
 
-                m_delayedCommands.add(commandInfo);
+                synchronized (m_timingWheel) {
+                    List infos = (List) m_pendingCommands.get(element);
+
+                    if (null == infos) {
+                        infos = new ArrayList(1);
+                        m_pendingCommands.put(element, infos);
+                    }
+
+                    infos.add(commandInfo);
+                }
+
+                schedule(commandInfo, commandInfo.m_command.getDelayInterval());
                 return;
             }
 
@@ -300,6 +458,7 @@ public class CommandManager extends AbstractLogEnabled
                  */
                 if (stopProcessing) {
                     m_isAccepting = false;
+                    m_queue.setTimeout(0);
                     m_queue.dequeueAll();
                 }
             }
@@ -308,9 +467,10 @@ public class CommandManager extends AbstractLogEnabled
 
     private static final class DelayedCommandInfo {
         protected DelayedCommand m_command;
-        protected long m_nextRunTime;
+        protected TimingWheel.Timeout m_timeout;
         protected int m_numExecutions;
         protected boolean m_repeatable;
+        protected volatile boolean m_cancelled;
     }
 
     /**
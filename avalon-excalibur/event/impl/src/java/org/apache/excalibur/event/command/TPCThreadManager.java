@@ -73,6 +73,22 @@ public final class TPCThreadManager extends AbstractThreadManager implements Par
      *     <td>At shutdown time, allow currently queued tasks to finish, or immediately quit</td>
      *     <td>false</td>
      *   </tr>
+     *   <tr>
+     *     <td>min-batch-size</td>
+     *     <td>Smallest number of events handed to an EventHandler at once</td>
+     *     <td>1</td>
+     *   </tr>
+     *   <tr>
+     *     <td>max-batch-size</td>
+     *     <td>Largest number of events handed to an EventHandler at once (0 is unlimited)</td>
+     *     <td>0</td>
+     *   </tr>
+     *   <tr>
+     *     <td>target-batch-latency</td>
+     *     <td>Time (in milliseconds) an EventHandler should spend on one batch; the batch size
+     *         is adapted to the measured handler time (0 turns adaptation off)</td>
+     *     <td>0</td>
+     *   </tr>
      * </table>
      *
      * @param parameters  The Parameters object
@@ -91,6 +107,10 @@ public final class TPCThreadManager extends AbstractThreadManager implements Par
         setSleepTime( parameters.getParameterAsLong( "sleep-time", 1000L ) );
 
         m_hardShutdown = ( parameters.getParameterAsBoolean( "force-shutdown", false ) );
+
+        setBatchPolicy( parameters.getParameterAsInteger( "min-batch-size", 1 ),
+                        parameters.getParameterAsInteger( "max-batch-size", 0 ),
+                        parameters.getParameterAsLong( "target-batch-latency", 0L ) );
     }
 
     public void initialize() throws Exception
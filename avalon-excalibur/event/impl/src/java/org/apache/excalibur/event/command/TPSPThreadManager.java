@@ -18,27 +18,62 @@ package org.apache.excalibur.event.command;
 
 import java.util.*;
 
+import org.apache.avalon.framework.logger.AbstractLogEnabled;
 import org.apache.commons.collections.StaticBucketMap;
 import org.apache.excalibur.event.EventHandler;
 import org.apache.excalibur.event.Source;
 import org.apache.excalibur.event.DequeueInterceptor;
 import org.apache.excalibur.event.Queue;
+import org.apache.excalibur.event.impl.AbstractQueue;
 import org.apache.excalibur.event.impl.NullDequeueInterceptor;
+import org.apache.excalibur.instrument.CounterInstrument;
+import org.apache.excalibur.instrument.Instrument;
+import org.apache.excalibur.instrument.Instrumentable;
+import org.apache.excalibur.instrument.ValueInstrument;
 import EDU.oswego.cs.dl.util.concurrent.PooledExecutor;
 
 /**
  * This is a <code>ThreadManager</code> which provides a threadpool per
- * <code>Sink</code> per <code>EventPipeline</code>. ::NOTE:: This is not
- * tested yet!
+ * <code>Sink</code> per <code>EventPipeline</code>.  Each pool is sized by a
+ * {@link ThreadPoolController}, which grows it while events pile up and the
+ * extra threads raise the throughput, and shrinks it again when the stage
+ * is idle.  A single background thread runs the controllers of all stages
+ * at the control interval.
+ *
+ * <p>
+ *   The controllers of the pipelines registered before the manager itself is
+ *   registered with an <code>InstrumentManager</code> are exposed as child
+ *   instrumentables named <code>stage-N</code>.  The instruments of the
+ *   manager add up the threads of all stages.
+ * </p>
  *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  */
-public final class TPSPThreadManager implements ThreadManager
+public final class TPSPThreadManager extends AbstractLogEnabled
+    implements ThreadManager, Instrumentable
 {
+    public static final String DEFAULT_INSTRUMENTABLE_NAME = "thread-manager";
+    public static final String INSTRUMENT_THREADS_NAME = "threads";
+    public static final String INSTRUMENT_THREADS_ADDED_NAME = "threads-added";
+    public static final String INSTRUMENT_THREADS_REMOVED_NAME = "threads-removed";
+
     private final StaticBucketMap m_pipelines = new StaticBucketMap();
     private final int m_maxThreadsPerPool;
     private final int m_threshold;
     private final int m_margin;
+    private final long m_controlInterval;
+
+    /** All ThreadPoolControllers in the order they were created */
+    private final List m_controllers = new ArrayList();
+    private Thread m_controlThread;
+
+    private String m_instrumentableName = DEFAULT_INSTRUMENTABLE_NAME;
+    private final ValueInstrument m_threadsInstrument =
+        new ValueInstrument( INSTRUMENT_THREADS_NAME );
+    private final CounterInstrument m_threadsAddedInstrument =
+        new CounterInstrument( INSTRUMENT_THREADS_ADDED_NAME );
+    private final CounterInstrument m_threadsRemovedInstrument =
+        new CounterInstrument( INSTRUMENT_THREADS_REMOVED_NAME );
 
     /**
      * The default constructor assumes there is a system property named
@@ -72,9 +107,25 @@ public final class TPSPThreadManager implements ThreadManager
      */
     public TPSPThreadManager( int maxThreadPerPool, int threshold, int margin )
     {
-        m_maxThreadsPerPool = maxThreadPerPool;
+        this( maxThreadPerPool, threshold, margin, 1000 );
+    }
+
+    /**
+     * Constructor provides a specified number of threads per processor. If
+     * either value is less then one, then the value is rewritten as one.
+     *
+     * @param maxThreadPerPool  The number of processors in the machine
+     * @param threshold         The number of events before a new thread is started
+     * @param margin            The number of events +/- the threshold for thread evaluation
+     * @param controlInterval   The number of milliseconds between two adjustments of the pools
+     */
+    public TPSPThreadManager( int maxThreadPerPool, int threshold, int margin,
+                              long controlInterval )
+    {
+        m_maxThreadsPerPool = Math.max( 1, maxThreadPerPool );
         m_threshold = threshold;
         m_margin = margin;
+        m_controlInterval = Math.max( 1, controlInterval );
     }
 
     /**
@@ -86,26 +137,33 @@ public final class TPSPThreadManager implements ThreadManager
     {
         Source[] sources = pipeline.getSources();
         EventHandler handler = pipeline.getEventHandler();
-        List sourceList = new ArrayList(sources.length);
+        List controllerList = new ArrayList(sources.length);
 
         for (int i = 0; i < sources.length; i++)
         {
-            PooledExecutor threadPool = new PooledExecutor();
-            threadPool.setMinimumPoolSize(1);
-            threadPool.setMaximumPoolSize(m_maxThreadsPerPool);
-            SourceRunner initRunner = new SourceRunner(sources[i], handler);
-
-            try
+            ThreadPoolController controller = new ThreadPoolController(
+                sources[i], handler, 1, m_maxThreadsPerPool, m_threshold, m_margin );
+            if ( null != getLogger() )
             {
-                threadPool.execute(initRunner);
+                controller.enableLogging( getLogger() );
             }
-            catch ( InterruptedException e )
+
+            synchronized ( this )
             {
+                m_controllers.add( controller );
+                controller.setInstrumentableName( "stage-" + m_controllers.size() );
             }
 
-            sourceList.add(new SourceDequeueInterceptor(initRunner, handler, threadPool, m_threshold, m_margin));
+            controller.start();
+            if ( controller.getThreadCount() > 0 )
+            {
+                m_threadsAddedInstrument.increment( controller.getThreadCount() );
+            }
+            controllerList.add( controller );
         }
-        m_pipelines.put( pipeline, sourceList );
+        m_pipelines.put( pipeline, controllerList );
+
+        startControlThread();
     }
 
     /**
@@ -115,12 +173,27 @@ public final class TPSPThreadManager implements ThreadManager
      */
     public void deregister( EventPipeline pipeline )
     {
-        List sources = (List) m_pipelines.remove( pipeline );
-        Iterator it = sources.iterator();
+        List controllers = (List) m_pipelines.remove( pipeline );
+        if ( null == controllers )
+        {
+            return;
+        }
+
+        Iterator it = controllers.iterator();
         while(it.hasNext())
         {
-            SourceDequeueInterceptor intercept = (SourceDequeueInterceptor)it.next();
-            intercept.stop();
+            ThreadPoolController controller = (ThreadPoolController)it.next();
+            final int threads = controller.getThreadCount();
+            controller.stop();
+            if ( threads > 0 )
+            {
+                m_threadsRemovedInstrument.increment( threads );
+            }
+
+            synchronized ( this )
+            {
+                m_controllers.remove( controller );
+            }
         }
     }
 
@@ -136,8 +209,149 @@ public final class TPSPThreadManager implements ThreadManager
         }
     }
 
+    /**
+     * Start the thread that runs the controllers, unless it is running.
+     */
+    private synchronized void startControlThread()
+    {
+        if ( null == m_controlThread )
+        {
+            m_controlThread = new Thread( new ControlRunner(), "TPSPThreadManager controller" );
+            m_controlThread.setDaemon( true );
+            m_controlThread.start();
+        }
+    }
+
+    /**
+     * Adjust every stage once.
+     *
+     * @param interval  The number of milliseconds since the last adjustment
+     *
+     * @return <code>false</code> if there are no stages left to adjust
+     */
+    private boolean adjustAll( long interval )
+    {
+        final ThreadPoolController[] controllers;
+        synchronized ( this )
+        {
+            if ( m_controllers.isEmpty() )
+            {
+                m_controlThread = null;
+                return false;
+            }
+
+            controllers = (ThreadPoolController[])m_controllers.toArray(
+                new ThreadPoolController[ m_controllers.size() ] );
+        }
+
+        int threads = 0;
+        for ( int i = 0; i < controllers.length; i++ )
+        {
+            final int change = controllers[i].adjust( interval );
+            if ( change > 0 )
+            {
+                m_threadsAddedInstrument.increment( change );
+            }
+            else if ( change < 0 )
+            {
+                m_threadsRemovedInstrument.increment( -change );
+            }
+
+            threads += controllers[i].getThreadCount();
+        }
+
+        m_threadsInstrument.setValue( threads );
+        return true;
+    }
+
+    /*---------------------------------------------------------------
+     * Instrumentable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Sets the name for the Instrumentable.
+     *
+     * @param name The name used to identify a Instrumentable.
+     */
+    public void setInstrumentableName( String name )
+    {
+        m_instrumentableName = name;
+    }
+
+    /**
+     * Gets the name of the Instrumentable.
+     *
+     * @return The name used to identify a Instrumentable.
+     */
+    public String getInstrumentableName()
+    {
+        return m_instrumentableName;
+    }
+
+    /**
+     * Obtain a reference to all the Instruments that the Instrumentable object
+     *  wishes to expose.
+     *
+     * @return An array of the Instruments available for profiling.
+     */
+    public Instrument[] getInstruments()
+    {
+        return new Instrument[]
+        {
+            m_threadsInstrument,
+            m_threadsAddedInstrument,
+            m_threadsRemovedInstrument
+        };
+    }
+
+    /**
+     * Get the ThreadPoolControllers of the stages registered so far.
+     *
+     * @return An array of child Instrumentables.
+     */
+    public synchronized Instrumentable[] getChildInstrumentables()
+    {
+        return (Instrumentable[])m_controllers.toArray(
+            new Instrumentable[ m_controllers.size() ] );
+    }
+
+    /**
+     * The ControlRunner adjusts the stages at the control interval, until
+     * every pipeline has been deregistered.
+     */
+    private final class ControlRunner implements Runnable
+    {
+        public void run()
+        {
+            long last = System.currentTimeMillis();
+
+            do
+            {
+                try
+                {
+                    Thread.sleep( m_controlInterval );
+                }
+                catch ( InterruptedException ie )
+                {
+                    //Nothing to do.
+                }
+
+                final long now = System.currentTimeMillis();
+                final long interval = now - last;
+                last = now;
+
+                if ( !adjustAll( interval ) )
+                {
+                    return;
+                }
+            }
+            while ( true );
+        }
+    }
+
     /**
      * The SourceRunner is used to dequeue events one at a time.
+     *
+     * @deprecated the pools are run by the {@link ThreadPoolController} now
      */
     protected static final class SourceRunner implements Runnable
     {
@@ -173,16 +387,27 @@ public final class TPSPThreadManager implements ThreadManager
                 {
                     m_handler.handleEvent( event );
                 }
-
-                yield();
+                else
+                {
+                    yield();
+                }
             }
         }
 
         /**
-         * A way to make sure we yield the processor up to the next thread.
+         * A way to make sure we yield the processor up to the next thread
+         * when the source is empty.  A source with a timeout set has
+         * already waited in <code>dequeue()</code>, so there is no need to
+         * sleep as well.
          */
-        private static void yield()
+        private void yield()
         {
+            if ( m_source instanceof AbstractQueue
+                 && ( (AbstractQueue) m_source ).getTimeout() > 0 )
+            {
+                return;
+            }
+
             try
             {
                 Thread.sleep(1);
@@ -214,6 +439,8 @@ public final class TPSPThreadManager implements ThreadManager
 
     /**
      * This is used to plug into Queues so that we can intercept calls to the dequeue operation.
+     *
+     * @deprecated the pools are sized by the {@link ThreadPoolController} now
      */
     protected static final class SourceDequeueInterceptor implements DequeueInterceptor
     {
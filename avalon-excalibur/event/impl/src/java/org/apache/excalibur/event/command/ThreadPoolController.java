@@ -0,0 +1,504 @@
+/* 
+ * Copyright 1999-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.event.command;
+
+import java.util.LinkedList;
+
+import org.apache.avalon.framework.logger.AbstractLogEnabled;
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.excalibur.event.EventHandler;
+import org.apache.excalibur.event.Source;
+import org.apache.excalibur.event.impl.AbstractQueue;
+import org.apache.excalibur.instrument.CounterInstrument;
+import org.apache.excalibur.instrument.Instrument;
+import org.apache.excalibur.instrument.Instrumentable;
+import org.apache.excalibur.instrument.ValueInstrument;
+
+import EDU.oswego.cs.dl.util.concurrent.PooledExecutor;
+
+/**
+ * The ThreadPoolController runs the threads of a single stage, that is one
+ * <code>Source</code> of an <code>EventPipeline</code>, and sizes the pool
+ * from what it observes.  The runners record how many events they handled
+ * and how long the <code>EventHandler</code> took; every time
+ * {@link #adjust(long)} is called the controller works out the arrival rate
+ * and service time over the last interval, and moves the number of threads
+ * one step towards the number needed to keep up:
+ *
+ * <ul>
+ *   <li>
+ *     The stage needs <code>arrivals * serviceTime / interval</code> threads
+ *     to keep up with its load.
+ *   </li>
+ *   <li>
+ *     While more than <code>threshold + margin</code> events are waiting,
+ *     a thread is added to work off the backlog.  While the queue is within
+ *     the margin of the threshold, no thread is taken away.
+ *   </li>
+ *   <li>
+ *     If the throughput did not go up after a thread was added, the stage is
+ *     saturated (by locks or I/O rather than by CPU), so the thread is taken
+ *     away again and the pool is kept below that size for a while.
+ *   </li>
+ * </ul>
+ *
+ * <p>
+ *   The decisions are exposed through the instruments of the controller, and
+ *   the design follows the thread pool controller of
+ *   <a href="mailto:mdw@cs.berkeley.edu">Matt Welsh</a>'s SandStorm server.
+ * </p>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class ThreadPoolController extends AbstractLogEnabled
+    implements Instrumentable
+{
+    public static final String DEFAULT_INSTRUMENTABLE_NAME = "stage";
+    public static final String INSTRUMENT_THREADS_NAME = "threads";
+    public static final String INSTRUMENT_QUEUE_SIZE_NAME = "queue-size";
+    public static final String INSTRUMENT_THROUGHPUT_NAME = "throughput";
+    public static final String INSTRUMENT_SERVICE_TIME_NAME = "service-time";
+    public static final String INSTRUMENT_EVENTS_NAME = "events";
+    public static final String INSTRUMENT_THREADS_ADDED_NAME = "threads-added";
+    public static final String INSTRUMENT_THREADS_REMOVED_NAME = "threads-removed";
+
+    /** The weight of the newest measurement in the moving average */
+    private static final double SMOOTHING = 0.3;
+
+    /** The smallest relative gain in throughput that justifies a new thread */
+    private static final double MIN_GAIN = 1.05;
+
+    /** The number of intervals a saturated pool is kept below its size */
+    private static final int SATURATION_INTERVALS = 10;
+
+    private final Source m_source;
+    private final EventHandler m_handler;
+    private final PooledExecutor m_threadPool;
+    private final int m_minThreads;
+    private final int m_maxThreads;
+    private final int m_threshold;
+    private final int m_margin;
+
+    /** The running StageRunners, the oldest first */
+    private final LinkedList m_runners = new LinkedList();
+    private boolean m_stopped;
+
+    /** The events handled and milliseconds spent since the last adjust */
+    private int m_handled;
+    private long m_busyTime;
+
+    /** The state of the control loop, only used by adjust */
+    private double m_serviceTime = -1;
+    private double m_lastThroughput;
+    private int m_lastQueueSize;
+    private boolean m_grew;
+    private int m_ceiling;
+    private int m_saturatedIntervals;
+
+    private String m_instrumentableName = DEFAULT_INSTRUMENTABLE_NAME;
+    private final ValueInstrument m_threadsInstrument;
+    private final ValueInstrument m_queueSizeInstrument;
+    private final ValueInstrument m_throughputInstrument;
+    private final ValueInstrument m_serviceTimeInstrument;
+    private final CounterInstrument m_eventsInstrument;
+    private final CounterInstrument m_threadsAddedInstrument;
+    private final CounterInstrument m_threadsRemovedInstrument;
+
+    /**
+     * Create a new ThreadPoolController.  No threads are started until
+     * {@link #start()} is called.
+     *
+     * @param source      The source to pull events from
+     * @param handler     The handler to send events to
+     * @param minThreads  The smallest number of threads, at least 1
+     * @param maxThreads  The largest number of threads
+     * @param threshold   The number of waiting events above which a thread is added
+     * @param margin      The number of events +/- the threshold for thread evaluation
+     */
+    public ThreadPoolController( final Source source, final EventHandler handler,
+                                 final int minThreads, final int maxThreads,
+                                 final int threshold, final int margin )
+    {
+        if( source == null ) throw new NullPointerException( "source" );
+        if( handler == null ) throw new NullPointerException( "handler" );
+        if( threshold < 0 )
+            throw new IllegalArgumentException( "threshold must not be less then zero" );
+        if( margin < 0 )
+            throw new IllegalArgumentException( "margin must not be less then zero" );
+
+        m_source = source;
+        m_handler = handler;
+        m_minThreads = Math.max( 1, minThreads );
+        m_maxThreads = Math.max( m_minThreads, maxThreads );
+        m_threshold = threshold;
+        m_margin = margin;
+        m_ceiling = m_maxThreads;
+
+        // The controller decides how many runners there are, so the pool
+        // itself must never refuse or queue one.
+        m_threadPool = new PooledExecutor();
+        m_threadPool.setMinimumPoolSize( m_minThreads );
+        m_threadPool.setMaximumPoolSize( Integer.MAX_VALUE );
+
+        m_threadsInstrument = new ValueInstrument( INSTRUMENT_THREADS_NAME );
+        m_queueSizeInstrument = new ValueInstrument( INSTRUMENT_QUEUE_SIZE_NAME );
+        m_throughputInstrument = new ValueInstrument( INSTRUMENT_THROUGHPUT_NAME );
+        m_serviceTimeInstrument = new ValueInstrument( INSTRUMENT_SERVICE_TIME_NAME );
+        m_eventsInstrument = new CounterInstrument( INSTRUMENT_EVENTS_NAME );
+        m_threadsAddedInstrument = new CounterInstrument( INSTRUMENT_THREADS_ADDED_NAME );
+        m_threadsRemovedInstrument = new CounterInstrument( INSTRUMENT_THREADS_REMOVED_NAME );
+    }
+
+    /**
+     * Start the minimum number of threads.  Exceptions thrown by the
+     * handler are logged to the logger set before this call.
+     */
+    public void start()
+    {
+        if( null == getLogger() )
+        {
+            enableLogging( new NullLogger() );
+        }
+
+        while( getThreadCount() < m_minThreads )
+        {
+            if( !addThread() )
+            {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Stop all threads.  Each one finishes the event it is handling.
+     */
+    public void stop()
+    {
+        synchronized( m_runners )
+        {
+            m_stopped = true;
+
+            while( !m_runners.isEmpty() )
+            {
+                ( (StageRunner)m_runners.removeFirst() ).stop();
+            }
+
+            m_threadPool.shutdownAfterProcessingCurrentlyQueuedTasks();
+        }
+
+        m_threadsInstrument.setValue( 0 );
+    }
+
+    /**
+     * Get the number of threads working on the stage.
+     *
+     * @return the number of threads
+     */
+    public int getThreadCount()
+    {
+        synchronized( m_runners )
+        {
+            return m_runners.size();
+        }
+    }
+
+    /**
+     * Get the average time the handler needs per event.
+     *
+     * @return the service time in milliseconds, or -1 if no event has been
+     *         handled yet
+     */
+    public double getServiceTime()
+    {
+        return m_serviceTime;
+    }
+
+    /**
+     * Take the measurements of the last interval and add or remove a thread
+     * if needed.  This method should be called at a regular interval, by a
+     * single thread.
+     *
+     * @param interval  The number of milliseconds since the last call
+     *
+     * @return the change in the number of threads: 1, 0 or -1
+     */
+    public int adjust( final long interval )
+    {
+        final int events;
+        final long busy;
+        synchronized( this )
+        {
+            events = m_handled;
+            busy = m_busyTime;
+            m_handled = 0;
+            m_busyTime = 0;
+        }
+
+        final int queueSize = m_source.size();
+        final int threads = getThreadCount();
+        final double throughput = events * 1000.0 / Math.max( 1L, interval );
+
+        if( events > 0 )
+        {
+            final double perEvent = (double)busy / events;
+            m_serviceTime = ( m_serviceTime < 0 )
+                ? perEvent : m_serviceTime + SMOOTHING * ( perEvent - m_serviceTime );
+        }
+
+        if( m_saturatedIntervals > 0 && --m_saturatedIntervals == 0 )
+        {
+            m_ceiling = m_maxThreads;
+        }
+
+        if( m_grew && queueSize > m_threshold && throughput < m_lastThroughput * MIN_GAIN )
+        {
+            m_ceiling = Math.max( m_minThreads, threads - 1 );
+            m_saturatedIntervals = SATURATION_INTERVALS;
+        }
+
+        final int arrivals = Math.max( 0, events + queueSize - m_lastQueueSize );
+        int needed = ( m_serviceTime > 0 )
+            ? (int)Math.ceil( arrivals * m_serviceTime / Math.max( 1L, interval ) )
+            : 0;
+
+        if( queueSize > m_threshold + m_margin )
+        {
+            needed = Math.max( needed, threads + 1 );
+        }
+        else if( queueSize > 0 && queueSize >= m_threshold - m_margin )
+        {
+            needed = Math.max( needed, threads );
+        }
+
+        final int target = Math.max( m_minThreads, Math.min( needed, m_ceiling ) );
+
+        int change = 0;
+        if( target > threads && addThread() )
+        {
+            m_threadsAddedInstrument.increment();
+            change = 1;
+        }
+        else if( target < threads && removeThread() )
+        {
+            m_threadsRemovedInstrument.increment();
+            change = -1;
+        }
+
+        m_grew = change > 0;
+        m_lastThroughput = throughput;
+        m_lastQueueSize = queueSize;
+
+        m_threadsInstrument.setValue( threads + change );
+        m_queueSizeInstrument.setValue( queueSize );
+        m_throughputInstrument.setValue( (int)throughput );
+        m_serviceTimeInstrument.setValue( (int)Math.max( 0, m_serviceTime ) );
+        if( events > 0 )
+        {
+            m_eventsInstrument.increment( events );
+        }
+
+        return change;
+    }
+
+    private boolean addThread()
+    {
+        synchronized( m_runners )
+        {
+            if( m_stopped )
+            {
+                return false;
+            }
+
+            final StageRunner runner = new StageRunner();
+            try
+            {
+                m_threadPool.execute( runner );
+            }
+            catch( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+
+            m_runners.addLast( runner );
+            return true;
+        }
+    }
+
+    private boolean removeThread()
+    {
+        synchronized( m_runners )
+        {
+            if( m_runners.size() <= m_minThreads )
+            {
+                return false;
+            }
+
+            ( (StageRunner)m_runners.removeLast() ).stop();
+            return true;
+        }
+    }
+
+    private synchronized void record( final long elapsed )
+    {
+        m_handled++;
+        m_busyTime += elapsed;
+    }
+
+    /*---------------------------------------------------------------
+     * Instrumentable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Sets the name for the Instrumentable.
+     *
+     * @param name The name used to identify a Instrumentable.
+     */
+    public void setInstrumentableName( String name )
+    {
+        m_instrumentableName = name;
+    }
+
+    /**
+     * Gets the name of the Instrumentable.
+     *
+     * @return The name used to identify a Instrumentable.
+     */
+    public String getInstrumentableName()
+    {
+        return m_instrumentableName;
+    }
+
+    /**
+     * Obtain a reference to all the Instruments that the Instrumentable object
+     *  wishes to expose.
+     *
+     * @return An array of the Instruments available for profiling.
+     */
+    public Instrument[] getInstruments()
+    {
+        return new Instrument[]
+        {
+            m_threadsInstrument,
+            m_queueSizeInstrument,
+            m_throughputInstrument,
+            m_serviceTimeInstrument,
+            m_eventsInstrument,
+            m_threadsAddedInstrument,
+            m_threadsRemovedInstrument
+        };
+    }
+
+    /**
+     * The ThreadPoolController has no child Instrumentables.
+     *
+     * @return EMPTY_INSTRUMENTABLE_ARRAY
+     */
+    public Instrumentable[] getChildInstrumentables()
+    {
+        return Instrumentable.EMPTY_INSTRUMENTABLE_ARRAY;
+    }
+
+    /**
+     * The StageRunner dequeues events one at a time and measures how long
+     * the handler takes for each.
+     */
+    private final class StageRunner implements Runnable
+    {
+        private volatile boolean m_keepProcessing = true;
+
+        public void run()
+        {
+            try
+            {
+                while( m_keepProcessing )
+                {
+                    final Object event = m_source.dequeue();
+
+                    if( event != null )
+                    {
+                        final long start = System.currentTimeMillis();
+                        handle( event );
+                        record( System.currentTimeMillis() - start );
+                    }
+                    else
+                    {
+                        yield();
+                    }
+                }
+            }
+            finally
+            {
+                // an Error from the handler takes the thread with it, so
+                // make sure the controller does not count it any more
+                if( m_keepProcessing )
+                {
+                    synchronized( m_runners )
+                    {
+                        m_runners.remove( this );
+                    }
+                }
+            }
+        }
+
+        private void handle( final Object event )
+        {
+            try
+            {
+                m_handler.handleEvent( event );
+            }
+            catch( Exception e )
+            {
+                // We want to catch this, because this is the only
+                // place where exceptions happening in this thread
+                // can be logged
+
+                if( getLogger().isErrorEnabled() )
+                {
+                    getLogger().error( "Exception processing event [msg: "
+                                       + e.getMessage() + "]", e );
+                }
+            }
+        }
+
+        /**
+         * Give up the processor while the source is empty, unless the
+         * source has already waited in <code>dequeue()</code>.
+         */
+        private void yield()
+        {
+            if( m_source instanceof AbstractQueue
+                && ( (AbstractQueue)m_source ).getTimeout() > 0 )
+            {
+                return;
+            }
+
+            try
+            {
+                Thread.sleep( 1 );
+            }
+            catch( InterruptedException ie )
+            {
+                //Nothing to do.
+            }
+        }
+
+        void stop()
+        {
+            m_keepProcessing = false;
+        }
+    }
+}
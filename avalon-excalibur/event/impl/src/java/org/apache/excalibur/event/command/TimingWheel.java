@@ -0,0 +1,298 @@
+/* 
+ * Copyright 1999-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.event.command;
+
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel keeps track of a large number of timeouts with
+ * constant time insertion, cancellation and expiry.  Time is divided into
+ * ticks of a fixed duration.  The first wheel has a slot for each of the
+ * next 64 ticks, the second wheel a slot for each of the next 64 runs of
+ * the first wheel, and so on for four levels.  Whenever a wheel completes
+ * a revolution, the next slot of the wheel above it is emptied and its
+ * entries are spread over the wheels below.
+ *
+ * <p>
+ *   Timeouts further away than the last wheel can reach are parked in its
+ *   furthest slot and placed again when that slot comes around, so there is
+ *   no upper limit on the delay.  A timeout never expires before its
+ *   deadline, but may expire up to one tick after it.
+ * </p>
+ *
+ * <p>
+ *   The TimingWheel is not thread safe.  Callers must synchronize access
+ *   to it themselves.
+ * </p>
+ *
+ * <p>
+ *   The design follows George Varghese and Tony Lauck's "Hashed and
+ *   Hierarchical Timing Wheels".
+ * </p>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class TimingWheel
+{
+    private static final int LEVELS = 4;
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+
+    /** The largest number of ticks the wheels can hold */
+    private static final long MAX_TICKS = ( 1L << ( BITS * LEVELS ) ) - 1;
+
+    private final long m_tickDuration;
+    private final long m_startTime;
+
+    /** The sentinel heads of the circular list in each slot */
+    private final Timeout[][] m_wheels;
+
+    /** The last tick that has been processed */
+    private long m_currentTick;
+    private int m_size;
+
+    /**
+     * Create a new TimingWheel.
+     *
+     * @param tickDuration  the number of milliseconds per tick, which is
+     *                      also the precision of the timeouts
+     * @param now           the current time in milliseconds
+     */
+    public TimingWheel( final long tickDuration, final long now )
+    {
+        if( tickDuration < 1 )
+        {
+            throw new IllegalArgumentException( "tickDuration must be at least 1 ms" );
+        }
+
+        m_tickDuration = tickDuration;
+        m_startTime = now;
+        m_currentTick = 0;
+        m_wheels = new Timeout[ LEVELS ][ SLOTS ];
+
+        for( int level = 0; level < LEVELS; level++ )
+        {
+            for( int slot = 0; slot < SLOTS; slot++ )
+            {
+                m_wheels[ level ][ slot ] = new Timeout( null );
+            }
+        }
+    }
+
+    /**
+     * Get the number of milliseconds per tick.
+     *
+     * @return the tick duration
+     */
+    public long getTickDuration()
+    {
+        return m_tickDuration;
+    }
+
+    /**
+     * Get the number of timeouts that have neither expired nor been
+     * cancelled.
+     *
+     * @return the number of pending timeouts
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Schedule a timeout.
+     *
+     * @param payload   the object handed back when the timeout expires
+     * @param deadline  the time in milliseconds at which it should expire
+     * @return the Timeout, which can be used to cancel it
+     */
+    public Timeout schedule( final Object payload, final long deadline )
+    {
+        final Timeout timeout = new Timeout( payload );
+
+        // round up so we never expire early
+        final long ticks = ( deadline - m_startTime + m_tickDuration - 1 ) / m_tickDuration;
+        timeout.m_deadlineTick = Math.max( ticks, m_currentTick + 1 );
+
+        insert( timeout );
+        m_size++;
+
+        return timeout;
+    }
+
+    /**
+     * Cancel a timeout that has not expired yet.
+     *
+     * @param timeout  the Timeout returned by <code>schedule</code>
+     * @return <code>true</code> if the timeout was still pending
+     */
+    public boolean cancel( final Timeout timeout )
+    {
+        if( null == timeout.m_next )
+        {
+            return false;
+        }
+
+        timeout.unlink();
+        m_size--;
+
+        return true;
+    }
+
+    /**
+     * Move the wheels forward to the given time, and collect the payload of
+     * every timeout that has expired on the way.
+     *
+     * @param now      the current time in milliseconds
+     * @param expired  the list the expired payloads are added to
+     */
+    public void expire( final long now, final List expired )
+    {
+        final long targetTick = ( now - m_startTime ) / m_tickDuration;
+
+        while( m_currentTick < targetTick )
+        {
+            m_currentTick++;
+
+            final int index = (int)( m_currentTick & MASK );
+            if( 0 == index )
+            {
+                cascade();
+            }
+
+            final Timeout head = m_wheels[ 0 ][ index ];
+            while( head.m_next != head )
+            {
+                final Timeout timeout = head.m_next;
+                timeout.unlink();
+                m_size--;
+
+                expired.add( timeout.m_payload );
+            }
+        }
+    }
+
+    /**
+     * Spread the entries of the next slot of each wheel that has just
+     * completed a revolution over the wheels below it.
+     */
+    private void cascade()
+    {
+        for( int level = 1; level < LEVELS; level++ )
+        {
+            final int index = (int)( ( m_currentTick >> ( BITS * level ) ) & MASK );
+            final Timeout head = m_wheels[ level ][ index ];
+
+            // detach the whole list first, so an entry that lands in the
+            // same slot again is not visited twice
+            Timeout timeout = head.m_next;
+            head.m_prev.m_next = null;
+            head.m_next = head;
+            head.m_prev = head;
+
+            while( timeout != head && null != timeout )
+            {
+                final Timeout next = timeout.m_next;
+                insert( timeout );
+                timeout = next;
+            }
+
+            if( 0 != index )
+            {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Link a timeout into the slot that covers its deadline.  A deadline of
+     * the current tick goes into the slot that is about to be expired.
+     */
+    private void insert( final Timeout timeout )
+    {
+        long deadline = timeout.m_deadlineTick;
+        long delta = deadline - m_currentTick;
+
+        if( delta > MAX_TICKS )
+        {
+            delta = MAX_TICKS;
+            deadline = m_currentTick + MAX_TICKS;
+        }
+
+        int level = 0;
+        while( level < LEVELS - 1 && delta >= ( 1L << ( BITS * ( level + 1 ) ) ) )
+        {
+            level++;
+        }
+
+        final int index = (int)( ( deadline >> ( BITS * level ) ) & MASK );
+        timeout.linkBefore( m_wheels[ level ][ index ] );
+    }
+
+    /**
+     * A pending timeout.  Each Timeout is a node in the circular list of the
+     * slot it is waiting in; it is not linked anywhere once it has expired
+     * or was cancelled.
+     */
+    public static final class Timeout
+    {
+        private final Object m_payload;
+        private long m_deadlineTick;
+        private Timeout m_prev;
+        private Timeout m_next;
+
+        private Timeout( final Object payload )
+        {
+            m_payload = payload;
+
+            if( null == payload )
+            {
+                // a sentinel is an empty circular list
+                m_prev = this;
+                m_next = this;
+            }
+        }
+
+        /**
+         * Get the object that was scheduled.
+         *
+         * @return the payload
+         */
+        public Object getPayload()
+        {
+            return m_payload;
+        }
+
+        private void linkBefore( final Timeout head )
+        {
+            m_next = head;
+            m_prev = head.m_prev;
+            m_prev.m_next = this;
+            head.m_prev = this;
+        }
+
+        private void unlink()
+        {
+            m_prev.m_next = m_next;
+            m_next.m_prev = m_prev;
+            m_prev = null;
+            m_next = null;
+        }
+    }
+}
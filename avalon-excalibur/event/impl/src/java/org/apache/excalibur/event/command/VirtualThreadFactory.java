@@ -0,0 +1,178 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.event.command;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import EDU.oswego.cs.dl.util.concurrent.ThreadFactory;
+
+/**
+ * A util.concurrent <code>ThreadFactory</code> that creates virtual threads.
+ * A virtual thread does not hold on to an operating system thread while it
+ * blocks, so a thread manager can afford one of them for every source it
+ * watches, however many there are.
+ *
+ * <p>
+ *   The virtual threads are created through reflection, so this class works
+ *   on any JVM.  Without virtual threads (before Java 21) the factory creates
+ *   daemon platform threads instead; {@link #isVirtual()} tells which is the
+ *   case.
+ * </p>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class VirtualThreadFactory implements ThreadFactory
+{
+    /** Thread.ofVirtual(), or null if the JVM has no virtual threads */
+    private static final Method OF_VIRTUAL;
+
+    /** Thread.Builder.name( String, long ) */
+    private static final Method NAME;
+
+    /** Thread.Builder.factory() */
+    private static final Method FACTORY;
+
+    /** java.util.concurrent.ThreadFactory.newThread( Runnable ) */
+    private static final Method NEW_THREAD;
+
+    static
+    {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method newThread = null;
+        try
+        {
+            final Class builderClass = Class.forName( "java.lang.Thread$Builder" );
+            final Class factoryClass = Class.forName( "java.util.concurrent.ThreadFactory" );
+
+            ofVirtual = Thread.class.getMethod( "ofVirtual", new Class[ 0 ] );
+            name = builderClass.getMethod( "name", new Class[]{String.class, Long.TYPE} );
+            factory = builderClass.getMethod( "factory", new Class[ 0 ] );
+            newThread = factoryClass.getMethod( "newThread", new Class[]{Runnable.class} );
+        }
+        catch( Exception e )
+        {
+            ofVirtual = null;
+        }
+
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        NEW_THREAD = newThread;
+    }
+
+    private final String m_prefix;
+
+    /** The java.util.concurrent.ThreadFactory, or null for platform threads */
+    private final Object m_factory;
+
+    private int m_count = 0;
+
+    /**
+     * Create a new VirtualThreadFactory.
+     *
+     * @param prefix  the threads are named prefix0, prefix1, ...
+     */
+    public VirtualThreadFactory( final String prefix )
+    {
+        m_prefix = prefix;
+
+        Object factory = null;
+        if( null != OF_VIRTUAL )
+        {
+            try
+            {
+                final Object builder = OF_VIRTUAL.invoke( null, new Object[ 0 ] );
+                final Object named = NAME.invoke( builder, new Object[]{prefix, new Long( 0 )} );
+                factory = FACTORY.invoke( named, new Object[ 0 ] );
+            }
+            catch( Exception e )
+            {
+                // fall back on platform threads
+                factory = null;
+            }
+        }
+        m_factory = factory;
+    }
+
+    /**
+     * Whether the JVM supports virtual threads.
+     *
+     * @return <code>true</code> if virtual threads are available
+     */
+    public static boolean isVirtualThreadSupported()
+    {
+        return null != OF_VIRTUAL;
+    }
+
+    /**
+     * Whether this factory creates virtual threads.
+     *
+     * @return <code>true</code> for virtual threads, <code>false</code> for
+     *         daemon platform threads
+     */
+    public boolean isVirtual()
+    {
+        return null != m_factory;
+    }
+
+    /**
+     * Create a new thread, which is not started yet.
+     *
+     * @param run  the Runnable the thread runs
+     * @return the thread
+     */
+    public Thread newThread( final Runnable run )
+    {
+        if( null == m_factory )
+        {
+            final int count;
+            synchronized( this )
+            {
+                count = m_count++;
+            }
+
+            final Thread thread = new Thread( run, m_prefix + count );
+            thread.setDaemon( true );
+            return thread;
+        }
+
+        try
+        {
+            return (Thread)NEW_THREAD.invoke( m_factory, new Object[]{run} );
+        }
+        catch( IllegalAccessException iae )
+        {
+            throw new IllegalStateException( "Unable to create a virtual thread: " + iae );
+        }
+        catch( InvocationTargetException ite )
+        {
+            final Throwable cause = ite.getTargetException();
+            if( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException)cause;
+            }
+            else if( cause instanceof Error )
+            {
+                throw (Error)cause;
+            }
+            throw new IllegalStateException( "Unable to create a virtual thread: " + cause );
+        }
+    }
+}
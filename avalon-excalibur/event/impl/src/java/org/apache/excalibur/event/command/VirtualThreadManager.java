@@ -0,0 +1,265 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.event.command;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.avalon.framework.activity.Disposable;
+import org.apache.avalon.framework.activity.Initializable;
+import org.apache.avalon.framework.logger.AbstractLogEnabled;
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.avalon.framework.parameters.ParameterException;
+import org.apache.avalon.framework.parameters.Parameterizable;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.commons.collections.StaticBucketMap;
+import org.apache.excalibur.event.EventHandler;
+import org.apache.excalibur.event.Source;
+
+/**
+ * This is a <code>ThreadManager</code> that runs each <code>Source</code> of
+ * every registered <code>EventPipeline</code> on a virtual thread of its own.
+ * Like the {@link BlockingThreadManager}, each thread blocks inside the
+ * <code>dequeue</code> call until an event arrives, but a blocked virtual
+ * thread does not hold on to an operating system thread, so there is no
+ * practical limit on the number of sources.
+ *
+ * <p>
+ *   The sources should be queues that honour the timeout, such as the
+ *   <code>DefaultQueue</code> or the <code>ConcurrentQueue</code>.  On JVMs
+ *   without virtual threads, daemon platform threads are used instead.
+ * </p>
+ *
+ * @see VirtualThreadFactory
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class VirtualThreadManager extends AbstractLogEnabled
+    implements ThreadManager, Parameterizable, Initializable, Disposable
+{
+    /** The runners for each pipeline we are managing */
+    private final StaticBucketMap m_pipelines = new StaticBucketMap();
+
+    /** The thread of each runner that has not been stopped yet */
+    private final StaticBucketMap m_threads = new StaticBucketMap();
+
+    private VirtualThreadFactory m_threadFactory;
+    private long m_blockTimeout = 1000L;
+    private boolean m_hardShutdown = false;
+    private int m_minBatchSize = 1;
+    private int m_maxBatchSize = 0;
+    private long m_targetBatchLatency = 0L;
+
+    /** Whether this class has been initialized or not */
+    private volatile boolean m_initialized = false;
+
+    /**
+     * The following parameters can be set for this class:
+     *
+     * <table>
+     *   <tr>
+     *     <th>Name</th> <th>Description</th> <th>Default Value</th>
+     *   </tr>
+     *   <tr>
+     *     <td>block-timeout</td>
+     *     <td>Time (in milliseconds) a thread blocks on an empty source
+     *         before it checks whether it should keep running</td>
+     *     <td>1000</td>
+     *   </tr>
+     *   <tr>
+     *     <td>force-shutdown</td>
+     *     <td>At shutdown time, allow currently handled events to finish, or immediately quit</td>
+     *     <td>false</td>
+     *   </tr>
+     *   <tr>
+     *     <td>min-batch-size</td>
+     *     <td>Smallest number of events handed to an EventHandler at once</td>
+     *     <td>1</td>
+     *   </tr>
+     *   <tr>
+     *     <td>max-batch-size</td>
+     *     <td>Largest number of events handed to an EventHandler at once (0 is unlimited)</td>
+     *     <td>0</td>
+     *   </tr>
+     *   <tr>
+     *     <td>target-batch-latency</td>
+     *     <td>Time (in milliseconds) an EventHandler should spend on one batch; the batch size
+     *         is adapted to the measured handler time (0 turns adaptation off)</td>
+     *     <td>0</td>
+     *   </tr>
+     * </table>
+     *
+     * @param parameters  The Parameters object
+     *
+     * @throws ParameterException if there is a problem with the parameters.
+     */
+    public void parameterize( Parameters parameters ) throws ParameterException
+    {
+        m_blockTimeout = Math.max( 1L, parameters.getParameterAsLong( "block-timeout", 1000L ) );
+
+        m_hardShutdown = ( parameters.getParameterAsBoolean( "force-shutdown", false ) );
+
+        m_minBatchSize = parameters.getParameterAsInteger( "min-batch-size", 1 );
+        m_maxBatchSize = parameters.getParameterAsInteger( "max-batch-size", 0 );
+        m_targetBatchLatency = parameters.getParameterAsLong( "target-batch-latency", 0L );
+    }
+
+    public void initialize() throws Exception
+    {
+        if( m_initialized )
+        {
+            throw new IllegalStateException( "ThreadManager is already initailized" );
+        }
+
+        m_threadFactory = new VirtualThreadFactory( "VirtualThreadManager-" );
+
+        if( null == getLogger() )
+        {
+            this.enableLogging( new NullLogger() );
+        }
+
+        if( !m_threadFactory.isVirtual() && getLogger().isWarnEnabled() )
+        {
+            getLogger().warn( "Virtual threads are not available, using platform threads" );
+        }
+
+        m_initialized = true;
+    }
+
+    /**
+     * Register an EventPipeline with the ThreadManager.  A thread is
+     * started for each of the pipeline's sources right away.
+     *
+     * @param pipeline  The pipeline we are registering
+     */
+    public void register( EventPipeline pipeline )
+    {
+        if( !m_initialized )
+        {
+            throw new IllegalStateException( "ThreadManager must be initialized before "
+                                             + "registering a pipeline" );
+        }
+
+        Source[] sources = pipeline.getSources();
+        EventHandler handler = pipeline.getEventHandler();
+        List runners = new ArrayList( sources.length );
+
+        for( int i = 0; i < sources.length; i++ )
+        {
+            sources[ i ].setTimeout( m_blockTimeout );
+
+            BlockingThreadManager.SourceRunner runner = new BlockingThreadManager.SourceRunner(
+                sources[ i ], handler,
+                new BatchController( m_minBatchSize, m_maxBatchSize, m_targetBatchLatency ) );
+            runner.enableLogging( getLogger() );
+
+            Thread thread = m_threadFactory.newThread( runner );
+            m_threads.put( runner, thread );
+            thread.start();
+            runners.add( runner );
+        }
+
+        m_pipelines.put( pipeline, runners );
+    }
+
+    /**
+     * Deregister an EventPipeline with the ThreadManager.  The threads of
+     * the pipeline stop after the event batch they are handling, or when
+     * their current <code>dequeue</code> times out.
+     *
+     * @param pipeline  The pipeline to unregister
+     */
+    public void deregister( EventPipeline pipeline )
+    {
+        if( !m_initialized )
+        {
+            throw new IllegalStateException( "ThreadManager must be initialized before "
+                                             + "deregistering a pipeline" );
+        }
+
+        List runners = (List)m_pipelines.remove( pipeline );
+
+        if( null != runners )
+        {
+            Iterator it = runners.iterator();
+            while( it.hasNext() )
+            {
+                BlockingThreadManager.SourceRunner runner =
+                    (BlockingThreadManager.SourceRunner)it.next();
+                runner.stop();
+                m_threads.remove( runner );
+            }
+        }
+    }
+
+    /**
+     * Deregisters all EventPipelines from this ThreadManager
+     */
+    public void deregisterAll()
+    {
+        Iterator it = m_pipelines.keySet().iterator();
+        while( it.hasNext() )
+        {
+            deregister( (EventPipeline)it.next() );
+        }
+    }
+
+    /**
+     * Get rid of the ThreadManager.  Waits up to the block timeout for the
+     * threads to finish.
+     */
+    public void dispose()
+    {
+        final List threads = new ArrayList( m_threads.values() );
+
+        deregisterAll();
+
+        if( m_hardShutdown )
+        {
+            Iterator it = threads.iterator();
+            while( it.hasNext() )
+            {
+                ( (Thread)it.next() ).interrupt();
+            }
+        }
+
+        final long end = System.currentTimeMillis() + m_blockTimeout;
+        try
+        {
+            Iterator it = threads.iterator();
+            while( it.hasNext() )
+            {
+                final long remaining = end - System.currentTimeMillis();
+                final Thread thread = (Thread)it.next();
+                if( remaining > 0 )
+                {
+                    thread.join( remaining );
+                }
+                if( thread.isAlive() )
+                {
+                    getLogger().warn( "Threads took longer than " + m_blockTimeout +
+                                      " ms to shut down" );
+                    break;
+                }
+            }
+        }
+        catch( InterruptedException ie )
+        {
+            getLogger().warn( "ThreadManager was interrupted while waiting for shutdown to complete.", ie );
+        }
+    }
+}
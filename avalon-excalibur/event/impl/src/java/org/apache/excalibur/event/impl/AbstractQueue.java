@@ -85,6 +85,17 @@ public abstract class AbstractQueue implements Queue
         }
     }
 
+    /**
+     * Get the timeout for the <code>Queue</code> in milliseconds.  A value
+     * of 0 means that the <code>dequeue</code> methods do not wait at all.
+     *
+     * @return the number of milliseconds to block waiting for events
+     */
+    public long getTimeout()
+    {
+        return m_timeout;
+    }
+
     /**
      * Encapsulates the logic to block the <code>Queue</code> for the amount
      * of time specified by the timeout.
@@ -0,0 +1,649 @@
+/* 
+ * Copyright 1999-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.event.impl;
+
+import org.apache.excalibur.event.EnqueuePredicate;
+import org.apache.excalibur.event.PreparedEnqueue;
+import org.apache.excalibur.event.SinkException;
+import org.apache.excalibur.event.SinkFullException;
+
+import EDU.oswego.cs.dl.util.concurrent.CondVar;
+import EDU.oswego.cs.dl.util.concurrent.ReentrantLock;
+import EDU.oswego.cs.dl.util.concurrent.SynchronizedInt;
+
+/**
+ * A <code>Queue</code> for many producers and many consumers.  Unlike the
+ * <code>DefaultQueue</code>, producers and consumers never contend for the
+ * same lock: the enqueue side and the dequeue side each have their own
+ * mutex, and the only state they share is the element count.
+ *
+ * <p>
+ *   Elements are kept in array segments.  A bounded queue uses a single
+ *   segment of the requested capacity as a ring buffer, so it never
+ *   allocates after construction.  An unbounded queue links new segments
+ *   onto the tail as needed, which costs one allocation for every
+ *   segment's worth of elements instead of one per element.
+ * </p>
+ *
+ * <p>
+ *   The queue honours the <code>EnqueuePredicate</code> and
+ *   <code>DequeueInterceptor</code> just like the <code>DefaultQueue</code>,
+ *   and reserved elements from a <code>PreparedEnqueue</code> count
+ *   towards both <code>size()</code> and the capacity.
+ * </p>
+ *
+ * <p>
+ *   When a timeout is set, the <code>dequeue</code> methods wait up to that
+ *   many milliseconds for an element to be enqueued instead of returning
+ *   empty-handed.  A producer only touches the take lock to wake a
+ *   consumer when the queue goes from empty to non-empty.
+ * </p>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class ConcurrentQueue extends AbstractQueue
+{
+    /** The number of elements in each segment of an unbounded queue */
+    private static final int SEGMENT_SIZE = 256;
+
+    /** Guards the tail segment and m_reserve */
+    private final ReentrantLock m_putLock;
+    /** Guards the head segment and m_waiting */
+    private final ReentrantLock m_takeLock;
+    /** Signalled when elements become available to waiting consumers */
+    private final CondVar m_notEmpty;
+    /** The number of elements that can be dequeued */
+    private final SynchronizedInt m_count;
+    private final int m_capacity;
+    private Segment m_head;
+    private Segment m_tail;
+    private int m_waiting;
+    protected int m_reserve;
+
+    /**
+     * Construct a new ConcurrentQueue with the specified number of
+     * elements.  If the number of elements is greater than zero, then the
+     * <code>Queue</code> is bounded by that number and the elements are
+     * stored in a fixed ring buffer.  Otherwise, the <code>Queue</code> is
+     * not bounded at all.
+     *
+     * @param  size  The maximum number of elements in the <code>Queue</code>.
+     *               Any number less than 1 means there is no limit.
+     */
+    public ConcurrentQueue( int size )
+    {
+        this( size, new NullEnqueuePredicate() );
+    }
+
+    /**
+     * Construct a new unbounded ConcurrentQueue that screens its elements
+     * with the supplied <code>EnqueuePredicate</code>.
+     *
+     * @param predicate  The predicate used to accept or reject elements
+     */
+    public ConcurrentQueue( EnqueuePredicate predicate )
+    {
+        this( -1, predicate );
+    }
+
+    /**
+     * Construct a new ConcurrentQueue with both a capacity and an
+     * <code>EnqueuePredicate</code>.
+     *
+     * @param size       The maximum number of elements, less than 1 means
+     *                   there is no limit.
+     * @param predicate  The predicate used to accept or reject elements
+     */
+    public ConcurrentQueue( int size, EnqueuePredicate predicate )
+    {
+        setEnqueuePredicate( predicate );
+
+        m_capacity = ( size > 0 ) ? size : -1;
+        m_putLock = new ReentrantLock();
+        m_takeLock = new ReentrantLock();
+        m_notEmpty = new CondVar( m_takeLock );
+        m_count = new SynchronizedInt( 0 );
+        m_reserve = 0;
+
+        m_head = new Segment( ( m_capacity > 0 ) ? m_capacity : SEGMENT_SIZE );
+        m_tail = m_head;
+    }
+
+    /**
+     * Create an unbounded ConcurrentQueue.
+     */
+    public ConcurrentQueue()
+    {
+        this( -1 );
+    }
+
+    /**
+     * Return the number of elements currently in the <code>Queue</code>.
+     *
+     * @return <code>int</code> representing the number of elements (including the reserved ones).
+     */
+    public int size()
+    {
+        return m_count.get() + m_reserve;
+    }
+
+    /**
+     * Return the maximum number of elements that will fit in the
+     * <code>Queue</code>.  A number below 1 indicates an unbounded
+     * <code>Queue</code>, which means there is no limit.
+     *
+     * @return <code>int</code> representing the maximum number of elements
+     */
+    public int maxSize()
+    {
+        return m_capacity;
+    }
+
+    public PreparedEnqueue prepareEnqueue( final Object[] elements )
+        throws SinkException
+    {
+        PreparedEnqueue enqueue = null;
+
+        try
+        {
+            m_putLock.acquire();
+            try
+            {
+                if( hasRoomFor( elements.length )
+                    && getEnqueuePredicate().accept( elements, this ) )
+                {
+                    enqueue = new ConcurrentPreparedEnqueue( this, elements );
+                }
+                else
+                {
+                    throw new SinkFullException( "Not enough room to enqueue these elements." );
+                }
+            }
+            finally
+            {
+                m_putLock.release();
+            }
+        }
+        catch( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            if( null == enqueue )
+            {
+                throw new SinkException( "The mutex was interrupted before it could be released" );
+            }
+        }
+
+        return enqueue;
+    }
+
+    public boolean tryEnqueue( final Object element )
+    {
+        boolean success = false;
+
+        try
+        {
+            m_putLock.acquire();
+            try
+            {
+                success = hasRoomFor( 1 )
+                    && getEnqueuePredicate().accept( element, this );
+
+                if( success )
+                {
+                    addElement( element );
+                    publish( 1 );
+                }
+            }
+            finally
+            {
+                m_putLock.release();
+            }
+        }
+        catch( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        return success;
+    }
+
+    public void enqueue( final Object[] elements )
+        throws SinkException
+    {
+        try
+        {
+            m_putLock.acquire();
+            try
+            {
+                if( !hasRoomFor( elements.length )
+                    || !getEnqueuePredicate().accept( elements, this ) )
+                {
+                    throw new SinkFullException( "Not enough room to enqueue these elements." );
+                }
+
+                addElements( elements );
+            }
+            finally
+            {
+                m_putLock.release();
+            }
+        }
+        catch( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            throw new SinkException( "The queue was interrupted before the elements could be enqueued" );
+        }
+    }
+
+    public void enqueue( final Object element )
+        throws SinkException
+    {
+        try
+        {
+            m_putLock.acquire();
+            try
+            {
+                if( !hasRoomFor( 1 )
+                    || !getEnqueuePredicate().accept( element, this ) )
+                {
+                    throw new SinkFullException( "Not enough room to enqueue these elements." );
+                }
+
+                addElement( element );
+                publish( 1 );
+            }
+            finally
+            {
+                m_putLock.release();
+            }
+        }
+        catch( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            throw new SinkException( "The queue was interrupted before the elements could be enqueued" );
+        }
+    }
+
+    public Object[] dequeue( final int numElements )
+    {
+        getDequeueInterceptor().before( this );
+        Object[] elements = EMPTY_ARRAY;
+
+        try
+        {
+            if( m_takeLock.attempt( m_timeout ) )
+            {
+                try
+                {
+                    awaitElements();
+                    elements = retrieveElements( Math.min( m_count.get(),
+                                                           numElements ) );
+                }
+                finally
+                {
+                    m_takeLock.release();
+                }
+            }
+        }
+        catch( InterruptedException ie )
+        {
+            // Nothing was taken; let the caller see the interrupt.
+            Thread.currentThread().interrupt();
+        }
+
+        getDequeueInterceptor().after( this );
+        return elements;
+    }
+
+    public Object[] dequeueAll()
+    {
+        getDequeueInterceptor().before( this );
+        Object[] elements = EMPTY_ARRAY;
+
+        try
+        {
+            if( m_takeLock.attempt( m_timeout ) )
+            {
+                try
+                {
+                    awaitElements();
+                    elements = retrieveElements( m_count.get() );
+                }
+                finally
+                {
+                    m_takeLock.release();
+                }
+            }
+        }
+        catch( InterruptedException ie )
+        {
+            // Nothing was taken; let the caller see the interrupt.
+            Thread.currentThread().interrupt();
+        }
+
+        getDequeueInterceptor().after( this );
+        return elements;
+    }
+
+    public Object dequeue()
+    {
+        getDequeueInterceptor().before( this );
+        Object element = null;
+
+        try
+        {
+            if( m_takeLock.attempt( m_timeout ) )
+            {
+                try
+                {
+                    awaitElements();
+                    if( m_count.get() > 0 )
+                    {
+                        element = removeElement();
+                        m_count.decrement();
+                        signalNotEmpty();
+                    }
+                }
+                finally
+                {
+                    m_takeLock.release();
+                }
+            }
+        }
+        catch( InterruptedException ie )
+        {
+            // Nothing was taken; let the caller see the interrupt.
+            Thread.currentThread().interrupt();
+        }
+
+        getDequeueInterceptor().after( this );
+        return element;
+    }
+
+    /**
+     * Checks the hard capacity of a bounded queue.  The caller must hold
+     * the put lock; consumers can only make the count smaller in the
+     * meantime, so a positive answer stays valid.
+     *
+     * @param numElements  the number of elements about to be added
+     * @return <code>true</code> if they fit
+     */
+    private boolean hasRoomFor( final int numElements )
+    {
+        return m_capacity < 0 || size() + numElements <= m_capacity;
+    }
+
+    /**
+     * Adds all the elements and only then publishes them to the
+     * consumers, so a concurrent dequeue never sees part of the array.
+     * The caller must hold the put lock.
+     */
+    private void addElements( final Object[] elements )
+    {
+        final int len = elements.length;
+
+        for( int i = 0; i < len; i++ )
+        {
+            addElement( elements[ i ] );
+        }
+
+        publish( len );
+    }
+
+    /**
+     * Makes the last <code>numElements</code> added elements visible to the
+     * consumers.  If the queue was empty and consumers may be blocked in a
+     * <code>dequeue</code>, one of them is woken up.  The caller must hold
+     * the put lock.
+     */
+    private void publish( final int numElements )
+    {
+        final int count = m_count.add( numElements );
+
+        if( count == numElements && m_timeout > 0 )
+        {
+            try
+            {
+                m_takeLock.acquire();
+                try
+                {
+                    signalNotEmpty();
+                }
+                finally
+                {
+                    m_takeLock.release();
+                }
+            }
+            catch( InterruptedException ie )
+            {
+                // The elements are already visible; a waiting consumer
+                // will pick them up when its timeout expires.
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits until an element is available or the timeout has passed.  Does
+     * not wait at all when no timeout is set.  The caller must hold the
+     * take lock, which is released while waiting.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private void awaitElements() throws InterruptedException
+    {
+        if( m_timeout <= 0 || m_count.get() > 0 )
+        {
+            return;
+        }
+
+        final long end = System.currentTimeMillis() + m_timeout;
+        long remaining = m_timeout;
+
+        m_waiting++;
+        try
+        {
+            while( m_count.get() == 0 && remaining > 0 )
+            {
+                m_notEmpty.timedwait( remaining );
+                remaining = end - System.currentTimeMillis();
+            }
+        }
+        finally
+        {
+            m_waiting--;
+        }
+    }
+
+    /**
+     * Wakes up one waiting consumer if there is anything for it to take.
+     * The caller must hold the take lock.
+     */
+    private void signalNotEmpty()
+    {
+        if( m_waiting > 0 && m_count.get() > 0 )
+        {
+            m_notEmpty.signal();
+        }
+    }
+
+    /**
+     * Stores an element in the tail segment without publishing it.  The
+     * caller must hold the put lock and call <code>publish</code>
+     * afterwards; the synchronization on the count is what makes the slot
+     * visible to the consumer threads.
+     */
+    private void addElement( final Object element )
+    {
+        Segment tail = m_tail;
+
+        if( tail.m_putIndex == tail.m_slots.length )
+        {
+            if( m_capacity > 0 )
+            {
+                tail.m_putIndex = 0;
+            }
+            else
+            {
+                final Segment next = new Segment( SEGMENT_SIZE );
+                tail.m_next = next;
+                m_tail = next;
+                tail = next;
+            }
+        }
+
+        tail.m_slots[ tail.m_putIndex++ ] = element;
+    }
+
+    /**
+     * Removes an element from the head segment.  The caller must hold the
+     * take lock, must have seen a positive count, and must decrement the
+     * count afterwards.
+     */
+    private Object removeElement()
+    {
+        Segment head = m_head;
+
+        if( head.m_takeIndex == head.m_slots.length )
+        {
+            if( m_capacity > 0 )
+            {
+                head.m_takeIndex = 0;
+            }
+            else
+            {
+                head = head.m_next;
+                m_head = head;
+            }
+        }
+
+        final Object element = head.m_slots[ head.m_takeIndex ];
+        head.m_slots[ head.m_takeIndex++ ] = null;
+
+        return element;
+    }
+
+    /**
+     * Removes exactly <code>count</code> elements.  The caller must hold
+     * the take lock and pass a count it has seen in <code>m_count</code>.
+     *
+     * @param count number of elements to remove/return
+     * @return requested number of elements
+     */
+    private Object[] retrieveElements( final int count )
+    {
+        if( count <= 0 )
+        {
+            return EMPTY_ARRAY;
+        }
+
+        final Object[] elements = new Object[ count ];
+
+        for( int i = 0; i < count; i++ )
+        {
+            elements[ i ] = removeElement();
+        }
+
+        m_count.subtract( count );
+        signalNotEmpty();
+        return elements;
+    }
+
+    /**
+     * One block of element slots.  The put index is only touched by the
+     * thread holding the put lock and the take index by the thread holding
+     * the take lock.
+     */
+    private static final class Segment
+    {
+        private final Object[] m_slots;
+        private int m_putIndex;
+        private int m_takeIndex;
+        private Segment m_next;
+
+        private Segment( final int size )
+        {
+            m_slots = new Object[ size ];
+        }
+    }
+
+    private static final class ConcurrentPreparedEnqueue implements PreparedEnqueue
+    {
+        private final ConcurrentQueue m_parent;
+        private Object[] m_elements;
+
+        private ConcurrentPreparedEnqueue( ConcurrentQueue parent, Object[] elements )
+        {
+            m_parent = parent;
+            m_elements = elements;
+            m_parent.m_reserve += elements.length;
+        }
+
+        public void commit()
+        {
+            if( null == m_elements )
+            {
+                throw new IllegalStateException( "This PreparedEnqueue has already been processed!" );
+            }
+
+            try
+            {
+                m_parent.m_putLock.acquire();
+                try
+                {
+                    m_parent.m_reserve -= m_elements.length;
+                    m_parent.addElements( m_elements );
+                    m_elements = null;
+                }
+                finally
+                {
+                    m_parent.m_putLock.release();
+                }
+            }
+            catch( InterruptedException ie )
+            {
+                throw new IllegalStateException( "The commit was interrupted before the elements were published" );
+            }
+        }
+
+        public void abort()
+        {
+            if( null == m_elements )
+            {
+                throw new IllegalStateException( "This PreparedEnqueue has already been processed!" );
+            }
+
+            try
+            {
+                m_parent.m_putLock.acquire();
+                try
+                {
+                    m_parent.m_reserve -= m_elements.length;
+                    m_elements = null;
+                }
+                finally
+                {
+                    m_parent.m_putLock.release();
+                }
+            }
+            catch( InterruptedException ie )
+            {
+                throw new IllegalStateException( "The abort was interrupted before the reservation was released" );
+            }
+        }
+    }
+}
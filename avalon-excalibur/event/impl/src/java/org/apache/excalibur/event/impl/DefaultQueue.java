@@ -23,6 +23,7 @@ import org.apache.excalibur.event.PreparedEnqueue;
 import org.apache.excalibur.event.SinkException;
 import org.apache.excalibur.event.SinkFullException;
 
+import EDU.oswego.cs.dl.util.concurrent.CondVar;
 import EDU.oswego.cs.dl.util.concurrent.ReentrantLock;
 
 /**
@@ -30,12 +31,20 @@ import EDU.oswego.cs.dl.util.concurrent.ReentrantLock;
  * thread safe, however the overhead in synchronization costs a few extra
  * milliseconds.
  *
+ * <p>
+ *   When a timeout is set, the <code>dequeue</code> methods wait up to that
+ *   many milliseconds for an element to be enqueued instead of returning
+ *   empty-handed, and are woken as soon as an element arrives.
+ * </p>
+ *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  */
 public final class DefaultQueue extends AbstractQueue
 {
     private final Buffer m_elements;
     private final ReentrantLock m_mutex;
+    private final CondVar m_notEmpty;
+    private int m_waiting;
     protected int m_reserve;
     private final int m_maxSize;
 
@@ -58,6 +67,7 @@ public final class DefaultQueue extends AbstractQueue
         setEnqueuePredicate( predicate );
 
         m_mutex = new ReentrantLock();
+        m_notEmpty = new CondVar( m_mutex );
         m_elements = new UnboundedFifoBuffer();
         m_reserve = 0;
         m_maxSize = -1;
@@ -142,6 +152,7 @@ public final class DefaultQueue extends AbstractQueue
                 if ( success )
                 {
                     m_elements.add( element );
+                    signalNotEmpty();
                 }
             }
             finally
@@ -175,6 +186,8 @@ public final class DefaultQueue extends AbstractQueue
                 {
                     m_elements.add( elements[ i ] );
                 }
+
+                signalNotEmpty();
             }
             finally
             {
@@ -200,6 +213,7 @@ public final class DefaultQueue extends AbstractQueue
                 }
 
                 m_elements.add( element );
+                signalNotEmpty();
             }
             finally
             {
@@ -222,9 +236,11 @@ public final class DefaultQueue extends AbstractQueue
             {
                 try
                 {
+                    awaitElements();
                     elements = retrieveElements( m_elements,
-                                                 Math.min( size(),
+                                                 Math.min( m_elements.size(),
                                                            numElements ) );
+                    signalNotEmpty();
                 }
                 finally
                 {
@@ -252,7 +268,8 @@ public final class DefaultQueue extends AbstractQueue
             {
                 try
                 {
-                    elements = retrieveElements( m_elements, size() );
+                    awaitElements();
+                    elements = retrieveElements( m_elements, m_elements.size() );
                 }
                 finally
                 {
@@ -269,6 +286,50 @@ public final class DefaultQueue extends AbstractQueue
         return elements;
     }
 
+    /**
+     * Waits until an element is available or the timeout has passed.  Does
+     * not wait at all when no timeout is set.  The caller must hold the
+     * mutex, which is released while waiting.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private void awaitElements() throws InterruptedException
+    {
+        if( m_timeout <= 0 || !m_elements.isEmpty() )
+        {
+            return;
+        }
+
+        final long end = System.currentTimeMillis() + m_timeout;
+        long remaining = m_timeout;
+
+        m_waiting++;
+        try
+        {
+            while( m_elements.isEmpty() && remaining > 0 )
+            {
+                m_notEmpty.timedwait( remaining );
+                remaining = end - System.currentTimeMillis();
+            }
+        }
+        finally
+        {
+            m_waiting--;
+        }
+    }
+
+    /**
+     * Wakes up one waiting consumer if there is anything for it to take.
+     * The caller must hold the mutex.
+     */
+    private void signalNotEmpty()
+    {
+        if( m_waiting > 0 && !m_elements.isEmpty() )
+        {
+            m_notEmpty.signal();
+        }
+    }
+
     /**
      * Removes the given number of elements from the given <code>buf</code>
      * and returns them in an array. Trusts the caller to pass in a buffer
@@ -303,9 +364,11 @@ public final class DefaultQueue extends AbstractQueue
             {
                 try
                 {
-                    if( size() > 0 )
+                    awaitElements();
+                    if( !m_elements.isEmpty() )
                     {
                         element = m_elements.remove();
+                        signalNotEmpty();
                     }
                 }
                 finally
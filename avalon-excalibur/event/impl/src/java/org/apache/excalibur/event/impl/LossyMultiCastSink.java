@@ -17,14 +17,14 @@
 package org.apache.excalibur.event.impl;
 
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedList;
 
 import org.apache.excalibur.event.PreparedEnqueue;
 import org.apache.excalibur.event.Sink;
 import org.apache.excalibur.event.SinkException;
 import org.apache.excalibur.event.SinkFullException;
 
+import EDU.oswego.cs.dl.util.concurrent.SynchronizedLong;
+
 /**
  * This is a {@link org.apache.excalibur.event.seda.event.Sink}
  * implementation that multicasts enqueue operations to the
@@ -34,16 +34,28 @@ import org.apache.excalibur.event.SinkFullException;
  * It can be configured to fail when less than one sink was
  * delivered to.
  *
+ * <p>
+ *   A batch of elements is handed to each sink with a single enqueue,
+ *   and is either accepted or dropped by that sink as a whole.  The
+ *   number of elements each sink dropped is counted, see
+ *   {@link #getDropCount(int)}.  The elements of a prepared enqueue
+ *   are counted when it is committed.
+ * </p>
+ *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  * @version $Revision: 1.4 $
  */
 public class LossyMultiCastSink implements Sink
 {
     /**
-     * A collection of sink arrays representing the
-     * sinks to enqueue the element to.
+     * The sinks to enqueue the element to, one array per stage.
+     */
+    private final Sink[][] m_sinks;
+
+    /**
+     * The number of elements dropped by each stage.
      */
-    private final Collection m_sinks;
+    private final SynchronizedLong[] m_dropped;
 
     /**
      * The size of the sink.
@@ -74,7 +86,10 @@ public class LossyMultiCastSink implements Sink
      * This constructor creates a failure tolerant sink
      * based on the collection of sink arrays. The additional
      * boolean flag describes whether at least one or none
-     * of the enqueue operations must succeed.
+     * of the enqueue operations must succeed.  Each entry of
+     * the collection is either a <code>Sink</code> or a
+     * <code>Sink[]</code>; the collection is copied, so later
+     * changes to it have no effect.
      * @since May 16, 2002
      *
      * @param sinks
@@ -82,7 +97,12 @@ public class LossyMultiCastSink implements Sink
      */
     public LossyMultiCastSink(Collection sinks, boolean oneSuccess)
     {
-        m_sinks = sinks;
+        m_sinks = MultiCastSink.toSinkArrays(sinks);
+        m_dropped = new SynchronizedLong[m_sinks.length];
+        for (int i = 0; i < m_dropped.length; i++)
+        {
+            m_dropped[i] = new SynchronizedLong(0);
+        }
         m_size = -1;
         m_oneSuccess = oneSuccess;
     }
@@ -117,24 +137,20 @@ public class LossyMultiCastSink implements Sink
      */
     public void enqueue(Object element) throws SinkException
     {
-        final Iterator sinks = m_sinks.iterator();
-
         int successful = 0;
 
         //checkEnqueuePredicate(new Object[] { element });
 
-        // iterate through the sinks and try to enqueue
-        while (sinks.hasNext())
+        // iterate through the stages and try to enqueue
+        for (int i = 0; i < m_sinks.length; i++)
         {
-            final Sink sink = (Sink) sinks.next();
-
-            final boolean enqueued = sink.tryEnqueue(element);
-
-            // enqueue only to the first successful sink
-            if (enqueued)
+            if (tryEnqueue(m_sinks[i], element))
             {
                 successful++;
-                break;
+            }
+            else
+            {
+                m_dropped[i].increment();
             }
         }
 
@@ -149,29 +165,21 @@ public class LossyMultiCastSink implements Sink
      */
     public void enqueue(Object[] elements) throws SinkException
     {
-        final Iterator sinks = m_sinks.iterator();
-
         int successful = 0;
 
         //checkEnqueuePredicate(elements);
 
-        // iterate through the sinks and try to enqueue
-        while (sinks.hasNext())
+        // iterate through the stages and try to enqueue
+        for (int i = 0; i < m_sinks.length; i++)
         {
-            final Sink sink = (Sink) sinks.next();
-
-            try
+            if (tryEnqueue(m_sinks[i], elements))
             {
-                sink.enqueue(elements);
+                successful++;
             }
-            catch (SinkFullException e)
+            else
             {
-                continue;
+                m_dropped[i].add(elements.length);
             }
-
-            // if enqueue successful break here
-            successful++;
-            break;
         }
 
         if (successful == 0 && m_oneSuccess)
@@ -202,37 +210,37 @@ public class LossyMultiCastSink implements Sink
     public PreparedEnqueue prepareEnqueue(Object[] elements)
         throws SinkException
     {
-        final Iterator sinks = m_sinks.iterator();
-        final DefaultPreparedEnqueue prepares = new DefaultPreparedEnqueue();
-
+        final PreparedEnqueue[] prepared = new PreparedEnqueue[m_sinks.length];
+        final int[] skipped = new int[m_sinks.length];
         int successful = 0;
+        int skippedCount = 0;
 
         //checkEnqueuePredicate(elements);
 
-        // iterate through the sinks and try to enqueue
-        while (sinks.hasNext())
+        // iterate through the stages and try to prepare
+        for (int i = 0; i < m_sinks.length; i++)
         {
-            final Sink sink = (Sink) sinks.next();
-
             try
             {
-                prepares.addPreparedEnqueue(sink.prepareEnqueue(elements));
+                prepared[successful] = MultiCastSink.prepare(m_sinks[i], elements);
+                successful++;
             }
-            catch (SinkFullException e)
+            catch (SinkException e)
             {
-                continue;
+                skipped[skippedCount] = i;
+                skippedCount++;
             }
-
-            // if enqueue successful break here
-            successful++;
-            break;
         }
+
         if (successful == 0 && m_oneSuccess)
         {
+            addDrops(skipped, skippedCount, elements.length);
             throw new SinkFullException("Could not deliver elements at all.");
         }
 
-        return prepares;
+        return new LossyPreparedEnqueue(
+            new MultiCastSink.DefaultPreparedEnqueue(prepared, successful),
+            skipped, skippedCount, elements.length);
     }
 
     /**
@@ -243,62 +251,121 @@ public class LossyMultiCastSink implements Sink
         return m_size;
     }
 
-    //------------------------- LossyMultiCastSink inner classes
+    //------------------------- LossyMultiCastSink specific implementation
     /**
-     * A prepared enqueue object that holds other prepared
-     * enqueue objects and allows to perform a commit / abort
-     * on all of these objects.
-     * @since May 16, 2002
+     * Get the number of elements a stage has dropped so far.
      *
-     * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+     * @param index
+     *  The position of the stage in the collection of sinks.
+     * @return the number of dropped elements
      */
-    private static final class DefaultPreparedEnqueue
-        implements PreparedEnqueue
+    public long getDropCount(int index)
     {
-        /**
-         * A collection of prepared enqueue objects
-         */
-        private final Collection m_preparedEnqueues = new LinkedList();
+        return m_dropped[index].get();
+    }
 
-        //------------------------ PreparedEnqueue implementation
-        /**
-         * @see PreparedEnqueue#abort()
-         */
-        public void abort()
+    /**
+     * Get the number of elements dropped by each stage so far.
+     *
+     * @return the drop counts in the order of the collection of sinks
+     */
+    public long[] getDropCounts()
+    {
+        final long[] counts = new long[m_dropped.length];
+        for (int i = 0; i < counts.length; i++)
+        {
+            counts[i] = m_dropped[i].get();
+        }
+
+        return counts;
+    }
+
+    /**
+     * Count the elements as dropped by each of the given stages.
+     */
+    private void addDrops(int[] stages, int count, int elements)
+    {
+        for (int i = 0; i < count; i++)
         {
-            final Iterator iter = m_preparedEnqueues.iterator();
+            m_dropped[stages[i]].add(elements);
+        }
+    }
 
-            while (iter.hasNext())
+    /**
+     * Enqueue the element on the first sink of a stage that accepts it.
+     */
+    private static boolean tryEnqueue(Sink[] sinks, Object element)
+    {
+        for (int i = 0; i < sinks.length; i++)
+        {
+            if (sinks[i].tryEnqueue(element))
             {
-                ((PreparedEnqueue) iter.next()).abort();
+                return true;
             }
         }
 
-        /**
-         * @see PreparedEnqueue#commit()
-         */
-        public void commit()
-        {
-            final Iterator iter = m_preparedEnqueues.iterator();
+        return false;
+    }
 
-            while (iter.hasNext())
+    /**
+     * Enqueue the elements on the first sink of a stage that accepts
+     * all of them.
+     */
+    private static boolean tryEnqueue(Sink[] sinks, Object[] elements)
+    {
+        for (int i = 0; i < sinks.length; i++)
+        {
+            try
             {
-                ((PreparedEnqueue) iter.next()).commit();
+                sinks[i].enqueue(elements);
+                return true;
+            }
+            catch (SinkException e)
+            {
+                continue;
             }
         }
 
-        //------------------------ DefaultPreparedEnqueue specific implementation
+        return false;
+    }
+
+    /**
+     * A prepared enqueue that counts the elements as dropped by the stages
+     * that did not accept them, once the enqueue is committed.  An aborted
+     * enqueue drops nothing.
+     */
+    private final class LossyPreparedEnqueue
+        implements PreparedEnqueue
+    {
+        private final PreparedEnqueue m_prepared;
+        private final int[] m_skipped;
+        private final int m_skippedCount;
+        private final int m_elements;
+
+        LossyPreparedEnqueue(PreparedEnqueue prepared, int[] skipped,
+                             int skippedCount, int elements)
+        {
+            m_prepared = prepared;
+            m_skipped = skipped;
+            m_skippedCount = skippedCount;
+            m_elements = elements;
+        }
+
+        /**
+         * @see PreparedEnqueue#abort()
+         */
+        public void abort()
+        {
+            m_prepared.abort();
+        }
+
         /**
-         * Adds a prepared enqueue object to the list
-         * of prepared enqueues.
-         * @since May 16, 2002
-         *
-         * @param preparedEnqueue
-         *  The prepared enqueue object to be added.
+         * @see PreparedEnqueue#commit()
          */
-        public void addPreparedEnqueue(PreparedEnqueue preparedEnqueue)
+        public void commit()
         {
-            m_preparedEnqueues.add(preparedEnqueue);
+            m_prepared.commit();
+            addDrops(m_skipped, m_skippedCount, m_elements);
         }
-    } //-- end DefaultPreparedEnqueue inner class
+    } //-- end LossyPreparedEnqueue inner class
 }
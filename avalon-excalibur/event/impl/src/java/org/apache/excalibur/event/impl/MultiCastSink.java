@@ -18,7 +18,6 @@ package org.apache.excalibur.event.impl;
 
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.LinkedList;
 
 import org.apache.excalibur.event.PreparedEnqueue;
 import org.apache.excalibur.event.Sink;
@@ -36,13 +35,22 @@ import org.apache.excalibur.event.SinkFullException;
  * than one sink the multicast sink will try to enqueue the
  * element always to <b>only one</b> of these sinks.
  *
+ * <p>
+ *   A batch of elements is handed to each sink with a single
+ *   <code>prepareEnqueue</code>, so every sink takes its lock once per
+ *   batch instead of once per element, and the prepared enqueues are only
+ *   committed once every sink has accepted the batch.  The
+ *   <code>enqueue</code> methods reuse a buffer per thread, so apart from
+ *   what the sinks themselves allocate, they create no garbage.
+ * </p>
+ *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  * @version $Revision: 1.4 $
  */
 public class MultiCastSink implements Sink
 {
-    /** A collection of sink arrays representing the  sinks to enqueue to. */
-    private final Collection m_sinks;
+    /** The sinks to enqueue to, one array per stage. */
+    private final Sink[][] m_sinks;
 
     /** The size of the sink. */
     private final int m_size;
@@ -50,6 +58,9 @@ public class MultiCastSink implements Sink
     /** Boolean value describing if one or all operations must succeed. */
     private final boolean m_single;
 
+    /** The Buffer of the current thread. */
+    private final ThreadLocal m_buffer = new ThreadLocal();
+
     //---------------------- LossyMultiCastSink constructors
     /**
      * This constructor creates a failure in-tolerant multicast
@@ -68,7 +79,10 @@ public class MultiCastSink implements Sink
 
     /**
      * This constructor creates a failure in-tolerant multicast
-     * sink based on the collection of sink arrays.
+     * sink based on the collection of sink arrays.  Each entry of
+     * the collection is either a <code>Sink</code> or a
+     * <code>Sink[]</code>; the collection is copied, so later
+     * changes to it have no effect.
      * @since May 16, 2002
      *
      * @param sinks
@@ -79,7 +93,7 @@ public class MultiCastSink implements Sink
      */
     public MultiCastSink(Collection sinks, boolean single)
     {
-        m_sinks = sinks;
+        m_sinks = toSinkArrays(sinks);
         m_size = -1;
         m_single = single;
     }
@@ -114,9 +128,18 @@ public class MultiCastSink implements Sink
      */
     public void enqueue(Object element) throws SinkException
     {
-        final PreparedEnqueue prepared;
-        prepared = prepareEnqueue(new Object[] { element });
-        prepared.commit();
+        final Buffer buffer = acquireBuffer();
+
+        try
+        {
+            buffer.m_element[0] = element;
+            enqueue(buffer.m_element, buffer.m_prepared);
+        }
+        finally
+        {
+            buffer.m_element[0] = null;
+            releaseBuffer(buffer);
+        }
     }
 
     /**
@@ -124,8 +147,16 @@ public class MultiCastSink implements Sink
      */
     public void enqueue(Object[] elements) throws SinkException
     {
-        final PreparedEnqueue prepared = prepareEnqueue(elements);
-        prepared.commit();
+        final Buffer buffer = acquireBuffer();
+
+        try
+        {
+            enqueue(elements, buffer.m_prepared);
+        }
+        finally
+        {
+            releaseBuffer(buffer);
+        }
     }
 
     /**
@@ -150,57 +181,206 @@ public class MultiCastSink implements Sink
     public PreparedEnqueue prepareEnqueue(Object[] elements)
         throws SinkException
     {
+        final PreparedEnqueue[] prepared = new PreparedEnqueue[m_sinks.length];
+        final int count = prepare(elements, prepared);
 
-        //checkEnqueuePredicate(elements);
+        return new DefaultPreparedEnqueue(prepared, count);
+    }
 
-        final DefaultPreparedEnqueue prepares = new DefaultPreparedEnqueue();
-        int successful = 0;
+    /**
+     * @see Sink#size()
+     */
+    public int size()
+    {
+        return m_size;
+    }
 
-        final Iterator sinks = m_sinks.iterator();
+    //------------------------- MultiCastSink specific implementation
+    /**
+     * Prepare and commit the elements on every stage.
+     *
+     * @param elements  the elements to enqueue
+     * @param prepared  an array with room for a prepared enqueue per stage,
+     *  which is cleared again before returning
+     */
+    private void enqueue(Object[] elements, PreparedEnqueue[] prepared)
+        throws SinkException
+    {
+        final int count = prepare(elements, prepared);
 
-        // iterate through the sinks and try to enqueue
-        while (sinks.hasNext())
+        for (int i = 0; i < count; i++)
         {
-            final Sink sink = (Sink) sinks.next();
+            prepared[i].commit();
+            prepared[i] = null;
+        }
+    }
+
+    /**
+     * Prepare the enqueue of the elements on one sink of every stage,
+     * or on a single sink if only one operation must succeed.  If a
+     * stage does not accept the elements, the enqueues that were
+     * already prepared are aborted.
+     *
+     * @param elements  the elements to enqueue
+     * @param prepared  the array the prepared enqueues are stored in
+     * @return the number of prepared enqueues
+     */
+    private int prepare(Object[] elements, PreparedEnqueue[] prepared)
+        throws SinkException
+    {
+        int count = 0;
+        SinkException failure = null;
 
+        for (int i = 0; i < m_sinks.length; i++)
+        {
             try
             {
-                prepares.addPreparedEnqueue(sink.prepareEnqueue(elements));
+                prepared[count] = prepare(m_sinks[i], elements);
+                count++;
+
+                if (m_single)
+                {
+                    return count;
+                }
             }
-            catch (SinkFullException e)
+            catch (SinkException e)
             {
-                continue;
+                if (!m_single)
+                {
+                    failure = e;
+                    break;
+                }
             }
+        }
 
-            // if enqueue successful return here or just break and continue
-            if (m_single)
+        if (count < m_sinks.length && (!m_single || count == 0))
+        {
+            // rollback all enqueues.
+            for (int i = 0; i < count; i++)
             {
-                return prepares;
+                prepared[i].abort();
+                prepared[i] = null;
             }
-            successful++;
-            break;
 
+            if (failure != null)
+            {
+                throw failure;
+            }
+
+            throw new SinkFullException("Could not deliver elements.");
         }
-        if (successful < m_sinks.size())
+
+        return count;
+    }
+
+    /**
+     * Prepare the enqueue on the first sink of a stage that accepts
+     * the elements.
+     *
+     * @param sinks     the sinks of the stage
+     * @param elements  the elements to enqueue
+     * @return the prepared enqueue
+     * @throws SinkException thrown by the last sink if none accepted
+     */
+    static PreparedEnqueue prepare(Sink[] sinks, Object[] elements)
+        throws SinkException
+    {
+        SinkException failure = null;
+
+        for (int i = 0; i < sinks.length; i++)
         {
-            // rollback all enqueues.
-            prepares.abort();
+            try
+            {
+                return sinks[i].prepareEnqueue(elements);
+            }
+            catch (SinkException e)
+            {
+                failure = e;
+            }
+        }
 
-            throw new SinkFullException("Could not deliver elements.");
+        if (failure != null)
+        {
+            throw failure;
         }
 
-        return prepares;
+        throw new SinkFullException("There is no sink to deliver to.");
     }
 
     /**
-     * @see Sink#size()
+     * Turn a collection of sinks and sink arrays into an array of
+     * sink arrays.
+     *
+     * @param sinks  the collection of <code>Sink</code>s and
+     *  <code>Sink[]</code>s
+     * @return a sink array for each entry of the collection
      */
-    public int size()
+    static Sink[][] toSinkArrays(Collection sinks)
     {
-        return m_size;
+        final Sink[][] arrays = new Sink[sinks.size()][];
+        final Iterator iter = sinks.iterator();
+
+        for (int i = 0; i < arrays.length; i++)
+        {
+            final Object sink = iter.next();
+
+            if (sink instanceof Sink[])
+            {
+                arrays[i] = (Sink[]) ((Sink[]) sink).clone();
+            }
+            else
+            {
+                arrays[i] = new Sink[] { (Sink) sink };
+            }
+        }
+
+        return arrays;
+    }
+
+    /**
+     * Get the buffer of the current thread.  A sink that calls back
+     * into this sink while it is enqueueing gets a fresh buffer.
+     */
+    private Buffer acquireBuffer()
+    {
+        Buffer buffer = (Buffer) m_buffer.get();
+
+        if (buffer == null)
+        {
+            buffer = new Buffer(m_sinks.length);
+            m_buffer.set(buffer);
+        }
+
+        if (buffer.m_inUse)
+        {
+            return new Buffer(m_sinks.length);
+        }
+
+        buffer.m_inUse = true;
+        return buffer;
+    }
+
+    private void releaseBuffer(Buffer buffer)
+    {
+        buffer.m_inUse = false;
+    }
+
+    //------------------------- MultiCastSink inner classes
+    /**
+     * The arrays a thread needs to enqueue, kept between calls.
+     */
+    private static final class Buffer
+    {
+        private final Object[] m_element = new Object[1];
+        private final PreparedEnqueue[] m_prepared;
+        private boolean m_inUse;
+
+        private Buffer(int sinks)
+        {
+            m_prepared = new PreparedEnqueue[sinks];
+        }
     }
 
-    //------------------------- LossyMultiCastSink inner classes
     /**
      * A prepared enqueue object that holds other prepared
      * enqueue objects and allows to perform a commit / abort
@@ -209,13 +389,26 @@ public class MultiCastSink implements Sink
      *
      * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
      */
-    private static final class DefaultPreparedEnqueue
+    static final class DefaultPreparedEnqueue
         implements PreparedEnqueue
     {
         /**
-         * A collection of prepared enqueue objects
+         * The prepared enqueue objects
          */
-        private final Collection m_preparedEnqueues = new LinkedList();
+        private final PreparedEnqueue[] m_preparedEnqueues;
+        private final int m_count;
+
+        /**
+         * @param preparedEnqueues
+         *  The prepared enqueue objects to commit or abort.
+         * @param count
+         *  The number of prepared enqueue objects in the array.
+         */
+        DefaultPreparedEnqueue(PreparedEnqueue[] preparedEnqueues, int count)
+        {
+            m_preparedEnqueues = preparedEnqueues;
+            m_count = count;
+        }
 
         //------------------------ PreparedEnqueue implementation
         /**
@@ -223,11 +416,9 @@ public class MultiCastSink implements Sink
          */
         public void abort()
         {
-            final Iterator iter = m_preparedEnqueues.iterator();
-
-            while (iter.hasNext())
+            for (int i = 0; i < m_count; i++)
             {
-                ((PreparedEnqueue) iter.next()).abort();
+                m_preparedEnqueues[i].abort();
             }
         }
 
@@ -236,26 +427,10 @@ public class MultiCastSink implements Sink
          */
         public void commit()
         {
-            final Iterator iter = m_preparedEnqueues.iterator();
-
-            while (iter.hasNext())
+            for (int i = 0; i < m_count; i++)
             {
-                ((PreparedEnqueue) iter.next()).commit();
+                m_preparedEnqueues[i].commit();
             }
         }
-
-        //------------------------ DefaultPreparedEnqueue specific implementation
-        /**
-         * Adds a prepared enqueue object to the list
-         * of prepared enqueues.
-         * @since May 16, 2002
-         *
-         * @param preparedEnqueue
-         *  The prepared enqueue object to be added.
-         */
-        public void addPreparedEnqueue(PreparedEnqueue preparedEnqueue)
-        {
-            m_preparedEnqueues.add(preparedEnqueue);
-        }
     } //-- end DefaultPreparedEnqueue inner class
 }
@@ -0,0 +1,92 @@
+/* 
+ * Copyright 1999-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.event.command.test;
+
+import junit.framework.TestCase;
+
+import org.apache.excalibur.event.command.BatchController;
+
+/**
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class BatchControllerTestCase extends TestCase
+{
+    public BatchControllerTestCase( String name )
+    {
+        super( name );
+    }
+
+    public void testUnbounded() throws Exception
+    {
+        final BatchController controller = new BatchController( 1, 0, 0 );
+
+        assertFalse( controller.isBounded() );
+        assertEquals( Integer.MAX_VALUE, controller.getBatchSize() );
+
+        controller.update( 100, 50 );
+        assertEquals( Integer.MAX_VALUE, controller.getBatchSize() );
+        assertEquals( 0.5, controller.getServiceTime(), 0.0001 );
+    }
+
+    public void testFixedSize() throws Exception
+    {
+        final BatchController controller = new BatchController( 1, 32, 0 );
+
+        assertTrue( controller.isBounded() );
+        assertEquals( 32, controller.getBatchSize() );
+
+        controller.update( 32, 1000 );
+        assertEquals( 32, controller.getBatchSize() );
+    }
+
+    /**
+     * A fast handler lets the batch double per update up to the maximum,
+     * a slow one shrinks it to what fits in the target latency at once.
+     */
+    public void testAdapts() throws Exception
+    {
+        final BatchController controller = new BatchController( 2, 64, 10 );
+
+        assertTrue( controller.isBounded() );
+        assertEquals( 2, controller.getBatchSize() );
+
+        controller.update( 2, 0 );
+        assertEquals( 4, controller.getBatchSize() );
+        controller.update( 4, 0 );
+        assertEquals( 8, controller.getBatchSize() );
+
+        for( int i = 0; i < 10; i++ )
+        {
+            controller.update( controller.getBatchSize(), 0 );
+        }
+        assertEquals( 64, controller.getBatchSize() );
+
+        // 10 ms per event overshoots the target, so a single batch
+        // shrinks the size to what the averaged service time allows
+        controller.update( 64, 640 );
+        assertTrue( "size " + controller.getBatchSize(), controller.getBatchSize() < 8 );
+
+        // a steady 0.5 ms per event settles at 10 / 0.5 = 20 events
+        for( int i = 0; i < 50; i++ )
+        {
+            final int size = controller.getBatchSize();
+            controller.update( size, size / 2 );
+        }
+        assertTrue( "size " + controller.getBatchSize(),
+                    controller.getBatchSize() >= 16 && controller.getBatchSize() <= 24 );
+    }
+}
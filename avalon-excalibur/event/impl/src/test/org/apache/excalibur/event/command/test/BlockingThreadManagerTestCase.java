@@ -0,0 +1,246 @@
+/* 
+ * Copyright 1999-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.event.command.test;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.excalibur.event.EventHandler;
+import org.apache.excalibur.event.Queue;
+import org.apache.excalibur.event.Source;
+import org.apache.excalibur.event.command.BlockingThreadManager;
+import org.apache.excalibur.event.command.EventPipeline;
+import org.apache.excalibur.event.impl.ConcurrentQueue;
+import org.apache.excalibur.event.impl.DefaultQueue;
+
+/**
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class BlockingThreadManagerTestCase extends TestCase
+{
+    /**
+     * Constructor for JUnit
+     *
+     * @param name  The name of the test
+     */
+    public BlockingThreadManagerTestCase( String name )
+    {
+        super( name );
+    }
+
+    // much longer than any hand-off should take
+    private final static long BLOCK_TIMEOUT = 10000; // ms
+
+    // number of events sent through the pipeline
+    private final static int EVENTS = 100;
+
+    public void testDefaultQueueHandOff() throws Exception
+    {
+        performHandOff( new DefaultQueue() );
+    }
+
+    public void testConcurrentQueueHandOff() throws Exception
+    {
+        performHandOff( new ConcurrentQueue() );
+    }
+
+    /**
+     * Sends events one at a time and waits for each to be handled.  The
+     * thread manager has to wake up on the enqueue; if it waited for the
+     * block timeout instead, the test would take far too long.
+     */
+    private void performHandOff( Queue queue ) throws Exception
+    {
+        final BlockingThreadManager threadManager = new BlockingThreadManager();
+        final Parameters parameters = new Parameters();
+        parameters.setParameter( "block-timeout", String.valueOf( BLOCK_TIMEOUT ) );
+        // a graceful shutdown would wait for the block timeout
+        parameters.setParameter( "force-shutdown", "true" );
+        threadManager.parameterize( parameters );
+        threadManager.initialize();
+
+        final Pipeline pipeline = new Pipeline( queue );
+        threadManager.register( pipeline );
+
+        try
+        {
+            final long start = System.currentTimeMillis();
+            for( int i = 0; i < EVENTS; i++ )
+            {
+                queue.enqueue( new Integer( i ) );
+                assertEquals( i, pipeline.waitForEvent() );
+            }
+
+            final long elapsed = System.currentTimeMillis() - start;
+            assertTrue( "Hand-off of " + EVENTS + " events took " + elapsed + "ms",
+                        elapsed < BLOCK_TIMEOUT );
+        }
+        finally
+        {
+            threadManager.dispose();
+        }
+    }
+
+    /**
+     * A graceful shutdown lets the handler finish the events it is
+     * handling, without interrupting it.
+     */
+    public void testGracefulShutdown() throws Exception
+    {
+        final SleepingPipeline pipeline = performShutdown( false, 200 );
+
+        assertFalse( "The handler was interrupted", pipeline.m_interrupted );
+        assertTrue( "The handler did not finish", pipeline.m_finished );
+    }
+
+    /**
+     * A forced shutdown interrupts the handler.
+     */
+    public void testForcedShutdown() throws Exception
+    {
+        final SleepingPipeline pipeline = performShutdown( true, BLOCK_TIMEOUT );
+
+        assertTrue( "The handler was not interrupted", pipeline.m_interrupted );
+    }
+
+    /**
+     * Disposes of the thread manager while the handler sleeps for
+     * <code>sleep</code> ms in the middle of an event.
+     */
+    private SleepingPipeline performShutdown( boolean force, long sleep ) throws Exception
+    {
+        final BlockingThreadManager threadManager = new BlockingThreadManager();
+        final Parameters parameters = new Parameters();
+        parameters.setParameter( "block-timeout", "1000" );
+        parameters.setParameter( "force-shutdown", String.valueOf( force ) );
+        threadManager.parameterize( parameters );
+        threadManager.initialize();
+
+        final Queue queue = new ConcurrentQueue();
+        final SleepingPipeline pipeline = new SleepingPipeline( queue, sleep );
+        threadManager.register( pipeline );
+
+        queue.enqueue( new Integer( 0 ) );
+        pipeline.waitForStart();
+        threadManager.dispose();
+        pipeline.waitForEnd();
+        return pipeline;
+    }
+
+    private static class Pipeline implements EventPipeline, EventHandler
+    {
+        private final Source[] m_sources;
+        private Integer m_lastEvent;
+
+        Pipeline( Queue queue )
+        {
+            m_sources = new Source[]{queue};
+        }
+
+        public EventHandler getEventHandler()
+        {
+            return this;
+        }
+
+        public final Source[] getSources()
+        {
+            return m_sources;
+        }
+
+        public void handleEvent( Object element )
+        {
+            handleEvents( new Object[]{element} );
+        }
+
+        public synchronized void handleEvents( Object[] elements )
+        {
+            m_lastEvent = (Integer)elements[ elements.length - 1 ];
+            notifyAll();
+        }
+
+        synchronized int waitForEvent() throws InterruptedException
+        {
+            final long end = System.currentTimeMillis() + BLOCK_TIMEOUT;
+            while( null == m_lastEvent && System.currentTimeMillis() < end )
+            {
+                wait( BLOCK_TIMEOUT );
+            }
+
+            assertNotNull( "The event was never handled", m_lastEvent );
+            final int event = m_lastEvent.intValue();
+            m_lastEvent = null;
+            return event;
+        }
+    }
+
+    private static class SleepingPipeline extends Pipeline
+    {
+        private final long m_sleep;
+        private boolean m_started;
+        private boolean m_ended;
+        volatile boolean m_interrupted;
+        volatile boolean m_finished;
+
+        SleepingPipeline( Queue queue, long sleep )
+        {
+            super( queue );
+            m_sleep = sleep;
+        }
+
+        public void handleEvents( Object[] elements )
+        {
+            setState( true, false );
+            try
+            {
+                Thread.sleep( m_sleep );
+                m_finished = true;
+            }
+            catch( InterruptedException ie )
+            {
+                m_interrupted = true;
+            }
+            setState( true, true );
+        }
+
+        private synchronized void setState( boolean started, boolean ended )
+        {
+            m_started = started;
+            m_ended = ended;
+            notifyAll();
+        }
+
+        synchronized void waitForStart() throws InterruptedException
+        {
+            final long end = System.currentTimeMillis() + BLOCK_TIMEOUT;
+            while( !m_started && System.currentTimeMillis() < end )
+            {
+                wait( BLOCK_TIMEOUT );
+            }
+            assertTrue( "The event was never handled", m_started );
+        }
+
+        synchronized void waitForEnd() throws InterruptedException
+        {
+            final long end = System.currentTimeMillis() + BLOCK_TIMEOUT;
+            while( !m_ended && System.currentTimeMillis() < end )
+            {
+                wait( BLOCK_TIMEOUT );
+            }
+            assertTrue( "The handler never returned", m_ended );
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/* 
+ * Copyright 1999-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.event.command.test;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.excalibur.event.command.BlockingThreadManager;
+import org.apache.excalibur.event.command.CommandManager;
+import org.apache.excalibur.event.command.RepeatedCommand;
+
+/**
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class CommandManagerTestCase extends TestCase
+{
+    private BlockingThreadManager m_threadManager;
+    private CommandManager m_commandManager;
+
+    public CommandManagerTestCase( String name )
+    {
+        super( name );
+    }
+
+    protected void setUp() throws Exception
+    {
+        m_threadManager = new BlockingThreadManager();
+        final Parameters parameters = new Parameters();
+        parameters.setParameter( "block-timeout", "10000" );
+        m_threadManager.parameterize( parameters );
+        m_threadManager.initialize();
+
+        m_commandManager = new CommandManager();
+        m_threadManager.register( m_commandManager );
+    }
+
+    protected void tearDown() throws Exception
+    {
+        m_threadManager.deregisterAll();
+        m_commandManager.dispose();
+        m_threadManager.dispose();
+    }
+
+    /**
+     * The thread manager blocks on the command queue, so the repeated
+     * command can only run if the CommandManager wakes it up itself.
+     */
+    public void testRepeatedCommandRunsWithoutOtherEvents() throws Exception
+    {
+        final CountingCommand command = new CountingCommand( 50, 3 );
+        m_commandManager.getCommandSink().enqueue( command );
+
+        final long start = System.currentTimeMillis();
+        command.waitFor( 3, 5000 );
+        final long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals( 3, command.getCount() );
+        assertTrue( "Took " + elapsed + "ms", elapsed >= 150 && elapsed < 5000 );
+
+        // it must not run a fourth time
+        Thread.sleep( 200 );
+        assertEquals( 3, command.getCount() );
+        assertFalse( m_commandManager.cancel( command ) );
+    }
+
+    public void testCancel() throws Exception
+    {
+        final CountingCommand command = new CountingCommand( 50, 0 );
+        m_commandManager.getCommandSink().enqueue( command );
+
+        command.waitFor( 2, 5000 );
+        assertTrue( m_commandManager.cancel( command ) );
+        final int count = command.getCount();
+
+        Thread.sleep( 200 );
+        assertEquals( count, command.getCount() );
+        assertFalse( m_commandManager.cancel( command ) );
+    }
+
+    private static final class CountingCommand implements RepeatedCommand
+    {
+        private final long m_interval;
+        private final int m_repeats;
+        private int m_count;
+
+        CountingCommand( long interval, int repeats )
+        {
+            m_interval = interval;
+            m_repeats = repeats;
+        }
+
+        public long getDelayInterval()
+        {
+            return m_interval;
+        }
+
+        public long getRepeatInterval()
+        {
+            return m_interval;
+        }
+
+        public int getNumberOfRepeats()
+        {
+            return m_repeats;
+        }
+
+        public synchronized void execute()
+        {
+            m_count++;
+            notifyAll();
+        }
+
+        synchronized int getCount()
+        {
+            return m_count;
+        }
+
+        synchronized void waitFor( int count, long timeout ) throws InterruptedException
+        {
+            final long end = System.currentTimeMillis() + timeout;
+            while( m_count < count && System.currentTimeMillis() < end )
+            {
+                wait( timeout );
+            }
+        }
+    }
+}
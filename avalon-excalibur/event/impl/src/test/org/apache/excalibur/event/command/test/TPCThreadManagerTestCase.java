@@ -110,6 +110,81 @@ public class TPCThreadManagerTestCase extends TestCase
                       stackTrace );
     }
 
+    /**
+     * Checks that the pipeline runner hands over no more than
+     * max-batch-size events at a time, and still handles all of them.
+     *
+     * @throws Exception on error
+     */
+    public void testMaxBatchSize() throws Exception
+    {
+        final TPCThreadManager threadManager = new TPCThreadManager();
+
+        final Parameters parameters = createParameters( 1, 10 );
+        parameters.setParameter( "max-batch-size", "4" );
+        threadManager.parameterize( parameters );
+        threadManager.initialize();
+
+        final BatchPipeline pipeline = new BatchPipeline();
+        for( int i = 0; i < 10; i++ )
+        {
+            pipeline.m_queue.enqueue( new Integer( i ) );
+        }
+
+        try
+        {
+            threadManager.register( pipeline );
+            pipeline.waitForEvents( 10 );
+        }
+        finally
+        {
+            threadManager.dispose();
+        }
+
+        assertEquals( 10, pipeline.m_handled );
+        assertTrue( "Largest batch was " + pipeline.m_largestBatch,
+                    pipeline.m_largestBatch <= 4 );
+    }
+
+    private static class BatchPipeline implements EventPipeline, EventHandler
+    {
+        private final Queue m_queue = new DefaultQueue();
+        private final Source[] m_sources = new Source[]{m_queue};
+        private int m_handled;
+        private int m_largestBatch;
+
+        public EventHandler getEventHandler()
+        {
+            return this;
+        }
+
+        public final Source[] getSources()
+        {
+            return m_sources;
+        }
+
+        public void handleEvent( Object element )
+        {
+            handleEvents( new Object[]{element} );
+        }
+
+        public synchronized void handleEvents( Object[] elements )
+        {
+            m_handled += elements.length;
+            m_largestBatch = Math.max( m_largestBatch, elements.length );
+            notifyAll();
+        }
+
+        synchronized void waitForEvents( int count ) throws InterruptedException
+        {
+            final long end = System.currentTimeMillis() + SCHEDULING_TIMEOUT;
+            while( m_handled < count && System.currentTimeMillis() < end )
+            {
+                wait( SCHEDULING_TIMEOUT );
+            }
+        }
+    }
+
     private static class Pipeline implements EventPipeline, EventHandler
     {
         private final Queue m_queue = new DefaultQueue();
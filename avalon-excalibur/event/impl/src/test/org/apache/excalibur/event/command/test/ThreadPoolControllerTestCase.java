@@ -0,0 +1,305 @@
+/* 
+ * Copyright 1999-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.event.command.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.framework.logger.Logger;
+import org.apache.excalibur.event.EventHandler;
+import org.apache.excalibur.event.command.ThreadPoolController;
+import org.apache.excalibur.event.impl.DefaultQueue;
+
+/**
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class ThreadPoolControllerTestCase extends TestCase
+{
+    public ThreadPoolControllerTestCase( String name )
+    {
+        super( name );
+    }
+
+    // time the handler blocks per event, so more threads raise the throughput
+    private final static long SERVICE_TIME = 5; // ms
+
+    private final static long INTERVAL = 100; // ms
+
+    /**
+     * Fills the queue with slow events: the controller must add threads
+     * while the backlog is above the threshold, and give them back once the
+     * queue has drained.
+     */
+    public void testGrowsAndShrinks() throws Exception
+    {
+        final DefaultQueue queue = new DefaultQueue();
+        final Handler handler = new Handler();
+        final ThreadPoolController controller =
+            new ThreadPoolController( queue, handler, 1, 4, 20, 5 );
+
+        for( int i = 0; i < 500; i++ )
+        {
+            queue.enqueue( new Integer( i ) );
+        }
+
+        controller.start();
+        try
+        {
+            assertEquals( 1, controller.getThreadCount() );
+
+            int largest = 1;
+            for( int i = 0; i < 50 && queue.size() > 0; i++ )
+            {
+                Thread.sleep( INTERVAL );
+                controller.adjust( INTERVAL );
+                largest = Math.max( largest, controller.getThreadCount() );
+            }
+
+            assertTrue( "The pool never grew", largest > 1 );
+            assertTrue( "The pool grew to " + largest, largest <= 4 );
+            assertTrue( "Service time " + controller.getServiceTime(),
+                        controller.getServiceTime() > 0 );
+
+            for( int i = 0; i < 10; i++ )
+            {
+                Thread.sleep( INTERVAL );
+                controller.adjust( INTERVAL );
+            }
+
+            assertEquals( 0, queue.size() );
+            assertEquals( 1, controller.getThreadCount() );
+            assertEquals( 500, handler.getHandled() );
+        }
+        finally
+        {
+            controller.stop();
+        }
+
+        assertEquals( 0, controller.getThreadCount() );
+        assertEquals( 0, controller.adjust( INTERVAL ) );
+    }
+
+    /**
+     * A handler that throws must not take its thread with it: the exception
+     * is logged and the runner goes on with the next event.
+     */
+    public void testHandlerExceptionIsLogged() throws Exception
+    {
+        final DefaultQueue queue = new DefaultQueue();
+        final FailingHandler handler = new FailingHandler();
+        final RecordingLogger logger = new RecordingLogger();
+        final ThreadPoolController controller =
+            new ThreadPoolController( queue, handler, 1, 1, 20, 5 );
+        controller.enableLogging( logger );
+
+        for( int i = 0; i < 10; i++ )
+        {
+            queue.enqueue( new Integer( i ) );
+        }
+
+        controller.start();
+        try
+        {
+            for( int i = 0; i < 100 && handler.getHandled() < 9; i++ )
+            {
+                Thread.sleep( 20 );
+            }
+
+            assertEquals( 9, handler.getHandled() );
+            assertEquals( 0, queue.size() );
+            assertEquals( 1, controller.getThreadCount() );
+
+            final List errors = logger.getErrors();
+            assertEquals( 1, errors.size() );
+            assertSame( handler.getFailure(), errors.get( 0 ) );
+        }
+        finally
+        {
+            controller.stop();
+        }
+    }
+
+    /**
+     * Stopping the controller lets the runner finish the event it is
+     * handling, without interrupting it, and takes no further events.
+     */
+    public void testStopFinishesCurrentEvent() throws Exception
+    {
+        final DefaultQueue queue = new DefaultQueue();
+        final SlowHandler handler = new SlowHandler( 200 );
+        final ThreadPoolController controller =
+            new ThreadPoolController( queue, handler, 1, 1, 20, 5 );
+
+        for( int i = 0; i < 3; i++ )
+        {
+            queue.enqueue( new Integer( i ) );
+        }
+
+        controller.start();
+        handler.waitForStart( 2000 );
+        controller.stop();
+
+        assertEquals( 0, controller.getThreadCount() );
+
+        Thread.sleep( 400 );
+
+        assertFalse( "The handler was interrupted", handler.wasInterrupted() );
+        assertEquals( 1, handler.getHandled() );
+        assertEquals( 2, queue.size() );
+    }
+
+    private static class Handler implements EventHandler
+    {
+        private int m_handled;
+
+        public void handleEvent( Object element )
+        {
+            try
+            {
+                Thread.sleep( SERVICE_TIME );
+            }
+            catch( InterruptedException ie )
+            {
+            }
+
+            synchronized( this )
+            {
+                m_handled++;
+            }
+        }
+
+        public void handleEvents( Object[] elements )
+        {
+            for( int i = 0; i < elements.length; i++ )
+            {
+                handleEvent( elements[ i ] );
+            }
+        }
+
+        synchronized int getHandled()
+        {
+            return m_handled;
+        }
+    }
+
+    private static class FailingHandler extends Handler
+    {
+        private final RuntimeException m_failure =
+            new IllegalStateException( "failing on purpose" );
+
+        public void handleEvent( Object element )
+        {
+            if( ( (Integer)element ).intValue() == 0 )
+            {
+                throw m_failure;
+            }
+
+            super.handleEvent( element );
+        }
+
+        RuntimeException getFailure()
+        {
+            return m_failure;
+        }
+    }
+
+    private static class SlowHandler extends Handler
+    {
+        private final long m_sleep;
+        private boolean m_started;
+        private boolean m_interrupted;
+
+        SlowHandler( long sleep )
+        {
+            m_sleep = sleep;
+        }
+
+        public void handleEvent( Object element )
+        {
+            synchronized( this )
+            {
+                m_started = true;
+                notifyAll();
+            }
+
+            try
+            {
+                Thread.sleep( m_sleep );
+            }
+            catch( InterruptedException ie )
+            {
+                synchronized( this )
+                {
+                    m_interrupted = true;
+                }
+            }
+
+            super.handleEvent( element );
+        }
+
+        synchronized void waitForStart( long timeout ) throws InterruptedException
+        {
+            if( !m_started )
+            {
+                wait( timeout );
+            }
+            assertTrue( "The handler never started", m_started );
+        }
+
+        synchronized boolean wasInterrupted()
+        {
+            return m_interrupted;
+        }
+    }
+
+    /**
+     * Keeps the exceptions logged at error level.
+     */
+    private static class RecordingLogger implements Logger
+    {
+        private final List m_errors = new ArrayList();
+
+        synchronized List getErrors()
+        {
+            return new ArrayList( m_errors );
+        }
+
+        public void debug( String message ) {}
+        public void debug( String message, Throwable throwable ) {}
+        public boolean isDebugEnabled() { return false; }
+        public void info( String message ) {}
+        public void info( String message, Throwable throwable ) {}
+        public boolean isInfoEnabled() { return false; }
+        public void warn( String message ) {}
+        public void warn( String message, Throwable throwable ) {}
+        public boolean isWarnEnabled() { return false; }
+        public void error( String message ) {}
+
+        public synchronized void error( String message, Throwable throwable )
+        {
+            m_errors.add( throwable );
+        }
+
+        public boolean isErrorEnabled() { return true; }
+        public void fatalError( String message ) {}
+        public void fatalError( String message, Throwable throwable ) {}
+        public boolean isFatalErrorEnabled() { return false; }
+        public Logger getChildLogger( String name ) { return this; }
+    }
+}
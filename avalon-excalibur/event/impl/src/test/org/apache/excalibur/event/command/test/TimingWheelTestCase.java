@@ -0,0 +1,105 @@
+/* 
+ * Copyright 1999-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.event.command.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.excalibur.event.command.TimingWheel;
+
+/**
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class TimingWheelTestCase extends TestCase
+{
+    public TimingWheelTestCase( String name )
+    {
+        super( name );
+    }
+
+    /**
+     * Schedules timeouts that land on every level of the wheel and checks
+     * that each expires in the tick of its deadline, never before.
+     */
+    public void testExpiresOnTime() throws Exception
+    {
+        final TimingWheel wheel = new TimingWheel( 1, 0 );
+        final long[] delays = {1, 2, 63, 64, 65, 100, 4095, 4096, 4097,
+                               262143, 262144, 300000, 20000000};
+
+        for( int i = 0; i < delays.length; i++ )
+        {
+            wheel.schedule( new Long( delays[ i ] ), delays[ i ] );
+        }
+        assertEquals( delays.length, wheel.size() );
+
+        final List expired = new ArrayList();
+        int next = 0;
+        for( long now = 1; now <= 20000000; now++ )
+        {
+            wheel.expire( now, expired );
+
+            if( !expired.isEmpty() )
+            {
+                assertEquals( 1, expired.size() );
+                assertEquals( delays[ next ], ( (Long)expired.get( 0 ) ).longValue() );
+                assertEquals( delays[ next ], now );
+                expired.clear();
+                next++;
+            }
+        }
+
+        assertEquals( delays.length, next );
+        assertEquals( 0, wheel.size() );
+    }
+
+    public void testCancel() throws Exception
+    {
+        final TimingWheel wheel = new TimingWheel( 10, 0 );
+
+        final TimingWheel.Timeout first = wheel.schedule( "first", 100 );
+        final TimingWheel.Timeout second = wheel.schedule( "second", 100000 );
+        assertEquals( 2, wheel.size() );
+
+        assertTrue( wheel.cancel( second ) );
+        assertFalse( wheel.cancel( second ) );
+        assertEquals( 1, wheel.size() );
+
+        final List expired = new ArrayList();
+        wheel.expire( 200000, expired );
+        assertEquals( 1, expired.size() );
+        assertEquals( "first", expired.get( 0 ) );
+        assertFalse( wheel.cancel( first ) );
+        assertEquals( 0, wheel.size() );
+    }
+
+    public void testDeadlineInThePast() throws Exception
+    {
+        final TimingWheel wheel = new TimingWheel( 10, 1000 );
+        final List expired = new ArrayList();
+
+        wheel.expire( 5000, expired );
+        wheel.schedule( "late", 0 );
+        wheel.expire( 5009, expired );
+        assertEquals( 0, expired.size() );
+
+        wheel.expire( 5010, expired );
+        assertEquals( 1, expired.size() );
+    }
+}
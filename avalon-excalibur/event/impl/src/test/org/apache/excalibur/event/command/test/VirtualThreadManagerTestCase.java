@@ -0,0 +1,155 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.event.command.test;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.excalibur.event.EventHandler;
+import org.apache.excalibur.event.Queue;
+import org.apache.excalibur.event.Source;
+import org.apache.excalibur.event.command.EventPipeline;
+import org.apache.excalibur.event.command.VirtualThreadFactory;
+import org.apache.excalibur.event.command.VirtualThreadManager;
+import org.apache.excalibur.event.impl.DefaultQueue;
+
+/**
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class VirtualThreadManagerTestCase extends TestCase
+{
+    /**
+     * Constructor for JUnit
+     *
+     * @param name  The name of the test
+     */
+    public VirtualThreadManagerTestCase( String name )
+    {
+        super( name );
+    }
+
+    // much longer than any hand-off should take
+    private final static long BLOCK_TIMEOUT = 10000; // ms
+
+    // number of pipelines, each of which has a thread of its own
+    private final static int PIPELINES = 200;
+
+    public void testFactory() throws Exception
+    {
+        final VirtualThreadFactory factory = new VirtualThreadFactory( "test-" );
+        assertEquals( VirtualThreadFactory.isVirtualThreadSupported(), factory.isVirtual() );
+
+        final Thread thread = factory.newThread( new Runnable()
+        {
+            public void run()
+            {
+            }
+        } );
+        assertTrue( thread.isDaemon() );
+        assertTrue( thread.getName().startsWith( "test-" ) );
+    }
+
+    /**
+     * Registers many pipelines, each blocking on its own queue, and sends
+     * an event through every one of them.
+     */
+    public void testManyPipelines() throws Exception
+    {
+        final VirtualThreadManager threadManager = new VirtualThreadManager();
+        final Parameters parameters = new Parameters();
+        parameters.setParameter( "block-timeout", String.valueOf( BLOCK_TIMEOUT ) );
+        parameters.setParameter( "force-shutdown", "true" );
+        threadManager.parameterize( parameters );
+        threadManager.initialize();
+
+        final Queue[] queues = new Queue[ PIPELINES ];
+        final Pipeline[] pipelines = new Pipeline[ PIPELINES ];
+        for( int i = 0; i < PIPELINES; i++ )
+        {
+            queues[ i ] = new DefaultQueue();
+            pipelines[ i ] = new Pipeline( queues[ i ] );
+            threadManager.register( pipelines[ i ] );
+        }
+
+        final long start = System.currentTimeMillis();
+        try
+        {
+            for( int i = 0; i < PIPELINES; i++ )
+            {
+                queues[ i ].enqueue( new Integer( i ) );
+            }
+            for( int i = 0; i < PIPELINES; i++ )
+            {
+                assertEquals( i, pipelines[ i ].waitForEvent() );
+            }
+        }
+        finally
+        {
+            threadManager.dispose();
+        }
+
+        final long elapsed = System.currentTimeMillis() - start;
+        assertTrue( "Hand-off to " + PIPELINES + " pipelines took " + elapsed + "ms",
+                    elapsed < BLOCK_TIMEOUT );
+    }
+
+    private static class Pipeline implements EventPipeline, EventHandler
+    {
+        private final Source[] m_sources;
+        private Integer m_lastEvent;
+
+        Pipeline( Queue queue )
+        {
+            m_sources = new Source[]{queue};
+        }
+
+        public EventHandler getEventHandler()
+        {
+            return this;
+        }
+
+        public final Source[] getSources()
+        {
+            return m_sources;
+        }
+
+        public void handleEvent( Object element )
+        {
+            handleEvents( new Object[]{element} );
+        }
+
+        public synchronized void handleEvents( Object[] elements )
+        {
+            m_lastEvent = (Integer)elements[ elements.length - 1 ];
+            notifyAll();
+        }
+
+        synchronized int waitForEvent() throws InterruptedException
+        {
+            final long end = System.currentTimeMillis() + BLOCK_TIMEOUT;
+            while( null == m_lastEvent && System.currentTimeMillis() < end )
+            {
+                wait( BLOCK_TIMEOUT );
+            }
+
+            assertNotNull( "The event was never handled", m_lastEvent );
+            final int event = m_lastEvent.intValue();
+            m_lastEvent = null;
+            return event;
+        }
+    }
+}
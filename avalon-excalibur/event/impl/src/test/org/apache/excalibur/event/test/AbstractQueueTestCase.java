@@ -20,6 +20,7 @@ import junit.framework.TestCase;
 
 import org.apache.excalibur.event.PreparedEnqueue;
 import org.apache.excalibur.event.Queue;
+import org.apache.excalibur.event.Sink;
 
 /**
  * The default queue implementation is a variabl size queue.
@@ -149,4 +150,192 @@ public abstract class AbstractQueueTestCase extends TestCase
         results = queue.dequeue( queue.size() );
         assertEquals( 0, queue.size() );
     }
+
+    /**
+     * Checks that a queue with a timeout waits for an element instead of
+     * returning immediately, and that it wakes up as soon as one arrives
+     * rather than when the timeout expires.
+     */
+    protected final void performBlockingDequeue( final Queue queue )
+        throws Exception
+    {
+        assertEquals( 0, queue.size() );
+
+        queue.setTimeout( 100 );
+        long start = System.currentTimeMillis();
+        assertNull( queue.dequeue() );
+        assertTrue( "Returned before the timeout",
+                    System.currentTimeMillis() - start >= 90 );
+
+        queue.setTimeout( 10000 );
+        final Thread producer = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep( 100 );
+                    queue.enqueue( element );
+                }
+                catch( Exception e )
+                {
+                    // the dequeue below will fail
+                }
+            }
+        };
+
+        start = System.currentTimeMillis();
+        producer.start();
+        final Object[] results = queue.dequeueAll();
+        final long elapsed = System.currentTimeMillis() - start;
+        producer.join();
+
+        assertEquals( 1, results.length );
+        assertTrue( "Waited " + elapsed + "ms for the element", elapsed < 5000 );
+        assertEquals( 0, queue.size() );
+        queue.setTimeout( 0 );
+    }
+
+    /**
+     * Runs <code>producers</code> threads that each enqueue
+     * <code>perProducer</code> elements while the calling thread drains the
+     * queue.  A producer that finds the queue full yields and retries, so
+     * bounded queues can take part as well.  Checks that every element
+     * arrives exactly once and in the order its producer sent it.
+     */
+    protected final void performMultipleProducers( final Queue queue,
+                                                   final int producers,
+                                                   final int perProducer )
+        throws Exception
+    {
+        assertEquals( 0, queue.size() );
+
+        final Thread[] threads = new Thread[ producers ];
+        for( int i = 0; i < producers; i++ )
+        {
+            threads[ i ] = new Thread( new Producer( queue, i, perProducer ),
+                                       "Producer_" + i );
+        }
+
+        final int[] lastSeen = new int[ producers ];
+        for( int i = 0; i < producers; i++ )
+        {
+            lastSeen[ i ] = -1;
+        }
+
+        for( int i = 0; i < producers; i++ )
+        {
+            threads[ i ].start();
+        }
+
+        final int total = producers * perProducer;
+        int received = 0;
+        while( received < total )
+        {
+            final Object[] results = queue.dequeueAll();
+            if( results.length == 0 )
+            {
+                Thread.yield();
+            }
+
+            for( int i = 0; i < results.length; i++ )
+            {
+                final ProducerElement element = (ProducerElement)results[ i ];
+                assertEquals( lastSeen[ element.m_producer ] + 1, element.m_sequence );
+                lastSeen[ element.m_producer ] = element.m_sequence;
+            }
+            received += results.length;
+        }
+
+        for( int i = 0; i < producers; i++ )
+        {
+            threads[ i ].join();
+        }
+
+        assertEquals( 0, queue.size() );
+    }
+
+    /**
+     * Times <code>producers</code> threads that each enqueue
+     * <code>perProducer</code> elements while the calling thread drains the
+     * queue.  Unlike {@link #performMultipleProducers} it does not check the
+     * order of the elements, so it can time queues that reorder them too.
+     *
+     * @return the number of milliseconds it took to drain all elements
+     */
+    protected static final long timeMultipleProducers( final Queue queue,
+                                                       final int producers,
+                                                       final int perProducer )
+        throws InterruptedException
+    {
+        final Thread[] threads = new Thread[ producers ];
+        for( int i = 0; i < producers; i++ )
+        {
+            threads[ i ] = new Thread( new Producer( queue, i, perProducer ),
+                                       "Producer_" + i );
+        }
+
+        final long start = System.currentTimeMillis();
+        for( int i = 0; i < producers; i++ )
+        {
+            threads[ i ].start();
+        }
+
+        final int total = producers * perProducer;
+        int received = 0;
+        while( received < total )
+        {
+            final int count = queue.dequeueAll().length;
+            if( count == 0 )
+            {
+                Thread.yield();
+            }
+            received += count;
+        }
+        final long elapsed = System.currentTimeMillis() - start;
+
+        for( int i = 0; i < producers; i++ )
+        {
+            threads[ i ].join();
+        }
+        return elapsed;
+    }
+
+    private static final class ProducerElement
+    {
+        private final int m_producer;
+        private final int m_sequence;
+
+        private ProducerElement( int producer, int sequence )
+        {
+            m_producer = producer;
+            m_sequence = sequence;
+        }
+    }
+
+    private static final class Producer implements Runnable
+    {
+        private final Sink m_sink;
+        private final int m_id;
+        private final int m_count;
+
+        private Producer( Sink sink, int id, int count )
+        {
+            m_sink = sink;
+            m_id = id;
+            m_count = count;
+        }
+
+        public void run()
+        {
+            for( int i = 0; i < m_count; i++ )
+            {
+                final Object element = new ProducerElement( m_id, i );
+                while( !m_sink.tryEnqueue( element ) )
+                {
+                    Thread.yield();
+                }
+            }
+        }
+    }
 }
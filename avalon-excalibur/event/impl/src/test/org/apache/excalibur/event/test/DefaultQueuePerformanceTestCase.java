@@ -16,7 +16,10 @@
  */
 package org.apache.excalibur.event.test;
 
+import org.apache.excalibur.event.Queue;
+import org.apache.excalibur.event.impl.ConcurrentQueue;
 import org.apache.excalibur.event.impl.DefaultQueue;
+import org.apache.excalibur.event.impl.FixedSizeQueue;
 
 /**
  * The default queue implementation is a variabl size queue.
@@ -25,6 +28,20 @@ import org.apache.excalibur.event.impl.DefaultQueue;
  */
 public final class DefaultQueuePerformanceTestCase extends AbstractQueueTestCase
 {
+    /** The producer thread counts the queues are compared with */
+    private static final int[] PRODUCERS = {1, 2, 4, 8, 16, 32, 64};
+
+    /** The total number of elements enqueued in each measurement */
+    private static final int ELEMENTS = 256 * 1024;
+
+    /** The capacity used for the bounded queues */
+    private static final int CAPACITY = 4096;
+
+    /** The names of the compared queues, in the order of newQueue() */
+    private static final String[] QUEUES =
+        {"DefaultQueue", "FixedSizeQueue(" + ELEMENTS + ")",
+         "ConcurrentQueue", "ConcurrentQueue(" + CAPACITY + ")"};
+
     public DefaultQueuePerformanceTestCase( String name )
     {
         super( name );
@@ -41,4 +58,68 @@ public final class DefaultQueuePerformanceTestCase extends AbstractQueueTestCase
     {
         this.performMillionIterationTenElements( new DefaultQueue() );
     }
+
+    public void testConcurrentQueueMillionIterationOneElement()
+        throws Exception
+    {
+        this.performMillionIterationOneElement( new ConcurrentQueue() );
+    }
+
+    public void testConcurrentQueueMillionIterationTenElements()
+        throws Exception
+    {
+        this.performMillionIterationTenElements( new ConcurrentQueue() );
+    }
+
+    /**
+     * Compares the time the queues take to move the same number of
+     * elements from 1 to 64 producer threads to one consumer.  This takes
+     * too long for the test suite, so it is run by hand:
+     * <pre>java org.apache.excalibur.event.test.DefaultQueuePerformanceTestCase</pre>
+     */
+    public static void main( String[] args )
+        throws Exception
+    {
+        // warm up every queue before measuring
+        for( int i = 0; i < QUEUES.length; i++ )
+        {
+            timeMultipleProducers( newQueue( i ), 1, ELEMENTS );
+        }
+
+        final StringBuffer header = new StringBuffer( "producers" );
+        for( int i = 0; i < QUEUES.length; i++ )
+        {
+            header.append( '\t' ).append( QUEUES[ i ] );
+        }
+        System.out.println( header + " (ms for " + ELEMENTS + " elements)" );
+
+        for( int p = 0; p < PRODUCERS.length; p++ )
+        {
+            final StringBuffer line = new StringBuffer().append( PRODUCERS[ p ] );
+            for( int i = 0; i < QUEUES.length; i++ )
+            {
+                line.append( '\t' ).append( timeMultipleProducers( newQueue( i ),
+                                                                   PRODUCERS[ p ],
+                                                                   ELEMENTS / PRODUCERS[ p ] ) );
+            }
+            System.out.println( line );
+        }
+    }
+
+    private static Queue newQueue( int index )
+    {
+        switch( index )
+        {
+            case 0:
+                return new DefaultQueue();
+            case 1:
+                // a FixedSizeQueue that fills up completely loses its
+                // elements, so it gets room for all of them
+                return new FixedSizeQueue( ELEMENTS );
+            case 2:
+                return new ConcurrentQueue();
+            default:
+                return new ConcurrentQueue( CAPACITY );
+        }
+    }
 }
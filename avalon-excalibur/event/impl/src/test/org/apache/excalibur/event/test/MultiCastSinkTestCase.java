@@ -0,0 +1,182 @@
+/* 
+ * Copyright 1999-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.event.test;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.excalibur.event.PreparedEnqueue;
+import org.apache.excalibur.event.Queue;
+import org.apache.excalibur.event.Sink;
+import org.apache.excalibur.event.SinkFullException;
+import org.apache.excalibur.event.impl.ConcurrentQueue;
+import org.apache.excalibur.event.impl.DefaultQueue;
+import org.apache.excalibur.event.impl.LossyMultiCastSink;
+import org.apache.excalibur.event.impl.MultiCastSink;
+
+/**
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class MultiCastSinkTestCase extends TestCase
+{
+    private static final Object[] BATCH = new Object[]{"a", "b", "c"};
+
+    public MultiCastSinkTestCase( String name )
+    {
+        super( name );
+    }
+
+    public void testFanOut() throws Exception
+    {
+        final Queue first = new DefaultQueue();
+        final Queue second = new DefaultQueue();
+        final Sink sink = new MultiCastSink( Arrays.asList( new Sink[]{first, second} ) );
+
+        sink.enqueue( BATCH );
+        sink.enqueue( "d" );
+
+        assertEquals( 4, first.size() );
+        assertEquals( 4, second.size() );
+        assertEquals( "d", first.dequeueAll()[ 3 ] );
+        assertEquals( "d", second.dequeueAll()[ 3 ] );
+    }
+
+    /**
+     * A batch that does not fit in one of the sinks must not end up in
+     * any of them.
+     */
+    public void testAllOrNothing() throws Exception
+    {
+        final Queue first = new DefaultQueue();
+        final Queue full = new ConcurrentQueue( 2 );
+        final Sink sink = new MultiCastSink( Arrays.asList( new Sink[]{first, full} ) );
+
+        try
+        {
+            sink.enqueue( BATCH );
+            fail( "The batch does not fit in the second sink" );
+        }
+        catch( SinkFullException sfe )
+        {
+            // expected
+        }
+
+        assertEquals( 0, first.size() );
+        assertEquals( 0, full.size() );
+
+        final PreparedEnqueue prepared = sink.prepareEnqueue( new Object[]{"a", "b"} );
+        assertEquals( 0, first.dequeueAll().length );
+        prepared.commit();
+        assertEquals( 2, first.size() );
+        assertEquals( 2, full.size() );
+    }
+
+    public void testSingle() throws Exception
+    {
+        final Queue full = new ConcurrentQueue( 2 );
+        final Queue second = new DefaultQueue();
+        final Queue third = new DefaultQueue();
+        final Sink sink = new MultiCastSink( Arrays.asList( new Sink[]{full, second, third} ), true );
+
+        sink.enqueue( BATCH );
+
+        assertEquals( 0, full.size() );
+        assertEquals( 3, second.size() );
+        assertEquals( 0, third.size() );
+    }
+
+    /**
+     * Each sink array is one stage: the batch goes to the first sink of
+     * the array that accepts it.
+     */
+    public void testSinkArrays() throws Exception
+    {
+        final Queue full = new ConcurrentQueue( 2 );
+        final Queue spare = new DefaultQueue();
+        final Queue other = new DefaultQueue();
+        final Sink sink = new MultiCastSink( Arrays.asList(
+            new Object[]{new Sink[]{full, spare}, other} ) );
+
+        sink.enqueue( BATCH );
+
+        assertEquals( 0, full.size() );
+        assertEquals( 3, spare.size() );
+        assertEquals( 3, other.size() );
+    }
+
+    public void testLossyDropCounts() throws Exception
+    {
+        final Queue first = new DefaultQueue();
+        final Queue full = new ConcurrentQueue( 2 );
+        final LossyMultiCastSink sink =
+            new LossyMultiCastSink( Arrays.asList( new Sink[]{first, full} ) );
+
+        sink.enqueue( BATCH );
+        sink.enqueue( "d" );
+        sink.enqueue( "e" );
+        sink.enqueue( "f" );
+
+        assertEquals( 6, first.size() );
+        assertEquals( 2, full.size() );
+        assertEquals( 0, sink.getDropCount( 0 ) );
+        assertEquals( 4, sink.getDropCount( 1 ) );
+
+        sink.prepareEnqueue( BATCH ).commit();
+        assertEquals( 9, first.size() );
+        assertEquals( 7, sink.getDropCounts()[ 1 ] );
+    }
+
+    /**
+     * The elements of an aborted enqueue were never dropped, so only a
+     * commit may count them.
+     */
+    public void testLossyAbortDropsNothing() throws Exception
+    {
+        final Queue first = new DefaultQueue();
+        final Queue full = new ConcurrentQueue( 2 );
+        final LossyMultiCastSink sink =
+            new LossyMultiCastSink( Arrays.asList( new Sink[]{first, full} ) );
+
+        final PreparedEnqueue prepared = sink.prepareEnqueue( BATCH );
+        assertEquals( 0, sink.getDropCount( 1 ) );
+
+        prepared.abort();
+        assertEquals( 0, first.size() );
+        assertEquals( 0, sink.getDropCount( 0 ) );
+        assertEquals( 0, sink.getDropCount( 1 ) );
+    }
+
+    public void testLossyOneSuccess() throws Exception
+    {
+        final Queue full = new ConcurrentQueue( 2 );
+        final LossyMultiCastSink sink =
+            new LossyMultiCastSink( Arrays.asList( new Sink[]{full} ), true );
+
+        try
+        {
+            sink.enqueue( BATCH );
+            fail( "No sink accepts the batch" );
+        }
+        catch( SinkFullException sfe )
+        {
+            // expected
+        }
+
+        assertEquals( 3, sink.getDropCount( 0 ) );
+    }
+}
@@ -16,6 +16,8 @@
  */
 package org.apache.excalibur.event.test;
 
+import org.apache.excalibur.event.SinkException;
+import org.apache.excalibur.event.impl.ConcurrentQueue;
 import org.apache.excalibur.event.impl.DefaultQueue;
 
 /**
@@ -25,6 +27,12 @@ import org.apache.excalibur.event.impl.DefaultQueue;
  */
 public final class QueueTestCase extends AbstractQueueTestCase
 {
+    /** The producer thread counts each queue is checked with */
+    private static final int[] PRODUCERS = {1, 4, 16};
+
+    /** The number of elements each producer enqueues */
+    private static final int PER_PRODUCER = 1000;
+
     public QueueTestCase( String name )
     {
         super( name );
@@ -35,4 +43,93 @@ public final class QueueTestCase extends AbstractQueueTestCase
     {
         this.performQueue( new DefaultQueue() );
     }
+
+    public void testConcurrentQueue()
+        throws Exception
+    {
+        this.performQueue( new ConcurrentQueue() );
+    }
+
+    public void testBoundedConcurrentQueue()
+        throws Exception
+    {
+        this.performQueue( new ConcurrentQueue( 16 ) );
+    }
+
+    public void testDefaultQueueBlockingDequeue()
+        throws Exception
+    {
+        this.performBlockingDequeue( new DefaultQueue() );
+    }
+
+    public void testConcurrentQueueBlockingDequeue()
+        throws Exception
+    {
+        this.performBlockingDequeue( new ConcurrentQueue() );
+    }
+
+    public void testMultipleProducersDefaultQueue()
+        throws Exception
+    {
+        for( int i = 0; i < PRODUCERS.length; i++ )
+        {
+            this.performMultipleProducers( new DefaultQueue(), PRODUCERS[ i ], PER_PRODUCER );
+        }
+    }
+
+    public void testMultipleProducersConcurrentQueue()
+        throws Exception
+    {
+        for( int i = 0; i < PRODUCERS.length; i++ )
+        {
+            this.performMultipleProducers( new ConcurrentQueue(), PRODUCERS[ i ], PER_PRODUCER );
+        }
+    }
+
+    public void testMultipleProducersBoundedConcurrentQueue()
+        throws Exception
+    {
+        for( int i = 0; i < PRODUCERS.length; i++ )
+        {
+            this.performMultipleProducers( new ConcurrentQueue( 16 ), PRODUCERS[ i ], PER_PRODUCER );
+        }
+    }
+
+    public void testConcurrentQueueInterrupt()
+        throws Exception
+    {
+        final ConcurrentQueue queue = new ConcurrentQueue();
+        queue.setTimeout( 10000 );
+
+        // An interrupted dequeue returns nothing, and keeps the interrupt.
+        Thread.currentThread().interrupt();
+        assertNull( queue.dequeue() );
+        assertTrue( "dequeue() kept the interrupt", Thread.interrupted() );
+
+        Thread.currentThread().interrupt();
+        assertEquals( 0, queue.dequeue( 1 ).length );
+        assertTrue( "dequeue( int ) kept the interrupt", Thread.interrupted() );
+
+        Thread.currentThread().interrupt();
+        assertEquals( 0, queue.dequeueAll().length );
+        assertTrue( "dequeueAll() kept the interrupt", Thread.interrupted() );
+
+        // An interrupted enqueue does not lose the element silently.
+        Thread.currentThread().interrupt();
+        try
+        {
+            queue.enqueue( "element" );
+            fail( "The enqueue should have been interrupted" );
+        }
+        catch( SinkException se )
+        {
+            assertTrue( "enqueue() kept the interrupt", Thread.interrupted() );
+        }
+
+        Thread.currentThread().interrupt();
+        assertFalse( queue.tryEnqueue( "element" ) );
+        assertTrue( "tryEnqueue() kept the interrupt", Thread.interrupted() );
+
+        assertEquals( 0, queue.size() );
+    }
 }
@@ -26,6 +26,7 @@ import org.apache.log.format.ExtendedPatternFormatter;
 import org.apache.log.format.Formatter;
 import org.apache.log.format.PatternFormatter;
 import org.apache.log.format.RawFormatter;
+import org.apache.log.output.net.BinaryDatagramOutputTarget;
 import org.apache.log.output.net.DatagramOutputTarget;
 
 /**
@@ -47,6 +48,14 @@ import org.apache.log.output.net.DatagramOutputTarget;
  *  of the &lt;address&gt; element and the port by the port attribute.The &lt;address&gt; element
  *  wraps the format to output the log.
  * </p>
+ * <p>
+ *  If a &lt;binary max-packet-size="1400" flush-interval="1000" /&gt; element is
+ *  present instead of the format, a BinaryDatagramOutputTarget is created, which
+ *  sends the events in a compact binary format to a DatagramLogServer. With a
+ *  flush-interval (default 0), events are packed into datagrams of up to
+ *  max-packet-size bytes (default 1400), and a partly filled datagram is sent
+ *  every flush-interval milliseconds.
+ * </p>
  *
  *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
@@ -83,6 +92,22 @@ public class DatagramTargetFactory
 
         int port = configChild.getAttributeAsInteger( "port" );
 
+        final Configuration binary = conf.getChild( "binary", false );
+        if( null != binary )
+        {
+            try
+            {
+                return new BinaryDatagramOutputTarget( address, port,
+                    binary.getAttributeAsInteger( "max-packet-size",
+                                                  BinaryDatagramOutputTarget.DEFAULT_PACKET_SIZE ),
+                    binary.getAttributeAsLong( "flush-interval", 0 ) );
+            }
+            catch( IOException ioex )
+            {
+                throw new ConfigurationException( "Failed to create target!", ioex );
+            }
+        }
+
         final Formatter formatter = getFormatter( conf.getChild( "format", false ) );
 
         try
@@ -23,6 +23,7 @@ import org.apache.avalon.framework.configuration.Configuration;
 import org.apache.avalon.framework.configuration.ConfigurationException;
 import org.apache.avalon.framework.context.ContextException;
 import org.apache.log.LogTarget;
+import org.apache.log.Priority;
 import org.apache.log.format.Formatter;
 import org.apache.log.output.io.FileTarget;
 import org.apache.log.output.io.rotate.FileStrategy;
@@ -47,10 +48,16 @@ import org.apache.log.output.io.rotate.UniqueFileStrategy;
  *  &lt;filename&gt;${context-key}/real-name/...&lt;/filename&gt;
  *  &lt;format type="avalon|raw|pattern|extended"&gt;pattern to be used if needed&lt;/format&gt;
  *  &lt;append&gt;true|false&lt;/append&gt;
+ *  &lt;buffer size="8192" flush-interval="1000" flush-priority="ERROR"/&gt;
  *  &lt;rotation type="revolving" init="5" max="10"&gt;
  *
  * or
  *
+ *  &lt;rotation type="revolving" init="5" max="10" background="true"
+ *      compress="true" max-archives="5"&gt;
+ *
+ * or
+ *
  *  &lt;rotation type="unique" pattern="yyyy-MM-dd-hh-mm-ss" suffix=".log"&gt;
  *   &lt;or&gt;
  *    &lt;size&gt;10000000&lt;/size&gt;
@@ -84,6 +91,14 @@ import org.apache.log.output.io.rotate.UniqueFileStrategy;
  *   (normally at the start of the applcation) or not and thus the log
  *   entries will be appended. This elements defaults to false.
  *  </dd>
+ *  <dt>&lt;buffer&gt;<dt>
+ *  <dd>
+ *   This is an optional element. If present, log entries are collected in a
+ *   buffer of size bytes (default 8192), which is written to the file when it
+ *   is full, every flush-interval milliseconds (default 1000, 0 for never),
+ *   at once after an entry at or above flush-priority (default ERROR), and
+ *   before the file is closed or rotated.
+ *  </dd>
  *  <dt>&lt;rotation&gt;</dt>
  *  <dd>
  *   This is an optional element.
@@ -97,6 +112,12 @@ import org.apache.log.output.io.rotate.UniqueFileStrategy;
  *   can be set to -1 in which case the system will first create the maximum
  *   number of file rotations by selecting the next available rotation and thereafter
  *   will overwrite the oldest log file.
+ *   <p> If the optional background attribute is true, the next file is
+ *   opened and the rotated out file is closed by a background thread, so
+ *   logging never waits for rotation. The background thread then
+ *   compresses the rotated out file with gzip if the compress attribute is
+ *   true, and keeps at most max-archives of the rotated out files (default
+ *   0, which keeps all of them).
  *  </dd>
  *  <dt>&lt;or&gt;</dt>
  *  <dd>uses the OrRotateStrategy to combine the children</dd>
@@ -148,7 +169,7 @@ public class FileTargetFactory
         final Configuration confAppend = configuration.getChild( "append" );
         final boolean append = confAppend.getValueAsBoolean( false );
 
-        final LogTarget logtarget;
+        final FileTarget logtarget;
 
         final File file = new File( filename );
         final Formatter formatter = getFormatter( confFormat );
@@ -171,8 +192,15 @@ public class FileTargetFactory
                 final RotateStrategy rotateStrategy = getRotateStrategy( confStrategy );
                 final FileStrategy fileStrategy = getFileStrategy( confRotation, file );
 
-                logtarget =
+                final RotatingFileTarget rotatingTarget =
                     new RotatingFileTarget( append, formatter, rotateStrategy, fileStrategy );
+                if( confRotation.getAttributeAsBoolean( "background", false ) )
+                {
+                    rotatingTarget.setBackgroundRotation(
+                        confRotation.getAttributeAsBoolean( "compress", false ),
+                        confRotation.getAttributeAsInteger( "max-archives", 0 ) );
+                }
+                logtarget = rotatingTarget;
             }
         }
         catch( final IOException ioe )
@@ -180,6 +208,16 @@ public class FileTargetFactory
             throw new ConfigurationException( "cannot create FileTarget", ioe );
         }
 
+        final Configuration confBuffer = configuration.getChild( "buffer", false );
+        if( null != confBuffer )
+        {
+            final int size = confBuffer.getAttributeAsInteger( "size", 8192 );
+            final long flushInterval = confBuffer.getAttributeAsLong( "flush-interval", 1000 );
+            final String flushPriority = confBuffer.getAttribute( "flush-priority", "ERROR" );
+            logtarget.setBuffering( size, flushInterval,
+                                    Priority.getPriorityForName( flushPriority ) );
+        }
+
         return logtarget;
     }
 
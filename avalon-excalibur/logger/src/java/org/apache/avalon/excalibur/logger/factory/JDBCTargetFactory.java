@@ -36,6 +36,7 @@ import org.apache.log.output.db.NormalizedJDBCTarget;
  *  &lt;jdbc id="database"&gt;
  *      &lt;datasource&gt;java:/LogTargetDataSource&lt;/datasource&gt;
  *      &lt;normalized&gt;true&lt;/normalized&gt;
+ *      &lt;batch size="100" flush-interval="1000"/&gt;
  *      &lt;table name="LOG"&gt;
  *          &lt;category&gt;CATEGORY&lt;/category&gt;
  *          &lt;priority&gt;PRIORITY&lt;/priority&gt;
@@ -52,6 +53,11 @@ import org.apache.log.output.db.NormalizedJDBCTarget;
  *  &lt;/jdbc&gt;
  * </pre>
  *
+ * <p>The <code>batch</code> element is optional. If present, log entries
+ * are inserted in JDBC batches of <code>size</code> entries (default 100),
+ * each committed in one transaction, and a partial batch is written every
+ * <code>flush-interval</code> milliseconds (default 1000, 0 for never).</p>
+ *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  * @version CVS $Revision: 1.10 $ $Date: 2004/03/10 13:54:50 $
  */
@@ -95,7 +101,7 @@ public class JDBCTargetFactory implements LogTargetFactory
             throw new ConfigurationException( "Cannot lookup data source", ne );
         }
 
-        final LogTarget logTarget;
+        final DefaultJDBCTarget logTarget;
         if( normalized )
         {
             logTarget = new NormalizedJDBCTarget( dataSource, table, columns );
@@ -105,6 +111,15 @@ public class JDBCTargetFactory implements LogTargetFactory
             logTarget = new DefaultJDBCTarget( dataSource, table, columns );
         }
 
+        final Configuration batchConfiguration = configuration.getChild( "batch", false );
+        if( null != batchConfiguration )
+        {
+            final int size = batchConfiguration.getAttributeAsInteger( "size", 100 );
+            final long flushInterval =
+                batchConfiguration.getAttributeAsLong( "flush-interval", 1000 );
+            logTarget.setBatching( size, flushInterval );
+        }
+
         return logTarget;
     }
 }
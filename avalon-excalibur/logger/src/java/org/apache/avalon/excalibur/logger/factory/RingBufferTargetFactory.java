@@ -0,0 +1,136 @@
+/*
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.apache.avalon.excalibur.logger.factory;
+
+import org.apache.avalon.excalibur.logger.LogTargetFactory;
+import org.apache.avalon.excalibur.logger.LogTargetFactoryManageable;
+import org.apache.avalon.excalibur.logger.LogTargetFactoryManager;
+import org.apache.avalon.excalibur.logger.logkit.InstrumentedRingBufferLogTarget;
+import org.apache.avalon.framework.configuration.Configuration;
+import org.apache.avalon.framework.configuration.ConfigurationException;
+import org.apache.log.LogTarget;
+import org.apache.log.Priority;
+import org.apache.log.output.RingBufferLogTarget;
+
+/**
+ * RingBufferTargetFactory class.
+ *
+ * This factory creates LogTargets with a wrapped RingBufferLogTarget around it:
+ *
+ * <pre>
+ *
+ * &lt;ring-buffer-target id="target-id" capacity="1024" overflow="block"
+ *      drop-priority="WARN" batch-size="256" priority="MIN|NORM|MAX|n"&gt;
+ *  &lt;any-target-definition/&gt;
+ * &lt;/ring-buffer-target&gt;
+ *
+ * </pre>
+ * <p>
+ *  Unlike the AsyncLogTarget created by the AsyncLogTargetFactory, the logging
+ *  threads do not queue up on the target while its thread writes. The
+ *  overflow attribute says what happens when the buffer is full: "block"
+ *  waits for room, "drop-oldest" drops the oldest waiting event, "drop-new"
+ *  drops the new event, and "drop-below-priority" drops new events below the
+ *  drop-priority and waits for room for the others.
+ * </p>
+ * <p>
+ *  The created target is an {@link InstrumentedRingBufferLogTarget} whose
+ *  instrumentable name is the id of the target, so the number of events,
+ *  dropped events and waiting events can be profiled once the target is
+ *  registered with an InstrumentManager.
+ * </p>
+ * <p>
+ *  The Thread of the created target will have a priority specified by the
+ *  priority attribute, as with the AsyncLogTargetFactory.
+ * </p>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class RingBufferTargetFactory
+    extends AbstractTargetFactory
+    implements LogTargetFactoryManageable
+{
+    /** The LogTargetFactoryManager */
+    protected LogTargetFactoryManager m_logTargetFactoryManager;
+
+    /**
+     * create a LogTarget based on a Configuration
+     */
+    public final LogTarget createTarget( final Configuration configuration )
+        throws ConfigurationException
+    {
+        final int capacity = configuration.getAttributeAsInteger( "capacity", 1024 );
+        final int batchSize = configuration.getAttributeAsInteger( "batch-size", 256 );
+        final String overflow = configuration.getAttribute( "overflow", "block" );
+        final Priority dropPriority =
+            Priority.getPriorityForName( configuration.getAttribute( "drop-priority", "WARN" ) );
+
+        final int policy;
+        try
+        {
+            policy = RingBufferLogTarget.getPolicyForName( overflow );
+        }
+        catch( final IllegalArgumentException iae )
+        {
+            throw new ConfigurationException( iae.getMessage(), configuration );
+        }
+
+        final Configuration config = configuration.getChildren()[ 0 ];
+        final LogTargetFactory factory = m_logTargetFactoryManager.getLogTargetFactory( config.getName() );
+        final LogTarget target = factory.createTarget( config );
+        final InstrumentedRingBufferLogTarget ringTarget = new InstrumentedRingBufferLogTarget(
+            target, capacity, policy, dropPriority, batchSize, false );
+
+        final String id = configuration.getAttribute( "id", null );
+        if( null != id )
+        {
+            ringTarget.setInstrumentableName( id );
+        }
+
+        final String priority = configuration.getAttribute( "priority", null );
+        final int threadPriority;
+        if( "MIN".equalsIgnoreCase( priority ) )
+        {
+            threadPriority = Thread.MIN_PRIORITY;
+        }
+        else if( "NORM".equalsIgnoreCase( priority ) )
+        {
+            threadPriority = Thread.NORM_PRIORITY;
+        }
+        else if( "MAX".equalsIgnoreCase( priority ) )
+        {
+            threadPriority = Thread.MAX_PRIORITY;
+        }
+        else
+        {
+            threadPriority = configuration.getAttributeAsInteger( "priority", Thread.NORM_PRIORITY );
+        }
+        final Thread thread = new Thread( ringTarget );
+        thread.setPriority( threadPriority );
+        thread.setDaemon( true );
+        thread.start();
+        return ringTarget;
+    }
+
+    /**
+     * get the LogTargetFactoryManager
+     */
+    public final void setLogTargetFactoryManager( LogTargetFactoryManager logTargetFactoryManager )
+    {
+        m_logTargetFactoryManager = logTargetFactoryManager;
+    }
+}
@@ -22,6 +22,7 @@ import java.net.UnknownHostException;
 import org.apache.avalon.framework.configuration.Configuration;
 import org.apache.avalon.framework.configuration.ConfigurationException;
 import org.apache.log.LogTarget;
+import org.apache.log.output.net.BinarySocketOutputTarget;
 import org.apache.log.output.net.SocketOutputTarget;
 
 /**
@@ -31,6 +32,7 @@ import org.apache.log.output.net.SocketOutputTarget;
  * <pre>
  * &lt;socket-target id="target-id"&gt;
  *   &lt;address hostname="hostname" port="4455" /&gt;
+ *   &lt;binary batch-size="100" flush-interval="1000" /&gt;
  * &lt;/socket-target&gt;
  * </pre>
  * </p>
@@ -41,6 +43,12 @@ import org.apache.log.output.net.SocketOutputTarget;
  *  In the config file above the formatting for the log messages is not embedded as it should
  *  be specified on the server side
  * </p>
+ * <p>
+ *  If the optional &lt;binary&gt; element is present, a BinarySocketOutputTarget
+ *  is created instead, which sends the events in a compact binary format to a
+ *  SocketLogServer. Events are sent in batches of batch-size events (default 1),
+ *  and a partial batch is sent every flush-interval milliseconds (default 0, never).
+ * </p>
  *
  *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
@@ -77,8 +85,16 @@ public class SocketTargetFactory
 
         final int port = configChild.getAttributeAsInteger( "port" );
 
+        final Configuration binary = conf.getChild( "binary", false );
+
         try
         {
+            if( null != binary )
+            {
+                return new BinarySocketOutputTarget( address, port,
+                                                     binary.getAttributeAsInteger( "batch-size", 1 ),
+                                                     binary.getAttributeAsLong( "flush-interval", 0 ) );
+            }
             return new SocketOutputTarget( address, port );
         }
         catch( final IOException ioex )
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.apache.avalon.excalibur.logger.logkit;
+
+import org.apache.excalibur.instrument.CounterInstrument;
+import org.apache.excalibur.instrument.Instrument;
+import org.apache.excalibur.instrument.Instrumentable;
+import org.apache.excalibur.instrument.ValueInstrument;
+import org.apache.log.LogEvent;
+import org.apache.log.LogTarget;
+import org.apache.log.Priority;
+import org.apache.log.output.RingBufferLogTarget;
+
+/**
+ * A RingBufferLogTarget which exposes the number of events it is given,
+ * the number it drops because its buffer is full and the number waiting
+ * in its buffer as instruments.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class InstrumentedRingBufferLogTarget
+    extends RingBufferLogTarget
+    implements Instrumentable
+{
+    public static final String DEFAULT_INSTRUMENTABLE_NAME = "log-target";
+    public static final String INSTRUMENT_EVENTS_NAME = "events";
+    public static final String INSTRUMENT_DROPPED_NAME = "dropped";
+    public static final String INSTRUMENT_SIZE_NAME = "size";
+
+    /** Instrumentable Name assigned to this Instrumentable */
+    private String m_instrumentableName = DEFAULT_INSTRUMENTABLE_NAME;
+
+    /** Instrument used to profile the number of events logged. */
+    private final CounterInstrument m_eventsInstrument;
+
+    /** Instrument used to profile the number of dropped events. */
+    private final CounterInstrument m_droppedInstrument;
+
+    /** Instrument used to profile the number of events waiting in the buffer. */
+    private final ValueInstrument m_sizeInstrument;
+
+    /**
+     * Creation of a new instrumented ring buffer log target.
+     *
+     * @param logTarget the underlying target
+     * @param capacity the number of events the buffer holds, rounded up to a power of two
+     * @param policy what to do when the buffer is full
+     * @param dropPriority events below this priority are dropped when the buffer is full
+     *        under the DROP_BELOW_PRIORITY policy
+     * @param batchSize the largest number of events written without taking the lock
+     * @param closeTarget close the underlying target when this target is closed.
+     */
+    public InstrumentedRingBufferLogTarget( final LogTarget logTarget,
+                                            final int capacity,
+                                            final int policy,
+                                            final Priority dropPriority,
+                                            final int batchSize,
+                                            final boolean closeTarget )
+    {
+        super( logTarget, capacity, policy, dropPriority, batchSize, closeTarget );
+
+        m_eventsInstrument = new CounterInstrument( INSTRUMENT_EVENTS_NAME );
+        m_droppedInstrument = new CounterInstrument( INSTRUMENT_DROPPED_NAME );
+        m_sizeInstrument = new ValueInstrument( INSTRUMENT_SIZE_NAME );
+    }
+
+    protected void doProcessEvent( final LogEvent event )
+    {
+        super.doProcessEvent( event );
+
+        // Notify the InstrumentManager
+        m_eventsInstrument.increment();
+        if( m_sizeInstrument.isActive() )
+        {
+            m_sizeInstrument.setValue( getSize() );
+        }
+    }
+
+    protected void eventDropped( final LogEvent event )
+    {
+        m_droppedInstrument.increment();
+    }
+
+    /*---------------------------------------------------------------
+     * Instrumentable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Sets the name for the Instrumentable.
+     *
+     * @param name The name used to identify a Instrumentable.
+     */
+    public void setInstrumentableName( final String name )
+    {
+        m_instrumentableName = name;
+    }
+
+    /**
+     * Gets the name of the Instrumentable.
+     *
+     * @return The name used to identify a Instrumentable.
+     */
+    public String getInstrumentableName()
+    {
+        return m_instrumentableName;
+    }
+
+    /**
+     * Obtain a reference to all the Instruments that the Instrumentable object
+     *  wishes to expose.
+     *
+     * @return An array of the Instruments available for profiling.
+     */
+    public Instrument[] getInstruments()
+    {
+        return new Instrument[]
+        {
+            m_eventsInstrument,
+            m_droppedInstrument,
+            m_sizeInstrument
+        };
+    }
+
+    /**
+     * This Instrumentable has no children.
+     *
+     * @return EMPTY_INSTRUMENTABLE_ARRAY
+     */
+    public Instrumentable[] getChildInstrumentables()
+    {
+        return Instrumentable.EMPTY_INSTRUMENTABLE_ARRAY;
+    }
+}
@@ -0,0 +1,138 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool.benchmark;
+
+import java.lang.reflect.Method;
+
+/**
+ * Gives the benchmark access to the high resolution timer and to the
+ *  per thread allocation counters of newer JVMs, without requiring them.
+ *  On a JVM which lacks <code>System.nanoTime()</code> the clock falls back
+ *  to <code>System.currentTimeMillis()</code>, and allocations are reported
+ *  as unavailable.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class BenchmarkClock
+{
+    private static final Method NANO_TIME;
+    private static final Method THREAD_ID;
+    private static final Object THREAD_BEAN;
+    private static final Method ALLOCATED_BYTES;
+
+    static
+    {
+        Method nanoTime = null;
+        try
+        {
+            nanoTime = System.class.getMethod( "nanoTime", new Class[ 0 ] );
+        }
+        catch( Exception e )
+        {
+            // Before 1.5, fall back to milliseconds.
+        }
+        NANO_TIME = nanoTime;
+
+        Method threadId = null;
+        Object threadBean = null;
+        Method allocatedBytes = null;
+        try
+        {
+            threadId = Thread.class.getMethod( "getId", new Class[ 0 ] );
+            threadBean = Class.forName( "java.lang.management.ManagementFactory" )
+                .getMethod( "getThreadMXBean", new Class[ 0 ] ).invoke( null, new Object[ 0 ] );
+            allocatedBytes = Class.forName( "com.sun.management.ThreadMXBean" )
+                .getMethod( "getThreadAllocatedBytes", new Class[]{ Long.TYPE } );
+
+            // Make sure it is supported and switched on.
+            final Long id = (Long)threadId.invoke( Thread.currentThread(), new Object[ 0 ] );
+            if( ( (Long)allocatedBytes.invoke( threadBean, new Object[]{ id } ) ).longValue() < 0 )
+            {
+                allocatedBytes = null;
+            }
+        }
+        catch( Throwable t )
+        {
+            allocatedBytes = null;
+        }
+        THREAD_ID = threadId;
+        THREAD_BEAN = threadBean;
+        ALLOCATED_BYTES = allocatedBytes;
+    }
+
+    private BenchmarkClock()
+    {
+    }
+
+    /**
+     * Returns true if the clock has a resolution better than a millisecond.
+     */
+    public static boolean isPrecise()
+    {
+        return NANO_TIME != null;
+    }
+
+    /**
+     * Returns the current value of the clock, in nanoseconds.  Only the
+     *  difference between two values has a meaning.
+     */
+    public static long nanoTime()
+    {
+        if( NANO_TIME != null )
+        {
+            try
+            {
+                return ( (Long)NANO_TIME.invoke( null, new Object[ 0 ] ) ).longValue();
+            }
+            catch( Exception e )
+            {
+                // Can not happen, fall through.
+            }
+        }
+        return System.currentTimeMillis() * 1000000L;
+    }
+
+    /**
+     * Returns true if {@link #allocatedBytes()} is supported by this JVM.
+     */
+    public static boolean isAllocationCounted()
+    {
+        return ALLOCATED_BYTES != null;
+    }
+
+    /**
+     * Returns the number of bytes the current thread has allocated since
+     *  it was started, or -1 if this JVM does not count allocations.
+     */
+    public static long allocatedBytes()
+    {
+        if( ALLOCATED_BYTES == null )
+        {
+            return -1;
+        }
+
+        try
+        {
+            final Object id = THREAD_ID.invoke( Thread.currentThread(), new Object[ 0 ] );
+            return ( (Long)ALLOCATED_BYTES.invoke( THREAD_BEAN, new Object[]{ id } ) ).longValue();
+        }
+        catch( Exception e )
+        {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool.benchmark;
+
+/**
+ * Creates the {@link BenchmarkPoolable} objects for both kinds of pool.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class BenchmarkObjectFactory
+    implements org.apache.avalon.excalibur.pool.ObjectFactory,
+               org.apache.excalibur.mpool.ObjectFactory
+{
+    public Object newInstance()
+    {
+        return new BenchmarkPoolable();
+    }
+
+    public Class getCreatedClass()
+    {
+        return BenchmarkPoolable.class;
+    }
+
+    public void decommission( final Object object )
+    {
+    }
+
+    public void dispose( final Object object )
+    {
+    }
+}
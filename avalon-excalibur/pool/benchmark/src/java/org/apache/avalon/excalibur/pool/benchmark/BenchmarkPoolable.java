@@ -0,0 +1,47 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool.benchmark;
+
+import org.apache.avalon.excalibur.pool.Poolable;
+import org.apache.avalon.excalibur.pool.Validatable;
+
+/**
+ * The object handed out by the pools under benchmark.  It is always valid,
+ *  so the ValidatedResourceLimitingPool measures only the cost of asking.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class BenchmarkPoolable
+    implements Poolable, Validatable
+{
+    private int m_uses;
+
+    /**
+     * Marks the object as used.
+     *
+     * @return the number of times the object has been used.
+     */
+    public int touch()
+    {
+        return ++m_uses;
+    }
+
+    public boolean validate()
+    {
+        return true;
+    }
+}
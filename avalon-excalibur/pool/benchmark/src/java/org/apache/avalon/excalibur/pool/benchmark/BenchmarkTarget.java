@@ -0,0 +1,53 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool.benchmark;
+
+/**
+ * A pool under benchmark, seen through a single operation: take an object
+ *  from the pool, use it, and give it back.  This hides the difference
+ *  between the <code>org.apache.avalon.excalibur.pool</code> and the
+ *  <code>org.apache.excalibur.mpool</code> interfaces.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public interface BenchmarkTarget
+{
+    /**
+     * Returns the name the results are reported under.
+     */
+    String getName();
+
+    /**
+     * Returns true if the pool may be used by several threads at once.
+     *  Other pools are only measured with a single thread.
+     */
+    boolean isThreadSafe();
+
+    /**
+     * Takes an object from the pool, touches it, and puts it back.
+     *
+     * @return a value read from the object, so that the work can not be
+     *  optimized away.
+     * @throws Exception if the pool fails.
+     */
+    int cycle() throws Exception;
+
+    /**
+     * Disposes the pool.
+     */
+    void dispose();
+}
@@ -0,0 +1,144 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool.benchmark;
+
+/**
+ * Counts latencies in buckets whose width grows with the latency, so
+ *  that every recorded value is off by at most 1/32 of itself.  Values
+ *  below 64 have a bucket each.
+ * <p>
+ * A LatencyHistogram is not thread safe; each benchmark thread records
+ *  into its own, and the histograms are merged afterwards.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class LatencyHistogram
+{
+    private static final int LINEAR = 64;
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final long[] m_counts = new long[ LINEAR + ( 64 - 6 ) * SUB_BUCKETS ];
+    private long m_total;
+    private long m_max;
+
+    /**
+     * Records a latency.
+     *
+     * @param value the latency, negative values count as 0.
+     */
+    public void record( final long value )
+    {
+        final long v = Math.max( 0, value );
+        m_counts[ indexOf( v ) ]++;
+        m_total++;
+        if( v > m_max )
+        {
+            m_max = v;
+        }
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     *
+     * @param other the histogram to add.
+     */
+    public void add( final LatencyHistogram other )
+    {
+        for( int i = 0; i < m_counts.length; i++ )
+        {
+            m_counts[ i ] += other.m_counts[ i ];
+        }
+        m_total += other.m_total;
+        m_max = Math.max( m_max, other.m_max );
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     */
+    public long getCount()
+    {
+        return m_total;
+    }
+
+    /**
+     * Returns the largest recorded latency.
+     */
+    public long getMax()
+    {
+        return m_max;
+    }
+
+    /**
+     * Returns the latency below which the given fraction of the recorded
+     *  latencies lie.
+     *
+     * @param fraction a value between 0 and 1, for example 0.99.
+     * @return the upper bound of the bucket of that latency, or 0 if
+     *  nothing was recorded.
+     */
+    public long getPercentile( final double fraction )
+    {
+        final long rank = (long)Math.ceil( fraction * m_total );
+        long seen = 0;
+        for( int i = 0; i < m_counts.length; i++ )
+        {
+            seen += m_counts[ i ];
+            if( seen >= rank && seen > 0 )
+            {
+                return Math.min( m_max, upperBoundOf( i ) );
+            }
+        }
+        return 0;
+    }
+
+    private static int indexOf( final long value )
+    {
+        if( value < LINEAR )
+        {
+            return (int)value;
+        }
+
+        final int exponent = 63 - numberOfLeadingZeros( value );
+        final int sub = (int)( ( value >>> ( exponent - SUB_BITS ) ) & ( SUB_BUCKETS - 1 ) );
+        return LINEAR + ( exponent - 6 ) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf( final int index )
+    {
+        if( index < LINEAR )
+        {
+            return index;
+        }
+
+        final int exponent = ( index - LINEAR ) / SUB_BUCKETS + 6;
+        final long sub = ( index - LINEAR ) % SUB_BUCKETS;
+        final long width = 1L << ( exponent - SUB_BITS );
+        return ( 1L << exponent ) + ( sub + 1 ) * width - 1;
+    }
+
+    private static int numberOfLeadingZeros( long value )
+    {
+        int count = 0;
+        while( value > 0 )
+        {
+            value <<= 1;
+            count++;
+        }
+        return count;
+    }
+}
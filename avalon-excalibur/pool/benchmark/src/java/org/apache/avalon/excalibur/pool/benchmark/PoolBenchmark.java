@@ -0,0 +1,570 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+import org.apache.avalon.excalibur.pool.DefaultPool;
+import org.apache.avalon.excalibur.pool.DefaultPoolController;
+import org.apache.avalon.excalibur.pool.HardResourceLimitingPool;
+import org.apache.avalon.excalibur.pool.Pool;
+import org.apache.avalon.excalibur.pool.Poolable;
+import org.apache.avalon.excalibur.pool.ResourceLimitingPool;
+import org.apache.avalon.excalibur.pool.SingleThreadedPool;
+import org.apache.avalon.excalibur.pool.StripedResourceLimitingPool;
+import org.apache.avalon.excalibur.pool.ValidatedResourceLimitingPool;
+import org.apache.avalon.framework.activity.Disposable;
+import org.apache.avalon.framework.logger.LogEnabled;
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.excalibur.mpool.BlockingFixedSizePool;
+import org.apache.excalibur.mpool.FixedSizePool;
+import org.apache.excalibur.mpool.VariableSizePool;
+
+/**
+ * Measures how the pool implementations behave when several threads take
+ *  objects from them and give them back as fast as they can.
+ * <p>
+ * Every run starts with a warmup phase whose results are thrown away, so
+ *  that the JIT compiler has settled before anything is measured.  During
+ *  the measurement each thread times every get/put cycle on its own and
+ *  records it in a {@link LatencyHistogram}, so that the percentiles show
+ *  the slow cycles rather than an average.  Consecutive cycles share a
+ *  timestamp, so one call of the timer is part of every latency; the
+ *  baseline shows what that costs.  The values read from the pooled
+ *  objects are accumulated and published, so that the compiler can not
+ *  remove the work.  The throughput, the latency percentiles and, on JVMs which count
+ *  them, the number of bytes allocated per cycle are printed for each pool
+ *  and thread count.
+ * <p>
+ * Usage:
+ * <pre>
+ *   java org.apache.avalon.excalibur.pool.benchmark.PoolBenchmark
+ *       [-threads 1,2,4] [-warmup ms] [-time ms] [-pools name,name]
+ * </pre>
+ * The thread counts default to the powers of two up to twice the number
+ *  of processors, and all pools are measured unless <code>-pools</code>
+ *  names some of them.  Every pool is sized to the largest thread count,
+ *  so that threads only wait on the pool's locks, not for free objects.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class PoolBenchmark
+{
+    /** Number of cycles between two checks for the end of a phase. */
+    public static final int BATCH_SIZE = 100;
+
+    /** Names of all the pools which can be measured. */
+    public static final String[] POOLS = new String[]
+    {
+        "baseline",
+        "DefaultPool",
+        "HardResourceLimitingPool",
+        "SingleThreadedPool",
+        "ResourceLimitingPool",
+        "ValidatedResourceLimitingPool",
+        "StripedResourceLimitingPool",
+        "FixedSizePool",
+        "BlockingFixedSizePool",
+        "VariableSizePool"
+    };
+
+    private static final int WARMUP = 0;
+    private static final int MEASURE = 1;
+    private static final int STOP = 2;
+
+    /** Published results of the threads, so the work can not be removed. */
+    public static volatile int c_sink;
+
+    private final BenchmarkTarget m_target;
+    private final int m_threads;
+    private volatile int m_phase = WARMUP;
+
+    private PoolBenchmark( final BenchmarkTarget target, final int threads )
+    {
+        m_target = target;
+        m_threads = threads;
+    }
+
+    /*---------------------------------------------------------------
+     * Main
+     *-------------------------------------------------------------*/
+    public static void main( final String[] args )
+        throws Exception
+    {
+        int[] threads = null;
+        long warmup = 5000;
+        long time = 10000;
+        String[] pools = POOLS;
+
+        for( int i = 0; i < args.length; i++ )
+        {
+            final String arg = args[ i ];
+            if( i + 1 >= args.length )
+            {
+                usage( "Missing value for " + arg );
+                return;
+            }
+
+            final String value = args[ ++i ];
+            if( "-threads".equals( arg ) )
+            {
+                final String[] counts = split( value );
+                threads = new int[ counts.length ];
+                for( int j = 0; j < counts.length; j++ )
+                {
+                    threads[ j ] = Integer.parseInt( counts[ j ] );
+                }
+            }
+            else if( "-warmup".equals( arg ) )
+            {
+                warmup = Long.parseLong( value );
+            }
+            else if( "-time".equals( arg ) )
+            {
+                time = Long.parseLong( value );
+            }
+            else if( "-pools".equals( arg ) )
+            {
+                pools = split( value );
+            }
+            else
+            {
+                usage( "Unknown option " + arg );
+                return;
+            }
+        }
+
+        if( threads == null )
+        {
+            final List counts = new ArrayList();
+            final int limit = 2 * Runtime.getRuntime().availableProcessors();
+            for( int count = 1; count <= limit; count *= 2 )
+            {
+                counts.add( new Integer( count ) );
+            }
+            threads = new int[ counts.size() ];
+            for( int i = 0; i < threads.length; i++ )
+            {
+                threads[ i ] = ( (Integer)counts.get( i ) ).intValue();
+            }
+        }
+
+        int maxThreads = 1;
+        for( int i = 0; i < threads.length; i++ )
+        {
+            maxThreads = Math.max( maxThreads, threads[ i ] );
+        }
+
+        System.out.println( "# warmup " + warmup + " ms, measurement " + time + " ms, "
+                            + Runtime.getRuntime().availableProcessors() + " processors" );
+        if( !BenchmarkClock.isPrecise() )
+        {
+            System.out.println( "# no nanosecond timer, latencies are rounded to milliseconds" );
+        }
+        System.out.println( pad( "pool", -30 ) + pad( "threads", 8 ) + pad( "ops/s", 14 )
+                            + pad( "p50 ns", 10 ) + pad( "p90 ns", 10 ) + pad( "p99 ns", 10 )
+                            + pad( "p99.9 ns", 10 ) + pad( "max ns", 12 ) + pad( "B/op", 8 ) );
+
+        for( int i = 0; i < pools.length; i++ )
+        {
+            for( int j = 0; j < threads.length; j++ )
+            {
+                final BenchmarkTarget target = createTarget( pools[ i ], maxThreads );
+                try
+                {
+                    if( threads[ j ] == 1 || target.isThreadSafe() )
+                    {
+                        new PoolBenchmark( target, threads[ j ] ).run( warmup, time );
+                    }
+                }
+                finally
+                {
+                    target.dispose();
+                }
+            }
+        }
+    }
+
+    private static void usage( final String message )
+    {
+        System.err.println( message );
+        System.err.println( "Usage: PoolBenchmark [-threads 1,2,4] [-warmup ms] [-time ms]"
+                            + " [-pools name,name]" );
+        final StringBuffer sb = new StringBuffer( "Pools:" );
+        for( int i = 0; i < POOLS.length; i++ )
+        {
+            sb.append( ' ' ).append( POOLS[ i ] );
+        }
+        System.err.println( sb.toString() );
+    }
+
+    /**
+     * Creates a fresh pool of the given name.
+     *
+     * @param name one of {@link #POOLS}.
+     * @param max the number of objects the pool should be able to hand out at
+     *  once.
+     */
+    public static BenchmarkTarget createTarget( final String name, final int max )
+        throws Exception
+    {
+        final BenchmarkObjectFactory factory = new BenchmarkObjectFactory();
+
+        if( "baseline".equals( name ) )
+        {
+            return new BaselineTarget();
+        }
+        else if( "DefaultPool".equals( name ) )
+        {
+            return new AvalonPoolTarget( name,
+                new DefaultPool( factory, null, max, max ), true );
+        }
+        else if( "HardResourceLimitingPool".equals( name ) )
+        {
+            final HardResourceLimitingPool pool = new HardResourceLimitingPool(
+                factory, new DefaultPoolController( Math.max( 1, max / 2 ) ), max, max );
+            pool.enableLogging( new NullLogger() );
+            pool.initialize();
+            return new AvalonPoolTarget( name, pool, true );
+        }
+        else if( "SingleThreadedPool".equals( name ) )
+        {
+            final SingleThreadedPool pool = new SingleThreadedPool( factory, max, max );
+            pool.initialize();
+            return new AvalonPoolTarget( name, pool, false );
+        }
+        else if( "ResourceLimitingPool".equals( name ) )
+        {
+            return new AvalonPoolTarget( name,
+                new ResourceLimitingPool( factory, max, false, true, 0, 0 ), true );
+        }
+        else if( "ValidatedResourceLimitingPool".equals( name ) )
+        {
+            return new AvalonPoolTarget( name,
+                new ValidatedResourceLimitingPool( factory, max, false, true, 0, 0 ), true );
+        }
+        else if( "StripedResourceLimitingPool".equals( name ) )
+        {
+            return new AvalonPoolTarget( name,
+                new StripedResourceLimitingPool( factory, max, false, true, 0, 0 ), true );
+        }
+        else if( "FixedSizePool".equals( name ) )
+        {
+            return new ManagedPoolTarget( name, new FixedSizePool( factory, max ) );
+        }
+        else if( "BlockingFixedSizePool".equals( name ) )
+        {
+            final BlockingFixedSizePool pool = new BlockingFixedSizePool( factory, max );
+            pool.initialize();
+            return new ManagedPoolTarget( name, pool );
+        }
+        else if( "VariableSizePool".equals( name ) )
+        {
+            return new ManagedPoolTarget( name, new VariableSizePool( factory, max ) );
+        }
+
+        throw new IllegalArgumentException( "Unknown pool: " + name );
+    }
+
+    /*---------------------------------------------------------------
+     * Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Warms up, measures and prints the result.
+     */
+    private void run( final long warmup, final long time )
+        throws Exception
+    {
+        final Worker[] workers = new Worker[ m_threads ];
+        for( int i = 0; i < m_threads; i++ )
+        {
+            workers[ i ] = new Worker();
+            workers[ i ].setDaemon( true );
+            workers[ i ].start();
+        }
+
+        Thread.sleep( warmup );
+        m_phase = MEASURE;
+        final long start = BenchmarkClock.nanoTime();
+        Thread.sleep( time );
+        m_phase = STOP;
+        final long elapsed = BenchmarkClock.nanoTime() - start;
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+        long operations = 0;
+        long allocated = 0;
+        for( int i = 0; i < m_threads; i++ )
+        {
+            workers[ i ].join();
+            if( workers[ i ].m_failure != null )
+            {
+                throw new Exception( m_target.getName() + " failed: " + workers[ i ].m_failure );
+            }
+            histogram.add( workers[ i ].m_histogram );
+            operations += workers[ i ].m_operations;
+            allocated += workers[ i ].m_allocated;
+        }
+
+        final long opsPerSecond = ( elapsed > 0 ) ? (long)( operations * 1e9 / elapsed ) : 0;
+        final String bytesPerOp = ( BenchmarkClock.isAllocationCounted() && operations > 0 )
+            ? String.valueOf( (double)Math.round( 10.0 * allocated / operations ) / 10 ) : "n/a";
+
+        System.out.println( pad( m_target.getName(), -30 )
+                            + pad( String.valueOf( m_threads ), 8 )
+                            + pad( String.valueOf( opsPerSecond ), 14 )
+                            + pad( String.valueOf( histogram.getPercentile( 0.5 ) ), 10 )
+                            + pad( String.valueOf( histogram.getPercentile( 0.9 ) ), 10 )
+                            + pad( String.valueOf( histogram.getPercentile( 0.99 ) ), 10 )
+                            + pad( String.valueOf( histogram.getPercentile( 0.999 ) ), 10 )
+                            + pad( String.valueOf( histogram.getMax() ), 12 )
+                            + pad( bytesPerOp, 8 ) );
+    }
+
+    /**
+     * Pads a value with spaces, on the left for positive widths and on the
+     *  right for negative ones.
+     */
+    private static String pad( final String value, final int width )
+    {
+        final StringBuffer sb = new StringBuffer();
+        final int spaces = Math.abs( width ) - value.length();
+        if( width < 0 )
+        {
+            sb.append( value );
+        }
+        for( int i = 0; i < spaces; i++ )
+        {
+            sb.append( ' ' );
+        }
+        if( width > 0 )
+        {
+            sb.append( ' ' ).append( value );
+        }
+        return sb.toString();
+    }
+
+    private static String[] split( final String value )
+    {
+        final StringTokenizer tokens = new StringTokenizer( value, "," );
+        final String[] result = new String[ tokens.countTokens() ];
+        for( int i = 0; i < result.length; i++ )
+        {
+            result[ i ] = tokens.nextToken().trim();
+        }
+        return result;
+    }
+
+    /*---------------------------------------------------------------
+     * Inner classes
+     *-------------------------------------------------------------*/
+    /**
+     * Cycles objects through the pool until the benchmark is stopped.
+     */
+    private final class Worker
+        extends Thread
+    {
+        final LatencyHistogram m_histogram = new LatencyHistogram();
+        long m_operations;
+        long m_allocated;
+        Throwable m_failure;
+
+        public void run()
+        {
+            final BenchmarkTarget target = m_target;
+            int sink = 0;
+            boolean measuring = false;
+            long allocatedAtStart = 0;
+
+            try
+            {
+                while( true )
+                {
+                    final int phase = m_phase;
+                    if( phase == STOP )
+                    {
+                        break;
+                    }
+                    if( phase == MEASURE && !measuring )
+                    {
+                        measuring = true;
+                        allocatedAtStart = BenchmarkClock.allocatedBytes();
+                    }
+
+                    long last = BenchmarkClock.nanoTime();
+                    for( int i = 0; i < BATCH_SIZE; i++ )
+                    {
+                        sink += target.cycle();
+
+                        final long now = BenchmarkClock.nanoTime();
+                        if( measuring )
+                        {
+                            m_histogram.record( now - last );
+                        }
+                        last = now;
+                    }
+
+                    if( measuring )
+                    {
+                        m_operations += BATCH_SIZE;
+                    }
+                }
+
+                if( measuring )
+                {
+                    m_allocated = BenchmarkClock.allocatedBytes() - allocatedAtStart;
+                }
+            }
+            catch( Throwable t )
+            {
+                m_failure = t;
+            }
+
+            c_sink += sink;
+        }
+    }
+
+    /**
+     * Does no pooling at all, to show what the harness itself costs.
+     */
+    private static final class BaselineTarget
+        implements BenchmarkTarget
+    {
+        private final BenchmarkPoolable m_poolable = new BenchmarkPoolable();
+
+        public String getName()
+        {
+            return "baseline";
+        }
+
+        public boolean isThreadSafe()
+        {
+            return false;
+        }
+
+        public int cycle()
+        {
+            return m_poolable.touch();
+        }
+
+        public void dispose()
+        {
+        }
+    }
+
+    /**
+     * Measures an <code>org.apache.avalon.excalibur.pool.Pool</code>.
+     */
+    private static final class AvalonPoolTarget
+        implements BenchmarkTarget
+    {
+        private final String m_name;
+        private final Pool m_pool;
+        private final boolean m_threadSafe;
+
+        AvalonPoolTarget( final String name, final Pool pool, final boolean threadSafe )
+        {
+            m_name = name;
+            m_pool = pool;
+            m_threadSafe = threadSafe;
+
+            if( pool instanceof LogEnabled )
+            {
+                ( (LogEnabled)pool ).enableLogging( new NullLogger() );
+            }
+        }
+
+        public String getName()
+        {
+            return m_name;
+        }
+
+        public boolean isThreadSafe()
+        {
+            return m_threadSafe;
+        }
+
+        public int cycle() throws Exception
+        {
+            final Poolable poolable = m_pool.get();
+            try
+            {
+                return ( (BenchmarkPoolable)poolable ).touch();
+            }
+            finally
+            {
+                m_pool.put( poolable );
+            }
+        }
+
+        public void dispose()
+        {
+            if( m_pool instanceof Disposable )
+            {
+                ( (Disposable)m_pool ).dispose();
+            }
+        }
+    }
+
+    /**
+     * Measures an <code>org.apache.excalibur.mpool.Pool</code>.
+     */
+    private static final class ManagedPoolTarget
+        implements BenchmarkTarget
+    {
+        private final String m_name;
+        private final org.apache.excalibur.mpool.Pool m_pool;
+
+        ManagedPoolTarget( final String name, final org.apache.excalibur.mpool.Pool pool )
+        {
+            m_name = name;
+            m_pool = pool;
+        }
+
+        public String getName()
+        {
+            return m_name;
+        }
+
+        public boolean isThreadSafe()
+        {
+            return true;
+        }
+
+        public int cycle() throws Exception
+        {
+            final Object object = m_pool.acquire();
+            try
+            {
+                return ( (BenchmarkPoolable)object ).touch();
+            }
+            finally
+            {
+                m_pool.release( object );
+            }
+        }
+
+        public void dispose()
+        {
+            if( m_pool instanceof Disposable )
+            {
+                ( (Disposable)m_pool ).dispose();
+            }
+        }
+    }
+}
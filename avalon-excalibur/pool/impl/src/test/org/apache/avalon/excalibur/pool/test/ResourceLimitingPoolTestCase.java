@@ -267,5 +267,206 @@ public final class ResourceLimitingPoolTestCase extends TestCase
                       logger.toString()
         );
     }
-}
 
+    public void testMinIdle() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        ResourceLimitingPool pool =
+            new ResourceLimitingPool( factory, 10, true, false, 0, 0, 4, 2 );
+
+        pool.enableLogging( logger );
+        pool.initialize();
+
+        assertEquals( "1) Pool Ready Size", 4, pool.getReadySize() );
+        assertEquals( "1) Pool Size", 4, pool.getSize() );
+
+        // Dropping below the low-water mark makes the refill thread create new poolables.
+        Poolable p1 = pool.get();
+        Poolable p2 = pool.get();
+        Poolable p3 = pool.get();
+        waitForReadySize( pool, 4 );
+
+        assertEquals( "2) Pool Ready Size", 4, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 7, pool.getSize() );
+
+        pool.put( p1 );
+        pool.put( p2 );
+        pool.put( p3 );
+
+        assertEquals( "3) Pool Ready Size", 7, pool.getReadySize() );
+        assertEquals( "3) Pool Size", 7, pool.getSize() );
+
+        pool.dispose();
+
+        assertEquals( "4) Pool Size", 0, pool.getSize() );
+    }
+
+    public void testTrimKeepsMinIdle() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        ResourceLimitingPool pool =
+            new ResourceLimitingPool( factory, 10, false, false, 0, 60000, 2, 0 );
+
+        pool.enableLogging( logger );
+        pool.initialize();
+
+        Poolable[] poolables = new Poolable[ 5 ];
+        for( int i = 0; i < poolables.length; i++ )
+        {
+            poolables[ i ] = pool.get();
+        }
+        for( int i = 0; i < poolables.length; i++ )
+        {
+            pool.put( poolables[ i ] );
+        }
+
+        assertEquals( "1) Pool Ready Size", 5, pool.getReadySize() );
+
+        // The first trim marks the poolables as old, the second removes all but two.
+        assertEquals( "2) Trimmed", 0, pool.trim() );
+        assertEquals( "3) Trimmed", 3, pool.trim() );
+        assertEquals( "3) Pool Ready Size", 2, pool.getReadySize() );
+        assertEquals( "4) Trimmed", 0, pool.trim() );
+        assertEquals( "4) Pool Ready Size", 2, pool.getReadySize() );
+        assertEquals( "4) Pool Size", 2, pool.getSize() );
+
+        pool.dispose();
+    }
+
+    public void testFillDoesNotHoldUpGets() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        final ResourceLimitingPool pool =
+            new ResourceLimitingPool( factory, 10, false, false, 0, 0, 2, 0 )
+            {
+                private int m_created;
+
+                protected Poolable newPoolable() throws Exception
+                {
+                    if( m_created++ > 0 )
+                    {
+                        // Every poolable after the first one is slow to create.
+                        Thread.sleep( 500 );
+                    }
+                    return super.newPoolable();
+                }
+            };
+
+        pool.enableLogging( logger );
+        Thread filler = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    pool.initialize();
+                }
+                catch( Exception e )
+                {
+                }
+            }
+        };
+        long start = System.currentTimeMillis();
+        filler.start();
+
+        // The pool is not locked while the other poolables are created.
+        waitForReadySize( pool, 1 );
+        Poolable p = pool.get();
+        assertTrue( "Held up by the fill", System.currentTimeMillis() - start < 250 );
+
+        // The fill goes on until two poolables are idle.
+        filler.join();
+        assertEquals( "Pool Ready Size", 2, pool.getReadySize() );
+        assertEquals( "Pool Size", 3, pool.getSize() );
+
+        pool.put( p );
+        pool.dispose();
+    }
+
+    public void testFailedFillWakesBlockedThread() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        final ResourceLimitingPool pool =
+            new ResourceLimitingPool( factory, 1, true, true, 0, 0, 1, 0 )
+            {
+                private boolean m_failed;
+
+                protected Poolable newPoolable() throws Exception
+                {
+                    if( !m_failed )
+                    {
+                        // Hold the only place in the pool for a while, then fail.
+                        m_failed = true;
+                        Thread.sleep( 200 );
+                        throw new IllegalStateException( "For testing." );
+                    }
+                    return super.newPoolable();
+                }
+            };
+
+        pool.enableLogging( logger );
+        Thread filler = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    pool.initialize();
+                }
+                catch( Exception e )
+                {
+                    // Expected
+                }
+            }
+        };
+        filler.start();
+        Thread.sleep( 50 );
+
+        // Blocks while the fill holds the place, and must then create a poolable.
+        final Poolable[] result = new Poolable[ 1 ];
+        Thread getter = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    result[ 0 ] = pool.get();
+                }
+                catch( Exception e )
+                {
+                }
+            }
+        };
+        getter.start();
+        getter.join( 5000 );
+        filler.join();
+
+        assertFalse( "Blocked thread woken", getter.isAlive() );
+        assertNotNull( "Blocked thread got a poolable", result[ 0 ] );
+        assertEquals( "Pool Size", 1, pool.getSize() );
+
+        pool.put( result[ 0 ] );
+        pool.dispose();
+    }
+
+    /*---------------------------------------------------------------
+     * Utility Methods
+     *-------------------------------------------------------------*/
+    private void waitForReadySize( ResourceLimitingPool pool, int readySize )
+        throws InterruptedException
+    {
+        long timeout = System.currentTimeMillis() + 5000;
+        while( ( pool.getReadySize() < readySize ) && ( System.currentTimeMillis() < timeout ) )
+        {
+            Thread.sleep( 10 );
+        }
+    }
+}
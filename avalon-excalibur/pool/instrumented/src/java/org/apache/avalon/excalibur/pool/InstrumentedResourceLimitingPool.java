@@ -20,6 +20,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 
 import org.apache.avalon.framework.activity.Disposable;
+import org.apache.avalon.framework.activity.Initializable;
 import org.apache.avalon.framework.logger.AbstractLogEnabled;
 import org.apache.avalon.framework.logger.LogEnabled;
 import org.apache.avalon.framework.thread.ThreadSafe;
@@ -39,6 +40,12 @@ import org.apache.excalibur.instrument.ValueInstrument;
  *  this time.  This means that old poolables will not be removed if get() is never
  *  called.  Applications can optionally call trim() to force old objects to be
  *  trimmed.  See the {@link #trim()} method for details of how trimming works.
+ * <p>
+ * The pool can also keep a minimum number of idle poolables, so that a burst of
+ *  requests does not have to wait for the ObjectFactory.  initialize() fills the
+ *  pool up to that number, and a background thread fills it up again whenever the
+ *  number of idle poolables drops below a low-water mark.  Trimming never removes
+ *  poolables below the minimum.
  *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  * @version CVS $Revision: 1.1 $ $Date: 2004/03/29 16:50:37 $
@@ -46,7 +53,7 @@ import org.apache.excalibur.instrument.ValueInstrument;
  */
 public class InstrumentedResourceLimitingPool
     extends AbstractLogEnabled
-    implements Pool, LogEnabled, Disposable, ThreadSafe, Instrumentable
+    implements Pool, LogEnabled, Disposable, Initializable, ThreadSafe, Instrumentable
 {
     public static final String DEFAULT_INSTRUMENTABLE_NAME = "pool";
     public static final String INSTRUMENT_SIZE_NAME = "size";
@@ -71,7 +78,7 @@ public class InstrumentedResourceLimitingPool
     /**
      * Keeps track of whether or not the Pool has been disposed.
      */
-    private boolean m_disposed = false;
+    private volatile boolean m_disposed = false;
 
     /**
      * The Object Factory used to generate new Poolable instances for the pool.
@@ -135,6 +142,38 @@ public class InstrumentedResourceLimitingPool
      */
     private int m_size;
 
+    /**
+     * The number of idle Poolables which the pool tries to keep ready.
+     */
+    private final int m_minIdle;
+
+    /**
+     * Number of places in the pool reserved by fillIdle() for Poolables which are still
+     *  being created.  Only accessed with m_semaphore locked.
+     */
+    private int m_filling;
+
+    /**
+     * When fewer than this number of Poolables are idle, the refill thread is woken up.
+     */
+    private final int m_lowWaterMark;
+
+    /**
+     * Object used by the refill thread to wait for work.  The refill thread must never wait
+     *  on m_semaphore, or it could swallow a notify() meant for a thread blocked in get().
+     */
+    private final Object m_refillLock = new Object();
+
+    /**
+     * Set when the refill thread should fill the pool.  Only accessed with m_refillLock locked.
+     */
+    private boolean m_refillRequested;
+
+    /**
+     * The thread which keeps the idle Poolables at m_minIdle, null if it is not running.
+     */
+    private Thread m_refillThread;
+
     /** Instrumentable Name assigned to this Instrumentable */
     private String m_instrumentableName = DEFAULT_INSTRUMENTABLE_NAME;
 
@@ -184,6 +223,38 @@ public class InstrumentedResourceLimitingPool
                                  boolean blocking,
                                  long blockTimeout,
                                  long trimInterval )
+    {
+        this( factory, max, maxStrict, blocking, blockTimeout, trimInterval, 0, 0 );
+    }
+
+    /**
+     * Creates a new InstrumentedResourceLimitingPool which keeps a minimum number of idle Poolables.
+     *
+     * @param factory The ObjectFactory which will be used to create new Poolables as needed by
+     *  the pool.
+     * @param max Maximum number of Poolables which can be stored in the pool, 0 implies no limit.
+     * @param maxStrict true if the pool should never allow more than max Poolable to be created.
+     *  Will cause an exception to be thrown if more than max Poolables are requested and blocking
+     *  is false.
+     * @param blocking true if the pool should cause a thread calling get() to block when Poolables
+     *  are not currently available in the pool.
+     * @param blockTimeout The maximum amount of time, in milliseconds, that a call to get() will
+     *  block before an exception is thrown.  A value of 0 implies an indefinate wait.
+     * @param trimInterval The minimum interval with which old unused poolables will be removed
+     *  from the pool.  A value of 0 will cause the pool to never trim poolables.
+     * @param minIdle The number of idle Poolables which initialize() fills the pool with, and
+     *  which will never be trimmed.  Can not be larger than max.
+     * @param lowWaterMark When fewer Poolables than this are idle, a background thread fills
+     *  the pool up to minIdle again.  A value of 0 disables the background thread.
+     */
+    public InstrumentedResourceLimitingPool( final ObjectFactory factory,
+                                 int max,
+                                 boolean maxStrict,
+                                 boolean blocking,
+                                 long blockTimeout,
+                                 long trimInterval,
+                                 int minIdle,
+                                 int lowWaterMark )
     {
         m_factory = factory;
         m_max = ( max <= 0 ? Integer.MAX_VALUE : max );
@@ -191,6 +262,8 @@ public class InstrumentedResourceLimitingPool
         m_blocking = blocking;
         m_blockTimeout = blockTimeout;
         m_trimInterval = trimInterval;
+        m_minIdle = Math.max( 0, Math.min( minIdle, m_max ) );
+        m_lowWaterMark = Math.max( 0, Math.min( lowWaterMark, m_minIdle ) );
 
         // Create the pool lists.
         m_ready = new LinkedList();
@@ -296,7 +369,7 @@ public class InstrumentedResourceLimitingPool
                                         throw new IllegalStateException( "Already Disposed" );
                                     }
 
-                                    if( m_readySize == 0 )
+                                    if( isExhausted() )
                                     {
                                         // Not available yet, calculate how much longer to wait.
                                         long now = System.currentTimeMillis();
@@ -319,7 +392,7 @@ public class InstrumentedResourceLimitingPool
                                         ( "Could not create enough Components to service your "
                                           + "request (Timed out)." );
                                 }
-                            } while( m_readySize == 0 );
+                            } while( isExhausted() );
                         }
                         else
                         {
@@ -341,12 +414,28 @@ public class InstrumentedResourceLimitingPool
                                 {
                                     throw new IllegalStateException( "Already Disposed" );
                                 }
-                            } while( m_readySize == 0 );
+                            } while( isExhausted() );
                         }
 
-                        // A poolable is ready and waiting in the pool
-                        poolable = (Poolable)m_ready.removeLast();
-                        m_readySize--;
+                        // A poolable is ready and waiting in the pool.  A trim may have moved
+                        //  it to the old list while this thread was waiting.
+                        if( m_readySize > 0 )
+                        {
+                            poolable = (Poolable)m_ready.removeLast();
+                            m_readySize--;
+                        }
+                        else if( m_oldReadySize > 0 )
+                        {
+                            poolable = (Poolable)m_oldReady.removeLast();
+                            m_oldReadySize--;
+                        }
+                        else
+                        {
+                            // A place in the pool was given up while this thread was waiting,
+                            //  so create a new poolable.
+                            poolable = newPoolable();
+                            m_size++;
+                        }
 
                         if( getLogger().isDebugEnabled() )
                         {
@@ -377,6 +466,9 @@ public class InstrumentedResourceLimitingPool
                     }
                 }
             }
+
+            // Wake up the refill thread if the pool is running low.
+            checkLowWaterMark();
         }
 
         if( getLogger().isDebugEnabled() )
@@ -462,6 +554,40 @@ public class InstrumentedResourceLimitingPool
         }
     }
 
+    /*---------------------------------------------------------------
+     * Initializable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Fills the pool with the minimum number of idle Poolables and starts the refill
+     *  thread.  Pools created without a minimum number of idle Poolables do not need to
+     *  be initialized.
+     *
+     * @throws Exception if the ObjectFactory fails to create a Poolable.
+     */
+    public void initialize() throws Exception
+    {
+        if( m_disposed ) throw new IllegalStateException( "Already Disposed" );
+
+        final int created = fillIdle();
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Filled the pool with " + created + " idle objects." );
+        }
+
+        if( m_lowWaterMark > 0 )
+        {
+            synchronized( m_semaphore )
+            {
+                if( m_refillThread == null )
+                {
+                    m_refillThread = new Thread( new Refiller(), "InstrumentedResourceLimitingPool refill" );
+                    m_refillThread.setDaemon( true );
+                    m_refillThread.start();
+                }
+            }
+        }
+    }
+
     /*---------------------------------------------------------------
      * Disposable Methods
      *-------------------------------------------------------------*/
@@ -475,6 +601,9 @@ public class InstrumentedResourceLimitingPool
     {
         m_disposed = true;
 
+        // Let the refill thread know that it should stop.
+        requestRefill();
+
         // Any Poolables in the m_ready list need to be disposed of
         synchronized( m_semaphore )
         {
@@ -606,6 +735,8 @@ public class InstrumentedResourceLimitingPool
     {
         m_size--;
         removePoolable( poolable );
+
+        checkLowWaterMark();
     }
 
     /**
@@ -627,6 +758,78 @@ public class InstrumentedResourceLimitingPool
         }
     }
 
+    /**
+     * Returns the number of idle Poolables which the pool tries to keep ready.
+     */
+    public int getMinIdle()
+    {
+        return m_minIdle;
+    }
+
+    /**
+     * Takes the idle Poolable which has been waiting longest out of the pool without
+     *  handing it to a user, so that it can be checked.  The caller must give it back with
+     *  returnIdlePoolable() or remove it with permanentlyRemovePoolable().
+     * <p>
+     * This method is only called by threads that have m_semaphore locked.
+     *
+     * @param old true to take a Poolable from the list of old Poolables, false to take one
+     *  from the list of recently used Poolables.
+     * @return the Poolable, or null if the list is empty.
+     */
+    protected Poolable removeIdlePoolable( boolean old )
+    {
+        if( old )
+        {
+            if( m_oldReadySize > 0 )
+            {
+                m_oldReadySize--;
+                return (Poolable)m_oldReady.removeFirst();
+            }
+        }
+        else if( m_readySize > 0 )
+        {
+            m_readySize--;
+            return (Poolable)m_ready.removeFirst();
+        }
+        return null;
+    }
+
+    /**
+     * Gives back a Poolable taken with removeIdlePoolable().  It is added to the end of the
+     *  list it was taken from, so that it will not be taken again before the rest of the list.
+     * <p>
+     * This method is only called by threads that have m_semaphore locked.
+     *
+     * @param poolable the Poolable to give back.
+     * @param old the value that was passed to removeIdlePoolable().
+     */
+    protected void returnIdlePoolable( Poolable poolable, boolean old )
+    {
+        if( m_disposed )
+        {
+            permanentlyRemovePoolable( poolable );
+        }
+        else
+        {
+            if( old && ( m_oldReady != null ) )
+            {
+                m_oldReady.addLast( poolable );
+                m_oldReadySize++;
+            }
+            else
+            {
+                m_ready.addLast( poolable );
+                m_readySize++;
+            }
+
+            if( m_blocking )
+            {
+                m_semaphore.notify();
+            }
+        }
+    }
+
     /**
      * Create a new poolable instance by by calling the newInstance method
      *  on the pool's ObjectFactory.
@@ -634,7 +837,8 @@ public class InstrumentedResourceLimitingPool
      * This is the method to override when you need to enforce creational
      *  policies.
      * <p>
-     * This method is only called by threads that have m_semaphore locked.
+     * This method is called by threads that have m_semaphore locked, except when the
+     *  pool is being filled with its minimum number of idle Poolables.
      */
     protected Poolable newPoolable() throws Exception
     {
@@ -734,38 +938,208 @@ public class InstrumentedResourceLimitingPool
     {
         int trimCount = 0;
 
-        // Remove any poolables in the m_oldReady list.
-        if( m_oldReadySize > 0 )
+        // Remove any poolables in the m_oldReady list, except for those needed to keep
+        //  m_minIdle poolables ready.
+        final int keep = Math.max( 0, m_minIdle - m_readySize );
+        if( m_oldReadySize > keep )
         {
             if( getLogger().isDebugEnabled() )
             {
-                getLogger().debug( "Trimming " + m_oldReadySize + " idle objects from pool." );
+                getLogger().debug( "Trimming " + ( m_oldReadySize - keep )
+                                   + " idle objects from pool." );
             }
 
-            trimCount = m_oldReadySize;
+            trimCount = m_oldReadySize - keep;
 
-            for( Iterator iter = m_oldReady.iterator(); iter.hasNext(); )
+            while( m_oldReadySize > keep )
             {
-                Poolable poolable = (Poolable)iter.next();
-                iter.remove();
+                Poolable poolable = (Poolable)m_oldReady.removeFirst();
                 m_oldReadySize--;
                 permanentlyRemovePoolable( poolable );
             }
         }
 
-        // Move the poolables in m_ready into m_oldReady (swap lists)
+        // Move the poolables in m_ready into m_oldReady
         if( getLogger().isDebugEnabled() )
         {
             getLogger().debug( "Marking " + m_readySize + " objects as old in pool." );
         }
-        LinkedList tempList = m_oldReady;
-        m_oldReady = m_ready;
-        m_oldReadySize = m_readySize;
-        m_ready = tempList;
+        if( m_oldReadySize > 0 )
+        {
+            // Old poolables were kept, so they stay old along with the ready ones.
+            m_oldReady.addAll( m_ready );
+            m_oldReadySize += m_readySize;
+            m_ready.clear();
+        }
+        else
+        {
+            // Swap the lists
+            LinkedList tempList = m_oldReady;
+            m_oldReady = m_ready;
+            m_oldReadySize = m_readySize;
+            m_ready = tempList;
+        }
         m_readySize = 0;
 
         m_lastTrim = System.currentTimeMillis();
 
         return trimCount;
     }
+
+    /**
+     * Creates Poolables until m_minIdle of them are idle, or the pool has reached its
+     *  maximum size.  A place in the pool is reserved with the semaphore locked, but the
+     *  Poolable is created without it, so that users of the pool are not held up by the
+     *  ObjectFactory.
+     *
+     * @return the number of Poolables that were created.
+     */
+    private int fillIdle() throws Exception
+    {
+        int created = 0;
+        while( true )
+        {
+            synchronized( m_semaphore )
+            {
+                if( m_disposed || ( m_readySize + m_oldReadySize + m_filling >= m_minIdle )
+                    || ( m_size >= m_max ) )
+                {
+                    return created;
+                }
+
+                m_size++;
+                m_filling++;
+            }
+
+            Poolable poolable = null;
+            try
+            {
+                poolable = newPoolable();
+            }
+            finally
+            {
+                synchronized( m_semaphore )
+                {
+                    m_filling--;
+                    if( poolable == null )
+                    {
+                        // Give the place up again.  A thread blocked in get() may now create
+                        //  a Poolable of its own.
+                        m_size--;
+                        if( m_blocking )
+                        {
+                            m_semaphore.notify();
+                        }
+                    }
+                    else if( m_disposed )
+                    {
+                        permanentlyRemovePoolable( poolable );
+                    }
+                    else
+                    {
+                        m_ready.addFirst( poolable );
+                        m_readySize++;
+                        created++;
+
+                        if( m_blocking )
+                        {
+                            m_semaphore.notify();
+                        }
+
+                    // Notify the InstrumentManager
+                    if( m_sizeInstrument.isActive() )
+                    {
+                        m_sizeInstrument.setValue( m_size );
+                    }
+                    if( m_readySizeInstrument.isActive() )
+                    {
+                        m_readySizeInstrument.setValue( m_readySize + m_oldReadySize );
+                    }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if no Poolable is idle and the pool may not grow, so that a thread
+     *  blocked in get() has to go on waiting.
+     * <p>
+     * This method is only called by threads that have m_semaphore locked.
+     */
+    private boolean isExhausted()
+    {
+        return ( m_readySize + m_oldReadySize == 0 ) && ( m_size >= m_max );
+    }
+
+    /**
+     * Wakes up the refill thread if too few Poolables are idle.
+     * <p>
+     * This method is only called by threads that have m_semaphore locked.
+     */
+    private void checkLowWaterMark()
+    {
+        if( ( m_refillThread != null ) && !m_disposed
+            && ( m_readySize + m_oldReadySize < m_lowWaterMark ) )
+        {
+            requestRefill();
+        }
+    }
+
+    private void requestRefill()
+    {
+        synchronized( m_refillLock )
+        {
+            m_refillRequested = true;
+            m_refillLock.notify();
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Inner classes
+     *-------------------------------------------------------------*/
+    /**
+     * Fills the pool up to m_minIdle whenever it is asked to, until the pool is disposed.
+     */
+    private final class Refiller
+        implements Runnable
+    {
+        public void run()
+        {
+            while( true )
+            {
+                synchronized( m_refillLock )
+                {
+                    while( !m_refillRequested )
+                    {
+                        try
+                        {
+                            m_refillLock.wait();
+                        }
+                        catch( InterruptedException e )
+                        {
+                        }
+                    }
+                    m_refillRequested = false;
+                }
+
+                if( m_disposed )
+                {
+                    return;
+                }
+
+                try
+                {
+                    fillIdle();
+                }
+                catch( Exception e )
+                {
+                    if( getLogger().isWarnEnabled() )
+                    {
+                        getLogger().warn( "Unable to refill the pool", e );
+                    }
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,909 @@
+/* 
+ * Copyright 2002-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool;
+
+import org.apache.avalon.framework.activity.Disposable;
+import org.apache.avalon.framework.logger.AbstractLogEnabled;
+import org.apache.avalon.framework.logger.LogEnabled;
+import org.apache.avalon.framework.thread.ThreadSafe;
+
+import org.apache.excalibur.instrument.CounterInstrument;
+import org.apache.excalibur.instrument.Instrument;
+import org.apache.excalibur.instrument.Instrumentable;
+import org.apache.excalibur.instrument.ValueInstrument;
+
+import EDU.oswego.cs.dl.util.concurrent.SynchronizedInt;
+
+/**
+ * A Pool with the same limits, blocking and trimming behaviour as the
+ *  {@link InstrumentedResourceLimitingPool}, for pools that are used by
+ *  many threads at once.
+ * <p>
+ * The InstrumentedResourceLimitingPool keeps its available poolables in a
+ *  single list, guarded by a single lock, which every get() and put() has
+ *  to take.  This pool spreads its available poolables over a number of
+ *  stripes, one per processor, each a small stack with its own lock.  Each
+ *  thread has a home stripe, to which it returns its poolables and from
+ *  which it takes them first, so that threads on different processors
+ *  rarely touch the same lock.  A thread whose home stripe is empty takes
+ *  a poolable from one of the other stripes before it creates a new one.
+ * <p>
+ * Only a thread that has to block, and the thread that wakes it, share a
+ *  lock with all other threads.  The instruments are the same as those of
+ *  the InstrumentedResourceLimitingPool.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Revision: 1.1 $ $Date: 2004/03/29 16:50:37 $
+ * @since 4.1
+ */
+public class StripedResourceLimitingPool
+    extends AbstractLogEnabled
+    implements Pool, LogEnabled, Disposable, ThreadSafe, Instrumentable
+{
+    /*---------------------------------------------------------------
+     * Protected Fields
+     *-------------------------------------------------------------*/
+    /**
+     * Object used by threads to wait for a poolable to be put back.
+     */
+    protected final Object m_semaphore = new Object();
+
+    /*---------------------------------------------------------------
+     * Private Fields
+     *-------------------------------------------------------------*/
+    /**
+     * Keeps track of whether or not the Pool has been disposed.
+     */
+    private volatile boolean m_disposed = false;
+
+    /**
+     * The Object Factory used to generate new Poolable instances for the pool.
+     */
+    private final ObjectFactory m_factory;
+
+    /**
+     * The maximum size of the pool.
+     */
+    private final int m_max;
+
+    /**
+     * Whether or not the pool allows for the creation of objects beyond the maximum pool size.
+     */
+    private final boolean m_maxStrict;
+
+    /**
+     * Whether or not the pool should cause threads requesting a Poolable to block when m_maxStrict
+     *  is true, the pool size is equal to m_max and there are no Poolable instances available.
+     */
+    private final boolean m_blocking;
+
+    /**
+     * The maximum amount of time in milliseconds that the pool will block.  If 0, blocking will
+     *  wait indeffinately.
+     */
+    private final long m_blockTimeout;
+
+    /**
+     * The minimum interval with which old unused poolables will be removed from the pool.
+     */
+    private final long m_trimInterval;
+
+    /**
+     * The last time that the pool was trimmed.
+     */
+    private volatile long m_lastTrim;
+
+    /**
+     * The stripes holding the Poolable instances which are available for use.
+     */
+    private final Stripe[] m_stripes;
+
+    /**
+     * Mask to turn a hash code into a stripe index.
+     */
+    private final int m_stripeMask;
+
+    /**
+     * Number of threads waiting on m_semaphore for a Poolable to be put back.
+     */
+    private volatile int m_waiters;
+
+    /**
+     * Total number of Poolable instances in the pool
+     */
+    private final SynchronizedInt m_size = new SynchronizedInt( 0 );
+
+    /** Instrumentable Name assigned to this Instrumentable */
+    private String m_instrumentableName = InstrumentedResourceLimitingPool.DEFAULT_INSTRUMENTABLE_NAME;
+
+    /** Instrument used to profile the size of the pool. */
+    private ValueInstrument m_sizeInstrument;
+
+    /** Instrument used to profile the number of available poolables. */
+    private ValueInstrument m_readySizeInstrument;
+
+    /** Instrument used to profile the number of gets. */
+    private CounterInstrument m_getsInstrument;
+
+    /** Instrument used to profile the number of puts. */
+    private CounterInstrument m_putsInstrument;
+
+    /** Instrument used to profile the number of blocks. */
+    private CounterInstrument m_blocksInstrument;
+
+    /** Instrument used to profile the number of created poolables. */
+    private CounterInstrument m_createsInstrument;
+
+    /** Instrument used to profile the number of decommissioned poolables. */
+    private CounterInstrument m_decommissionsInstrument;
+
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    /**
+     * Creates a new StripedResourceLimitingPool with a stripe for every
+     *  processor.
+     *
+     * @param factory The ObjectFactory which will be used to create new Poolables as needed by
+     *  the pool.
+     * @param max Maximum number of Poolables which can be stored in the pool, 0 implies no limit.
+     * @param maxStrict true if the pool should never allow more than max Poolable to be created.
+     *  Will cause an exception to be thrown if more than max Poolables are requested and blocking
+     *  is false.
+     * @param blocking true if the pool should cause a thread calling get() to block when Poolables
+     *  are not currently available in the pool.
+     * @param blockTimeout The maximum amount of time, in milliseconds, that a call to get() will
+     *  block before an exception is thrown.  A value of 0 implies an indefinate wait.
+     * @param trimInterval The minimum interval with which old unused poolables will be removed
+     *  from the pool.  A value of 0 will cause the pool to never trim poolables.
+     */
+    public StripedResourceLimitingPool( final ObjectFactory factory,
+                                        int max,
+                                        boolean maxStrict,
+                                        boolean blocking,
+                                        long blockTimeout,
+                                        long trimInterval )
+    {
+        this( factory, max, maxStrict, blocking, blockTimeout, trimInterval,
+              Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     * Creates a new StripedResourceLimitingPool.
+     *
+     * @param factory The ObjectFactory which will be used to create new Poolables as needed by
+     *  the pool.
+     * @param max Maximum number of Poolables which can be stored in the pool, 0 implies no limit.
+     * @param maxStrict true if the pool should never allow more than max Poolable to be created.
+     * @param blocking true if the pool should cause a thread calling get() to block when Poolables
+     *  are not currently available in the pool.
+     * @param blockTimeout The maximum amount of time, in milliseconds, that a call to get() will
+     *  block before an exception is thrown.  A value of 0 implies an indefinate wait.
+     * @param trimInterval The minimum interval with which old unused poolables will be removed
+     *  from the pool.  A value of 0 will cause the pool to never trim poolables.
+     * @param stripes The number of stripes, rounded up to a power of two.
+     */
+    public StripedResourceLimitingPool( final ObjectFactory factory,
+                                        int max,
+                                        boolean maxStrict,
+                                        boolean blocking,
+                                        long blockTimeout,
+                                        long trimInterval,
+                                        int stripes )
+    {
+        m_factory = factory;
+        m_max = ( max <= 0 ? Integer.MAX_VALUE : max );
+        m_maxStrict = maxStrict;
+        m_blocking = blocking;
+        m_blockTimeout = blockTimeout;
+        m_trimInterval = trimInterval;
+        m_lastTrim = System.currentTimeMillis();
+
+        int count = 1;
+        while( count < stripes )
+        {
+            count <<= 1;
+        }
+        m_stripes = new Stripe[ count ];
+        for( int i = 0; i < count; i++ )
+        {
+            m_stripes[ i ] = new Stripe( m_trimInterval > 0 );
+        }
+        m_stripeMask = count - 1;
+
+        // Initialize the Instrumentable elements.
+        m_sizeInstrument =
+            new ValueInstrument( InstrumentedResourceLimitingPool.INSTRUMENT_SIZE_NAME );
+        m_readySizeInstrument =
+            new ValueInstrument( InstrumentedResourceLimitingPool.INSTRUMENT_READY_SIZE_NAME );
+        m_getsInstrument =
+            new CounterInstrument( InstrumentedResourceLimitingPool.INSTRUMENT_GETS_NAME );
+        m_putsInstrument =
+            new CounterInstrument( InstrumentedResourceLimitingPool.INSTRUMENT_PUTS_NAME );
+        m_blocksInstrument =
+            new CounterInstrument( InstrumentedResourceLimitingPool.INSTRUMENT_BLOCKS_NAME );
+        m_createsInstrument =
+            new CounterInstrument( InstrumentedResourceLimitingPool.INSTRUMENT_CREATES_NAME );
+        m_decommissionsInstrument =
+            new CounterInstrument( InstrumentedResourceLimitingPool.INSTRUMENT_DECOMMISSIONS_NAME );
+    }
+
+    /*---------------------------------------------------------------
+     * Pool Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Gets a Poolable from the pool.  If there is room in the pool, a new Poolable will be
+     *  created.  Depending on the parameters to the constructor, the method may block or throw
+     *  an exception if a Poolable is not available on the pool.
+     *
+     * @return Always returns a Poolable.  Contract requires that put must always be called with
+     *  the Poolable returned.
+     * @throws Exception An exception may be thrown as described above or if there is an exception
+     *  thrown by the ObjectFactory's newInstance() method.
+     */
+    public Poolable get() throws Exception
+    {
+        if( m_disposed ) throw new IllegalStateException( "Already Disposed" );
+
+        // If trimming is enabled then trim if it is time
+        if( ( m_trimInterval > 0 ) &&
+            ( System.currentTimeMillis() - m_lastTrim >= m_trimInterval ) )
+        {
+            // Only one thread needs to trim, the others go on
+            boolean trim = false;
+            synchronized( m_stripes )
+            {
+                if( System.currentTimeMillis() - m_lastTrim >= m_trimInterval )
+                {
+                    m_lastTrim = System.currentTimeMillis();
+                    trim = true;
+                }
+            }
+            if( trim )
+            {
+                trimInner();
+            }
+        }
+
+        Poolable poolable = poll();
+        if( poolable == null )
+        {
+            poolable = create();
+        }
+
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Got a " + poolable.getClass().getName() + " from the pool." );
+        }
+
+        // Notify the InstrumentManager
+        m_getsInstrument.increment();
+        if( m_readySizeInstrument.isActive() )
+        {
+            m_readySizeInstrument.setValue( getReadySize() );
+        }
+
+        return poolable;
+    }
+
+    /**
+     * Returns a poolable to the pool and notifies any thread blocking.
+     *
+     * @param poolable Poolable to return to the pool.
+     */
+    public void put( Poolable poolable )
+    {
+        // Handle Recyclable objects
+        if( poolable instanceof Recyclable )
+        {
+            ( (Recyclable)poolable ).recycle();
+        }
+
+        if( m_disposed )
+        {
+            // The pool has already been disposed.
+            if( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "Put called for a " + poolable.getClass().getName()
+                                   + " after the pool was disposed." );
+            }
+
+            permanentlyRemovePoolable( poolable );
+        }
+        else if( m_size.get() <= m_max )
+        {
+            // There is room in the pool to keep this poolable.
+            if( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "Put a " + poolable.getClass().getName()
+                                   + " back into the pool." );
+            }
+
+            homeStripe().push( poolable );
+
+            // Let any waiting threads know that a poolable has become available.
+            notifyWaiter();
+        }
+        else
+        {
+            // More Poolables were created than can be held in the pool, so remove.
+            if( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "No room to put a " + poolable.getClass().getName()
+                                   + " back into the pool, so remove it." );
+            }
+
+            permanentlyRemovePoolable( poolable );
+        }
+
+        // Notify the InstrumentManager
+        m_putsInstrument.increment();
+        if( m_readySizeInstrument.isActive() )
+        {
+            m_readySizeInstrument.setValue( getReadySize() );
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Disposable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * The dispose operation is called at the end of a components lifecycle.
+     * This method will be called after Startable.stop() method (if implemented
+     * by component). Components use this method to release and destroy any
+     * resources that the Component owns.
+     */
+    public void dispose()
+    {
+        m_disposed = true;
+
+        // Any Poolables in the stripes need to be disposed of
+        for( int i = 0; i < m_stripes.length; i++ )
+        {
+            final Poolable[] poolables = m_stripes[ i ].drain();
+            for( int j = 0; j < poolables.length; j++ )
+            {
+                permanentlyRemovePoolable( poolables[ j ] );
+            }
+        }
+
+        // Notify any threads currently waiting for objects so they can abort
+        synchronized( m_semaphore )
+        {
+            m_semaphore.notifyAll();
+        }
+
+        if( ( m_size.get() > 0 ) && getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "There were " + m_size.get()
+                               + " outstanding objects when the pool was disposed." );
+        }
+
+        // Notify the InstrumentManager
+        if( m_sizeInstrument.isActive() )
+        {
+            m_sizeInstrument.setValue( getSize() );
+        }
+        if( m_readySizeInstrument.isActive() )
+        {
+            m_readySizeInstrument.setValue( getReadySize() );
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Instrumentable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Sets the name for the Instrumentable.  The Instrumentable Name is used
+     *  to uniquely identify the Instrumentable during the configuration of
+     *  the InstrumentManager and to gain access to an InstrumentableDescriptor
+     *  through the InstrumentManager.  The value should be a string which does
+     *  not contain spaces or periods.
+     *
+     * @param name The name used to identify a Instrumentable.
+     */
+    public void setInstrumentableName( String name )
+    {
+        m_instrumentableName = name;
+    }
+
+    /**
+     * Gets the name of the Instrumentable.
+     *
+     * @return The name used to identify a Instrumentable.
+     */
+    public String getInstrumentableName()
+    {
+        return m_instrumentableName;
+    }
+
+    /**
+     * Obtain a reference to all the Instruments that the Instrumentable object
+     *  wishes to expose.
+     *
+     * @return An array of the Instruments available for profiling.
+     */
+    public Instrument[] getInstruments()
+    {
+        return new Instrument[]
+        {
+            m_sizeInstrument,
+            m_readySizeInstrument,
+            m_getsInstrument,
+            m_putsInstrument,
+            m_blocksInstrument,
+            m_createsInstrument,
+            m_decommissionsInstrument
+        };
+    }
+
+    /**
+     * Any Object which implements Instrumentable can also make use of other
+     *  Instrumentable child objects.  This method is used to tell the
+     *  InstrumentManager about them.
+     *
+     * @return An array of child Instrumentables.
+     */
+    public Instrumentable[] getChildInstrumentables()
+    {
+        return Instrumentable.EMPTY_INSTRUMENTABLE_ARRAY;
+    }
+
+    /*---------------------------------------------------------------
+     * Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Permanently removes a poolable from the pool's active list and
+     *  destroys it so that it will not ever be reused.
+     */
+    protected void permanentlyRemovePoolable( Poolable poolable )
+    {
+        m_size.decrement();
+        removePoolable( poolable );
+
+        // A waiting thread may now create a new poolable.
+        notifyWaiter();
+    }
+
+    /**
+     * Returns the total number of Poolables created by the pool.  Includes active and ready.
+     */
+    public int getSize()
+    {
+        return m_size.get();
+    }
+
+    /**
+     * Returns the number of available Poolables waiting in the pool.
+     */
+    public int getReadySize()
+    {
+        int size = 0;
+        for( int i = 0; i < m_stripes.length; i++ )
+        {
+            size += m_stripes[ i ].size();
+        }
+        return size;
+    }
+
+    /**
+     * Create a new poolable instance by by calling the newInstance method
+     *  on the pool's ObjectFactory.
+     * <p>
+     * This is the method to override when you need to enforce creational
+     *  policies.
+     */
+    protected Poolable newPoolable() throws Exception
+    {
+        Object obj = m_factory.newInstance();
+
+        // Notify the InstrumentManager
+        m_createsInstrument.increment();
+        if( m_sizeInstrument.isActive() )
+        {
+            m_sizeInstrument.setValue( getSize() );
+        }
+
+        return (Poolable)obj;
+    }
+
+    /**
+     * Called when an object is being removed permanently from the pool.
+     * This is the method to override when you need to enforce destructional
+     * policies.
+     *
+     * @param poolable Poolable to be completely removed from the pool.
+     */
+    protected void removePoolable( Poolable poolable )
+    {
+        try
+        {
+            m_factory.decommission( poolable );
+
+            // Notify the InstrumentManager
+            m_decommissionsInstrument.increment();
+            if( m_sizeInstrument.isActive() )
+            {
+                m_sizeInstrument.setValue( getSize() );
+            }
+        }
+        catch( Exception e )
+        {
+            if( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "Error decommissioning object", e );
+            }
+        }
+    }
+
+    /**
+     * Forces the pool to trim, remove, old Poolables from the pool.  If the Pool
+     *  was created with a non-zero value for trimInterval, then this method will
+     *  be called at that interval when get() is called.
+     * <p>
+     * Trimming works as in the {@link InstrumentedResourceLimitingPool}, but on
+     *  each stripe: the old poolables of the stripe are removed from the pool,
+     *  and the poolables that were put back since the last trim become old.
+     *  A poolable therefore has a maximum idle time of twice the trimInterval.
+     *
+     * @return the number of Poolables that were trimmed.
+     */
+    public int trim()
+    {
+        if( m_trimInterval <= 0 )
+        {
+            throw new IllegalStateException( "This pool is not configured to do trimming." );
+        }
+
+        m_lastTrim = System.currentTimeMillis();
+        return trimInner();
+    }
+
+    /**
+     * See trim() for details.
+     */
+    private int trimInner()
+    {
+        int trimCount = 0;
+        for( int i = 0; i < m_stripes.length; i++ )
+        {
+            final Poolable[] old = m_stripes[ i ].age();
+            for( int j = 0; j < old.length; j++ )
+            {
+                permanentlyRemovePoolable( old[ j ] );
+            }
+            trimCount += old.length;
+        }
+
+        if( trimCount > 0 && getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Trimmed " + trimCount + " idle objects from pool." );
+        }
+
+        return trimCount;
+    }
+
+    /**
+     * Takes an available poolable, from the home stripe of the current thread
+     *  if it has one.
+     *
+     * @return a poolable, or null if none are available.
+     */
+    private Poolable poll()
+    {
+        final int home = homeIndex();
+        for( int i = 0; i <= m_stripeMask; i++ )
+        {
+            final Poolable poolable = m_stripes[ ( home + i ) & m_stripeMask ].pop();
+            if( poolable != null )
+            {
+                return poolable;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates a new poolable if the pool may grow, and otherwise blocks or
+     *  fails as configured.
+     */
+    private Poolable create() throws Exception
+    {
+        if( !reserve() )
+        {
+            if( m_blocking )
+            {
+                return block();
+            }
+
+            // We must fail.
+            throw new Exception
+                ( "Could not create enough Components to service your request." );
+        }
+
+        return createReserved();
+    }
+
+    /**
+     * Reserves a place in the pool before creating the poolable.
+     *
+     * @return false if the pool may not grow.
+     */
+    private boolean reserve()
+    {
+        while( true )
+        {
+            final int size = m_size.get();
+            if( ( size >= m_max ) && m_maxStrict )
+            {
+                return false;
+            }
+            if( m_size.commit( size, size + 1 ) )
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Creates a new poolable for a place reserved with reserve(), and gives
+     *  the place up again if that fails.
+     */
+    private Poolable createReserved() throws Exception
+    {
+        try
+        {
+            // Create a new poolable.  May throw an exception if the poolable can not be
+            //  instantiated.
+            final Poolable poolable = newPoolable();
+
+            if( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "Created a new " + poolable.getClass().getName()
+                                   + " from the object factory." );
+            }
+
+            return poolable;
+        }
+        catch( Exception e )
+        {
+            m_size.decrement();
+
+            // A waiting thread may try again.
+            notifyWaiter();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until another thread puts a poolable back, or until there is room
+     *  to create a new one.
+     */
+    private Poolable block() throws Exception
+    {
+        long blockStart = System.currentTimeMillis();
+
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Blocking until a Poolable is available. "
+                               + "Thread: " + Thread.currentThread().getName() );
+        }
+
+        // Notify the InstrumentManager
+        m_blocksInstrument.increment();
+
+        Poolable poolable;
+        boolean reserved = false;
+        synchronized( m_semaphore )
+        {
+            m_waiters++;
+            try
+            {
+                // The put() that woke us may have been for another waiter, or
+                //  another thread may have taken the poolable first, so be careful.
+                while( ( poolable = poll() ) == null )
+                {
+                    // The dispose() method might have woken us up.
+                    if( m_disposed )
+                    {
+                        throw new IllegalStateException( "Already Disposed" );
+                    }
+
+                    // A poolable may have been removed from the pool, or another
+                    //  thread may have failed to create one, so there may be room.
+                    if( reserve() )
+                    {
+                        reserved = true;
+                        break;
+                    }
+
+                    if( m_blockTimeout > 0 )
+                    {
+                        long blockWait =
+                            m_blockTimeout - ( System.currentTimeMillis() - blockStart );
+                        if( blockWait <= 0 )
+                        {
+                            // We timed out waiting.
+                            if( getLogger().isDebugEnabled() )
+                            {
+                                getLogger().debug(
+                                    "Timed out waiting for a Poolable to become "
+                                    + "available.  Blocked for "
+                                    + ( System.currentTimeMillis() - blockStart )
+                                    + "ms. Thread: " + Thread.currentThread().getName() );
+                            }
+                            throw new Exception
+                                ( "Could not create enough Components to service your "
+                                  + "request (Timed out)." );
+                        }
+                        m_semaphore.wait( blockWait );
+                    }
+                    else
+                    {
+                        // Wait until we get a poolable no matter how long it takes.
+                        m_semaphore.wait();
+                    }
+                }
+            }
+            catch( InterruptedException e )
+            {
+                throw new Exception( "Interrupted while waiting for a Poolable." );
+            }
+            finally
+            {
+                m_waiters--;
+            }
+        }
+
+        if( getLogger().isDebugEnabled() )
+        {
+            long now = System.currentTimeMillis();
+            getLogger().debug( "Blocked for " + ( now - blockStart ) + "ms "
+                               + "waiting for a Poolable to become available. "
+                               + "Thread: " + Thread.currentThread().getName() );
+        }
+
+        if( reserved )
+        {
+            return createReserved();
+        }
+        return poolable;
+    }
+
+    /**
+     * Wakes a thread waiting for a poolable, if there is one.  Called whenever
+     *  a poolable is put back or the size of the pool drops.
+     */
+    private void notifyWaiter()
+    {
+        if( m_waiters > 0 )
+        {
+            synchronized( m_semaphore )
+            {
+                m_semaphore.notify();
+            }
+        }
+    }
+
+    private int homeIndex()
+    {
+        final int hash = System.identityHashCode( Thread.currentThread() );
+        return ( hash ^ ( hash >>> 16 ) ) & m_stripeMask;
+    }
+
+    private Stripe homeStripe()
+    {
+        return m_stripes[ homeIndex() ];
+    }
+
+    /**
+     * A stack of available poolables with its own lock.  When trimming is
+     *  enabled, poolables that have not been used since the last trim are
+     *  kept on a second stack of old poolables, which is only taken from when
+     *  the first one is empty.
+     */
+    private static final class Stripe
+    {
+        private Poolable[] m_ready = new Poolable[ 8 ];
+        private int m_readySize;
+        private Poolable[] m_oldReady;
+        private int m_oldReadySize;
+
+        Stripe( final boolean trimming )
+        {
+            if( trimming )
+            {
+                m_oldReady = new Poolable[ 8 ];
+            }
+        }
+
+        synchronized void push( final Poolable poolable )
+        {
+            if( m_readySize == m_ready.length )
+            {
+                final Poolable[] ready = new Poolable[ m_readySize * 2 ];
+                System.arraycopy( m_ready, 0, ready, 0, m_readySize );
+                m_ready = ready;
+            }
+            m_ready[ m_readySize++ ] = poolable;
+        }
+
+        synchronized Poolable pop()
+        {
+            if( m_readySize > 0 )
+            {
+                final Poolable poolable = m_ready[ --m_readySize ];
+                m_ready[ m_readySize ] = null;
+                return poolable;
+            }
+            if( m_oldReadySize > 0 )
+            {
+                final Poolable poolable = m_oldReady[ --m_oldReadySize ];
+                m_oldReady[ m_oldReadySize ] = null;
+                return poolable;
+            }
+            return null;
+        }
+
+        synchronized int size()
+        {
+            return m_readySize + m_oldReadySize;
+        }
+
+        /**
+         * Takes out the old poolables, and marks the others as old.
+         */
+        synchronized Poolable[] age()
+        {
+            final Poolable[] old = new Poolable[ m_oldReadySize ];
+            System.arraycopy( m_oldReady, 0, old, 0, m_oldReadySize );
+
+            final Poolable[] emptied = m_oldReady;
+            for( int i = 0; i < m_oldReadySize; i++ )
+            {
+                emptied[ i ] = null;
+            }
+            m_oldReady = m_ready;
+            m_oldReadySize = m_readySize;
+            m_ready = emptied;
+            m_readySize = 0;
+
+            return old;
+        }
+
+        synchronized Poolable[] drain()
+        {
+            final Poolable[] all = new Poolable[ m_readySize + m_oldReadySize ];
+            System.arraycopy( m_ready, 0, all, 0, m_readySize );
+            if( m_oldReadySize > 0 )
+            {
+                System.arraycopy( m_oldReady, 0, all, m_readySize, m_oldReadySize );
+            }
+            for( int i = 0; i < m_readySize; i++ )
+            {
+                m_ready[ i ] = null;
+            }
+            for( int i = 0; i < m_oldReadySize; i++ )
+            {
+                m_oldReady[ i ] = null;
+            }
+            m_readySize = 0;
+            m_oldReadySize = 0;
+            return all;
+        }
+    }
+}
@@ -19,6 +19,11 @@ package org.apache.avalon.excalibur.pool;
 /**
  * A ResourceLimitingPool which validates reused poolables before they are
  *  returned with a call get().
+ * <p>
+ * If the pool is created with a validation interval, the poolables are not
+ *  validated in get() at all.  Instead a background thread validates the idle
+ *  poolables at that interval, and removes those which are no longer valid.  The
+ *  pool must be initialized for the background thread to be started.
  *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  * @version CVS $Revision: 1.6 $ $Date: 2004/03/31 08:07:28 $
@@ -36,6 +41,27 @@ public class ValidatedResourceLimitingPool
      */
     private boolean m_needsValidation;
 
+    /**
+     * The interval with which idle poolables are validated by the sweeper thread, 0 if
+     *  poolables are validated in get().
+     */
+    private final long m_validationInterval;
+
+    /**
+     * Object used by the sweeper thread to wait between sweeps.
+     */
+    private final Object m_sweepLock = new Object();
+
+    /**
+     * Set when the sweeper thread should stop.  Only accessed with m_sweepLock locked.
+     */
+    private boolean m_sweepStopped;
+
+    /**
+     * The thread which validates the idle poolables, null if it is not running.
+     */
+    private Thread m_sweeperThread;
+
     /*---------------------------------------------------------------
      * Constructors
      *-------------------------------------------------------------*/
@@ -62,8 +88,47 @@ public class ValidatedResourceLimitingPool
                                           long blockTimeout,
                                           long trimInterval )
     {
+        this( factory, max, maxStrict, blocking, blockTimeout, trimInterval, 0, 0, 0 );
+    }
+
+    /**
+     * Creates a new ValidatedResourceLimitingPool which keeps a minimum number of idle
+     *  Poolables and can validate them in the background.
+     *
+     * @param factory The ObjectFactory which will be used to create new Poolables as needed by
+     *  the pool.
+     * @param max Maximum number of Poolables which can be stored in the pool, 0 implies no limit.
+     * @param maxStrict true if the pool should never allow more than max Poolable to be created.
+     *  Will cause an exception to be thrown if more than max Poolables are requested and blocking
+     *  is false.
+     * @param blocking true if the pool should cause a thread calling get() to block when Poolables
+     *  are not currently available on the pool.
+     * @param blockTimeout The maximum amount of time, in milliseconds, that a call to get() will
+     *  block before an exception is thrown.  A value of 0 implies an indefinate wait.
+     * @param trimInterval The minimum interval with which old unused poolables will be removed
+     *  from the pool.  A value of 0 will cause the pool to never trim poolables.
+     * @param minIdle The number of idle Poolables which initialize() fills the pool with, and
+     *  which will never be trimmed.  Can not be larger than max.
+     * @param lowWaterMark When fewer Poolables than this are idle, a background thread fills
+     *  the pool up to minIdle again.  A value of 0 disables the background thread.
+     * @param validationInterval The interval, in milliseconds, with which a background thread
+     *  validates the idle Poolables.  A value of 0 will cause Poolables to be validated in
+     *  get() instead.
+     */
+    public ValidatedResourceLimitingPool( final ObjectFactory factory,
+                                          int max,
+                                          boolean maxStrict,
+                                          boolean blocking,
+                                          long blockTimeout,
+                                          long trimInterval,
+                                          int minIdle,
+                                          int lowWaterMark,
+                                          long validationInterval )
+    {
+        super( factory, max, maxStrict, blocking, blockTimeout, trimInterval,
+               minIdle, lowWaterMark );
 
-        super( factory, max, maxStrict, blocking, blockTimeout, trimInterval );
+        m_validationInterval = Math.max( 0, validationInterval );
     }
 
     /*---------------------------------------------------------------
@@ -81,6 +146,12 @@ public class ValidatedResourceLimitingPool
      */
     public Poolable get() throws Exception
     {
+        if( m_validationInterval > 0 )
+        {
+            // The sweeper thread takes care of validation.
+            return super.get();
+        }
+
         Poolable poolable;
         boolean needsValidation;
 
@@ -127,6 +198,51 @@ public class ValidatedResourceLimitingPool
         return poolable;
     }
 
+    /*---------------------------------------------------------------
+     * Initializable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Fills the pool with the minimum number of idle Poolables and starts the refill and
+     *  sweeper threads.
+     *
+     * @throws Exception if the ObjectFactory fails to create a Poolable.
+     */
+    public void initialize() throws Exception
+    {
+        super.initialize();
+
+        if( m_validationInterval > 0 )
+        {
+            synchronized( m_sweepLock )
+            {
+                if( m_sweeperThread == null && !m_sweepStopped )
+                {
+                    m_sweeperThread = new Thread( new Sweeper(),
+                        "ValidatedResourceLimitingPool sweeper" );
+                    m_sweeperThread.setDaemon( true );
+                    m_sweeperThread.start();
+                }
+            }
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Disposable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Stops the sweeper thread and disposes the pool.
+     */
+    public void dispose()
+    {
+        synchronized( m_sweepLock )
+        {
+            m_sweepStopped = true;
+            m_sweepLock.notify();
+        }
+
+        super.dispose();
+    }
+
     /*---------------------------------------------------------------
      * ResourceLimitingPool Methods
      *-------------------------------------------------------------*/
@@ -135,12 +251,18 @@ public class ValidatedResourceLimitingPool
      *  on the pool's ObjectFactory.
      * This is the method to override when you need to enforce creational
      *  policies.
-     * This method is only called by threads that have m_semaphore locked.
+     * This method is called by threads that have m_semaphore locked, except when the
+     *  pool is being filled with its minimum number of idle Poolables.
      */
     protected Poolable newPoolable() throws Exception
     {
-        // Set the validation flag to false.  See the exclamation in the get() method.
-        m_needsValidation = false;
+        // Set the validation flag to false.  See the exclamation in the get() method.  The
+        //  flag belongs to the thread in get(), so a thread filling the pool without the
+        //  semaphore must leave it alone.
+        if( Thread.holdsLock( m_semaphore ) )
+        {
+            m_needsValidation = false;
+        }
 
         return super.newPoolable();
     }
@@ -148,6 +270,27 @@ public class ValidatedResourceLimitingPool
     /*---------------------------------------------------------------
      * Public Methods
      *-------------------------------------------------------------*/
+    /**
+     * Validates each of the Poolables which are currently idle, and removes those which
+     *  are no longer valid.  The pool is not locked while a Poolable is validated, but the
+     *  Poolable is taken out of the pool so that it can not be handed out in the meantime.
+     *  This is called by the sweeper thread, but may also be called by applications.
+     *
+     * @return the number of Poolables that were removed.
+     */
+    public int validateIdle()
+    {
+        int removed = validateIdle( true );
+        removed += validateIdle( false );
+
+        if( ( removed > 0 ) && getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Removed " + removed + " idle objects which failed validation." );
+        }
+
+        return removed;
+    }
+
     /**
      * If the poolable implements Validatable, then its validate() method will be called to give
      *  the poolable a chance to validate itself.
@@ -168,5 +311,119 @@ public class ValidatedResourceLimitingPool
             return true;
         }
     }
-}
 
+    /*---------------------------------------------------------------
+     * Private Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Validates the Poolables in one of the lists of idle Poolables.
+     *
+     * @param old true for the list of old Poolables.
+     * @return the number of Poolables that were removed.
+     */
+    private int validateIdle( boolean old )
+    {
+        // Each Poolable that is given back goes to the end of its list, so the sweep is over
+        //  once the first Poolable that was given back comes around again.  The pool size
+        //  bounds the sweep in case that Poolable is handed out in the meantime.
+        final int limit = getSize();
+        Poolable first = null;
+        int removed = 0;
+        for( int i = 0; i < limit; i++ )
+        {
+            Poolable poolable;
+            synchronized( m_semaphore )
+            {
+                poolable = removeIdlePoolable( old );
+                if( poolable == first )
+                {
+                    if( poolable != null )
+                    {
+                        returnIdlePoolable( poolable, old );
+                    }
+                    break;
+                }
+            }
+
+            boolean valid;
+            try
+            {
+                valid = validatePoolable( poolable );
+            }
+            catch( Exception e )
+            {
+                if( getLogger().isDebugEnabled() )
+                {
+                    getLogger().debug( "Validation of a " + poolable.getClass().getName()
+                                       + " failed.", e );
+                }
+                valid = false;
+            }
+
+            synchronized( m_semaphore )
+            {
+                if( valid )
+                {
+                    returnIdlePoolable( poolable, old );
+                    if( first == null )
+                    {
+                        first = poolable;
+                    }
+                }
+                else
+                {
+                    permanentlyRemovePoolable( poolable );
+                    removed++;
+                }
+            }
+        }
+
+        return removed;
+    }
+
+    /*---------------------------------------------------------------
+     * Inner classes
+     *-------------------------------------------------------------*/
+    /**
+     * Validates the idle Poolables at m_validationInterval until the pool is disposed.
+     */
+    private final class Sweeper
+        implements Runnable
+    {
+        public void run()
+        {
+            while( true )
+            {
+                synchronized( m_sweepLock )
+                {
+                    if( !m_sweepStopped )
+                    {
+                        try
+                        {
+                            m_sweepLock.wait( m_validationInterval );
+                        }
+                        catch( InterruptedException e )
+                        {
+                        }
+                    }
+                    if( m_sweepStopped )
+                    {
+                        return;
+                    }
+                }
+
+                try
+                {
+                    validateIdle();
+                }
+                catch( RuntimeException e )
+                {
+                    if( getLogger().isWarnEnabled() )
+                    {
+                        getLogger().warn( "Unable to validate the idle objects in the pool", e );
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool.test;
+
+import org.apache.avalon.excalibur.pool.ObjectFactory;
+import org.apache.avalon.excalibur.pool.Poolable;
+import org.apache.avalon.excalibur.pool.Validatable;
+
+/**
+ * An ObjectFactory which counts the poolables it creates and decommissions,
+ *  and which can be told to fail the next calls to newInstance().
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Revision: 1.1 $ $Date: 2004/03/29 16:50:37 $
+ * @since 4.1
+ */
+public class CountingObjectFactory
+    implements ObjectFactory
+{
+    private int m_created;
+    private int m_decommissioned;
+    private int m_failures;
+
+    /*---------------------------------------------------------------
+     * ObjectFactory Methods
+     *-------------------------------------------------------------*/
+    public synchronized Object newInstance() throws Exception
+    {
+        if( m_failures > 0 )
+        {
+            m_failures--;
+            throw new IllegalStateException( "For testing, this poolable can not be created." );
+        }
+        return new TestPoolable( ++m_created );
+    }
+
+    public Class getCreatedClass()
+    {
+        return TestPoolable.class;
+    }
+
+    public synchronized void decommission( Object object ) throws Exception
+    {
+        ( (TestPoolable)object ).m_decommissioned = true;
+        m_decommissioned++;
+    }
+
+    /*---------------------------------------------------------------
+     * Methods
+     *-------------------------------------------------------------*/
+    public synchronized int getCreated()
+    {
+        return m_created;
+    }
+
+    public synchronized int getDecommissioned()
+    {
+        return m_decommissioned;
+    }
+
+    /**
+     * Makes the next calls to newInstance() throw an exception.
+     */
+    public synchronized void fail( int count )
+    {
+        m_failures = count;
+    }
+
+    /**
+     * A poolable which knows whether it was decommissioned, and whether it
+     *  is still valid.
+     */
+    public static class TestPoolable
+        implements Poolable, Validatable
+    {
+        private final int m_id;
+        private volatile boolean m_valid = true;
+        private volatile boolean m_decommissioned;
+        private volatile int m_validations;
+
+        TestPoolable( int id )
+        {
+            m_id = id;
+        }
+
+        public int getId()
+        {
+            return m_id;
+        }
+
+        public boolean isDecommissioned()
+        {
+            return m_decommissioned;
+        }
+
+        public void invalidate()
+        {
+            m_valid = false;
+        }
+
+        public int getValidations()
+        {
+            return m_validations;
+        }
+
+        public boolean validate()
+        {
+            m_validations++;
+            return m_valid;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool.test;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.excalibur.pool.InstrumentedResourceLimitingPool;
+import org.apache.avalon.excalibur.pool.Poolable;
+import org.apache.avalon.framework.logger.NullLogger;
+
+import org.apache.excalibur.instrument.AbstractInstrument;
+import org.apache.excalibur.instrument.Instrument;
+import org.apache.excalibur.instrument.InstrumentProxy;
+
+/**
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Revision: 1.1 $ $Date: 2004/03/29 16:50:37 $
+ * @since 4.1
+ */
+public final class InstrumentedResourceLimitingPoolTestCase extends TestCase
+{
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    public InstrumentedResourceLimitingPoolTestCase()
+    {
+        this( "InstrumentedResourceLimitingPool Test Case" );
+    }
+
+    public InstrumentedResourceLimitingPoolTestCase( final String name )
+    {
+        super( name );
+    }
+
+    /*---------------------------------------------------------------
+     * TestCases
+     *-------------------------------------------------------------*/
+    public void testPreFill() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        InstrumentedResourceLimitingPool pool =
+            new InstrumentedResourceLimitingPool( factory, 10, true, false, 0, 0, 3, 0 );
+        pool.enableLogging( new NullLogger() );
+
+        Instrument[] instruments = pool.getInstruments();
+        RecordingProxy[] proxies = new RecordingProxy[ instruments.length ];
+        for( int i = 0; i < instruments.length; i++ )
+        {
+            proxies[ i ] = new RecordingProxy();
+            ( (AbstractInstrument)instruments[ i ] ).setInstrumentProxy( proxies[ i ] );
+        }
+
+        assertEquals( "1) Pool Size", 0, pool.getSize() );
+
+        pool.initialize();
+
+        assertEquals( "2) Pool Ready Size", 3, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 3, pool.getSize() );
+        assertEquals( "Created", 3, factory.getCreated() );
+
+        assertEquals( "size", 3, proxies[ 0 ].m_value );
+        assertEquals( "ready-size", 3, proxies[ 1 ].m_value );
+        assertEquals( "creates", 3, proxies[ 5 ].m_count );
+
+        // The idle poolables are handed out before new ones are created.
+        Poolable p = pool.get();
+        assertEquals( "3) Pool Ready Size", 2, pool.getReadySize() );
+        assertEquals( "Created", 3, factory.getCreated() );
+
+        pool.put( p );
+        pool.dispose();
+
+        assertEquals( "4) Pool Size", 0, pool.getSize() );
+        assertEquals( "Decommissioned", 3, factory.getDecommissioned() );
+    }
+
+    public void testPreFillFailure() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        InstrumentedResourceLimitingPool pool =
+            new InstrumentedResourceLimitingPool( factory, 10, true, false, 0, 0, 3, 0 );
+        pool.enableLogging( new NullLogger() );
+
+        factory.fail( 1 );
+        try
+        {
+            pool.initialize();
+            fail( "The factory should have failed." );
+        }
+        catch( IllegalStateException e )
+        {
+            // Expected
+        }
+
+        // The failed poolable gives its place in the pool back.
+        assertEquals( "Pool Size", 0, pool.getSize() );
+
+        pool.initialize();
+        assertEquals( "Pool Ready Size", 3, pool.getReadySize() );
+        assertEquals( "Pool Size", 3, pool.getSize() );
+
+        pool.dispose();
+    }
+
+    public void testRefill() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        InstrumentedResourceLimitingPool pool =
+            new InstrumentedResourceLimitingPool( factory, 10, true, false, 0, 0, 3, 2 );
+        pool.enableLogging( new NullLogger() );
+        pool.initialize();
+
+        // Dropping below the low-water mark makes the refill thread create new poolables.
+        Poolable p1 = pool.get();
+        assertEquals( "1) Pool Ready Size", 2, pool.getReadySize() );
+        Poolable p2 = pool.get();
+        waitForReadySize( pool, 3 );
+
+        assertEquals( "2) Pool Ready Size", 3, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 5, pool.getSize() );
+
+        pool.put( p1 );
+        pool.put( p2 );
+
+        assertEquals( "3) Pool Ready Size", 5, pool.getReadySize() );
+        assertEquals( "3) Pool Size", 5, pool.getSize() );
+
+        pool.dispose();
+
+        assertEquals( "4) Pool Size", 0, pool.getSize() );
+        assertEquals( "Decommissioned", 5, factory.getDecommissioned() );
+    }
+
+    public void testRefillKeepsMax() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        InstrumentedResourceLimitingPool pool =
+            new InstrumentedResourceLimitingPool( factory, 4, true, false, 0, 0, 3, 2 );
+        pool.enableLogging( new NullLogger() );
+        pool.initialize();
+
+        Poolable p1 = pool.get();
+        Poolable p2 = pool.get();
+        waitForReadySize( pool, 2 );
+
+        // The refill thread may only grow the pool to its maximum size.
+        Thread.sleep( 100 );
+        assertEquals( "Pool Ready Size", 2, pool.getReadySize() );
+        assertEquals( "Pool Size", 4, pool.getSize() );
+
+        pool.put( p1 );
+        pool.put( p2 );
+        pool.dispose();
+    }
+
+    /*---------------------------------------------------------------
+     * Utility Methods
+     *-------------------------------------------------------------*/
+    private void waitForReadySize( InstrumentedResourceLimitingPool pool, int readySize )
+        throws InterruptedException
+    {
+        long timeout = System.currentTimeMillis() + 5000;
+        while( ( pool.getReadySize() < readySize ) && ( System.currentTimeMillis() < timeout ) )
+        {
+            Thread.sleep( 10 );
+        }
+    }
+
+    /**
+     * Remembers what the pool told an instrument.
+     */
+    private static final class RecordingProxy
+        implements InstrumentProxy
+    {
+        int m_count;
+        int m_value = -1;
+
+        public boolean isActive()
+        {
+            return true;
+        }
+
+        public synchronized void increment( int count )
+        {
+            m_count += count;
+        }
+
+        public synchronized void setValue( int value )
+        {
+            m_value = value;
+        }
+    }
+}
@@ -0,0 +1,564 @@
+/*
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool.test;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.excalibur.pool.InstrumentedResourceLimitingPool;
+import org.apache.avalon.excalibur.pool.Poolable;
+import org.apache.avalon.excalibur.pool.StripedResourceLimitingPool;
+import org.apache.avalon.framework.logger.NullLogger;
+
+import org.apache.excalibur.instrument.AbstractInstrument;
+import org.apache.excalibur.instrument.Instrument;
+import org.apache.excalibur.instrument.InstrumentProxy;
+
+/**
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Revision: 1.1 $ $Date: 2004/03/29 16:50:37 $
+ * @since 4.1
+ */
+public final class StripedResourceLimitingPoolTestCase extends TestCase
+{
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    public StripedResourceLimitingPoolTestCase()
+    {
+        this( "StripedResourceLimitingPool Test Case" );
+    }
+
+    public StripedResourceLimitingPoolTestCase( final String name )
+    {
+        super( name );
+    }
+
+    /*---------------------------------------------------------------
+     * TestCases
+     *-------------------------------------------------------------*/
+    public void testSingleGetPutPoolCheck() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        StripedResourceLimitingPool pool = createPool( factory, 0, false, false, 0, 0 );
+
+        assertEquals( "1) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "1) Pool Size", 0, pool.getSize() );
+
+        Poolable p1 = pool.get();
+
+        assertEquals( "2) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 1, pool.getSize() );
+
+        pool.put( p1 );
+
+        assertEquals( "3) Pool Ready Size", 1, pool.getReadySize() );
+        assertEquals( "3) Pool Size", 1, pool.getSize() );
+
+        Poolable p2 = pool.get();
+
+        assertSame( "Pooled Object reuse check", p1, p2 );
+        assertEquals( "Created", 1, factory.getCreated() );
+
+        pool.put( p2 );
+        pool.dispose();
+
+        assertEquals( "4) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "4) Pool Size", 0, pool.getSize() );
+        assertEquals( "Decommissioned", 1, factory.getDecommissioned() );
+    }
+
+    public void testMax() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        StripedResourceLimitingPool pool = createPool( factory, 2, false, false, 0, 0 );
+
+        // The pool may grow beyond its maximum size when it is not strict.
+        Poolable p1 = pool.get();
+        Poolable p2 = pool.get();
+        Poolable p3 = pool.get();
+
+        assertEquals( "1) Pool Size", 3, pool.getSize() );
+
+        pool.put( p1 );
+        pool.put( p2 );
+        pool.put( p3 );
+
+        // But it only keeps as many as it may hold.
+        assertEquals( "2) Pool Ready Size", 2, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 2, pool.getSize() );
+        assertEquals( "Decommissioned", 1, factory.getDecommissioned() );
+
+        pool.dispose();
+    }
+
+    public void testMaxStrict() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        StripedResourceLimitingPool pool = createPool( factory, 2, true, false, 0, 0 );
+
+        Poolable p1 = pool.get();
+        Poolable p2 = pool.get();
+        try
+        {
+            pool.get();
+            fail( "The pool grew beyond its strict maximum." );
+        }
+        catch( Exception e )
+        {
+            // Expected
+        }
+        assertEquals( "1) Pool Size", 2, pool.getSize() );
+
+        pool.put( p1 );
+        assertSame( "Pooled Object reuse check", p1, pool.get() );
+        assertEquals( "Created", 2, factory.getCreated() );
+
+        pool.put( p1 );
+        pool.put( p2 );
+        pool.dispose();
+    }
+
+    public void testFailingGets() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        StripedResourceLimitingPool pool = createPool( factory, 1, true, false, 0, 0 );
+
+        factory.fail( 2 );
+        for( int i = 0; i < 2; i++ )
+        {
+            try
+            {
+                pool.get();
+                fail( "The factory should have failed." );
+            }
+            catch( IllegalStateException e )
+            {
+                // Expected
+            }
+            assertEquals( "Pool Size", 0, pool.getSize() );
+        }
+
+        // The failed gets must not have used up the only place in the pool.
+        Poolable p = pool.get();
+        assertEquals( "Pool Size", 1, pool.getSize() );
+
+        pool.put( p );
+        pool.dispose();
+    }
+
+    public void testBlockTimeout() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        StripedResourceLimitingPool pool = createPool( factory, 1, true, true, 100, 0 );
+
+        Poolable p = pool.get();
+        long start = System.currentTimeMillis();
+        try
+        {
+            pool.get();
+            fail( "The get should have timed out." );
+        }
+        catch( Exception e )
+        {
+            // Expected
+        }
+        assertTrue( "Blocked for the timeout", System.currentTimeMillis() - start >= 90 );
+        assertEquals( "Pool Size", 1, pool.getSize() );
+
+        pool.put( p );
+        pool.dispose();
+    }
+
+    public void testBlocking() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        final StripedResourceLimitingPool pool = createPool( factory, 1, true, true, 0, 0 );
+
+        final Poolable p = pool.get();
+        Thread putter = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep( 100 );
+                }
+                catch( InterruptedException e )
+                {
+                }
+                pool.put( p );
+            }
+        };
+        putter.start();
+
+        // Blocks until the other thread puts the poolable back.
+        assertSame( "Pooled Object reuse check", p, pool.get() );
+        putter.join();
+        assertEquals( "Created", 1, factory.getCreated() );
+
+        pool.put( p );
+        pool.dispose();
+    }
+
+    public void testDisposeWakesBlockedThreads() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        final StripedResourceLimitingPool pool = createPool( factory, 1, true, true, 0, 0 );
+
+        final Poolable p = pool.get();
+        final Exception[] result = new Exception[ 1 ];
+        Thread getter = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    pool.get();
+                }
+                catch( Exception e )
+                {
+                    result[ 0 ] = e;
+                }
+            }
+        };
+        getter.start();
+        Thread.sleep( 100 );
+
+        pool.dispose();
+        getter.join( 5000 );
+
+        assertFalse( "Blocked thread woken", getter.isAlive() );
+        assertTrue( "Blocked thread failed", result[ 0 ] instanceof IllegalStateException );
+
+        // A poolable put back after the pool was disposed is decommissioned.
+        pool.put( p );
+        assertEquals( "Pool Size", 0, pool.getSize() );
+        assertTrue( "Decommissioned", ( (CountingObjectFactory.TestPoolable)p ).isDecommissioned() );
+    }
+
+    public void testFailedCreateWakesBlockedThread() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        final StripedResourceLimitingPool pool =
+            new StripedResourceLimitingPool( factory, 1, true, true, 0, 0, 1 )
+            {
+                private boolean m_failed;
+
+                protected Poolable newPoolable() throws Exception
+                {
+                    synchronized( this )
+                    {
+                        if( !m_failed )
+                        {
+                            // Hold the only place in the pool for a while, then fail.
+                            m_failed = true;
+                            Thread.sleep( 200 );
+                            throw new IllegalStateException( "For testing." );
+                        }
+                    }
+                    return super.newPoolable();
+                }
+            };
+        pool.enableLogging( new NullLogger() );
+
+        Thread failing = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    pool.get();
+                }
+                catch( Exception e )
+                {
+                    // Expected
+                }
+            }
+        };
+        failing.start();
+        Thread.sleep( 50 );
+
+        // Blocks while the other thread holds the place, and must then create a poolable.
+        GetterThread getter = new GetterThread( pool );
+        getter.start();
+        getter.join( 5000 );
+        failing.join();
+
+        assertFalse( "Blocked thread woken", getter.isAlive() );
+        assertNotNull( "Blocked thread got a poolable", getter.m_poolable );
+        assertEquals( "Pool Size", 1, pool.getSize() );
+
+        pool.put( getter.m_poolable );
+        pool.dispose();
+    }
+
+    public void testRemovedPoolableWakesBlockedThread() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        final StripedResourceLimitingPool pool =
+            new StripedResourceLimitingPool( factory, 1, true, true, 0, 0, 1 )
+            {
+                public void put( Poolable poolable )
+                {
+                    // Throw the poolable away instead of keeping it.
+                    permanentlyRemovePoolable( poolable );
+                }
+            };
+        pool.enableLogging( new NullLogger() );
+
+        Poolable p = pool.get();
+        GetterThread getter = new GetterThread( pool );
+        getter.start();
+        Thread.sleep( 100 );
+
+        pool.put( p );
+        getter.join( 5000 );
+
+        assertFalse( "Blocked thread woken", getter.isAlive() );
+        assertNotNull( "Blocked thread got a poolable", getter.m_poolable );
+        assertTrue( "New poolable", p != getter.m_poolable );
+        assertEquals( "Created", 2, factory.getCreated() );
+        assertEquals( "Pool Size", 1, pool.getSize() );
+
+        pool.dispose();
+    }
+
+    public void testTrim() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        StripedResourceLimitingPool pool = createPool( factory, 10, false, false, 0, 60000 );
+
+        Poolable p1 = pool.get();
+        Poolable p2 = pool.get();
+        Poolable p3 = pool.get();
+        pool.put( p1 );
+        pool.put( p2 );
+        pool.put( p3 );
+
+        // The first trim marks the poolables as old, the second removes them.
+        assertEquals( "1) Trimmed", 0, pool.trim() );
+        assertEquals( "1) Pool Ready Size", 3, pool.getReadySize() );
+
+        // A poolable that is used again is no longer old.
+        pool.put( pool.get() );
+
+        assertEquals( "2) Trimmed", 2, pool.trim() );
+        assertEquals( "2) Pool Ready Size", 1, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 1, pool.getSize() );
+
+        assertEquals( "3) Trimmed", 1, pool.trim() );
+        assertEquals( "3) Pool Size", 0, pool.getSize() );
+        assertEquals( "Decommissioned", 3, factory.getDecommissioned() );
+
+        pool.dispose();
+    }
+
+    public void testTrimDisabled() throws Exception
+    {
+        StripedResourceLimitingPool pool =
+            createPool( new CountingObjectFactory(), 0, false, false, 0, 0 );
+        try
+        {
+            pool.trim();
+            fail( "The pool is not configured to trim." );
+        }
+        catch( IllegalStateException e )
+        {
+            // Expected
+        }
+        pool.dispose();
+    }
+
+    public void testInstruments() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        StripedResourceLimitingPool pool = createPool( factory, 1, true, true, 50, 0 );
+
+        Instrument[] instruments = pool.getInstruments();
+        String[] names = new String[]
+        {
+            InstrumentedResourceLimitingPool.INSTRUMENT_SIZE_NAME,
+            InstrumentedResourceLimitingPool.INSTRUMENT_READY_SIZE_NAME,
+            InstrumentedResourceLimitingPool.INSTRUMENT_GETS_NAME,
+            InstrumentedResourceLimitingPool.INSTRUMENT_PUTS_NAME,
+            InstrumentedResourceLimitingPool.INSTRUMENT_BLOCKS_NAME,
+            InstrumentedResourceLimitingPool.INSTRUMENT_CREATES_NAME,
+            InstrumentedResourceLimitingPool.INSTRUMENT_DECOMMISSIONS_NAME
+        };
+        assertEquals( "Instruments", names.length, instruments.length );
+
+        RecordingProxy[] proxies = new RecordingProxy[ instruments.length ];
+        for( int i = 0; i < instruments.length; i++ )
+        {
+            assertEquals( "Instrument name", names[ i ], instruments[ i ].getInstrumentName() );
+            proxies[ i ] = new RecordingProxy();
+            ( (AbstractInstrument)instruments[ i ] ).setInstrumentProxy( proxies[ i ] );
+        }
+
+        Poolable p = pool.get();
+        try
+        {
+            pool.get();
+            fail( "The get should have timed out." );
+        }
+        catch( Exception e )
+        {
+            // Expected
+        }
+        pool.put( p );
+        pool.dispose();
+
+        assertEquals( "size", 0, proxies[ 0 ].m_value );
+        assertEquals( "ready-size", 0, proxies[ 1 ].m_value );
+        assertEquals( "gets", 1, proxies[ 2 ].m_count );
+        assertEquals( "puts", 1, proxies[ 3 ].m_count );
+        assertEquals( "blocks", 1, proxies[ 4 ].m_count );
+        assertEquals( "creates", 1, proxies[ 5 ].m_count );
+        assertEquals( "decommissions", 1, proxies[ 6 ].m_count );
+    }
+
+    public void testMultithreadMaxStrictBlock() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        final StripedResourceLimitingPool pool = createPool( factory, 3, true, true, 0, 0, 4 );
+
+        final Throwable[] failure = new Throwable[ 1 ];
+        Thread[] threads = new Thread[ 10 ];
+        for( int i = 0; i < threads.length; i++ )
+        {
+            threads[ i ] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for( int j = 0; j < 50; j++ )
+                        {
+                            Poolable p = pool.get();
+
+                            // We can't check the exact pool size, but make sure that it
+                            //  never gets over 3
+                            assertTrue( "Pool size <= 3", pool.getSize() <= 3 );
+                            Thread.yield();
+                            pool.put( p );
+                        }
+                    }
+                    catch( Throwable t )
+                    {
+                        failure[ 0 ] = t;
+                    }
+                }
+            };
+            threads[ i ].start();
+        }
+        for( int i = 0; i < threads.length; i++ )
+        {
+            threads[ i ].join( 20000 );
+            assertFalse( "Thread finished", threads[ i ].isAlive() );
+        }
+        if( failure[ 0 ] != null )
+        {
+            fail( "Thread failed: " + failure[ 0 ] );
+        }
+
+        assertTrue( "Created <= 3", factory.getCreated() <= 3 );
+        assertEquals( "Pool Ready Size", pool.getSize(), pool.getReadySize() );
+
+        pool.dispose();
+        assertEquals( "Pool Size", 0, pool.getSize() );
+        assertEquals( "Decommissioned", factory.getCreated(), factory.getDecommissioned() );
+    }
+
+    /*---------------------------------------------------------------
+     * Methods
+     *-------------------------------------------------------------*/
+    private StripedResourceLimitingPool createPool( CountingObjectFactory factory,
+                                                    int max,
+                                                    boolean maxStrict,
+                                                    boolean blocking,
+                                                    long blockTimeout,
+                                                    long trimInterval )
+    {
+        return createPool( factory, max, maxStrict, blocking, blockTimeout, trimInterval, 1 );
+    }
+
+    private StripedResourceLimitingPool createPool( CountingObjectFactory factory,
+                                                    int max,
+                                                    boolean maxStrict,
+                                                    boolean blocking,
+                                                    long blockTimeout,
+                                                    long trimInterval,
+                                                    int stripes )
+    {
+        StripedResourceLimitingPool pool = new StripedResourceLimitingPool(
+            factory, max, maxStrict, blocking, blockTimeout, trimInterval, stripes );
+        pool.enableLogging( new NullLogger() );
+        return pool;
+    }
+
+    /**
+     * Gets a poolable from the pool in the background.
+     */
+    private static final class GetterThread
+        extends Thread
+    {
+        private final StripedResourceLimitingPool m_pool;
+        volatile Poolable m_poolable;
+
+        GetterThread( StripedResourceLimitingPool pool )
+        {
+            m_pool = pool;
+        }
+
+        public void run()
+        {
+            try
+            {
+                m_poolable = m_pool.get();
+            }
+            catch( Exception e )
+            {
+                // m_poolable stays null
+            }
+        }
+    }
+
+    /**
+     * Remembers what the pool told an instrument.
+     */
+    private static final class RecordingProxy
+        implements InstrumentProxy
+    {
+        int m_count;
+        int m_value = -1;
+
+        public boolean isActive()
+        {
+            return true;
+        }
+
+        public synchronized void increment( int count )
+        {
+            m_count += count;
+        }
+
+        public synchronized void setValue( int value )
+        {
+            m_value = value;
+        }
+    }
+}
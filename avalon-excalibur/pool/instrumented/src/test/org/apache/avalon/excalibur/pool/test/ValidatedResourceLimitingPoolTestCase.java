@@ -0,0 +1,137 @@
+/*
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool.test;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.excalibur.pool.ValidatedResourceLimitingPool;
+import org.apache.avalon.framework.logger.NullLogger;
+
+/**
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Revision: 1.1 $ $Date: 2004/03/29 16:50:37 $
+ * @since 4.1
+ */
+public final class ValidatedResourceLimitingPoolTestCase extends TestCase
+{
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    public ValidatedResourceLimitingPoolTestCase()
+    {
+        this( "ValidatedResourceLimitingPool Test Case" );
+    }
+
+    public ValidatedResourceLimitingPoolTestCase( final String name )
+    {
+        super( name );
+    }
+
+    /*---------------------------------------------------------------
+     * TestCases
+     *-------------------------------------------------------------*/
+    public void testValidateInGet() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        ValidatedResourceLimitingPool pool =
+            new ValidatedResourceLimitingPool( factory, 10, false, false, 0, 0 );
+        pool.enableLogging( new NullLogger() );
+
+        CountingObjectFactory.TestPoolable p1 = (CountingObjectFactory.TestPoolable)pool.get();
+
+        // A new poolable does not need to be validated.
+        assertEquals( "1) Validations", 0, p1.getValidations() );
+
+        pool.put( p1 );
+        assertSame( "Pooled Object reuse check", p1, pool.get() );
+        assertEquals( "2) Validations", 1, p1.getValidations() );
+
+        // An invalid poolable is removed, and a new one takes its place.
+        p1.invalidate();
+        pool.put( p1 );
+
+        CountingObjectFactory.TestPoolable p2 = (CountingObjectFactory.TestPoolable)pool.get();
+        assertTrue( "New poolable", p1 != p2 );
+        assertTrue( "Decommissioned", p1.isDecommissioned() );
+        assertEquals( "Pool Size", 1, pool.getSize() );
+
+        pool.put( p2 );
+        pool.dispose();
+    }
+
+    public void testValidateIdle() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        ValidatedResourceLimitingPool pool =
+            new ValidatedResourceLimitingPool( factory, 10, false, false, 0, 0, 2, 0, 3600000 );
+        pool.enableLogging( new NullLogger() );
+        pool.initialize();
+
+        assertEquals( "1) Pool Ready Size", 2, pool.getReadySize() );
+        assertEquals( "1) Pool Size", 2, pool.getSize() );
+
+        CountingObjectFactory.TestPoolable p1 = (CountingObjectFactory.TestPoolable)pool.get();
+        CountingObjectFactory.TestPoolable p2 = (CountingObjectFactory.TestPoolable)pool.get();
+        pool.put( p1 );
+        pool.put( p2 );
+
+        // With a validation interval, get() leaves validation to the sweeper.
+        assertEquals( "p1 Validations", 0, p1.getValidations() );
+        assertEquals( "p2 Validations", 0, p2.getValidations() );
+
+        p1.invalidate();
+        assertEquals( "Removed", 1, pool.validateIdle() );
+
+        assertTrue( "p1 Decommissioned", p1.isDecommissioned() );
+        assertFalse( "p2 Decommissioned", p2.isDecommissioned() );
+        assertEquals( "p2 Validations", 1, p2.getValidations() );
+        assertEquals( "2) Pool Ready Size", 1, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 1, pool.getSize() );
+
+        // The valid poolable is still in the pool.
+        assertSame( "Pooled Object reuse check", p2, pool.get() );
+        assertEquals( "p2 Validations", 1, p2.getValidations() );
+
+        pool.put( p2 );
+        pool.dispose();
+    }
+
+    public void testSweeper() throws Exception
+    {
+        CountingObjectFactory factory = new CountingObjectFactory();
+        ValidatedResourceLimitingPool pool =
+            new ValidatedResourceLimitingPool( factory, 10, false, false, 0, 0, 0, 0, 50 );
+        pool.enableLogging( new NullLogger() );
+        pool.initialize();
+
+        CountingObjectFactory.TestPoolable p = (CountingObjectFactory.TestPoolable)pool.get();
+        pool.put( p );
+        p.invalidate();
+
+        // The sweeper thread removes the invalid idle poolable.
+        long timeout = System.currentTimeMillis() + 5000;
+        while( ( pool.getSize() > 0 ) && ( System.currentTimeMillis() < timeout ) )
+        {
+            Thread.sleep( 10 );
+        }
+
+        assertEquals( "Pool Size", 0, pool.getSize() );
+        assertTrue( "Decommissioned", p.isDecommissioned() );
+
+        pool.dispose();
+    }
+}
@@ -0,0 +1,40 @@
+/* 
+ * Copyright 2002-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store;
+
+/**
+ * A Store that counts how often the objects asked for were found in
+ * memory.  The StoreJanitor may free the stores with a low hit ratio
+ * first.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public interface MonitoredStore
+    extends Store
+{
+    /**
+     * Returns the number of times an object was found in memory since
+     * the store was created.
+     */
+    long getHits();
+
+    /**
+     * Returns the number of times an object was not found in memory
+     * since the store was created.
+     */
+    long getMisses();
+}
@@ -0,0 +1,39 @@
+/* 
+ * Copyright 2002-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store;
+
+/**
+ * A Weigher estimates how much memory an object held by a store takes,
+ * so that the store can keep to a memory budget instead of a number of
+ * objects.  The estimate only has to be good enough to tell a large
+ * object from a small one; it is taken once, when the object is stored.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public interface Weigher
+{
+    String ROLE = Weigher.class.getName();
+
+    /**
+     * Estimate the memory used by a stored object.
+     *
+     * @param key the key the object is stored under
+     * @param value the object
+     * @return the estimated number of bytes, never negative
+     */
+    long weigh( Object key, Object value );
+}
@@ -0,0 +1,43 @@
+/* 
+ * Copyright 2002-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store;
+
+/**
+ * A Store that knows how much memory its objects take, as estimated by
+ * a {@link Weigher}.  The StoreJanitor frees such a store by bytes
+ * rather than by number of objects.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public interface WeightedStore
+    extends Store
+{
+    /**
+     * Returns the estimated number of bytes used by the objects held
+     * in memory.
+     */
+    long getWeight();
+
+    /**
+     * Free objects held in memory until at least the given number of
+     * bytes is freed, or the store is empty.
+     *
+     * @param bytes the number of bytes to free
+     * @return the estimated number of bytes freed
+     */
+    long free( long bytes );
+}
@@ -0,0 +1,817 @@
+/* 
+ * Copyright 2002-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.avalon.framework.activity.Disposable;
+import org.apache.avalon.framework.logger.AbstractLogEnabled;
+import org.apache.avalon.framework.parameters.ParameterException;
+import org.apache.avalon.framework.parameters.Parameterizable;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.avalon.framework.service.ServiceException;
+import org.apache.avalon.framework.service.ServiceManager;
+import org.apache.avalon.framework.service.Serviceable;
+import org.apache.avalon.framework.thread.ThreadSafe;
+import org.apache.excalibur.instrument.CounterInstrument;
+import org.apache.excalibur.instrument.Instrument;
+import org.apache.excalibur.instrument.Instrumentable;
+import org.apache.excalibur.instrument.ValueInstrument;
+import org.apache.excalibur.store.MonitoredStore;
+import org.apache.excalibur.store.Store;
+import org.apache.excalibur.store.StoreJanitor;
+import org.apache.excalibur.store.Weigher;
+import org.apache.excalibur.store.WeightedStore;
+
+import EDU.oswego.cs.dl.util.concurrent.SynchronizedInt;
+import EDU.oswego.cs.dl.util.concurrent.SynchronizedLong;
+
+/**
+ * A drop-in replacement for the {@link MRUMemoryStore} for stores that
+ * are used by many threads at once.  The keys are spread over a number of
+ * segments, each with its own lock, its own hash map and its own MRU list,
+ * so threads working on different segments never wait for each other.
+ * The MRU list is linked through the entries themselves, so moving an
+ * entry to the top on a hit takes constant time.
+ *
+ * <p>
+ *   Every segment holds at most its share of <code>maxobjects</code>, and
+ *   evicts its own least recently used entry when it is full, so the store
+ *   as a whole approximates an MRU cache.  Evicted entries are swapped out
+ *   to the persistent store outside the segment lock, and the entries
+ *   freed by the <code>StoreJanitor</code> are taken from the segments in
+ *   turn.
+ * </p>
+ *
+ * <p>
+ *   Optionally, the store also keeps to a memory budget of
+ *   <code>maxbytes</code>, as estimated by a {@link Weigher}.  The budget
+ *   is shared by all segments: when a new object does not fit, the least
+ *   recently used entries of the segments are evicted in turn until it
+ *   does.  An object heavier than the whole budget is not held in memory,
+ *   but only swapped out to the persistent store, if configured.  If a
+ *   <code>Weigher</code> is available from the
+ *   <code>ServiceManager</code> it is used, otherwise a
+ *   {@link DefaultWeigher}.
+ * </p>
+ *
+ * @avalon.component
+ * @avalon.service type=Store
+ * @x-avalon.info name=concurrent-mru-store
+ * @x-avalon.lifestyle type=singleton
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class ConcurrentMRUMemoryStore
+    extends AbstractLogEnabled
+    implements WeightedStore, MonitoredStore, Parameterizable, Serviceable, Disposable, ThreadSafe, Instrumentable
+{
+    private String m_instrumentableName;
+    private int m_maxobjects;
+    private long m_maxbytes;
+    private Weigher m_weigher;
+    private boolean m_weigherLookedUp;
+    private boolean m_persistent;
+    private Segment[] m_segments;
+    private int m_segmentMask;
+    private Store m_persistentStore;
+    private StoreJanitor m_storeJanitor;
+    private ServiceManager m_manager;
+
+    /** The segment the next call to free() starts looking at */
+    private final SynchronizedInt m_freeIndex = new SynchronizedInt( 0 );
+
+    /** The estimated number of bytes held by all segments */
+    private final SynchronizedLong m_weight = new SynchronizedLong( 0 );
+
+    private ValueInstrument m_sizeInstrument = new ValueInstrument("size");
+    private CounterInstrument m_hitsInstrument = new CounterInstrument("hits");
+    private CounterInstrument m_missesInstrument = new CounterInstrument("misses");
+
+    /**
+     * Get components of the ComponentLocator
+     *
+     * @param manager The ComponentLocator
+     * @avalon.dependency type=org.apache.excalibur.store.Store
+     * @avalon.dependency type=org.apache.excalibur.store.StoreJanitor
+     */
+    public void service( ServiceManager manager )
+        throws ServiceException
+    {
+        m_manager = manager;
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Looking up " + StoreJanitor.ROLE );
+        }
+        m_storeJanitor = (StoreJanitor)manager.lookup( StoreJanitor.ROLE );
+
+        if( manager.hasService( Weigher.ROLE ) )
+        {
+            m_weigher = (Weigher)manager.lookup( Weigher.ROLE );
+            m_weigherLookedUp = true;
+        }
+    }
+
+    /**
+     * Initialize the ConcurrentMRUMemoryStore.
+     * A few options can be used:
+     * <UL>
+     *  <LI>maxobjects: Maximum number of objects stored in memory (Default: 100 objects)</LI>
+     *  <LI>use-persistent-cache: Use persistent cache to keep objects persisted after
+     *      container shutdown or not (Default: false)</LI>
+     *  <LI>segments: Number of independently locked segments, rounded up to a power
+     *      of two (Default: 16)</LI>
+     *  <LI>maxbytes: Maximum estimated number of bytes used by the objects in memory,
+     *      0 for no limit (Default: 0)</LI>
+     *  <LI>default-weight: Number of bytes the default weigher assumes for objects
+     *      of unknown size (Default: 1024)</LI>
+     * </UL>
+     *
+     * @param params Store parameters
+     * @exception ParameterException
+     */
+    public void parameterize( Parameters params ) throws ParameterException
+    {
+        m_maxobjects = params.getParameterAsInteger( "maxobjects", 100 );
+        m_persistent = params.getParameterAsBoolean( "use-persistent-cache", false );
+        final int segments = params.getParameterAsInteger( "segments", 16 );
+        m_maxbytes = params.getParameterAsLong( "maxbytes", 0 );
+        final long defaultWeight = params.getParameterAsLong( "default-weight", 1024 );
+        if( ( m_maxobjects < 1 ) )
+        {
+            throw new ParameterException( "ConcurrentMRUMemoryStore maxobjects must be at least 1!" );
+        }
+        if( segments < 1 )
+        {
+            throw new ParameterException( "ConcurrentMRUMemoryStore segments must be at least 1!" );
+        }
+        if( m_maxbytes < 0 )
+        {
+            throw new ParameterException( "ConcurrentMRUMemoryStore maxbytes must not be negative!" );
+        }
+        if( m_weigher == null )
+        {
+            m_weigher = new DefaultWeigher( defaultWeight );
+        }
+
+        if ( m_persistent )
+        {
+            if( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "Looking up " + Store.PERSISTENT_STORE );
+            }
+            try
+            {
+                m_persistentStore = (Store)m_manager.lookup( Store.PERSISTENT_STORE );
+            }
+            catch (ServiceException se)
+            {
+                throw new ParameterException("Unable to look up persistent store.", se);
+            }
+        }
+
+        // never more segments than objects, or some could hold nothing
+        int count = 1;
+        while( count < segments && count * 2 <= m_maxobjects )
+        {
+            count <<= 1;
+        }
+
+        m_segments = new Segment[ count ];
+        m_segmentMask = count - 1;
+        for( int i = 0; i < count; i++ )
+        {
+            // spread the remainder, so the capacities add up to maxobjects
+            final int capacity = m_maxobjects / count + ( i < m_maxobjects % count ? 1 : 0 );
+            m_segments[ i ] = new Segment( capacity, m_weight );
+        }
+
+        m_storeJanitor.register( this );
+    }
+
+    /**
+     * Dispose the component
+     */
+    public void dispose()
+    {
+        if( m_manager != null )
+        {
+            getLogger().debug( "Disposing component!" );
+
+            if( m_storeJanitor != null )
+            {
+                m_storeJanitor.unregister( this );
+            }
+            m_manager.release( m_storeJanitor );
+            m_storeJanitor = null;
+
+            // save all cache entries to filesystem
+            if( m_persistent )
+            {
+                getLogger().debug( "Final cache size: " + size() );
+                for( int i = 0; i < m_segments.length; i++ )
+                {
+                    Entry entry;
+                    while( ( entry = m_segments[ i ].evict() ) != null )
+                    {
+                        swapOut( entry );
+                    }
+                }
+            }
+            m_manager.release( m_persistentStore );
+            m_persistentStore = null;
+
+            if( m_weigherLookedUp )
+            {
+                m_manager.release( m_weigher );
+            }
+            m_weigher = null;
+        }
+
+        m_manager = null;
+    }
+
+    /**
+     * Store the given object in a persistent state. It is up to the
+     * caller to ensure that the key has a persistent state across
+     * different JVM executions.
+     *
+     * @param key The key for the object to store
+     * @param value The object to store
+     */
+    public void store( Object key, Object value )
+    {
+        hold( key, value );
+    }
+
+    /**
+     * This method holds the requested object in the segment of its key,
+     * on top of the segment's MRU list.  If the segment is full, or the
+     * store is over its memory budget, least recently used objects are
+     * swapped out to the persistent store, if configured.  An object
+     * heavier than the memory budget goes to the persistent store only.
+     *
+     * @param key The key of the object to be stored
+     * @param value The object to be stored
+     */
+    public void hold( Object key, Object value )
+    {
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Holding object in memory:" );
+            getLogger().debug( "  key: " + key );
+            getLogger().debug( "  value: " + value );
+        }
+
+        final Segment segment = segmentFor( key );
+        final long weight = m_weigher.weigh( key, value );
+        if( !fits( weight ) )
+        {
+            if( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "Object of " + weight + " bytes exceeds maxbytes, not held in memory" );
+            }
+
+            // the value in memory is stale now
+            segment.remove( key );
+            swapOut( new Entry( key, value, weight ) );
+            updateSize();
+            return;
+        }
+
+        swapOut( segment.put( key, value, weight ) );
+        trim( key );
+        updateSize();
+    }
+
+    /**
+     * Get the object associated to the given unique key.
+     *
+     * @param key The key of the requested object
+     * @return the requested object
+     */
+    public Object get( Object key )
+    {
+        final Segment segment = segmentFor( key );
+        Object value = segment.get( key );
+        if( value != null )
+        {
+            if( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "Found key: " + key.toString() );
+            }
+            m_hitsInstrument.increment();
+            return value;
+        }
+
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "NOT Found key: " + key.toString() );
+        }
+
+        /** try to fetch from filesystem */
+        if( m_persistent )
+        {
+            value = m_persistentStore.get( key );
+            if( value != null )
+            {
+                try
+                {
+                    final long weight = m_weigher.weigh( key, value );
+                    if( fits( weight ) )
+                    {
+                        swapOut( segment.putIfAbsent( key, value, weight ) );
+                        trim( key );
+                        updateSize();
+                    }
+                    m_hitsInstrument.increment();
+                    return value;
+                }
+                catch( Exception e )
+                {
+                    getLogger().error( "Error in get()!", e );
+                }
+            }
+        }
+        m_missesInstrument.increment();
+        return null;
+    }
+
+    /**
+     * Remove the object associated to the given key.
+     *
+     * @param key The key of to be removed object
+     */
+    public void remove( Object key )
+    {
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Removing object from store" );
+            getLogger().debug( "  key: " + key );
+        }
+        if( key == null )
+        {
+            return;
+        }
+
+        segmentFor( key ).remove( key );
+        updateSize();
+
+        if( m_persistent )
+        {
+            m_persistentStore.remove( key );
+        }
+    }
+
+    /**
+     * Clear the Store of all elements
+     */
+    public void clear()
+    {
+        final Enumeration keys = keys();
+        while( keys.hasMoreElements() )
+        {
+            remove( keys.nextElement() );
+        }
+        m_sizeInstrument.setValue( 0 );
+    }
+
+    /**
+     * Indicates if the given key is associated to a contained object.
+     *
+     * @param key The key of the object
+     * @return true if the key exists
+     */
+    public boolean containsKey( Object key )
+    {
+        if( segmentFor( key ).containsKey( key ) )
+        {
+            return true;
+        }
+
+        return m_persistent && m_persistentStore.containsKey( key );
+    }
+
+    /**
+     * Returns the list of used keys as an Enumeration.  The keys are
+     * copied, so the enumeration does not change when the store does.
+     *
+     * @return the enumeration of the cache
+     */
+    public Enumeration keys()
+    {
+        final List keys = new ArrayList( size() );
+        for( int i = 0; i < m_segments.length; i++ )
+        {
+            m_segments[ i ].addKeys( keys );
+        }
+        return Collections.enumeration( keys );
+    }
+
+    /**
+     * Returns count of the objects in the store, or -1 if could not be
+     * obtained.
+     */
+    public int size()
+    {
+        int size = 0;
+        for( int i = 0; i < m_segments.length; i++ )
+        {
+            size += m_segments[ i ].m_count;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the estimated number of bytes used by the objects held
+     * in memory.
+     */
+    public long getWeight()
+    {
+        return m_weight.get();
+    }
+
+    /**
+     * Returns the number of times an object was found in memory.
+     */
+    public long getHits()
+    {
+        long hits = 0;
+        for( int i = 0; i < m_segments.length; i++ )
+        {
+            hits += m_segments[ i ].m_hits;
+        }
+        return hits;
+    }
+
+    /**
+     * Returns the number of times an object was not found in memory,
+     * including those then found in the persistent store.
+     */
+    public long getMisses()
+    {
+        long misses = 0;
+        for( int i = 0; i < m_segments.length; i++ )
+        {
+            misses += m_segments[ i ].m_misses;
+        }
+        return misses;
+    }
+
+    /**
+     * Frees some of the fast memory used by this store.
+     * It removes the least recently used element of the next segment
+     * that is not empty.
+     */
+    public void free()
+    {
+        freeEntry( null );
+    }
+
+    /**
+     * Frees least recently used elements, taking them from the segments
+     * in turn, until the given number of bytes is freed.
+     *
+     * @param bytes the number of bytes to free
+     * @return the estimated number of bytes freed
+     */
+    public long free( long bytes )
+    {
+        long freed = 0;
+        while( freed < bytes )
+        {
+            final long weight = freeEntry( null );
+            if( weight < 0 )
+            {
+                break;
+            }
+            freed += weight;
+        }
+        return freed;
+    }
+
+    /**
+     * Evict least recently used elements from the segments in turn until
+     * the store is within its memory budget again.
+     *
+     * @param key the key of the object just held, which is kept
+     */
+    private void trim( Object key )
+    {
+        if( m_maxbytes > 0 )
+        {
+            while( m_weight.get() > m_maxbytes && freeEntry( key ) >= 0 )
+            {
+                // keep on freeing
+            }
+        }
+    }
+
+    private boolean fits( long weight )
+    {
+        return m_maxbytes == 0 || weight <= m_maxbytes;
+    }
+
+    /**
+     * Free the least recently used element of the next segment that is
+     * not empty.
+     *
+     * @param keep the key of an element not to free, or null
+     * @return the weight of the element, or -1 if the store is empty
+     */
+    private long freeEntry( Object keep )
+    {
+        try
+        {
+            final int start = m_freeIndex.increment();
+            for( int i = 0; i < m_segments.length; i++ )
+            {
+                final Entry entry = m_segments[ ( start + i ) & m_segmentMask ].evict( keep );
+                if( entry != null )
+                {
+                    if( getLogger().isDebugEnabled() )
+                    {
+                        getLogger().debug( "Freeing cache." );
+                        getLogger().debug( "  key: " + entry.m_key );
+                        getLogger().debug( "  value: " + entry.m_value );
+                    }
+
+                    swapOut( entry );
+                    updateSize();
+                    return entry.m_weight;
+                }
+            }
+        }
+        catch( Exception e )
+        {
+            getLogger().error( "Error in free()", e );
+        }
+        return -1;
+    }
+
+    /**
+     * Swap evicted entries out to the persistent store, if configured.
+     *
+     * @param entry the first evicted entry, the others are linked
+     *  through <code>m_next</code>
+     */
+    private void swapOut( Entry entry )
+    {
+        for( ; entry != null; entry = entry.m_next )
+        {
+            if( m_persistent && checkSerializable( entry.m_value ) )
+            {
+                try
+                {
+                    m_persistentStore.store( entry.m_key, entry.m_value );
+                }
+                catch( IOException ioe )
+                {
+                    getLogger().error( "Error storing object on fs", ioe );
+                }
+            }
+        }
+    }
+
+    private Segment segmentFor( Object key )
+    {
+        int hash = key.hashCode();
+        hash ^= ( hash >>> 16 );
+        hash ^= ( hash >>> 8 );
+        return m_segments[ hash & m_segmentMask ];
+    }
+
+    private void updateSize()
+    {
+        if( m_sizeInstrument.isActive() )
+        {
+            m_sizeInstrument.setValue( size() );
+        }
+    }
+
+    /**
+     * This method checks if an object is seriazable.
+     *
+     * @param object The object to be checked
+     * @return true if the object is storeable
+     */
+    private boolean checkSerializable( Object object )
+    {
+
+        if( object == null ) return false;
+
+        return ( object instanceof java.io.Serializable );
+    }
+
+    public void setInstrumentableName(String name)
+    {
+        m_instrumentableName = name;
+    }
+
+    public String getInstrumentableName()
+    {
+        return m_instrumentableName;
+    }
+
+    public Instrument[] getInstruments()
+    {
+        return new Instrument[] { m_sizeInstrument, m_hitsInstrument, m_missesInstrument };
+    }
+
+    public Instrumentable[] getChildInstrumentables() {
+        return Instrumentable.EMPTY_INSTRUMENTABLE_ARRAY;
+    }
+
+    /**
+     * A cached object, linked into the MRU list of its segment.  Once it
+     * is evicted, <code>m_next</code> links it to the next evicted entry.
+     */
+    private static final class Entry
+    {
+        private final Object m_key;
+        private Object m_value;
+        private long m_weight;
+        private Entry m_prev;
+        private Entry m_next;
+
+        private Entry( Object key, Object value, long weight )
+        {
+            m_key = key;
+            m_value = value;
+            m_weight = weight;
+        }
+    }
+
+    /**
+     * A part of the store with its own lock.  The MRU list is circular
+     * around a sentinel entry: the most recently used entry comes right
+     * after it, the least recently used one right before it.  The weight
+     * of the entries is added to the total shared by all segments.
+     */
+    private static final class Segment
+    {
+        private final int m_capacity;
+        private final SynchronizedLong m_weight;
+        private final HashMap m_map;
+        private final Entry m_head = new Entry( null, null, 0 );
+        private volatile int m_count;
+        private volatile long m_hits;
+        private volatile long m_misses;
+
+        private Segment( int capacity, SynchronizedLong weight )
+        {
+            m_capacity = capacity;
+            m_weight = weight;
+            m_map = new HashMap( (int)( capacity * 1.2 ) + 1 );
+            m_head.m_prev = m_head;
+            m_head.m_next = m_head;
+        }
+
+        synchronized Object get( Object key )
+        {
+            final Entry entry = (Entry)m_map.get( key );
+            if( entry == null )
+            {
+                m_misses++;
+                return null;
+            }
+
+            m_hits++;
+            unlink( entry );
+            linkFirst( entry );
+            return entry.m_value;
+        }
+
+        synchronized boolean containsKey( Object key )
+        {
+            return m_map.containsKey( key );
+        }
+
+        /**
+         * Hold the value, and return the entries that had to make room
+         * for it, if any.
+         */
+        synchronized Entry put( Object key, Object value, long weight )
+        {
+            final Entry old = (Entry)m_map.remove( key );
+            if( old != null )
+            {
+                unlink( old );
+                m_weight.subtract( old.m_weight );
+            }
+
+            Entry evicted = null;
+            while( m_head.m_next != m_head && m_map.size() >= m_capacity )
+            {
+                final Entry entry = evict( null );
+                entry.m_next = evicted;
+                evicted = entry;
+            }
+
+            final Entry entry = new Entry( key, value, weight );
+            m_map.put( key, entry );
+            linkFirst( entry );
+            m_count = m_map.size();
+            m_weight.add( weight );
+            return evicted;
+        }
+
+        /**
+         * Hold the value unless another thread has put one in meanwhile.
+         */
+        synchronized Entry putIfAbsent( Object key, Object value, long weight )
+        {
+            if( m_map.containsKey( key ) )
+            {
+                return null;
+            }
+            return put( key, value, weight );
+        }
+
+        synchronized void remove( Object key )
+        {
+            final Entry entry = (Entry)m_map.remove( key );
+            if( entry != null )
+            {
+                unlink( entry );
+                m_count = m_map.size();
+                m_weight.subtract( entry.m_weight );
+            }
+        }
+
+        /**
+         * Remove the least recently used entry.
+         *
+         * @return the entry, or null if the segment is empty
+         */
+        synchronized Entry evict()
+        {
+            return evict( null );
+        }
+
+        /**
+         * Remove the least recently used entry, unless it is the one of
+         * the given key.
+         *
+         * @param keep the key of the entry to keep, or null
+         * @return the entry, or null if there is none to remove
+         */
+        synchronized Entry evict( Object keep )
+        {
+            final Entry entry = m_head.m_prev;
+            if( entry == m_head || ( keep != null && keep.equals( entry.m_key ) ) )
+            {
+                return null;
+            }
+
+            unlink( entry );
+            m_map.remove( entry.m_key );
+            m_count = m_map.size();
+            m_weight.subtract( entry.m_weight );
+            return entry;
+        }
+
+        synchronized void addKeys( List keys )
+        {
+            for( Entry entry = m_head.m_next; entry != m_head; entry = entry.m_next )
+            {
+                keys.add( entry.m_key );
+            }
+        }
+
+        private void linkFirst( Entry entry )
+        {
+            entry.m_prev = m_head;
+            entry.m_next = m_head.m_next;
+            m_head.m_next.m_prev = entry;
+            m_head.m_next = entry;
+        }
+
+        private void unlink( Entry entry )
+        {
+            entry.m_prev.m_next = entry.m_next;
+            entry.m_next.m_prev = entry.m_prev;
+            entry.m_prev = null;
+            entry.m_next = null;
+        }
+    }
+}
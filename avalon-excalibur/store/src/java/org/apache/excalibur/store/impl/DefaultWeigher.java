@@ -0,0 +1,96 @@
+/* 
+ * Copyright 2002-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import org.apache.excalibur.store.Weigher;
+
+/**
+ * The Weigher used by the memory stores when none is configured.  It
+ * knows the size of strings and primitive arrays, which covers most
+ * cached documents in serialized form, and assumes a fixed size for
+ * every other object.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class DefaultWeigher
+    implements Weigher
+{
+    /** The overhead of an object header and a reference to it */
+    private static final long OBJECT_OVERHEAD = 16;
+
+    /** The overhead of a cache entry, apart from its key and value */
+    private static final long ENTRY_OVERHEAD = 48;
+
+    private final long m_defaultWeight;
+
+    /**
+     * Create a DefaultWeigher.
+     *
+     * @param defaultWeight the number of bytes assumed for objects whose
+     *  size is not known
+     */
+    public DefaultWeigher( long defaultWeight )
+    {
+        m_defaultWeight = defaultWeight;
+    }
+
+    public long weigh( Object key, Object value )
+    {
+        return ENTRY_OVERHEAD + weigh( key ) + weigh( value );
+    }
+
+    /**
+     * Estimate the size of a single object.
+     */
+    protected long weigh( Object object )
+    {
+        if( object == null )
+        {
+            return 0;
+        }
+        if( object instanceof String )
+        {
+            return OBJECT_OVERHEAD * 2 + ( (String)object ).length() * 2L;
+        }
+        if( object instanceof byte[] )
+        {
+            return OBJECT_OVERHEAD + ( (byte[])object ).length;
+        }
+        if( object instanceof char[] )
+        {
+            return OBJECT_OVERHEAD + ( (char[])object ).length * 2L;
+        }
+        if( object instanceof int[] )
+        {
+            return OBJECT_OVERHEAD + ( (int[])object ).length * 4L;
+        }
+        if( object instanceof long[] )
+        {
+            return OBJECT_OVERHEAD + ( (long[])object ).length * 8L;
+        }
+        if( object instanceof Object[] )
+        {
+            return OBJECT_OVERHEAD + ( (Object[])object ).length * 4L;
+        }
+        if( object instanceof Number || object instanceof Boolean )
+        {
+            return OBJECT_OVERHEAD;
+        }
+
+        return m_defaultWeight;
+    }
+}
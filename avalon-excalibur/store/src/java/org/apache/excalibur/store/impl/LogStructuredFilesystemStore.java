@@ -0,0 +1,871 @@
+/* 
+ * Copyright 2002-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import EDU.oswego.cs.dl.util.concurrent.Sync;
+
+import org.apache.avalon.framework.activity.Disposable;
+import org.apache.avalon.framework.activity.Initializable;
+import org.apache.avalon.framework.parameters.ParameterException;
+import org.apache.avalon.framework.parameters.Parameterizable;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.avalon.framework.thread.ThreadSafe;
+import org.apache.excalibur.store.Store;
+
+/**
+ * A persistent store that appends every change to a log, instead of
+ * writing a file per key like the {@link AbstractFilesystemStore}.  The log
+ * is split into segment files of a fixed size.  Only the newest segment
+ * is written to; the older ones are memory-mapped for reading.  The
+ * location of the latest record of every key is kept in an in-memory
+ * index, so <code>size()</code>, <code>keys()</code> and
+ * <code>containsKey()</code> never touch the disk, and <code>get()</code>
+ * reads a single record.  It can serve as the persistent store of the
+ * {@link MRUMemoryStore}.
+ *
+ * <p>
+ *   Every record carries a checksum.  On startup the segments are replayed
+ *   in order to rebuild the index.  If the last segment ends in a record
+ *   cut short by a crash, it is truncated before that record; any other
+ *   damage, or a key whose class cannot be loaded, makes
+ *   <code>initialize()</code> fail and leaves the files untouched.  A background thread compacts
+ *   the segments in which most records have been replaced or removed: it
+ *   copies the records that are still current to the newest segment and
+ *   deletes the old one.
+ * </p>
+ *
+ * <p>
+ *   Keys and values are serialized.  As the segments are replayed, the
+ *   keys must have the same <code>equals</code> and <code>hashCode</code>
+ *   after deserialization, which is the case for Strings.
+ * </p>
+ *
+ * @avalon.component
+ * @avalon.service type=Store
+ * @x-avalon.info name=log-structured-store
+ * @x-avalon.lifestyle type=singleton
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class LogStructuredFilesystemStore
+extends AbstractReadWriteStore
+implements Store, ThreadSafe, Parameterizable, Initializable, Disposable {
+
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".log";
+
+    /** crc, key length, value length and type */
+    private static final int HEADER_SIZE = 13;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    /** The directory of the segment files */
+    protected File m_directoryFile;
+    private int m_segmentSize;
+    private double m_compactionThreshold;
+    private long m_compactionInterval;
+    private boolean m_sync;
+
+    /** The segments, oldest first; the last one is written to */
+    private final List m_segments = new ArrayList();
+    /** Maps every key to the Location of its latest record */
+    private final Map m_index = new HashMap();
+    private Segment m_active;
+
+    private Thread m_compactor;
+    private volatile boolean m_disposed;
+
+    /**
+     * Configure the Component.<br>
+     * A few options can be used
+     * <UL>
+     *   <LI>directory - The directory of the segment files</LI>
+     *   <LI>segment-size - The size in bytes at which a new segment is
+     *       started (Default: 32mb)</LI>
+     *   <LI>compaction-threshold - The percentage of a segment that has to
+     *       be current for it not to be compacted (Default: 50)</LI>
+     *   <LI>compaction-interval - How often (sec) the compaction thread
+     *       looks for segments to compact (Default: 60s)</LI>
+     *   <LI>sync - Force every record to the disk before returning
+     *       (true|false; default: false)</LI>
+     * </UL>
+     *
+     * @param params the configuration paramters
+     * @exception ParameterException
+     */
+    public void parameterize(Parameters params) throws ParameterException
+    {
+        m_directoryFile = new File(params.getParameter("directory"));
+        m_segmentSize = params.getParameterAsInteger("segment-size", 32 * 1024 * 1024);
+        final int threshold = params.getParameterAsInteger("compaction-threshold", 50);
+        m_compactionInterval = params.getParameterAsInteger("compaction-interval", 60) * 1000L;
+        m_sync = params.getParameterAsBoolean("sync", false);
+
+        if (m_segmentSize < 1024)
+        {
+            throw new ParameterException("LogStructuredFilesystemStore segment-size has to be at least 1024");
+        }
+        if (threshold < 0 || threshold > 100)
+        {
+            throw new ParameterException("LogStructuredFilesystemStore compaction-threshold has to be between 0 and 100");
+        }
+        if (m_compactionInterval < 1)
+        {
+            throw new ParameterException("LogStructuredFilesystemStore compaction-interval has to be greater then 0");
+        }
+        m_compactionThreshold = threshold / 100.0D;
+
+        if (getLogger().isDebugEnabled())
+        {
+            getLogger().debug("directory=" + m_directoryFile);
+            getLogger().debug("segment size=" + m_segmentSize);
+            getLogger().debug("compaction threshold=" + threshold);
+            getLogger().debug("compaction interval=" + m_compactionInterval);
+            getLogger().debug("sync=" + m_sync);
+        }
+    }
+
+    /**
+     * Replays the segments to rebuild the index, and starts the
+     * compaction thread.
+     */
+    public void initialize() throws Exception
+    {
+        if (!m_directoryFile.exists() && !m_directoryFile.mkdirs())
+        {
+            throw new IOException("Error creating store directory '" + m_directoryFile + "'");
+        }
+        if (!m_directoryFile.isDirectory())
+        {
+            throw new IOException("'" + m_directoryFile + "' is not a directory");
+        }
+
+        recover();
+
+        m_compactor = new Thread(new Compactor(), "store-compactor");
+        m_compactor.setDaemon(true);
+        m_compactor.start();
+    }
+
+    public void dispose()
+    {
+        m_disposed = true;
+        if (m_compactor != null)
+        {
+            m_compactor.interrupt();
+            try
+            {
+                m_compactor.join(m_compactionInterval);
+            }
+            catch (InterruptedException ignore)
+            {
+            }
+        }
+
+        Sync sync = this.lock.writeLock();
+        try
+        {
+            sync.acquire();
+            try
+            {
+                final Iterator it = m_segments.iterator();
+                while (it.hasNext())
+                {
+                    ((Segment)it.next()).close();
+                }
+                m_segments.clear();
+                m_index.clear();
+                m_active = null;
+            }
+            finally
+            {
+                sync.release();
+            }
+        }
+        catch (InterruptedException ignore)
+        {
+        }
+    }
+
+    /**
+     * Get the object associated to the given unique key.
+     */
+    protected Object doGet(final Object key)
+    {
+        final Location location = (Location)m_index.get(key);
+        if (location == null)
+        {
+            if (getLogger().isDebugEnabled())
+            {
+                getLogger().debug("NOT Found key: " + key);
+            }
+            return null;
+        }
+
+        try
+        {
+            final ByteBuffer record = location.m_segment.read(location.m_offset, location.m_length);
+            record.position(HEADER_SIZE + record.getInt(4));
+            final byte[] value = new byte[record.getInt(8)];
+            record.get(value);
+            return deserialize(value);
+        }
+        catch (Exception any)
+        {
+            getLogger().error("Error during deseralization.", any);
+            return null;
+        }
+    }
+
+    /**
+     * Append the given object to the log.  A <code>null</code> value
+     * removes the key.
+     */
+    protected void doStore(final Object key, final Object value)
+    throws IOException
+    {
+        if (value == null)
+        {
+            doRemove(key);
+            return;
+        }
+
+        final Location location = append(createRecord(PUT, serialize(key), serialize(value)));
+        location.m_segment.m_live += location.m_length;
+        replace(key, location);
+    }
+
+    /**
+     * Remove the object associated to the given key.
+     */
+    protected void doRemove(final Object key)
+    {
+        if (!m_index.containsKey(key))
+        {
+            return;
+        }
+
+        try
+        {
+            // the tombstone is current as long as an older record of the key may exist
+            final Location tombstone = append(createRecord(DELETE, serialize(key), new byte[0]));
+            tombstone.m_segment.m_live += tombstone.m_length;
+            replace(key, null);
+        }
+        catch (IOException ioe)
+        {
+            getLogger().error("Error removing " + key, ioe);
+        }
+    }
+
+    /**
+     * Clear the Store of all elements
+     */
+    protected void doClear()
+    {
+        final Iterator it = m_segments.iterator();
+        while (it.hasNext())
+        {
+            final Segment segment = (Segment)it.next();
+            segment.close();
+            if (!segment.m_file.delete())
+            {
+                getLogger().warn("Segment cannot be deleted: " + segment.m_file);
+            }
+        }
+        m_segments.clear();
+        m_index.clear();
+
+        try
+        {
+            m_active = createSegment(m_active == null ? 0 : m_active.m_id + 1);
+        }
+        catch (IOException ioe)
+        {
+            m_active = null;
+            getLogger().error("Error creating segment in clear()", ioe);
+        }
+    }
+
+    /**
+     * Indicates if the given key is associated to a contained object.
+     */
+    protected boolean doContainsKey(final Object key)
+    {
+        return m_index.containsKey(key);
+    }
+
+    /**
+     * Returns the list of used keys as an Enumeration of Objects.
+     */
+    protected Enumeration doGetKeys()
+    {
+        return Collections.enumeration(new ArrayList(m_index.keySet()));
+    }
+
+    /**
+     * Returns count of the objects in the store.
+     */
+    protected int doGetSize()
+    {
+        return m_index.size();
+    }
+
+    /**
+     * Nothing is held in memory but the index, which has to stay.
+     */
+    protected void doFree()
+    {
+    }
+
+    /**
+     * Points the key to its new record, or removes it from the index, and
+     * accounts for the record it replaces.
+     */
+    private void replace(final Object key, final Location location)
+    {
+        final Location old = (Location)(location == null
+            ? m_index.remove(key) : m_index.put(key, location));
+        if (old != null)
+        {
+            old.m_segment.m_live -= old.m_length;
+        }
+    }
+
+    /**
+     * Builds a record: the checksum, the lengths of key and value, the
+     * type, the key and the value.  The checksum covers everything after it.
+     */
+    private static byte[] createRecord(final byte type, final byte[] key, final byte[] value)
+    {
+        final byte[] record = new byte[HEADER_SIZE + key.length + value.length];
+        final ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.putInt(0);
+        buffer.putInt(key.length);
+        buffer.putInt(value.length);
+        buffer.put(type);
+        buffer.put(key);
+        buffer.put(value);
+
+        final CRC32 crc = new CRC32();
+        crc.update(record, 4, record.length - 4);
+        buffer.putInt(0, (int)crc.getValue());
+        return record;
+    }
+
+    /**
+     * Appends a record to the active segment, starting a new one when it
+     * is full.
+     */
+    private Location append(final byte[] record) throws IOException
+    {
+        if (m_active == null)
+        {
+            throw new IOException("The store is not initialized");
+        }
+
+        if (m_active.m_size > 0 && m_active.m_size + record.length > m_segmentSize)
+        {
+            m_active.seal();
+            m_active = createSegment(m_active.m_id + 1);
+        }
+
+        final Location location = new Location(m_active, m_active.m_size, record.length);
+        m_active.write(record);
+        if (m_sync)
+        {
+            m_active.m_channel.force(false);
+        }
+        return location;
+    }
+
+    private Segment createSegment(final int id) throws IOException
+    {
+        final StringBuffer name = new StringBuffer(String.valueOf(id));
+        while (name.length() < 10)
+        {
+            name.insert(0, '0');
+        }
+        name.insert(0, PREFIX).append(SUFFIX);
+
+        final Segment segment = new Segment(id, new File(m_directoryFile, name.toString()));
+        segment.open();
+        m_segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * Replays all segments in order.  The last record of the last segment
+     * may have been cut short by a crash; that segment is truncated before
+     * it.  Any other damage, or a key that cannot be deserialized, fails the
+     * recovery and leaves the files as they are.
+     */
+    private void recover() throws IOException
+    {
+        final String[] names = m_directoryFile.list(new FilenameFilter()
+        {
+            public boolean accept(File dir, String name)
+            {
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+        Arrays.sort(names);
+
+        for (int i = 0; i < names.length; i++)
+        {
+            final int id = Integer.parseInt(
+                names[i].substring(PREFIX.length(), names[i].length() - SUFFIX.length()));
+            final Segment segment = new Segment(id, new File(m_directoryFile, names[i]));
+            m_segments.add(segment);
+            replay(segment, i == names.length - 1);
+        }
+
+        if (m_segments.isEmpty())
+        {
+            m_active = createSegment(0);
+        }
+        else
+        {
+            final Segment last = (Segment)m_segments.get(m_segments.size() - 1);
+            if (last.m_size < m_segmentSize)
+            {
+                m_active = last;
+                m_active.open();
+            }
+            else
+            {
+                m_active = createSegment(last.m_id + 1);
+            }
+        }
+
+        if (getLogger().isDebugEnabled())
+        {
+            getLogger().debug("Recovered " + m_index.size() + " keys from "
+                              + names.length + " segments");
+        }
+    }
+
+    private void replay(final Segment segment, final boolean last) throws IOException
+    {
+        final long length = segment.m_file.length();
+        final DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(segment.m_file), 64 * 1024));
+        int offset = 0;
+        try
+        {
+            final CRC32 crc = new CRC32();
+            while (offset + HEADER_SIZE <= length)
+            {
+                final int checksum = in.readInt();
+                final int keyLength = in.readInt();
+                final int valueLength = in.readInt();
+                final byte type = in.readByte();
+                if (keyLength < 1 || valueLength < 0
+                    || offset + (long)HEADER_SIZE + keyLength + valueLength > length)
+                {
+                    break;
+                }
+
+                final byte[] key = new byte[keyLength];
+                final byte[] value = new byte[valueLength];
+                in.readFully(key);
+                in.readFully(value);
+
+                crc.reset();
+                crc.update(intBytes(keyLength));
+                crc.update(intBytes(valueLength));
+                crc.update(type);
+                crc.update(key);
+                crc.update(value);
+                if ((int)crc.getValue() != checksum || (type != PUT && type != DELETE))
+                {
+                    break;
+                }
+
+                final int recordLength = HEADER_SIZE + keyLength + valueLength;
+                final Object keyObject;
+                try
+                {
+                    keyObject = deserialize(key);
+                }
+                catch (Exception e)
+                {
+                    final IOException ioe = new IOException(
+                        "Cannot read the key at " + offset + " in " + segment.m_file);
+                    ioe.initCause(e);
+                    throw ioe;
+                }
+                if (type == PUT)
+                {
+                    replace(keyObject, new Location(segment, offset, recordLength));
+                }
+                else
+                {
+                    replace(keyObject, null);
+                }
+                segment.m_live += recordLength;
+                offset += recordLength;
+            }
+        }
+        catch (EOFException eof)
+        {
+            // the header was cut short
+        }
+        finally
+        {
+            in.close();
+        }
+
+        if (offset < length)
+        {
+            if (!last)
+            {
+                // only the segment being written when the store died may hold a torn record
+                throw new IOException("Damaged record at " + offset + " in sealed segment "
+                                      + segment.m_file);
+            }
+            getLogger().warn("Truncating " + segment.m_file + " from " + length + " to " + offset + " bytes");
+            final RandomAccessFile file = new RandomAccessFile(segment.m_file, "rw");
+            try
+            {
+                file.setLength(offset);
+            }
+            finally
+            {
+                file.close();
+            }
+        }
+        segment.m_size = offset;
+    }
+
+    private static byte[] intBytes(final int value)
+    {
+        return new byte[] { (byte)(value >>> 24), (byte)(value >>> 16), (byte)(value >>> 8), (byte)value };
+    }
+
+    /**
+     * Compacts every sealed segment of which less than the threshold is
+     * current.  Each segment is compacted under its own write lock, so
+     * readers get a turn in between.
+     */
+    void compact()
+    {
+        final List candidates = new ArrayList();
+        Sync sync = this.lock.readLock();
+        try
+        {
+            sync.acquire();
+            try
+            {
+                final Iterator it = m_segments.iterator();
+                while (it.hasNext())
+                {
+                    final Segment segment = (Segment)it.next();
+                    if (segment != m_active && segment.m_live < segment.m_size * m_compactionThreshold)
+                    {
+                        candidates.add(segment);
+                    }
+                }
+            }
+            finally
+            {
+                sync.release();
+            }
+
+            final Iterator it = candidates.iterator();
+            while (it.hasNext() && !m_disposed)
+            {
+                final Segment segment = (Segment)it.next();
+                sync = this.lock.writeLock();
+                sync.acquire();
+                try
+                {
+                    if (m_segments.contains(segment))
+                    {
+                        compact(segment);
+                    }
+                }
+                finally
+                {
+                    sync.release();
+                }
+            }
+        }
+        catch (InterruptedException ignore)
+        {
+        }
+        catch (Exception e)
+        {
+            getLogger().error("Error compacting the segments", e);
+        }
+    }
+
+    /**
+     * Copies the current records of a segment to the active segment, and
+     * deletes it.  If the JVM stops in between, the copies replace the
+     * originals when the segments are replayed.
+     */
+    private void compact(final Segment segment) throws IOException, ClassNotFoundException
+    {
+        final boolean oldest = m_segments.get(0) == segment;
+        final ByteBuffer buffer = segment.read(0, segment.m_size);
+        int copied = 0;
+        int offset = 0;
+        while (offset < segment.m_size)
+        {
+            final int keyLength = buffer.getInt(offset + 4);
+            final int valueLength = buffer.getInt(offset + 8);
+            final byte type = buffer.get(offset + 12);
+            final int recordLength = HEADER_SIZE + keyLength + valueLength;
+
+            final byte[] key = new byte[keyLength];
+            buffer.position(offset + HEADER_SIZE);
+            buffer.get(key);
+            final Object keyObject = deserialize(key);
+
+            final Location current = (Location)m_index.get(keyObject);
+            final boolean live = (type == PUT)
+                ? current != null && current.m_segment == segment && current.m_offset == offset
+                : current == null && !oldest;
+            if (live)
+            {
+                final byte[] record = new byte[recordLength];
+                buffer.position(offset);
+                buffer.get(record);
+
+                final Location location = append(record);
+                location.m_segment.m_live += recordLength;
+                if (type == PUT)
+                {
+                    replace(keyObject, location);
+                }
+                copied++;
+            }
+            offset += recordLength;
+        }
+
+        m_active.m_channel.force(false);
+        m_segments.remove(segment);
+        segment.close();
+        if (!segment.m_file.delete())
+        {
+            getLogger().warn("Segment cannot be deleted: " + segment.m_file);
+        }
+
+        if (getLogger().isDebugEnabled())
+        {
+            getLogger().debug("Compacted " + segment.m_file + ", copied " + copied + " records");
+        }
+    }
+
+    private static byte[] serialize(final Object object) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(final byte[] bytes)
+    throws IOException, ClassNotFoundException
+    {
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try
+        {
+            return in.readObject();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Where the latest record of a key is.
+     */
+    private static final class Location
+    {
+        final Segment m_segment;
+        final int m_offset;
+        final int m_length;
+
+        Location(final Segment segment, final int offset, final int length)
+        {
+            m_segment = segment;
+            m_offset = offset;
+            m_length = length;
+        }
+    }
+
+    /**
+     * A segment file.  The active segment is appended to through its
+     * channel; a sealed segment is mapped into memory the first time it
+     * is read.
+     */
+    private static final class Segment
+    {
+        final int m_id;
+        final File m_file;
+        /** The number of bytes written */
+        int m_size;
+        /** The number of bytes in records that are still current */
+        long m_live;
+        RandomAccessFile m_raf;
+        FileChannel m_channel;
+        private MappedByteBuffer m_map;
+
+        Segment(final int id, final File file)
+        {
+            m_id = id;
+            m_file = file;
+        }
+
+        void open() throws IOException
+        {
+            m_raf = new RandomAccessFile(m_file, "rw");
+            m_channel = m_raf.getChannel();
+            m_channel.position(m_size);
+        }
+
+        void write(final byte[] record) throws IOException
+        {
+            final ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (buffer.hasRemaining())
+            {
+                m_channel.write(buffer);
+            }
+            m_size += record.length;
+        }
+
+        /**
+         * Stops writing to the segment.  It is mapped on the next read.
+         */
+        void seal() throws IOException
+        {
+            m_channel.force(false);
+            close();
+        }
+
+        /**
+         * Returns a buffer of its own over the given bytes of the segment.
+         * Several threads may read at once.
+         */
+        ByteBuffer read(final int offset, final int length) throws IOException
+        {
+            if (m_channel != null)
+            {
+                final ByteBuffer buffer = ByteBuffer.allocate(length);
+                while (buffer.hasRemaining())
+                {
+                    if (m_channel.read(buffer, offset + buffer.position()) < 0)
+                    {
+                        throw new EOFException("Record at " + offset + " is beyond the end of " + m_file);
+                    }
+                }
+                buffer.flip();
+                return buffer;
+            }
+
+            final ByteBuffer buffer = map().duplicate();
+            buffer.limit(offset + length);
+            buffer.position(offset);
+            return buffer.slice();
+        }
+
+        private synchronized MappedByteBuffer map() throws IOException
+        {
+            if (m_map == null)
+            {
+                final RandomAccessFile file = new RandomAccessFile(m_file, "r");
+                try
+                {
+                    // the mapping stays valid after the file is closed
+                    m_map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, m_size);
+                }
+                finally
+                {
+                    file.close();
+                }
+            }
+            return m_map;
+        }
+
+        void close()
+        {
+            if (m_raf != null)
+            {
+                try
+                {
+                    m_raf.close();
+                }
+                catch (IOException ignore)
+                {
+                }
+                m_raf = null;
+                m_channel = null;
+            }
+        }
+    }
+
+    /**
+     * Looks for segments to compact every compaction interval.
+     */
+    private final class Compactor implements Runnable
+    {
+        public void run()
+        {
+            while (!m_disposed)
+            {
+                try
+                {
+                    Thread.sleep(m_compactionInterval);
+                }
+                catch (InterruptedException ignore)
+                {
+                    continue;
+                }
+                compact();
+            }
+        }
+    }
+}
@@ -35,13 +35,18 @@ import org.apache.excalibur.instrument.CounterInstrument;
 import org.apache.excalibur.instrument.Instrument;
 import org.apache.excalibur.instrument.Instrumentable;
 import org.apache.excalibur.instrument.ValueInstrument;
+import org.apache.excalibur.store.MonitoredStore;
 import org.apache.excalibur.store.Store;
 import org.apache.excalibur.store.StoreJanitor;
+import org.apache.excalibur.store.Weigher;
+import org.apache.excalibur.store.WeightedStore;
 
 /**
  * This class provides a cache algorithm for the requested documents.
  * It combines a HashMap and a LinkedList to create a so called MRU
  * (Most Recently Used) cache.
+ * Optionally, the objects in memory are also kept within a budget of
+ * bytes, as estimated by a {@link Weigher}.
  * 
  * @avalon.component
  * @avalon.service type=Store
@@ -53,13 +58,20 @@ import org.apache.excalibur.store.StoreJanitor;
  */
 public class MRUMemoryStore
     extends AbstractLogEnabled
-    implements Store, Parameterizable, Serviceable, Disposable, ThreadSafe, Instrumentable
+    implements WeightedStore, MonitoredStore, Parameterizable, Serviceable, Disposable, ThreadSafe, Instrumentable
 {
     private String m_instrumentableName;
     private int m_maxobjects;
+    private long m_maxbytes;
     private boolean m_persistent;
     private Hashtable m_cache;
+    private Hashtable m_weights;
+    private long m_weight;
+    private long m_hits;
+    private long m_misses;
     private LinkedList m_mrulist;
+    private Weigher m_weigher;
+    private boolean m_weigherLookedUp;
     private Store m_persistentStore;
     private StoreJanitor m_storeJanitor;
     private ServiceManager m_manager;
@@ -84,6 +96,12 @@ public class MRUMemoryStore
             getLogger().debug( "Looking up " + StoreJanitor.ROLE );
         }
         m_storeJanitor = (StoreJanitor)manager.lookup( StoreJanitor.ROLE );
+
+        if( manager.hasService( Weigher.ROLE ) )
+        {
+            m_weigher = (Weigher)manager.lookup( Weigher.ROLE );
+            m_weigherLookedUp = true;
+        }
     }
 
     /**
@@ -93,7 +111,13 @@ public class MRUMemoryStore
      *  <LI>maxobjects: Maximum number of objects stored in memory (Default: 100 objects)</LI>
      *  <LI>use-persistent-cache: Use persistent cache to keep objects persisted after
      *      container shutdown or not (Default: false)</LI>
+     *  <LI>maxbytes: Maximum estimated number of bytes used by the objects in memory,
+     *      0 for no limit (Default: 0)</LI>
+     *  <LI>default-weight: Number of bytes the default weigher assumes for objects
+     *      of unknown size (Default: 1024)</LI>
      * </UL>
+     * A {@link Weigher} is looked up from the ServiceManager if there is one,
+     * otherwise a {@link DefaultWeigher} is used.
      *
      * @param params Store parameters
      * @exception ParameterException
@@ -102,10 +126,20 @@ public class MRUMemoryStore
     {
         m_maxobjects = params.getParameterAsInteger( "maxobjects", 100 );
         m_persistent = params.getParameterAsBoolean( "use-persistent-cache", false );
+        m_maxbytes = params.getParameterAsLong( "maxbytes", 0 );
+        final long defaultWeight = params.getParameterAsLong( "default-weight", 1024 );
         if( ( m_maxobjects < 1 ) )
         {
             throw new ParameterException( "MRUMemoryStore maxobjects must be at least 1!" );
         }
+        if( m_maxbytes < 0 )
+        {
+            throw new ParameterException( "MRUMemoryStore maxbytes must not be negative!" );
+        }
+        if( m_weigher == null )
+        {
+            m_weigher = new DefaultWeigher( defaultWeight );
+        }
 
         if ( m_persistent )
         {
@@ -124,6 +158,7 @@ public class MRUMemoryStore
         }
 
         m_cache = new Hashtable( (int)( m_maxobjects * 1.2 ) );
+        m_weights = new Hashtable( (int)( m_maxobjects * 1.2 ) );
         m_mrulist = new LinkedList();
         m_storeJanitor.register( this );
     }
@@ -172,6 +207,12 @@ public class MRUMemoryStore
             }
             m_manager.release( m_persistentStore );
             m_persistentStore = null;
+
+            if( m_weigherLookedUp )
+            {
+                m_manager.release( m_weigher );
+            }
+            m_weigher = null;
         }
 
         m_manager = null;
@@ -206,15 +247,24 @@ public class MRUMemoryStore
             getLogger().debug( "  key: " + key );
             getLogger().debug( "  value: " + value );
         }
-        /** ...first test if the max. objects in cache is reached... */
-        while( m_mrulist.size() >= m_maxobjects )
+        /** ...an object that is replaced does not count against the limits... */
+        if( m_cache.remove( key ) != null )
+        {
+            m_mrulist.remove( key );
+            m_weight -= removeWeight( key );
+        }
+        final long weight = m_weigher.weigh( key, value );
+        /** ...first test if the max. objects or bytes in cache is reached... */
+        while( m_mrulist.size() >= m_maxobjects
+               || ( m_maxbytes > 0 && m_mrulist.size() > 0 && m_weight + weight > m_maxbytes ) )
         {
             /** ...ok, heapsize is reached, remove the last element... */
             free();
         }
         /** ..put the new object in the cache, on the top of course ... */
         m_cache.put( key, value );
-        m_mrulist.remove( key );
+        m_weights.put( key, new Long( weight ) );
+        m_weight += weight;
         m_mrulist.addFirst( key );
         m_sizeInstrument.setValue( m_mrulist.size() );
     }
@@ -237,6 +287,7 @@ public class MRUMemoryStore
             {
                 getLogger().debug( "Found key: " + key.toString() );
             }
+            m_hits++;
             m_hitsInstrument.increment();
             return value;
         }
@@ -245,6 +296,7 @@ public class MRUMemoryStore
         {
             getLogger().debug( "NOT Found key: " + key.toString() );
         }
+        m_misses++;
 
         /** try to fetch from filesystem */
         if( m_persistent )
@@ -283,8 +335,11 @@ public class MRUMemoryStore
             getLogger().debug( "Removing object from store" );
             getLogger().debug( "  key: " + key );
         }
-        m_cache.remove( key );
-        m_mrulist.remove( key );
+        if( m_cache.remove( key ) != null )
+        {
+            m_mrulist.remove( key );
+            m_weight -= removeWeight( key );
+        }
         m_sizeInstrument.setValue( m_mrulist.size() );
         
         if( m_persistent && key != null )
@@ -348,6 +403,49 @@ public class MRUMemoryStore
         return m_cache.size();
     }
 
+    /**
+     * Returns the estimated number of bytes used by the objects held
+     * in memory.
+     */
+    public synchronized long getWeight()
+    {
+        return m_weight;
+    }
+
+    /**
+     * Returns the number of times an object was found in memory.
+     */
+    public synchronized long getHits()
+    {
+        return m_hits;
+    }
+
+    /**
+     * Returns the number of times an object was not found in memory,
+     * including those then found in the persistent store.
+     */
+    public synchronized long getMisses()
+    {
+        return m_misses;
+    }
+
+    /**
+     * Frees the last elements in the store until the given number of
+     * bytes is freed.
+     *
+     * @param bytes the number of bytes to free
+     * @return the estimated number of bytes freed
+     */
+    public synchronized long free( long bytes )
+    {
+        final long start = m_weight;
+        while( start - m_weight < bytes && m_cache.size() > 0 )
+        {
+            free();
+        }
+        return start - m_weight;
+    }
+
     /**
      * Frees some of the fast memory used by this store.
      * It removes the last element in the store.
@@ -365,6 +463,7 @@ public class MRUMemoryStore
                 {
                     getLogger().warn( "Concurrency condition in free()" );
                 }
+                m_weight -= removeWeight( key );
 
                 if( getLogger().isDebugEnabled() )
                 {
@@ -402,6 +501,18 @@ public class MRUMemoryStore
         }
     }
 
+    /**
+     * Forget the weight of a key.
+     *
+     * @param key The key of the object that was removed
+     * @return the weight the object had
+     */
+    private long removeWeight( Object key )
+    {
+        final Long weight = (Long)m_weights.remove( key );
+        return ( weight == null ) ? 0 : weight.longValue();
+    }
+
     /**
      * This method checks if an object is seriazable.
      *
@@ -0,0 +1,362 @@
+/* 
+ * Copyright 2002-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Watches the tenured heap pool of the JVM through the
+ * <code>java.lang.management</code> API, and wakes up a waiting thread
+ * whenever the pool reports that its usage or its usage after a garbage
+ * collection went over the threshold.  The notifications of the other
+ * pools, which share the same emitter, are ignored.
+ *
+ * <p>
+ *   The management API only exists from Java 5 on, so it is used through
+ *   reflection, and the notification listener is a dynamic proxy.  On an
+ *   older JVM, or when no heap pool supports thresholds,
+ *   {@link #create(double)} returns <code>null</code>.
+ * </p>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+final class MemoryPoolMonitor
+    implements InvocationHandler
+{
+    private static final String USAGE_EXCEEDED =
+        "java.management.memory.threshold.exceeded";
+    private static final String COLLECTION_EXCEEDED =
+        "java.management.memory.collection.threshold.exceeded";
+
+    private final Object m_pool;
+    private final Object m_emitter;
+    private final Object m_listener;
+    private final String m_poolName;
+    private final long m_threshold;
+
+    private final Method m_getUsage;
+    private final Method m_getCollectionUsage;
+    private final Method m_getUsed;
+    private final Method m_getType;
+    private final Method m_getUserData;
+    private final Class m_compositeDataClass;
+    private final Method m_from;
+    private final Method m_getPoolName;
+
+    /** Whether a notification came in that nobody has waited for yet */
+    private boolean m_exceeded;
+    private boolean m_afterCollection;
+    private boolean m_closed;
+
+    /**
+     * Start watching the tenured pool.
+     *
+     * @param threshold  the fraction (0-1) of the maximum pool size above
+     *                   which the pool counts as full
+     * @return the monitor, or <code>null</code> if the JVM cannot watch its
+     *         memory pools
+     */
+    static MemoryPoolMonitor create( final double threshold )
+    {
+        try
+        {
+            final Class factory = Class.forName( "java.lang.management.ManagementFactory" );
+            final Class poolClass = Class.forName( "java.lang.management.MemoryPoolMXBean" );
+            final Class usageClass = Class.forName( "java.lang.management.MemoryUsage" );
+
+            final Object pool = findTenuredPool( factory, poolClass, usageClass );
+            if( null == pool )
+            {
+                return null;
+            }
+
+            final Object emitter = factory.getMethod( "getMemoryMXBean", new Class[ 0 ] )
+                .invoke( null, new Object[ 0 ] );
+
+            return new MemoryPoolMonitor( pool, poolClass, usageClass, emitter, threshold );
+        }
+        catch( Exception e )
+        {
+            // no management API, or it refused the threshold
+            return null;
+        }
+    }
+
+    /**
+     * Find the heap pool that supports a usage threshold and has the
+     * largest maximum size, which is the old generation of every common
+     * collector.
+     */
+    private static Object findTenuredPool( final Class factory,
+                                           final Class poolClass,
+                                           final Class usageClass )
+        throws Exception
+    {
+        final List pools = (List)factory.getMethod( "getMemoryPoolMXBeans", new Class[ 0 ] )
+            .invoke( null, new Object[ 0 ] );
+        final Method getType = poolClass.getMethod( "getType", new Class[ 0 ] );
+        final Method supported = poolClass.getMethod( "isUsageThresholdSupported", new Class[ 0 ] );
+        final Method getUsage = poolClass.getMethod( "getUsage", new Class[ 0 ] );
+        final Method getMax = usageClass.getMethod( "getMax", new Class[ 0 ] );
+        final Object heap = Class.forName( "java.lang.management.MemoryType" )
+            .getField( "HEAP" ).get( null );
+
+        Object tenured = null;
+        long tenuredMax = 0;
+
+        final Iterator it = pools.iterator();
+        while( it.hasNext() )
+        {
+            final Object pool = it.next();
+            if( !heap.equals( getType.invoke( pool, new Object[ 0 ] ) ) )
+            {
+                continue;
+            }
+            if( !( (Boolean)supported.invoke( pool, new Object[ 0 ] ) ).booleanValue() )
+            {
+                continue;
+            }
+
+            final Object usage = getUsage.invoke( pool, new Object[ 0 ] );
+            final long max = ( (Long)getMax.invoke( usage, new Object[ 0 ] ) ).longValue();
+            if( max > tenuredMax )
+            {
+                tenured = pool;
+                tenuredMax = max;
+            }
+        }
+
+        return tenured;
+    }
+
+    private MemoryPoolMonitor( final Object pool,
+                               final Class poolClass,
+                               final Class usageClass,
+                               final Object emitter,
+                               final double threshold )
+        throws Exception
+    {
+        m_pool = pool;
+        m_emitter = emitter;
+        m_poolName = (String)poolClass.getMethod( "getName", new Class[ 0 ] )
+            .invoke( pool, new Object[ 0 ] );
+
+        m_getUsage = poolClass.getMethod( "getUsage", new Class[ 0 ] );
+        m_getCollectionUsage = poolClass.getMethod( "getCollectionUsage", new Class[ 0 ] );
+        m_getUsed = usageClass.getMethod( "getUsed", new Class[ 0 ] );
+
+        final Method getMax = usageClass.getMethod( "getMax", new Class[ 0 ] );
+        final long max = ( (Long)getMax.invoke( m_getUsage.invoke( pool, new Object[ 0 ] ),
+                                                new Object[ 0 ] ) ).longValue();
+        m_threshold = (long)( max * threshold );
+
+        poolClass.getMethod( "setUsageThreshold", new Class[]{Long.TYPE} )
+            .invoke( pool, new Object[]{new Long( m_threshold )} );
+
+        final Boolean collectionSupported = (Boolean)poolClass
+            .getMethod( "isCollectionUsageThresholdSupported", new Class[ 0 ] )
+            .invoke( pool, new Object[ 0 ] );
+        if( collectionSupported.booleanValue() )
+        {
+            poolClass.getMethod( "setCollectionUsageThreshold", new Class[]{Long.TYPE} )
+                .invoke( pool, new Object[]{new Long( m_threshold )} );
+        }
+
+        final Class listenerClass = Class.forName( "javax.management.NotificationListener" );
+        final Class filterClass = Class.forName( "javax.management.NotificationFilter" );
+        final Class notificationClass = Class.forName( "javax.management.Notification" );
+        m_getType = notificationClass.getMethod( "getType", new Class[ 0 ] );
+        m_getUserData = notificationClass.getMethod( "getUserData", new Class[ 0 ] );
+
+        final Class infoClass = Class.forName( "java.lang.management.MemoryNotificationInfo" );
+        m_compositeDataClass = Class.forName( "javax.management.openmbean.CompositeData" );
+        m_from = infoClass.getMethod( "from", new Class[]{m_compositeDataClass} );
+        m_getPoolName = infoClass.getMethod( "getPoolName", new Class[ 0 ] );
+
+        m_listener = Proxy.newProxyInstance( listenerClass.getClassLoader(),
+                                             new Class[]{listenerClass},
+                                             this );
+
+        Class.forName( "javax.management.NotificationEmitter" )
+            .getMethod( "addNotificationListener",
+                        new Class[]{listenerClass, filterClass, Object.class} )
+            .invoke( emitter, new Object[]{m_listener, null, null} );
+    }
+
+    /**
+     * Get the number of bytes above which the pool counts as full.
+     *
+     * @return the threshold in bytes
+     */
+    long getThreshold()
+    {
+        return m_threshold;
+    }
+
+    /**
+     * Wait until the pool reports that it went over the threshold.
+     *
+     * @return the number of bytes the pool uses above the threshold, which
+     *         may be 0 if it has dropped below since, or -1 if the monitor
+     *         was closed
+     * @throws InterruptedException if the thread was interrupted
+     */
+    long awaitExceeded() throws InterruptedException
+    {
+        final boolean afterCollection;
+        synchronized( this )
+        {
+            while( !m_exceeded && !m_closed )
+            {
+                wait();
+            }
+            if( m_closed )
+            {
+                return -1;
+            }
+
+            afterCollection = m_afterCollection;
+            m_exceeded = false;
+            m_afterCollection = false;
+        }
+
+        // The usage after the last collection leaves out the garbage, so it
+        // is the better measure when the collector itself gave the alarm.
+        final long used = getUsed( afterCollection ? m_getCollectionUsage : m_getUsage );
+        return Math.max( 0, used - m_threshold );
+    }
+
+    /**
+     * Stop watching the pool, and release the thread waiting in
+     * {@link #awaitExceeded()}.
+     */
+    void close()
+    {
+        synchronized( this )
+        {
+            if( m_closed )
+            {
+                return;
+            }
+            m_closed = true;
+            notifyAll();
+        }
+
+        try
+        {
+            final Class listenerClass = Class.forName( "javax.management.NotificationListener" );
+            Class.forName( "javax.management.NotificationBroadcaster" )
+                .getMethod( "removeNotificationListener", new Class[]{listenerClass} )
+                .invoke( m_emitter, new Object[]{m_listener} );
+        }
+        catch( Exception e )
+        {
+            // the listener is gone with the JVM anyway
+        }
+    }
+
+    private long getUsed( final Method usageMethod )
+    {
+        try
+        {
+            final Object usage = usageMethod.invoke( m_pool, new Object[ 0 ] );
+            if( null == usage )
+            {
+                return getUsed( m_getUsage );
+            }
+            return ( (Long)m_getUsed.invoke( usage, new Object[ 0 ] ) ).longValue();
+        }
+        catch( IllegalAccessException iae )
+        {
+            return 0;
+        }
+        catch( InvocationTargetException ite )
+        {
+            return 0;
+        }
+    }
+
+    /**
+     * Check whether a notification was sent for the watched pool.  The
+     * name of the pool is in the <code>MemoryNotificationInfo</code>
+     * carried as the user data.
+     */
+    private boolean isWatchedPool( final Object notification )
+        throws IllegalAccessException
+    {
+        try
+        {
+            final Object userData = m_getUserData.invoke( notification, new Object[ 0 ] );
+            if( !m_compositeDataClass.isInstance( userData ) )
+            {
+                return false;
+            }
+
+            final Object info = m_from.invoke( null, new Object[]{userData} );
+            return m_poolName.equals( m_getPoolName.invoke( info, new Object[ 0 ] ) );
+        }
+        catch( InvocationTargetException ite )
+        {
+            // the user data is not a MemoryNotificationInfo
+            return false;
+        }
+    }
+
+    /**
+     * Handles the calls made on the notification listener proxy.
+     */
+    public Object invoke( final Object proxy, final Method method, final Object[] args )
+        throws Throwable
+    {
+        final String name = method.getName();
+        if( "handleNotification".equals( name ) )
+        {
+            final String type = (String)m_getType.invoke( args[ 0 ], new Object[ 0 ] );
+            final boolean afterCollection = COLLECTION_EXCEEDED.equals( type );
+            if( ( afterCollection || USAGE_EXCEEDED.equals( type ) )
+                && isWatchedPool( args[ 0 ] ) )
+            {
+                synchronized( this )
+                {
+                    m_exceeded = true;
+                    m_afterCollection |= afterCollection;
+                    notifyAll();
+                }
+            }
+            return null;
+        }
+        else if( "equals".equals( name ) )
+        {
+            return ( proxy == args[ 0 ] ) ? Boolean.TRUE : Boolean.FALSE;
+        }
+        else if( "hashCode".equals( name ) )
+        {
+            return new Integer( System.identityHashCode( proxy ) );
+        }
+        else if( "toString".equals( name ) )
+        {
+            return "MemoryPoolMonitor listener";
+        }
+
+        throw new UnsupportedOperationException( name );
+    }
+}
@@ -17,7 +17,9 @@
 package org.apache.excalibur.store.impl;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import org.apache.avalon.framework.activity.Startable;
 import org.apache.avalon.framework.logger.AbstractLogEnabled;
@@ -25,13 +27,22 @@ import org.apache.avalon.framework.parameters.ParameterException;
 import org.apache.avalon.framework.parameters.Parameterizable;
 import org.apache.avalon.framework.parameters.Parameters;
 import org.apache.avalon.framework.thread.ThreadSafe;
+import org.apache.excalibur.store.MonitoredStore;
 import org.apache.excalibur.store.Store;
 import org.apache.excalibur.store.StoreJanitor;
+import org.apache.excalibur.store.WeightedStore;
 
 /**
  * This class is a implentation of a StoreJanitor. Store classes
  * can register to the StoreJanitor. When memory is too low,
  * the StoreJanitor frees the registered caches until memory is normal.
+ *
+ * <p>By default the janitor polls the free memory of the JVM. With the
+ * <code>usagethreshold</code> parameter it instead waits for the JVM to
+ * report that its tenured heap pool went over that threshold, and frees
+ * as much as the pool is over it, mostly from the stores whose objects are
+ * asked for least. This needs the <code>java.lang.management</code> API of
+ * Java 5; on older JVMs the janitor falls back to polling.</p>
  * 
  * @avalon.component
  * @avalon.service type=StoreJanitor
@@ -66,6 +77,12 @@ implements StoreJanitor,
     private int index = -1;
     /** Should the gc be called on low memory? */
     protected boolean invokeGC = false;
+
+    /** Fraction of the tenured pool above which memory is low, or 0 to poll */
+    private double usageThreshold = 0;
+    private MemoryPoolMonitor monitor;
+    /** The hits and misses of each MonitoredStore when it was last freed */
+    private final Map lastCounts = new IdentityHashMap();
     
     /**
      * Initialize the StoreJanitorImpl.
@@ -79,8 +96,16 @@ implements StoreJanitor,
      *      Cleanup interval then is determined based on the memory fill rate: the faster memory is filled in,
      *      and the less free memory is left, the shorter is the cleanup time.</LI>
      *  <LI><B>threadpriority</B>: priority of the thread (1-10). (Default: 10)</LI>
-     *  <LI><B>percent_to_free</B>: What fraction of the store to free when memory is low (1-100). (Default: 10%)</LI>
+     *  <LI><B>percent_to_free</B>: What fraction of the store to free when memory is low (1-100). (Default: 10%)
+     *      A {@link WeightedStore} is freed by this fraction of its estimated bytes, or by the number of
+     *      bytes missing to reach <code>freememory</code> if that is more.</LI>
      *  <LI><B>invokegc</B>: Invoke the gc on low memory first (true|false; default: false)</LI>
+     *  <LI><B>usagethreshold</B>: Percentage of the tenured heap pool above which memory is low
+     *      (0-99; default: 0). When set, the janitor does not poll but waits for the JVM to report
+     *      that the pool went over it. It then frees the bytes over the threshold plus
+     *      <code>percent_to_free</code> of the threshold, spread over the stores by their recent
+     *      hit ratio. The gc is never invoked in this mode, and <code>freememory</code>,
+     *      <code>heapsize</code> and the thread interval are not used.</LI>
      * </UL>
      *
      * @param params the Configuration of the application
@@ -103,6 +128,7 @@ implements StoreJanitor,
                                                  Thread.currentThread().getPriority()));
         int percent = params.getParameterAsInteger("percent_to_free", 10);
         this.invokeGC = params.getParameterAsBoolean("invokegc", this.invokeGC);
+        int threshold = params.getParameterAsInteger("usagethreshold", 0);
         
         if (getMinFreeMemory() < 1) 
         {
@@ -124,8 +150,13 @@ implements StoreJanitor,
         {
             throw new ParameterException("StoreJanitorImpl percent_to_free, has to be between 1 and 100");
         }
+        if (threshold < 0 || threshold > 99) 
+        {
+            throw new ParameterException("StoreJanitorImpl usagethreshold has to be between 0 and 99");
+        }
 
         this.fraction = percent / 100.0D;
+        this.usageThreshold = threshold / 100.0D;
         setStoreList(new ArrayList());
         
         if ( getLogger().isDebugEnabled() ) 
@@ -136,12 +167,28 @@ implements StoreJanitor,
             getLogger().debug("priority=" + this.getPriority());
             getLogger().debug("percent=" + percent);
             getLogger().debug("invoke gc=" + this.invokeGC);
+            getLogger().debug("usage threshold=" + threshold);
         }
     }
 
     public void start() 
     {
         doRun = true;
+        if (this.usageThreshold > 0) 
+        {
+            this.monitor = MemoryPoolMonitor.create(this.usageThreshold);
+            if (this.monitor == null) 
+            {
+                getLogger().warn("The JVM cannot report the usage of its memory pools, "
+                                 + "polling the free memory instead");
+            }
+            else if (getLogger().isDebugEnabled()) 
+            {
+                getLogger().debug("Waiting for the tenured pool to exceed "
+                                  + this.monitor.getThreshold() + " bytes");
+            }
+        }
+
         Thread checker = new Thread(this);
         if (getLogger().isDebugEnabled()) 
         {
@@ -156,6 +203,10 @@ implements StoreJanitor,
     public void stop() 
     {
         doRun = false;
+        if (this.monitor != null) 
+        {
+            this.monitor.close();
+        }
     }
 
     /**
@@ -163,6 +214,12 @@ implements StoreJanitor,
      */
     public void run() 
     {
+        if (this.monitor != null) 
+        {
+            awaitMemoryLow(this.monitor);
+            return;
+        }
+
         boolean firstRun = true;
         long inUse = memoryInUse(); // Amount of memory in use before sleep()
         long interval = Long.MAX_VALUE; // Sleep time in ms
@@ -244,6 +301,51 @@ implements StoreJanitor,
         }
     }
 
+    /**
+     * Waits for the tenured pool to go over the threshold, and frees
+     * the stores by as much as it went over.
+     *
+     * @param monitor the monitor of the tenured pool
+     */
+    private void awaitMemoryLow(MemoryPoolMonitor monitor) 
+    {
+        while (doRun) 
+        {
+            long over;
+            try 
+            {
+                over = monitor.awaitExceeded();
+            } 
+            catch (InterruptedException ignore) 
+            {
+                continue;
+            }
+            if (over < 0) 
+            {
+                break;
+            }
+            if (over == 0) 
+            {
+                continue;
+            }
+
+            final long bytes = over + (long)(monitor.getThreshold() * fraction);
+            if (getLogger().isDebugEnabled()) 
+            {
+                getLogger().debug("Tenured pool is " + over + " bytes over the threshold, freeing "
+                                  + bytes + " bytes");
+            }
+
+            synchronized (this) 
+            {
+                if (getStoreList().size() > 0) 
+                {
+                    freeMemory(bytes, monitor.getThreshold());
+                }
+            }
+        }
+    }
+
     /**
      * Method to check if memory is running low in the JVM.
      *
@@ -329,6 +431,7 @@ implements StoreJanitor,
     public synchronized void unregister(Store store) 
     {
         getStoreList().remove(store);
+        this.lastCounts.remove(store);
         if (getLogger().isDebugEnabled()) 
         {
             getLogger().debug("Unregistered store instance " + store + ". Stores now: "
@@ -381,6 +484,18 @@ implements StoreJanitor,
 
             // Delete proportionate elements out of the store as configured.
             Store store = (Store)getStoreList().get(getIndex());
+            if (store instanceof WeightedStore) 
+            {
+                final WeightedStore weighted = (WeightedStore)store;
+                final long bytes = calcBytesToFree(weighted);
+                final long freed = weighted.free(bytes);
+                if (getLogger().isDebugEnabled()) 
+                {
+                    getLogger().debug("Freed " + freed + " of " + bytes + " bytes from store N " + getIndex());
+                }
+                return;
+            }
+
             int limit = calcToFree(store);
             if (getLogger().isDebugEnabled()) 
             {
@@ -408,6 +523,145 @@ implements StoreJanitor,
         }
     }
 
+    /**
+     * Frees a number of bytes from all registered stores. Every store is
+     * asked for a share that grows with the fraction of its lookups that
+     * missed since it was last freed, so the stores that are used least give
+     * up most. What a store cannot give is spread over the stores after it.
+     *
+     * @param bytes the number of bytes to free
+     * @param total the number of bytes the stores may use altogether
+     */
+    void freeMemory(long bytes, long total) 
+    {
+        final int count = getStoreList().size();
+        final Store[] stores = (Store[])getStoreList().toArray(new Store[count]);
+        final double[] shares = new double[count];
+        double remainingShare = 0;
+        for (int i = 0; i < count; i++) 
+        {
+            // even a store that always hits gives up a little
+            shares[i] = 0.05D + calcMissRatio(stores[i]);
+            remainingShare += shares[i];
+        }
+
+        // most missed first, so the hot stores get what is left over
+        for (int i = 1; i < count; i++) 
+        {
+            for (int j = i; j > 0 && shares[j] > shares[j - 1]; j--) 
+            {
+                final double share = shares[j];
+                shares[j] = shares[j - 1];
+                shares[j - 1] = share;
+                final Store store = stores[j];
+                stores[j] = stores[j - 1];
+                stores[j - 1] = store;
+            }
+        }
+
+        long remaining = bytes;
+        for (int i = 0; i < count && remaining > 0; i++) 
+        {
+            final long wanted = (long)Math.ceil(remaining * shares[i] / remainingShare);
+            remainingShare -= shares[i];
+            try 
+            {
+                remaining -= freeBytes(stores[i], wanted, total);
+            } 
+            catch (Exception e) 
+            {
+                getLogger().error("Error in freeMemory()", e);
+            } 
+            catch (OutOfMemoryError e) 
+            {
+                getLogger().error("OutOfMemoryError in freeMemory()");
+            }
+        }
+    }
+
+    /**
+     * Frees a number of bytes from a store. A store that cannot weigh its
+     * objects is assumed to hold its part of <code>total</code> evenly, so
+     * the same fraction of its objects is removed, and the bytes freed are
+     * estimated from the number of objects it actually gave up.
+     *
+     * @param store the store to free
+     * @param bytes the number of bytes to free
+     * @param total the number of bytes the stores may use altogether
+     * @return the number of bytes freed, as far as known
+     */
+    private long freeBytes(Store store, long bytes, long total) 
+    {
+        if (store instanceof WeightedStore) 
+        {
+            final long freed = ((WeightedStore)store).free(bytes);
+            if (getLogger().isDebugEnabled()) 
+            {
+                getLogger().debug("Freed " + freed + " of " + bytes + " bytes from store " + store);
+            }
+            return freed;
+        }
+
+        final int size = store.size();
+        if (size <= 0 || total <= 0) 
+        {
+            return 0;
+        }
+        final int limit = (int)Math.ceil(size * Math.min(1.0D, (double)bytes / total));
+        if (getLogger().isDebugEnabled()) 
+        {
+            getLogger().debug("Freeing " + limit + " items for " + bytes + " bytes from store " + store);
+        }
+        if (limit <= 0) 
+        {
+            return 0;
+        }
+        for (int i = 0; i < limit; i++) 
+        {
+            store.free();
+        }
+
+        final int removed = Math.max(0, size - store.size());
+        if (removed >= limit) 
+        {
+            return bytes;
+        }
+        return bytes * removed / limit;
+    }
+
+    /**
+     * Calculates the fraction of the lookups of a store that missed
+     * since the last call.
+     *
+     * @param store the store
+     * @return the miss ratio, 1 if the store was not used at all, or 0.5
+     *         if the store does not count its hits
+     */
+    private double calcMissRatio(Store store) 
+    {
+        if (!(store instanceof MonitoredStore)) 
+        {
+            return 0.5D;
+        }
+
+        final MonitoredStore monitored = (MonitoredStore)store;
+        final long[] counts = new long[] { monitored.getHits(), monitored.getMisses() };
+        final long[] last = (long[])this.lastCounts.put(store, counts);
+        long hits = counts[0];
+        long misses = counts[1];
+        if (last != null) 
+        {
+            hits -= last[0];
+            misses -= last[1];
+        }
+
+        if (hits + misses <= 0) 
+        {
+            return 1.0D;
+        }
+        return (double)misses / (hits + misses);
+    }
+
     /**
      * This method claculates the number of Elements to be freememory
      * out of the Cache.
@@ -434,6 +688,25 @@ implements StoreJanitor,
         return res;
     }
 
+    /**
+     * This method calculates the number of bytes to be freed
+     * out of a store that knows the size of its elements.
+     *
+     * @param store the Store which was selected as victim
+     * @return number of bytes to be freed
+     */
+    private long calcBytesToFree(WeightedStore store) 
+    {
+        final long weight = store.getWeight();
+        final long shortfall = getMinFreeMemory() - getJVM().freeMemory();
+        final long res = Math.max((long)(weight * fraction), shortfall);
+        if ( getLogger().isDebugEnabled() ) 
+        {
+            getLogger().debug("Calculating bytes for store " + store + " with weight " + weight + " : " + res);
+        }
+        return res;
+    }
+
     /**
      * This method forces the garbage collector
      */
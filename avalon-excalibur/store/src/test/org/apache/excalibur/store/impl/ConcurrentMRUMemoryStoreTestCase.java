@@ -0,0 +1,268 @@
+/* 
+ * Copyright 2002-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.avalon.framework.service.DefaultServiceManager;
+import org.apache.excalibur.store.Store;
+import org.apache.excalibur.store.StoreJanitor;
+import org.apache.excalibur.store.Weigher;
+
+/**
+ * This TestCase checks the MRU order of the
+ * <code>ConcurrentMRUMemoryStore</code>, its overflow into the persistent
+ * store, and that it stays within <code>maxobjects</code> when it is
+ * used by several threads at once.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class ConcurrentMRUMemoryStoreTestCase extends TestCase {
+
+    /** the store the overflow goes to */
+    private MemoryStore m_persistentStore;
+
+    /**
+     * Creates a store with the given parameters, backed by a
+     * <code>MemoryStore</code> as persistent store.
+     */
+    private ConcurrentMRUMemoryStore createStore(int maxobjects, int segments)
+        throws Exception {
+        return createStore(maxobjects, segments, 0, null);
+    }
+
+    /**
+     * Creates a store with a byte budget, and the given weigher if it is
+     * not null.
+     */
+    private ConcurrentMRUMemoryStore createStore(int maxobjects, int segments,
+                                                 long maxbytes, Weigher weigher)
+        throws Exception {
+        final StoreJanitorImpl janitor = new StoreJanitorImpl();
+        janitor.enableLogging(new NullLogger());
+        janitor.parameterize(new Parameters());
+
+        m_persistentStore = new MemoryStore();
+        m_persistentStore.enableLogging(new NullLogger());
+
+        final DefaultServiceManager manager = new DefaultServiceManager();
+        manager.put(StoreJanitor.ROLE, janitor);
+        manager.put(Store.PERSISTENT_STORE, m_persistentStore);
+        if (weigher != null) {
+            manager.put(Weigher.ROLE, weigher);
+        }
+        manager.makeReadOnly();
+
+        final Parameters params = new Parameters();
+        params.setParameter("maxobjects", String.valueOf(maxobjects));
+        params.setParameter("segments", String.valueOf(segments));
+        params.setParameter("use-persistent-cache", "true");
+        params.setParameter("maxbytes", String.valueOf(maxbytes));
+
+        final ConcurrentMRUMemoryStore store = new ConcurrentMRUMemoryStore();
+        store.enableLogging(new NullLogger());
+        store.service(manager);
+        store.parameterize(params);
+        return store;
+    }
+
+    /**
+     * With a single segment the store is an exact MRU cache: the least
+     * recently used object goes to the persistent store, and comes back
+     * from it on the next get().
+     */
+    public void testMostRecentlyUsed() throws Exception {
+        final ConcurrentMRUMemoryStore store = createStore(3, 1);
+
+        store.store("a", "1");
+        store.store("b", "2");
+        store.store("c", "3");
+        assertEquals("1", store.get("a"));
+        store.store("d", "4");
+
+        assertEquals(3, store.size());
+        assertFalse(m_persistentStore.containsKey("a"));
+        assertTrue(m_persistentStore.containsKey("b"));
+        assertTrue(store.containsKey("b"));
+
+        assertEquals("2", store.get("b"));
+        assertEquals(3, store.size());
+        assertTrue(m_persistentStore.containsKey("c"));
+
+        store.remove("b");
+        assertNull(store.get("b"));
+        assertFalse(m_persistentStore.containsKey("b"));
+    }
+
+    /**
+     * Removing a null key leaves the store as it is.
+     */
+    public void testRemoveNullKey() throws Exception {
+        final ConcurrentMRUMemoryStore store = createStore(3, 1);
+
+        store.store("a", "1");
+        store.remove(null);
+
+        assertEquals(1, store.size());
+        assertEquals("1", store.get("a"));
+    }
+
+    /**
+     * free() takes an object from the segments in turn until the store
+     * is empty.
+     */
+    public void testFree() throws Exception {
+        final ConcurrentMRUMemoryStore store = createStore(64, 8);
+
+        for (int i = 0; i < 64; i++) {
+            store.store("key" + i, "value" + i);
+        }
+        assertTrue(store.size() > 0);
+
+        for (int i = 0; i < 64; i++) {
+            store.free();
+        }
+        assertEquals(0, store.size());
+        assertFalse(store.keys().hasMoreElements());
+
+        store.dispose();
+    }
+
+    /**
+     * With a byte budget, one large object pushes out as many small ones
+     * as it needs room for, and free(long) frees by weight.
+     */
+    public void testByteBudget() throws Exception {
+        final ConcurrentMRUMemoryStore store = createStore(100, 1, 10, new LengthWeigher());
+
+        store.store("a", "xx");
+        store.store("b", "xx");
+        store.store("c", "xx");
+        store.store("d", "xx");
+        assertEquals(8, store.getWeight());
+
+        store.store("big", "xxxxxx");
+        assertEquals(3, store.size());
+        assertEquals(10, store.getWeight());
+        assertTrue(m_persistentStore.containsKey("a"));
+        assertTrue(m_persistentStore.containsKey("b"));
+        assertFalse(m_persistentStore.containsKey("c"));
+
+        // replacing an object only counts its new weight
+        store.store("c", "x");
+        assertEquals(9, store.getWeight());
+
+        assertEquals(2, store.free(1));
+        assertEquals(2, store.size());
+        assertEquals(7, store.free(100));
+        assertEquals(0, store.getWeight());
+    }
+
+    /**
+     * The byte budget holds for the store as a whole, however the keys
+     * are spread over the segments.
+     */
+    public void testSharedByteBudget() throws Exception {
+        final ConcurrentMRUMemoryStore store = createStore(100, 8, 10, new LengthWeigher());
+
+        for (int i = 0; i < 40; i++) {
+            store.store("key" + i, "xx");
+            assertTrue("weight " + store.getWeight(), store.getWeight() <= 10);
+        }
+        assertEquals(5, store.size());
+        assertEquals("xx", store.get("key39"));
+    }
+
+    /**
+     * An object heavier than the whole budget is not held in memory, and
+     * does not push out the objects that are.
+     */
+    public void testOversizedObject() throws Exception {
+        final ConcurrentMRUMemoryStore store = createStore(100, 4, 10, new LengthWeigher());
+
+        store.store("a", "xx");
+        store.store("b", "xx");
+        store.store("huge", "xxxxxxxxxxx");
+
+        assertEquals(2, store.size());
+        assertEquals(4, store.getWeight());
+        assertTrue(m_persistentStore.containsKey("huge"));
+        assertEquals("xxxxxxxxxxx", store.get("huge"));
+        assertEquals(2, store.size());
+
+        // the value in memory must not outlive an oversized replacement
+        store.store("a", "yyyyyyyyyyy");
+        assertEquals(1, store.size());
+        assertEquals("yyyyyyyyyyy", store.get("a"));
+    }
+
+    /**
+     * Several threads store and get random keys; the store must never
+     * hold more than maxobjects, and the most recent value of a key must
+     * be found in memory or in the persistent store.
+     */
+    public void testConcurrentAccess() throws Exception {
+        final ConcurrentMRUMemoryStore store = createStore(100, 16);
+        final Throwable[] failure = new Throwable[1];
+        final Thread[] threads = new Thread[8];
+
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        final Random random = new Random(seed);
+                        for (int i = 0; i < 20000; i++) {
+                            final String key = "key" + random.nextInt(500);
+                            if (random.nextInt(4) == 0) {
+                                store.store(key, key);
+                            } else {
+                                final Object value = store.get(key);
+                                if (value != null && !key.equals(value)) {
+                                    throw new IllegalStateException(key + " -> " + value);
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+
+        assertNull(String.valueOf(failure[0]), failure[0]);
+        assertTrue("size " + store.size(), store.size() <= 100);
+    }
+
+    /**
+     * Weighs a string value by its length.
+     */
+    private static final class LengthWeigher implements Weigher {
+        public long weigh(Object key, Object value) {
+            return ((String)value).length();
+        }
+    }
+}
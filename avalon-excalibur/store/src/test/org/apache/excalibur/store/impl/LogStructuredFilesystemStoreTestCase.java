@@ -0,0 +1,247 @@
+/* 
+ * Copyright 2002-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.avalon.framework.parameters.Parameters;
+
+/**
+ * This TestCase checks that the <code>LogStructuredFilesystemStore</code>
+ * finds its objects again after a restart, survives a record that was cut
+ * short, never truncates a segment for any other reason, and keeps the current objects when it compacts its segments.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class LogStructuredFilesystemStoreTestCase extends TestCase {
+
+    private File m_directory;
+
+    public LogStructuredFilesystemStoreTestCase(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        m_directory = new File(System.getProperty("java.io.tmpdir"),
+                               "lsstore-" + System.currentTimeMillis());
+    }
+
+    protected void tearDown() throws Exception {
+        final File[] files = m_directory.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        m_directory.delete();
+    }
+
+    private LogStructuredFilesystemStore createStore(int segmentSize) throws Exception {
+        final LogStructuredFilesystemStore store = new LogStructuredFilesystemStore();
+        store.enableLogging(new NullLogger());
+        final Parameters params = new Parameters();
+        params.setParameter("directory", m_directory.getPath());
+        params.setParameter("segment-size", String.valueOf(segmentSize));
+        params.setParameter("compaction-interval", "3600");
+        store.parameterize(params);
+        store.initialize();
+        return store;
+    }
+
+    public void testStoreAndRemove() throws Exception {
+        final LogStructuredFilesystemStore store = createStore(1024 * 1024);
+        try {
+            store.store("a", "first");
+            store.store("b", new Integer(2));
+            store.store("a", "second");
+            assertEquals("second", store.get("a"));
+            assertEquals(new Integer(2), store.get("b"));
+            assertEquals(2, store.size());
+
+            store.remove("a");
+            assertNull(store.get("a"));
+            assertFalse(store.containsKey("a"));
+            assertEquals(1, store.size());
+
+            store.clear();
+            assertEquals(0, store.size());
+            assertNull(store.get("b"));
+        } finally {
+            store.dispose();
+        }
+    }
+
+    public void testRecovery() throws Exception {
+        LogStructuredFilesystemStore store = createStore(2048);
+        for (int i = 0; i < 100; i++) {
+            store.store("key" + i, "value" + i);
+        }
+        store.store("key5", "changed");
+        store.remove("key7");
+        store.dispose();
+
+        store = createStore(2048);
+        try {
+            assertEquals(99, store.size());
+            assertEquals("changed", store.get("key5"));
+            assertNull(store.get("key7"));
+            assertEquals("value99", store.get("key99"));
+        } finally {
+            store.dispose();
+        }
+    }
+
+    public void testTornRecord() throws Exception {
+        LogStructuredFilesystemStore store = createStore(1024 * 1024);
+        store.store("kept", "value");
+        store.dispose();
+
+        // a crash in the middle of the next record
+        final File segment = m_directory.listFiles()[0];
+        final long length = segment.length();
+        final OutputStream out = new FileOutputStream(segment, true);
+        out.write(new byte[] { 0x12, 0x34, 0x56, 0x78, 0, 0, 0, 10, 0 });
+        out.close();
+
+        store = createStore(1024 * 1024);
+        try {
+            assertEquals(length, segment.length());
+            assertEquals(1, store.size());
+            assertEquals("value", store.get("kept"));
+
+            store.store("next", "value");
+            assertEquals("value", store.get("next"));
+        } finally {
+            store.dispose();
+        }
+    }
+
+    public void testUnreadableKey() throws Exception {
+        LogStructuredFilesystemStore store = createStore(1024 * 1024);
+        store.store("kept", "value");
+        store.dispose();
+
+        // a whole record, but its key is not a serialized object
+        final File segment = m_directory.listFiles()[0];
+        final OutputStream out = new FileOutputStream(segment, true);
+        out.write(record(new byte[] { 1, 2, 3, 4 }, new byte[] { 5 }));
+        out.close();
+        final long length = segment.length();
+
+        try {
+            createStore(1024 * 1024);
+            fail("The store started with a key it cannot read");
+        } catch (IOException expected) {
+            assertNotNull(expected.getCause());
+        }
+        assertEquals(length, segment.length());
+    }
+
+    public void testDamagedSealedSegment() throws Exception {
+        LogStructuredFilesystemStore store = createStore(2048);
+        for (int i = 0; i < 100; i++) {
+            store.store("key" + i, "value" + i);
+        }
+        store.dispose();
+
+        final File[] segments = m_directory.listFiles();
+        Arrays.sort(segments);
+        assertTrue(segments.length > 1);
+        final long length = segments[0].length();
+
+        // flip a bit in the checksum of the second record
+        final RandomAccessFile file = new RandomAccessFile(segments[0], "rw");
+        try {
+            file.seek(4);
+            final int keyLength = file.readInt();
+            final int valueLength = file.readInt();
+            final long second = 13 + keyLength + valueLength;
+            file.seek(second);
+            final int checksum = file.readInt();
+            file.seek(second);
+            file.writeInt(checksum ^ 1);
+        } finally {
+            file.close();
+        }
+
+        try {
+            createStore(2048);
+            fail("The store started with a damaged sealed segment");
+        } catch (IOException expected) {
+        }
+        assertEquals(length, segments[0].length());
+    }
+
+    private static byte[] record(byte[] key, byte[] value) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(body);
+        data.writeInt(key.length);
+        data.writeInt(value.length);
+        data.writeByte(1);
+        data.write(key);
+        data.write(value);
+        data.close();
+
+        final CRC32 crc = new CRC32();
+        crc.update(body.toByteArray());
+        final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(record);
+        out.writeInt((int)crc.getValue());
+        out.write(body.toByteArray());
+        out.close();
+        return record.toByteArray();
+    }
+
+    public void testCompaction() throws Exception {
+        LogStructuredFilesystemStore store = createStore(2048);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 10; i++) {
+                store.store("key" + i, "value" + round);
+            }
+        }
+        store.remove("key0");
+        final int before = m_directory.listFiles().length;
+
+        store.compact();
+
+        assertTrue(m_directory.listFiles().length < before);
+        assertEquals(9, store.size());
+        assertNull(store.get("key0"));
+        for (int i = 1; i < 10; i++) {
+            assertEquals("value19", store.get("key" + i));
+        }
+        store.dispose();
+
+        store = createStore(2048);
+        try {
+            assertEquals(9, store.size());
+            assertNull(store.get("key0"));
+            assertEquals("value19", store.get("key9"));
+        } finally {
+            store.dispose();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/* 
+ * Copyright 2002-2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.util.Enumeration;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.avalon.framework.parameters.ParameterException;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.excalibur.store.Store;
+import org.apache.excalibur.store.WeightedStore;
+
+/**
+ * This TestCase checks the parameters of the <code>StoreJanitorImpl</code>,
+ * the monitor of the tenured pool it uses with a usage threshold, and how
+ * it spreads the bytes to free over its stores.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class StoreJanitorImplTestCase extends TestCase {
+
+    public StoreJanitorImplTestCase(String name) {
+        super(name);
+    }
+
+    public void testUsageThresholdRange() throws Exception {
+        final StoreJanitorImpl janitor = new StoreJanitorImpl();
+        janitor.enableLogging(new NullLogger());
+
+        final Parameters params = new Parameters();
+        params.setParameter("usagethreshold", "100");
+        try {
+            janitor.parameterize(params);
+            fail("A threshold of 100% was accepted");
+        } catch (ParameterException expected) {
+        }
+    }
+
+    public void testMonitorReleasesWaiterOnClose() throws Exception {
+        final MemoryPoolMonitor monitor = MemoryPoolMonitor.create(0.99D);
+        if (monitor == null) {
+            // the JVM has no management API
+            return;
+        }
+        assertTrue(monitor.getThreshold() > 0);
+
+        final long[] result = new long[] { 0 };
+        final Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    result[0] = monitor.awaitExceeded();
+                } catch (InterruptedException ie) {
+                    result[0] = -2;
+                }
+            }
+        };
+        waiter.start();
+        monitor.close();
+        waiter.join(10000);
+
+        assertFalse(waiter.isAlive());
+        assertEquals(-1, result[0]);
+    }
+
+    public void testStartAndStopWithUsageThreshold() throws Exception {
+        final StoreJanitorImpl janitor = new StoreJanitorImpl();
+        janitor.enableLogging(new NullLogger());
+
+        final Parameters params = new Parameters();
+        params.setParameter("usagethreshold", "95");
+        janitor.parameterize(params);
+
+        janitor.start();
+        janitor.stop();
+    }
+
+    /**
+     * A store that cannot weigh its objects and does not give any up
+     * leaves all the bytes to the next store.
+     */
+    public void testStuckStoreLeavesBytesToOthers() throws Exception {
+        final StoreJanitorImpl janitor = createJanitor();
+        final CountingStore stuck = new CountingStore(10, false);
+        final WeighingStore weighing = new WeighingStore();
+        janitor.register(stuck);
+        janitor.register(weighing);
+
+        janitor.freeMemory(1000, 2000);
+
+        assertEquals(3, stuck.m_frees);
+        assertEquals(10, stuck.size());
+        assertEquals(1000, weighing.m_requested);
+    }
+
+    /**
+     * A store that gives up the objects it is asked for is counted as
+     * having freed its share.
+     */
+    public void testShrinkingStoreFreesItsShare() throws Exception {
+        final StoreJanitorImpl janitor = createJanitor();
+        final CountingStore shrinking = new CountingStore(10, true);
+        final WeighingStore weighing = new WeighingStore();
+        janitor.register(shrinking);
+        janitor.register(weighing);
+
+        janitor.freeMemory(1000, 2000);
+
+        assertEquals(7, shrinking.size());
+        assertEquals(500, weighing.m_requested);
+    }
+
+    private StoreJanitorImpl createJanitor() throws Exception {
+        final StoreJanitorImpl janitor = new StoreJanitorImpl();
+        janitor.enableLogging(new NullLogger());
+        janitor.parameterize(new Parameters());
+        return janitor;
+    }
+
+    /**
+     * A store which counts the calls to free(), and which may or may not
+     * give up an object for each.
+     */
+    private static class CountingStore implements Store {
+        private final boolean m_shrinks;
+        private int m_size;
+        int m_frees;
+
+        CountingStore(int size, boolean shrinks) {
+            m_size = size;
+            m_shrinks = shrinks;
+        }
+
+        public Object get(Object key) {
+            return null;
+        }
+
+        public void store(Object key, Object value) {
+        }
+
+        public void free() {
+            m_frees++;
+            if (m_shrinks && m_size > 0) {
+                m_size--;
+            }
+        }
+
+        public void remove(Object key) {
+        }
+
+        public void clear() {
+            m_size = 0;
+        }
+
+        public boolean containsKey(Object key) {
+            return false;
+        }
+
+        public Enumeration keys() {
+            return new Vector().elements();
+        }
+
+        public int size() {
+            return m_size;
+        }
+    }
+
+    /**
+     * A weighted store which remembers how many bytes it was asked for,
+     * and always frees them.
+     */
+    private static final class WeighingStore extends CountingStore implements WeightedStore {
+        long m_requested;
+
+        WeighingStore() {
+            super(0, false);
+        }
+
+        public long getWeight() {
+            return 0;
+        }
+
+        public long free(long bytes) {
+            m_requested += bytes;
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.thread.impl;
+
+import org.apache.excalibur.thread.ThreadControl;
+
+/**
+ * A piece of work, and the ThreadControl for it.  It is used by the pools which
+ *  run work on threads of their own choosing rather than on pooled WorkerThreads.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+final class TaskControl
+    implements ThreadControl
+{
+    private final Runnable m_runnable;
+    private final org.apache.excalibur.thread.Executable m_executable;
+    private Thread m_thread;
+    private boolean m_interrupted;
+    private boolean m_finished;
+    private Throwable m_throwable;
+
+    TaskControl( final Runnable runnable, final org.apache.excalibur.thread.Executable executable )
+    {
+        m_runnable = runnable;
+        m_executable = executable;
+    }
+
+    void run( final Thread thread )
+    {
+        synchronized( this )
+        {
+            m_thread = thread;
+            if( m_interrupted )
+            {
+                thread.interrupt();
+            }
+        }
+
+        Throwable throwable = null;
+        try
+        {
+            if( null != m_runnable )
+            {
+                m_runnable.run();
+            }
+            else
+            {
+                m_executable.execute();
+            }
+        }
+        catch( final ThreadDeath threadDeath )
+        {
+            finish( threadDeath );
+
+            // This is to let the thread death propagate to the runtime
+            // enviroment to let it know it must kill this worker
+            throw threadDeath;
+        }
+        catch( final Throwable t )
+        {
+            throwable = t;
+        }
+        finish( throwable );
+    }
+
+    private synchronized void finish( final Throwable throwable )
+    {
+        m_thread = null;
+        m_throwable = throwable;
+        m_finished = true;
+        notifyAll();
+    }
+
+    /**
+     * Wait for specified time for the work to complete.
+     *
+     * @param milliSeconds the duration in milliseconds to wait until the work has
+     *  finished, 0 to wait forever.
+     * @throws InterruptedException if another thread has interrupted the current thread.
+     */
+    public synchronized void join( final long milliSeconds )
+        throws IllegalStateException, InterruptedException
+    {
+        if( milliSeconds <= 0 )
+        {
+            while( !m_finished )
+            {
+                wait();
+            }
+        }
+        else
+        {
+            final long end = System.currentTimeMillis() + milliSeconds;
+            long remaining = milliSeconds;
+            while( !m_finished && remaining > 0 )
+            {
+                wait( remaining );
+                remaining = end - System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Interrupts the thread running the work.  If the work has not started yet, it
+     *  starts with its thread interrupted.
+     */
+    public synchronized void interrupt()
+        throws IllegalStateException, SecurityException
+    {
+        if( m_finished )
+        {
+            return;
+        }
+
+        if( null != m_thread )
+        {
+            m_thread.interrupt();
+        }
+        else
+        {
+            m_interrupted = true;
+        }
+    }
+
+    public synchronized boolean isFinished()
+    {
+        return m_finished;
+    }
+
+    public synchronized Throwable getThrowable()
+    {
+        return m_throwable;
+    }
+}
@@ -0,0 +1,389 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.thread.impl;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.apache.avalon.framework.activity.Disposable;
+import org.apache.avalon.framework.activity.Executable;
+import org.apache.avalon.framework.logger.LogEnabled;
+import org.apache.avalon.framework.logger.Logger;
+import org.apache.avalon.framework.logger.NullLogger;
+
+import org.apache.excalibur.thread.ThreadControl;
+import org.apache.excalibur.thread.ThreadPool;
+
+import EDU.oswego.cs.dl.util.concurrent.Executor;
+
+/**
+ * A Thread Pool which runs every piece of work on a new virtual thread.  Virtual
+ *  threads are cheap to create and do not hold on to an operating system thread
+ *  while they block on I/O, so there is no need to pool them or to limit their
+ *  number.  Work which spends most of its time blocked, such as handling a
+ *  connection, can run in the hundreds of thousands without a max-threads limit.
+ * <p>
+ * Virtual threads are created through reflection, so the pool compiles and runs on
+ *  any JVM.  When the JVM has no virtual threads, each piece of work runs on a new
+ *  daemon platform thread instead; {@link #isVirtual()} tells which is the case.
+ *  Code which synchronizes around blocking calls pins the virtual thread to its
+ *  carrier thread, so that work still holds on to an operating system thread.
+ * <p>
+ * The {@link ThreadControl} returned for each piece of work can be used to wait for it,
+ *  to interrupt it and to get the Throwable it failed with, just like the controls of
+ *  the other pools.  {@link #getExecutor()} returns a view of the pool as a
+ *  util.concurrent Executor, for use by the event package's thread managers.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class VirtualThreadPool
+    implements LogEnabled, Disposable, ThreadPool
+{
+    /**
+     * Thread.ofVirtual().name( prefix, start ).factory().newThread( runnable ), looked
+     *  up through reflection.  OF_VIRTUAL is null if the JVM has no virtual threads.
+     */
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+    private static final Method NEW_THREAD;
+
+    static
+    {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method newThread = null;
+        try
+        {
+            final Class builderClass = Class.forName( "java.lang.Thread$Builder" );
+            final Class factoryClass = Class.forName( "java.util.concurrent.ThreadFactory" );
+
+            ofVirtual = Thread.class.getMethod( "ofVirtual", new Class[ 0 ] );
+            name = builderClass.getMethod( "name", new Class[]{String.class, Long.TYPE} );
+            factory = builderClass.getMethod( "factory", new Class[ 0 ] );
+            newThread = factoryClass.getMethod( "newThread", new Class[]{Runnable.class} );
+        }
+        catch( final Exception e )
+        {
+            // No virtual threads before Java 21.
+            ofVirtual = null;
+        }
+
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        NEW_THREAD = newThread;
+    }
+
+    private final String m_name;
+
+    /**
+     * The java.util.concurrent.ThreadFactory creating the virtual threads, or null if
+     *  platform threads are used.
+     */
+    private final Object m_factory;
+
+    /**
+     * A Running number used in naming platform threads.
+     */
+    private int m_level;
+
+    /**
+     * The number of pieces of work which have been started but not finished.
+     */
+    private int m_active;
+
+    private volatile boolean m_disposed;
+
+    private Logger m_logger = new NullLogger();
+
+    private final Executor m_executor = new Executor()
+    {
+        public void execute( final Runnable command )
+        {
+            VirtualThreadPool.this.execute( command );
+        }
+    };
+
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    /**
+     * Creates a new VirtualThreadPool.
+     *
+     * @param name Name which will used as the prefix of the names of the threads.
+     */
+    public VirtualThreadPool( final String name )
+    {
+        m_name = name;
+        m_factory = createFactory( name + " Worker #" );
+    }
+
+    /*---------------------------------------------------------------
+     * ThreadPool Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Run work in separate thread.
+     * Return a valid ThreadControl to control work thread.
+     *
+     * @param work the work to be executed.
+     * @return the ThreadControl
+     */
+    public ThreadControl execute( final Runnable work )
+    {
+        if( null == work )
+        {
+            throw new NullPointerException( "work" );
+        }
+
+        final TaskControl task = new TaskControl( work, null );
+        start( task );
+        return task;
+    }
+
+    /**
+     * Run work in separate thread.
+     * Return a valid ThreadControl to control work thread.
+     *
+     * @param work the work to be executed.
+     * @return the ThreadControl
+     */
+    public ThreadControl execute( final org.apache.excalibur.thread.Executable work )
+    {
+        if( null == work )
+        {
+            throw new NullPointerException( "work" );
+        }
+
+        final TaskControl task = new TaskControl( null, work );
+        start( task );
+        return task;
+    }
+
+    /**
+     * Run work in separate thread.
+     * Return a valid ThreadControl to control work thread.
+     *
+     * @param work the work to be executed.
+     * @return the ThreadControl
+     */
+    public ThreadControl execute( final Executable work )
+    {
+        return execute( new ExecutableExecuteable( work ) );
+    }
+
+    /*---------------------------------------------------------------
+     * LogEnabled Methods
+     *-------------------------------------------------------------*/
+    public void enableLogging( final Logger logger )
+    {
+        m_logger = logger;
+    }
+
+    /*---------------------------------------------------------------
+     * Disposable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Stops accepting work.  Work which has already been started runs to its end.
+     */
+    public void dispose()
+    {
+        m_disposed = true;
+    }
+
+    /*---------------------------------------------------------------
+     * Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Returns whether virtual threads are available on this JVM.
+     *
+     * @return true if virtual threads are available.
+     */
+    public static boolean isVirtualThreadSupported()
+    {
+        return null != OF_VIRTUAL;
+    }
+
+    /**
+     * Returns whether this pool runs its work on virtual threads.
+     *
+     * @return true if work runs on virtual threads, false if it runs on platform threads.
+     */
+    public boolean isVirtual()
+    {
+        return null != m_factory;
+    }
+
+    /**
+     * Returns the name of the pool.
+     *
+     * @return the name of the pool.
+     */
+    public String getName()
+    {
+        return m_name;
+    }
+
+    /**
+     * Returns the number of pieces of work which have been started but not finished.
+     *
+     * @return the number of active threads.
+     */
+    public synchronized int getActiveCount()
+    {
+        return m_active;
+    }
+
+    /**
+     * Returns a view of this pool as a util.concurrent Executor.  The Executor never
+     *  blocks the caller.
+     *
+     * @return the Executor.
+     */
+    public Executor getExecutor()
+    {
+        return m_executor;
+    }
+
+    /**
+     * Starts a new thread for the task.
+     */
+    private void start( final TaskControl task )
+    {
+        if( m_disposed )
+        {
+            throw new IllegalStateException( "The thread pool has been disposed" );
+        }
+
+        final Runnable runnable = new Runnable()
+        {
+            public void run()
+            {
+                runTask( task );
+            }
+        };
+
+        final Thread thread = newThread( runnable );
+        synchronized( this )
+        {
+            m_active++;
+        }
+
+        try
+        {
+            thread.start();
+        }
+        catch( final RuntimeException re )
+        {
+            finished();
+            throw re;
+        }
+        catch( final Error e )
+        {
+            finished();
+            throw e;
+        }
+    }
+
+    private void runTask( final TaskControl task )
+    {
+        try
+        {
+            task.run( Thread.currentThread() );
+
+            final Throwable throwable = task.getThrowable();
+            if( null != throwable && m_logger.isDebugEnabled() )
+            {
+                m_logger.debug( "Exception in " + Thread.currentThread().getName(), throwable );
+            }
+        }
+        finally
+        {
+            finished();
+        }
+    }
+
+    private synchronized void finished()
+    {
+        m_active--;
+    }
+
+    /**
+     * Creates a thread which is not started yet.
+     */
+    private Thread newThread( final Runnable runnable )
+    {
+        if( null == m_factory )
+        {
+            final int level;
+            synchronized( this )
+            {
+                level = m_level++;
+            }
+            final Thread thread = new Thread( runnable, m_name + " Worker #" + level );
+            thread.setDaemon( true );
+            return thread;
+        }
+
+        try
+        {
+            return (Thread)NEW_THREAD.invoke( m_factory, new Object[]{runnable} );
+        }
+        catch( final IllegalAccessException iae )
+        {
+            throw new IllegalStateException( "Unable to create a virtual thread: " + iae );
+        }
+        catch( final InvocationTargetException ite )
+        {
+            final Throwable cause = ite.getTargetException();
+            if( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException)cause;
+            }
+            else if( cause instanceof Error )
+            {
+                throw (Error)cause;
+            }
+            throw new IllegalStateException( "Unable to create a virtual thread: " + cause );
+        }
+    }
+
+    /**
+     * Creates a ThreadFactory for virtual threads named prefix0, prefix1, ..., or
+     *  returns null if there are no virtual threads.
+     */
+    private static Object createFactory( final String prefix )
+    {
+        if( null == OF_VIRTUAL )
+        {
+            return null;
+        }
+
+        try
+        {
+            final Object builder = OF_VIRTUAL.invoke( null, new Object[ 0 ] );
+            final Object named = NAME.invoke( builder, new Object[]{prefix, new Long( 0 )} );
+            return FACTORY.invoke( named, new Object[ 0 ] );
+        }
+        catch( final Exception e )
+        {
+            // Virtual threads are there, but can not be used.  Fall back on platform threads.
+            return null;
+        }
+    }
+}
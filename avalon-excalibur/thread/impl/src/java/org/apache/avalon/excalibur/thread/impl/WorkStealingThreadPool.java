@@ -0,0 +1,731 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.thread.impl;
+
+import org.apache.avalon.framework.activity.Disposable;
+import org.apache.avalon.framework.activity.Executable;
+import org.apache.avalon.framework.logger.LogEnabled;
+import org.apache.avalon.framework.logger.Logger;
+import org.apache.avalon.framework.logger.NullLogger;
+
+import org.apache.excalibur.thread.ThreadControl;
+import org.apache.excalibur.thread.ThreadPool;
+
+import EDU.oswego.cs.dl.util.concurrent.Executor;
+
+/**
+ * A Thread Pool in which every worker thread has its own queue of work.  The other
+ *  pools check a worker out of a pool for each piece of work and hand the work over
+ *  through the worker's monitor.  Here, work is simply added to the queue of one of
+ *  the workers, and workers which run out of work take it from the queues of the
+ *  others.  Only the lock of that one queue is taken, unless a worker has to be
+ *  woken up.
+ * <p>
+ * Work submitted by one of the pool's own workers goes to the end of that worker's
+ *  queue, and the worker runs its own queue from the end, so related work tends to run
+ *  on the thread that created it.  Work submitted by other threads is spread over the
+ *  workers and added to the front of their queues, so that it runs in the order it was
+ *  submitted.  Workers which run out of work take it from the front of the other
+ *  queues.
+ * <p>
+ * The pool starts with minThreads workers.  If work is submitted while no worker is
+ *  idle, another worker is started, up to maxThreads.  After that, work waits in the
+ *  queues rather than blocking the caller.  Workers beyond minThreads stop when they
+ *  have been idle for keepAliveTime.
+ * <p>
+ * The {@link ThreadControl} returned for each piece of work can be used to wait for it,
+ *  to interrupt it and to get the Throwable it failed with, just like the controls of
+ *  the other pools.  Interrupting work which has not started yet makes it start with
+ *  its thread interrupted.  {@link #getExecutor()} returns a view of the pool as a
+ *  util.concurrent Executor, for use by the event package's thread managers.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class WorkStealingThreadPool
+    extends ThreadGroup
+    implements LogEnabled, Disposable, ThreadPool
+{
+    private static final TaskControl[] EMPTY_TASKS = new TaskControl[ 0 ];
+
+    private final int m_minThreads;
+    private final int m_maxThreads;
+    private final long m_keepAliveTime;
+
+    /**
+     * Lock held while workers are added or removed.  Idle workers wait on it.
+     */
+    private final Object m_lock = new Object();
+
+    /**
+     * The live workers.  The array is replaced rather than changed, so it can be read
+     *  without holding m_lock.
+     */
+    private volatile Worker[] m_workers = new Worker[ 0 ];
+
+    /**
+     * The number of workers waiting on m_lock that no submitter has claimed yet.
+     *  Only changed with m_lock locked.
+     */
+    private volatile int m_idle;
+
+    /**
+     * The number of idle workers that were claimed by a submitter, but have not
+     *  noticed yet.  Only accessed with m_lock locked.
+     */
+    private int m_wakeups;
+
+    /**
+     * A Running number used in naming the workers.  Only accessed with m_lock locked.
+     */
+    private int m_level;
+
+    /**
+     * The queue the next piece of work from outside the pool goes to.  Races between
+     *  threads updating this only affect how evenly the work is spread.
+     */
+    private int m_nextQueue;
+
+    private volatile boolean m_disposed;
+
+    private Logger m_logger = new NullLogger();
+
+    private final Executor m_executor = new Executor()
+    {
+        public void execute( final Runnable command )
+        {
+            WorkStealingThreadPool.this.execute( command );
+        }
+    };
+
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    /**
+     * Creates a new <code>WorkStealingThreadPool</code> with one worker per processor.
+     *
+     * @param name Name which will used as the thread group name as well as the prefix of the
+     *  names of all threads created by the pool.
+     */
+    public WorkStealingThreadPool( final String name )
+    {
+        this( name, Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     * Creates a new <code>WorkStealingThreadPool</code> with a fixed number of workers.
+     *
+     * @param name Name which will used as the thread group name as well as the prefix of the
+     *  names of all threads created by the pool.
+     * @param threads The number of workers.
+     */
+    public WorkStealingThreadPool( final String name, final int threads )
+    {
+        this( name, threads, threads, 0 );
+    }
+
+    /**
+     * Creates a new <code>WorkStealingThreadPool</code>.
+     *
+     * @param name Name which will used as the thread group name as well as the prefix of the
+     *  names of all threads created by the pool.
+     * @param minThreads The number of workers which are started right away and never stop.
+     *  At least one worker is always kept.
+     * @param maxThreads The largest number of workers.
+     * @param keepAliveTime The time, in milliseconds, after which an idle worker beyond
+     *  minThreads stops.
+     */
+    public WorkStealingThreadPool( final String name,
+                                   final int minThreads,
+                                   final int maxThreads,
+                                   final long keepAliveTime )
+    {
+        super( name );
+
+        m_minThreads = Math.max( 1, minThreads );
+        m_maxThreads = Math.max( m_minThreads, maxThreads );
+        m_keepAliveTime = Math.max( 1, keepAliveTime );
+
+        for( int i = 0; i < m_minThreads; i++ )
+        {
+            addWorker();
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * ThreadPool Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Run work in separate thread.
+     * Return a valid ThreadControl to control work thread.
+     *
+     * @param work the work to be executed.
+     * @return the ThreadControl
+     */
+    public ThreadControl execute( final Runnable work )
+    {
+        if( null == work )
+        {
+            throw new NullPointerException( "work" );
+        }
+
+        final TaskControl task = new TaskControl( work, null );
+        submit( task );
+        return task;
+    }
+
+    /**
+     * Run work in separate thread.
+     * Return a valid ThreadControl to control work thread.
+     *
+     * @param work the work to be executed.
+     * @return the ThreadControl
+     */
+    public ThreadControl execute( final org.apache.excalibur.thread.Executable work )
+    {
+        if( null == work )
+        {
+            throw new NullPointerException( "work" );
+        }
+
+        final TaskControl task = new TaskControl( null, work );
+        submit( task );
+        return task;
+    }
+
+    /**
+     * Run work in separate thread.
+     * Return a valid ThreadControl to control work thread.
+     *
+     * @param work the work to be executed.
+     * @return the ThreadControl
+     */
+    public ThreadControl execute( final Executable work )
+    {
+        return execute( new ExecutableExecuteable( work ) );
+    }
+
+    /*---------------------------------------------------------------
+     * LogEnabled Methods
+     *-------------------------------------------------------------*/
+    public void enableLogging( final Logger logger )
+    {
+        m_logger = logger;
+    }
+
+    /*---------------------------------------------------------------
+     * Disposable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Stops accepting work.  The workers stop once all the work already submitted has
+     *  been done.
+     */
+    public void dispose()
+    {
+        m_disposed = true;
+
+        synchronized( m_lock )
+        {
+            m_lock.notifyAll();
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Returns a view of this pool as a util.concurrent Executor.  The Executor never
+     *  blocks the caller.
+     *
+     * @return the Executor.
+     */
+    public Executor getExecutor()
+    {
+        return m_executor;
+    }
+
+    /**
+     * Returns the number of worker threads in the pool.
+     *
+     * @return the number of worker threads in the pool.
+     */
+    public int getSize()
+    {
+        return m_workers.length;
+    }
+
+    /**
+     * Returns the number of worker threads which are waiting for work.
+     *
+     * @return the number of idle worker threads.
+     */
+    public int getIdleSize()
+    {
+        return m_idle;
+    }
+
+    /**
+     * Adds a task to one of the queues, and makes sure a worker will pick it up.
+     */
+    private void submit( final TaskControl task )
+    {
+        if( m_disposed )
+        {
+            throw new IllegalStateException( "The thread pool has been disposed" );
+        }
+
+        final Thread current = Thread.currentThread();
+        if( !( current instanceof Worker ) || !( (Worker)current ).pushLocal( this, task ) )
+        {
+            pushExternal( task );
+        }
+
+        if( m_idle > 0 )
+        {
+            synchronized( m_lock )
+            {
+                // Claim the idle worker, so the next task does not count on it as well.
+                if( m_idle > 0 )
+                {
+                    m_idle--;
+                    m_wakeups++;
+                    m_lock.notify();
+                    return;
+                }
+            }
+        }
+
+        if( m_workers.length < m_maxThreads )
+        {
+            addWorker();
+        }
+    }
+
+    /**
+     * Adds a task to the front of the queue of one of the workers.
+     */
+    private void pushExternal( final TaskControl task )
+    {
+        while( true )
+        {
+            final Worker[] workers = m_workers;
+            if( workers.length == 0 )
+            {
+                addWorker();
+            }
+            else
+            {
+                final int index = ( m_nextQueue++ & Integer.MAX_VALUE ) % workers.length;
+                if( workers[ index ].m_queue.pushFirst( task ) )
+                {
+                    return;
+                }
+            }
+            // The worker was stopping, so try again with the current workers.
+        }
+    }
+
+    /**
+     * Starts a new worker, unless there are already maxThreads of them.
+     */
+    private void addWorker()
+    {
+        synchronized( m_lock )
+        {
+            final Worker[] workers = m_workers;
+            if( workers.length >= m_maxThreads )
+            {
+                return;
+            }
+
+            final Worker worker = new Worker( getName() + " Worker #" + m_level++ );
+
+            final Worker[] newWorkers = new Worker[ workers.length + 1 ];
+            System.arraycopy( workers, 0, newWorkers, 0, workers.length );
+            newWorkers[ workers.length ] = worker;
+            m_workers = newWorkers;
+
+            worker.start();
+        }
+    }
+
+    /**
+     * Removes a worker from m_workers.
+     * <p>
+     * This method is only called by threads that have m_lock locked.
+     */
+    private void removeWorker( final Worker worker )
+    {
+        final Worker[] workers = m_workers;
+        for( int i = 0; i < workers.length; i++ )
+        {
+            if( workers[ i ] == worker )
+            {
+                final Worker[] newWorkers = new Worker[ workers.length - 1 ];
+                System.arraycopy( workers, 0, newWorkers, 0, i );
+                System.arraycopy( workers, i + 1, newWorkers, i, newWorkers.length - i );
+                m_workers = newWorkers;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns true if any of the queues holds a task.
+     */
+    private boolean hasWork()
+    {
+        final Worker[] workers = m_workers;
+        for( int i = 0; i < workers.length; i++ )
+        {
+            if( workers[ i ].m_queue.size() > 0 )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*---------------------------------------------------------------
+     * Inner classes
+     *-------------------------------------------------------------*/
+    /**
+     * A worker runs the tasks in its own queue, and steals tasks from the other queues
+     *  once its own is empty.
+     */
+    private final class Worker
+        extends Thread
+    {
+        private final TaskDeque m_queue = new TaskDeque();
+        private int m_seed;
+
+        Worker( final String name )
+        {
+            super( WorkStealingThreadPool.this, name );
+            m_seed = name.hashCode() | 1;
+            setDaemon( true );
+        }
+
+        /**
+         * Adds a task submitted by this worker to the end of its own queue.
+         *
+         * @return false if this worker does not belong to the given pool, or is stopping.
+         */
+        boolean pushLocal( final WorkStealingThreadPool pool, final TaskControl task )
+        {
+            return ( pool == WorkStealingThreadPool.this ) && m_queue.pushLast( task );
+        }
+
+        public void run()
+        {
+            boolean stopped = false;
+            try
+            {
+                while( true )
+                {
+                    TaskControl task = m_queue.popLast();
+                    if( null == task )
+                    {
+                        task = steal();
+                    }
+
+                    if( null != task )
+                    {
+                        runTask( task );
+                    }
+                    else if( !awaitWork() )
+                    {
+                        stopped = true;
+                        return;
+                    }
+                }
+            }
+            finally
+            {
+                if( !stopped )
+                {
+                    // The worker was killed by a ThreadDeath, hand its tasks to the others.
+                    final TaskControl[] tasks;
+                    synchronized( m_lock )
+                    {
+                        tasks = m_queue.closeAndDrain();
+                        removeWorker( this );
+                    }
+                    for( int i = 0; i < tasks.length; i++ )
+                    {
+                        pushExternal( tasks[ i ] );
+                    }
+                }
+            }
+        }
+
+        private void runTask( final TaskControl task )
+        {
+            task.run( this );
+
+            // Clear an interrupt which was meant for the task that has just finished.
+            Thread.interrupted();
+
+            final Throwable throwable = task.getThrowable();
+            if( null != throwable && m_logger.isDebugEnabled() )
+            {
+                m_logger.debug( "\"" + getName() + "\" : error caught", throwable );
+            }
+        }
+
+        /**
+         * Takes a task from the front of the queue of another worker, starting with a
+         *  random one.
+         */
+        private TaskControl steal()
+        {
+            final Worker[] workers = m_workers;
+            final int count = workers.length;
+            if( count < 2 )
+            {
+                return null;
+            }
+
+            m_seed ^= m_seed << 13;
+            m_seed ^= m_seed >>> 17;
+            m_seed ^= m_seed << 5;
+            final int start = ( m_seed & Integer.MAX_VALUE ) % count;
+
+            for( int i = 0; i < count; i++ )
+            {
+                final Worker victim = workers[ ( start + i ) % count ];
+                if( victim != this )
+                {
+                    final TaskControl task = victim.m_queue.popFirst();
+                    if( null != task )
+                    {
+                        return task;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Waits until there is work to do.
+         *
+         * @return false if the worker should stop.
+         */
+        private boolean awaitWork()
+        {
+            synchronized( m_lock )
+            {
+                boolean timedOut = false;
+                while( true )
+                {
+                    // The worker counts as idle while it checks for work, so a submitter
+                    //  either pushed its task before the check, or sees m_idle > 0 and
+                    //  notifies m_lock, which it can only lock once this thread is waiting.
+                    m_idle++;
+
+                    final boolean work = hasWork();
+                    final boolean extra = m_workers.length > m_minThreads;
+                    final boolean stop =
+                        !work && ( m_disposed || ( extra && timedOut ) ) && m_queue.close();
+
+                    if( !work && !stop )
+                    {
+                        // Only workers beyond minThreads time out.
+                        final long start = System.currentTimeMillis();
+                        try
+                        {
+                            if( extra )
+                            {
+                                m_lock.wait( m_keepAliveTime );
+                            }
+                            else
+                            {
+                                m_lock.wait();
+                            }
+                        }
+                        catch( final InterruptedException ie )
+                        {
+                            // Ignore
+                        }
+                        timedOut = System.currentTimeMillis() - start >= m_keepAliveTime;
+                    }
+
+                    // A submitter may have claimed this worker already.
+                    if( m_wakeups > 0 )
+                    {
+                        m_wakeups--;
+                    }
+                    else
+                    {
+                        m_idle--;
+                    }
+
+                    if( work )
+                    {
+                        return true;
+                    }
+                    else if( stop )
+                    {
+                        removeWorker( this );
+                        return false;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A double ended queue of tasks.  The worker which owns the queue uses its end, the
+     *  other threads its front.  It is a circular array guarded by the queue's own lock;
+     *  the size can be read without the lock, so that empty queues are skipped cheaply.
+     */
+    private static final class TaskDeque
+    {
+        private TaskControl[] m_tasks = new TaskControl[ 16 ];
+        private int m_head;
+        private int m_tail;
+        private volatile int m_size;
+        private boolean m_closed;
+
+        int size()
+        {
+            return m_size;
+        }
+
+        synchronized boolean pushFirst( final TaskControl task )
+        {
+            if( m_closed )
+            {
+                return false;
+            }
+            ensureCapacity();
+            m_head = ( m_head - 1 ) & ( m_tasks.length - 1 );
+            m_tasks[ m_head ] = task;
+            m_size++;
+            return true;
+        }
+
+        synchronized boolean pushLast( final TaskControl task )
+        {
+            if( m_closed )
+            {
+                return false;
+            }
+            ensureCapacity();
+            m_tasks[ m_tail ] = task;
+            m_tail = ( m_tail + 1 ) & ( m_tasks.length - 1 );
+            m_size++;
+            return true;
+        }
+
+        TaskControl popFirst()
+        {
+            if( m_size == 0 )
+            {
+                return null;
+            }
+
+            synchronized( this )
+            {
+                if( m_size == 0 )
+                {
+                    return null;
+                }
+                final TaskControl task = m_tasks[ m_head ];
+                m_tasks[ m_head ] = null;
+                m_head = ( m_head + 1 ) & ( m_tasks.length - 1 );
+                m_size--;
+                return task;
+            }
+        }
+
+        TaskControl popLast()
+        {
+            if( m_size == 0 )
+            {
+                return null;
+            }
+
+            synchronized( this )
+            {
+                if( m_size == 0 )
+                {
+                    return null;
+                }
+                m_tail = ( m_tail - 1 ) & ( m_tasks.length - 1 );
+                final TaskControl task = m_tasks[ m_tail ];
+                m_tasks[ m_tail ] = null;
+                m_size--;
+                return task;
+            }
+        }
+
+        /**
+         * Stops the queue from accepting tasks, if it is empty.
+         *
+         * @return true if the queue was closed.
+         */
+        synchronized boolean close()
+        {
+            if( m_size > 0 )
+            {
+                return false;
+            }
+            m_closed = true;
+            return true;
+        }
+
+        /**
+         * Stops the queue from accepting tasks, and takes the ones it holds.
+         */
+        synchronized TaskControl[] closeAndDrain()
+        {
+            m_closed = true;
+            if( m_size == 0 )
+            {
+                return EMPTY_TASKS;
+            }
+
+            final TaskControl[] tasks = new TaskControl[ m_size ];
+            for( int i = 0; i < tasks.length; i++ )
+            {
+                tasks[ i ] = m_tasks[ ( m_head + i ) & ( m_tasks.length - 1 ) ];
+            }
+            m_tasks = new TaskControl[ 16 ];
+            m_head = 0;
+            m_tail = 0;
+            m_size = 0;
+            return tasks;
+        }
+
+        private void ensureCapacity()
+        {
+            if( m_size < m_tasks.length )
+            {
+                return;
+            }
+
+            final TaskControl[] tasks = new TaskControl[ m_tasks.length * 2 ];
+            for( int i = 0; i < m_size; i++ )
+            {
+                tasks[ i ] = m_tasks[ ( m_head + i ) & ( m_tasks.length - 1 ) ];
+            }
+            m_tasks = tasks;
+            m_head = 0;
+            m_tail = m_size;
+        }
+    }
+}
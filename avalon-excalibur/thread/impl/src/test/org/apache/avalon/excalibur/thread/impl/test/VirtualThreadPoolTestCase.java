@@ -0,0 +1,209 @@
+/* 
+ * Copyright 2004 Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.thread.impl.test;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.excalibur.thread.impl.VirtualThreadPool;
+import org.apache.avalon.framework.logger.ConsoleLogger;
+import org.apache.excalibur.thread.ThreadControl;
+
+/**
+ * TestCase for VirtualThreadPool.  On JVMs without virtual threads it tests the
+ *  fallback on platform threads.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class VirtualThreadPoolTestCase
+    extends TestCase
+{
+    private int m_count;
+    private boolean m_released;
+
+    public VirtualThreadPoolTestCase( final String name )
+    {
+        super( name );
+    }
+
+    public void testVirtual()
+        throws Exception
+    {
+        final VirtualThreadPool pool = createPool();
+        assertEquals( VirtualThreadPool.isVirtualThreadSupported(), pool.isVirtual() );
+        pool.dispose();
+    }
+
+    public void testManyBlockedTasks()
+        throws Exception
+    {
+        final VirtualThreadPool pool = createPool();
+
+        // Every task blocks until all of them have been started, so they can only
+        //  finish if each one has a thread of its own.
+        final ThreadControl[] controls = new ThreadControl[ 500 ];
+        for( int i = 0; i < controls.length; i++ )
+        {
+            controls[ i ] = pool.execute( new BlockingRunnable() );
+        }
+        assertEquals( controls.length, pool.getActiveCount() );
+
+        release();
+        for( int i = 0; i < controls.length; i++ )
+        {
+            controls[ i ].join( 5000 );
+            assertTrue( "Task " + i + " finished", controls[ i ].isFinished() );
+            assertNull( controls[ i ].getThrowable() );
+        }
+
+        final long timeout = System.currentTimeMillis() + 5000;
+        while( pool.getActiveCount() > 0 && System.currentTimeMillis() < timeout )
+        {
+            Thread.sleep( 10 );
+        }
+        assertEquals( 0, pool.getActiveCount() );
+        pool.dispose();
+    }
+
+    public void testThrowable()
+        throws Exception
+    {
+        final VirtualThreadPool pool = createPool();
+
+        final ThreadControl control = pool.execute( new org.apache.excalibur.thread.Executable()
+        {
+            public void execute() throws Exception
+            {
+                throw new Exception( "failed" );
+            }
+        } );
+
+        control.join( 5000 );
+        assertTrue( control.isFinished() );
+        assertEquals( "failed", control.getThrowable().getMessage() );
+        pool.dispose();
+    }
+
+    public void testInterrupt()
+        throws Exception
+    {
+        final VirtualThreadPool pool = createPool();
+
+        final ThreadControl control = pool.execute( new BlockingRunnable() );
+        control.interrupt();
+        control.join( 5000 );
+
+        assertTrue( control.isFinished() );
+        assertTrue( control.getThrowable() instanceof IllegalStateException );
+        pool.dispose();
+    }
+
+    public void testExecutor()
+        throws Exception
+    {
+        final VirtualThreadPool pool = createPool();
+
+        for( int i = 0; i < 10; i++ )
+        {
+            pool.getExecutor().execute( new CountingRunnable() );
+        }
+
+        final long timeout = System.currentTimeMillis() + 5000;
+        while( getCount() < 10 && System.currentTimeMillis() < timeout )
+        {
+            Thread.sleep( 10 );
+        }
+        assertEquals( 10, getCount() );
+        pool.dispose();
+    }
+
+    public void testDispose()
+        throws Exception
+    {
+        final VirtualThreadPool pool = createPool();
+        pool.dispose();
+
+        try
+        {
+            pool.execute( new CountingRunnable() );
+            fail( "Work was accepted after dispose" );
+        }
+        catch( final IllegalStateException ise )
+        {
+            // Expected
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Utility Methods
+     *-------------------------------------------------------------*/
+    private VirtualThreadPool createPool()
+    {
+        final VirtualThreadPool pool = new VirtualThreadPool( "test" );
+        pool.enableLogging( new ConsoleLogger( ConsoleLogger.LEVEL_INFO ) );
+        return pool;
+    }
+
+    private synchronized int getCount()
+    {
+        return m_count;
+    }
+
+    private synchronized void increment()
+    {
+        m_count++;
+    }
+
+    private synchronized void release()
+    {
+        m_released = true;
+        notifyAll();
+    }
+
+    private synchronized void awaitRelease()
+        throws InterruptedException
+    {
+        while( !m_released )
+        {
+            wait();
+        }
+    }
+
+    private class CountingRunnable
+        implements Runnable
+    {
+        public void run()
+        {
+            increment();
+        }
+    }
+
+    private class BlockingRunnable
+        implements Runnable
+    {
+        public void run()
+        {
+            try
+            {
+                awaitRelease();
+            }
+            catch( final InterruptedException ie )
+            {
+                throw new IllegalStateException( "Interrupted" );
+            }
+        }
+    }
+}
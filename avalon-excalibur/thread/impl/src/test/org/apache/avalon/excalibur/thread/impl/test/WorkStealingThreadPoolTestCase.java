@@ -0,0 +1,250 @@
+/* 
+ * Copyright 2004 Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.thread.impl.test;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.excalibur.thread.impl.WorkStealingThreadPool;
+import org.apache.avalon.framework.logger.ConsoleLogger;
+import org.apache.excalibur.thread.ThreadControl;
+
+/**
+ * TestCase for WorkStealingThreadPool.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class WorkStealingThreadPoolTestCase
+    extends TestCase
+{
+    private int m_count;
+    private boolean m_released;
+
+    public WorkStealingThreadPoolTestCase( final String name )
+    {
+        super( name );
+    }
+
+    public void testManyTasks()
+        throws Exception
+    {
+        final WorkStealingThreadPool pool = createPool( 4, 4 );
+
+        final ThreadControl[] controls = new ThreadControl[ 1000 ];
+        for( int i = 0; i < controls.length; i++ )
+        {
+            controls[ i ] = pool.execute( new CountingRunnable() );
+        }
+        for( int i = 0; i < controls.length; i++ )
+        {
+            controls[ i ].join( 5000 );
+            assertTrue( "Task " + i + " finished", controls[ i ].isFinished() );
+            assertNull( controls[ i ].getThrowable() );
+        }
+
+        assertEquals( 1000, getCount() );
+        pool.dispose();
+    }
+
+    public void testNestedTasks()
+        throws Exception
+    {
+        final WorkStealingThreadPool pool = createPool( 2, 2 );
+
+        final ThreadControl control = pool.execute( new Runnable()
+        {
+            public void run()
+            {
+                final ThreadControl[] children = new ThreadControl[ 100 ];
+                for( int i = 0; i < children.length; i++ )
+                {
+                    children[ i ] = pool.execute( new CountingRunnable() );
+                }
+                for( int i = 0; i < children.length; i++ )
+                {
+                    try
+                    {
+                        children[ i ].join( 5000 );
+                    }
+                    catch( final InterruptedException ie )
+                    {
+                        throw new IllegalStateException( "Interrupted" );
+                    }
+                }
+            }
+        } );
+
+        control.join( 10000 );
+        assertTrue( control.isFinished() );
+        assertNull( control.getThrowable() );
+        assertEquals( 100, getCount() );
+        pool.dispose();
+    }
+
+    public void testThrowable()
+        throws Exception
+    {
+        final WorkStealingThreadPool pool = createPool( 1, 1 );
+
+        final ThreadControl control = pool.execute( new org.apache.excalibur.thread.Executable()
+        {
+            public void execute() throws Exception
+            {
+                throw new Exception( "failed" );
+            }
+        } );
+
+        control.join( 5000 );
+        assertTrue( control.isFinished() );
+        assertEquals( "failed", control.getThrowable().getMessage() );
+        pool.dispose();
+    }
+
+    public void testInterruptBeforeStart()
+        throws Exception
+    {
+        final WorkStealingThreadPool pool = createPool( 1, 1 );
+        final boolean[] interrupted = new boolean[ 1 ];
+
+        final ThreadControl blocker = pool.execute( new BlockingRunnable() );
+        final ThreadControl control = pool.execute( new Runnable()
+        {
+            public void run()
+            {
+                interrupted[ 0 ] = Thread.interrupted();
+            }
+        } );
+
+        control.interrupt();
+        release();
+
+        blocker.join( 5000 );
+        control.join( 5000 );
+        assertTrue( control.isFinished() );
+        assertTrue( "Started interrupted", interrupted[ 0 ] );
+        pool.dispose();
+    }
+
+    public void testExtraWorkersStop()
+        throws Exception
+    {
+        final WorkStealingThreadPool pool =
+            new WorkStealingThreadPool( "test", 1, 4, 100 );
+        pool.enableLogging( new ConsoleLogger( ConsoleLogger.LEVEL_INFO ) );
+
+        final ThreadControl[] controls = new ThreadControl[ 4 ];
+        for( int i = 0; i < controls.length; i++ )
+        {
+            controls[ i ] = pool.execute( new BlockingRunnable() );
+        }
+        assertEquals( 4, pool.getSize() );
+
+        release();
+        for( int i = 0; i < controls.length; i++ )
+        {
+            controls[ i ].join( 5000 );
+        }
+
+        final long timeout = System.currentTimeMillis() + 5000;
+        while( pool.getSize() > 1 && System.currentTimeMillis() < timeout )
+        {
+            Thread.sleep( 10 );
+        }
+        assertEquals( 1, pool.getSize() );
+        pool.dispose();
+    }
+
+    public void testExecutor()
+        throws Exception
+    {
+        final WorkStealingThreadPool pool = createPool( 2, 2 );
+
+        for( int i = 0; i < 10; i++ )
+        {
+            pool.getExecutor().execute( new CountingRunnable() );
+        }
+        final ThreadControl control = pool.execute( new CountingRunnable() );
+        control.join( 5000 );
+
+        final long timeout = System.currentTimeMillis() + 5000;
+        while( getCount() < 11 && System.currentTimeMillis() < timeout )
+        {
+            Thread.sleep( 10 );
+        }
+        assertEquals( 11, getCount() );
+        pool.dispose();
+    }
+
+    /*---------------------------------------------------------------
+     * Utility Methods
+     *-------------------------------------------------------------*/
+    private WorkStealingThreadPool createPool( final int min, final int max )
+    {
+        final WorkStealingThreadPool pool = new WorkStealingThreadPool( "test", min, max, 1000 );
+        pool.enableLogging( new ConsoleLogger( ConsoleLogger.LEVEL_INFO ) );
+        return pool;
+    }
+
+    private synchronized int getCount()
+    {
+        return m_count;
+    }
+
+    private synchronized void increment()
+    {
+        m_count++;
+    }
+
+    private synchronized void release()
+    {
+        m_released = true;
+        notifyAll();
+    }
+
+    private synchronized void awaitRelease()
+        throws InterruptedException
+    {
+        while( !m_released )
+        {
+            wait();
+        }
+    }
+
+    private class CountingRunnable
+        implements Runnable
+    {
+        public void run()
+        {
+            increment();
+        }
+    }
+
+    private class BlockingRunnable
+        implements Runnable
+    {
+        public void run()
+        {
+            try
+            {
+                awaitRelease();
+            }
+            catch( final InterruptedException ie )
+            {
+                throw new IllegalStateException( "Interrupted" );
+            }
+        }
+    }
+}
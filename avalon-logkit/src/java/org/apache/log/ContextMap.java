@@ -16,8 +16,15 @@
  */
 package org.apache.log;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  * The ContextMap contains non-hierarchical context information
@@ -35,23 +42,52 @@ import java.util.Hashtable;
  * The context is bound to a thread (and inherited by sub-threads) but
  * it can also be added to by LogTargets.
  *
+ * <p>The entries are held in an immutable list that is shared between
+ * versions of the map: a change copies at most the entries in front of
+ * the changed one. Reading never locks, and {@link #getSnapshot()}
+ * returns a read-only view of the current content without copying it.
+ * The Logger attaches such a snapshot to every LogEvent, so formatters
+ * and asynchronous targets see the context as it was when the event was
+ * created. A LogTarget that wants to add to the context of an event
+ * creates a new ContextMap with the snapshot as parent.</p>
+ *
+ * <p>The serialized form is still the parent map and a Hashtable of the
+ * entries, so maps can be exchanged with older versions.</p>
+ *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  * @author Peter Donald
  */
 public final class ContextMap
     implements Serializable
 {
+    ///The serialVersionUID of the Hashtable based versions
+    private static final long serialVersionUID = -6002364222819853880L;
+
+    ///The fields of the Hashtable based versions, which are still written
+    private static final ObjectStreamField[] serialPersistentFields = new ObjectStreamField[]
+    {
+        new ObjectStreamField( "m_parent", ContextMap.class ),
+        new ObjectStreamField( "m_map", Hashtable.class )
+    };
+
     ///Thread local for holding instance of map associated with current thread
     private static final ThreadLocal c_localContext = new InheritableThreadLocal();
 
-    private final ContextMap m_parent;
+    ///The parent map, only assigned by the constructors and readObject
+    private ContextMap m_parent;
 
-    ///Container to hold map of elements
-    private Hashtable m_map = new Hashtable();
+    ///The entries of the map, newest first. Entries are never modified once created
+    private transient volatile Entry m_entries;
 
     ///Flag indicating whether this map should be readonly
     private transient boolean m_readOnly;
 
+    ///Flag indicating whether this map is a snapshot that can never change
+    private final transient boolean m_snapshot;
+
+    ///The last snapshot taken of this map, reused while the map is unchanged
+    private transient volatile ContextMap m_lastSnapshot;
+
     /**
      * Get the Current ContextMap.
      * This method returns a ContextMap associated with current thread. If the
@@ -115,6 +151,50 @@ public final class ContextMap
     public ContextMap( final ContextMap parent )
     {
         m_parent = parent;
+        m_snapshot = false;
+    }
+
+    /**
+     * Constructor for a snapshot.
+     *
+     * @param parent the snapshot of the parent ContextMap
+     * @param entries the entries of the map
+     */
+    private ContextMap( final ContextMap parent, final Entry entries )
+    {
+        m_parent = parent;
+        m_entries = entries;
+        m_readOnly = true;
+        m_snapshot = true;
+    }
+
+    /**
+     * Get a read-only snapshot of the context, including the context
+     * inherited from the parent map. Later changes to this map or its
+     * parents do not show up in the snapshot. The snapshot shares the
+     * entries of this map, and the same snapshot is returned as long as
+     * the map has not changed.
+     *
+     * @return the snapshot
+     */
+    public ContextMap getSnapshot()
+    {
+        if( m_snapshot )
+        {
+            return this;
+        }
+
+        final ContextMap parent = ( null == m_parent ) ? null : m_parent.getSnapshot();
+        final Entry entries = m_entries;
+
+        ContextMap snapshot = m_lastSnapshot;
+        if( null == snapshot || snapshot.m_entries != entries || snapshot.m_parent != parent )
+        {
+            snapshot = new ContextMap( parent, entries );
+            m_lastSnapshot = snapshot;
+        }
+
+        return snapshot;
     }
 
     /**
@@ -141,11 +221,11 @@ public final class ContextMap
      * Empty the context map.
      *
      */
-    public void clear()
+    public synchronized void clear()
     {
         checkReadable();
 
-        m_map.clear();
+        m_entries = null;
     }
 
     /**
@@ -180,7 +260,15 @@ public final class ContextMap
         if( key == null )
             return null;
             
-        final Object result = m_map.get( key );
+        Object result = null;
+        for( Entry entry = m_entries; null != entry; entry = entry.m_next )
+        {
+            if( entry.m_key.equals( key ) )
+            {
+                result = entry.m_value;
+                break;
+            }
+        }
 
         if( null == result && null != m_parent )
         {
@@ -196,31 +284,58 @@ public final class ContextMap
      * @param key the key
      * @param value the value (may be null)
      */
-    public void set( final String key, final Object value )
+    public synchronized void set( final String key, final Object value )
     {
         checkReadable();
 
+        if( null == key )
+        {
+            throw new NullPointerException( "key" );
+        }
+
+        final Entry entries = remove( m_entries, key );
         if( value == null )
         {
-            m_map.remove( key );
+            m_entries = entries;
         }
         else
         {
-            m_map.put( key, value );
+            m_entries = new Entry( key, value, entries );
         }
     }
 
     /**
-     * Retrieve keys of entries into context map.
+     * Retrieve keys of entries into context map, including the keys
+     * inherited from the parent map.
      *
      * @return the keys of items in context
      */
-    /*
     public String[] getKeys()
     {
-        return (String[])m_map.keySet().toArray( new String[ 0 ] );
+        final Entry entries = m_entries;
+        if( null == m_parent )
+        {
+            final String[] keys = new String[ ( null == entries ) ? 0 : entries.m_size ];
+            int index = 0;
+            for( Entry entry = entries; null != entry; entry = entry.m_next )
+            {
+                keys[ index++ ] = entry.m_key;
+            }
+            return keys;
+        }
+
+        final HashSet keys = new HashSet();
+        for( Entry entry = entries; null != entry; entry = entry.m_next )
+        {
+            keys.add( entry.m_key );
+        }
+        final String[] parentKeys = m_parent.getKeys();
+        for( int i = 0; i < parentKeys.length; i++ )
+        {
+            keys.add( parentKeys[ i ] );
+        }
+        return (String[])keys.toArray( new String[ keys.size() ] );
     }
-    */
 
     /**
      * Get the number of contexts in map.
@@ -229,7 +344,57 @@ public final class ContextMap
      */
     public int getSize()
     {
-        return m_map.size();
+        final Entry entries = m_entries;
+        return ( null == entries ) ? 0 : entries.m_size;
+    }
+
+    /**
+     * Write the map in the form of the Hashtable based versions.
+     *
+     * @param out the stream to write to
+     * @throws IOException if writing fails
+     */
+    private void writeObject( final ObjectOutputStream out )
+        throws IOException
+    {
+        final Hashtable map = new Hashtable();
+        for( Entry entry = m_entries; null != entry; entry = entry.m_next )
+        {
+            map.put( entry.m_key, entry.m_value );
+        }
+
+        final ObjectOutputStream.PutField fields = out.putFields();
+        fields.put( "m_parent", m_parent );
+        fields.put( "m_map", map );
+        out.writeFields();
+    }
+
+    /**
+     * Read a map written by {@link #writeObject(ObjectOutputStream)} or by
+     * a Hashtable based version, and rebuild the list of entries.
+     *
+     * @param in the stream to read from
+     * @throws IOException if reading fails
+     * @throws ClassNotFoundException if a class of a value is not found
+     */
+    private void readObject( final ObjectInputStream in )
+        throws IOException, ClassNotFoundException
+    {
+        final ObjectInputStream.GetField fields = in.readFields();
+        m_parent = (ContextMap)fields.get( "m_parent", null );
+
+        final Map map = (Map)fields.get( "m_map", null );
+        Entry entries = null;
+        if( null != map )
+        {
+            final Iterator iterator = map.entrySet().iterator();
+            while( iterator.hasNext() )
+            {
+                final Map.Entry entry = (Map.Entry)iterator.next();
+                entries = new Entry( (String)entry.getKey(), entry.getValue(), entries );
+            }
+        }
+        m_entries = entries;
     }
 
     /**
@@ -253,4 +418,53 @@ public final class ContextMap
             throw new IllegalStateException( "ContextMap is read only and can not be modified" );
         }
     }
+
+    /**
+     * Get the entries without the entry for the key. Only the entries in
+     * front of the removed one are copied, the rest are shared.
+     *
+     * @param entry the first entry
+     * @param key the key to remove
+     * @return the first of the remaining entries
+     */
+    private static Entry remove( final Entry entry, final String key )
+    {
+        if( null == entry )
+        {
+            return null;
+        }
+        else if( entry.m_key.equals( key ) )
+        {
+            return entry.m_next;
+        }
+
+        final Entry next = remove( entry.m_next, key );
+        if( next == entry.m_next )
+        {
+            return entry;
+        }
+
+        return new Entry( entry.m_key, entry.m_value, next );
+    }
+
+    /**
+     * An immutable entry in the list of entries of a ContextMap.
+     */
+    private static final class Entry
+    {
+        private final String m_key;
+        private final Object m_value;
+        private final Entry m_next;
+
+        ///The number of entries in the list starting with this entry
+        private final int m_size;
+
+        Entry( final String key, final Object value, final Entry next )
+        {
+            m_key = key;
+            m_value = value;
+            m_next = next;
+            m_size = ( null == next ) ? 1 : next.m_size + 1;
+        }
+    }
 }
@@ -16,6 +16,7 @@
  */
 package org.apache.log;
 
+import java.util.HashMap;
 import org.apache.log.format.PatternFormatter;
 import org.apache.log.output.io.StreamTarget;
 import org.apache.log.util.DefaultErrorHandler;
@@ -47,6 +48,19 @@ public class Hierarchy
     ///LoggerListener associated with hierarchy
     private LoggerListener m_loggerListener;
 
+    /**
+     * Index from category to the Logger returned for it by
+     * getLoggerFor(). The map is never modified once it is published;
+     * a new category is added to a copy that then replaces it.
+     */
+    private volatile HashMap m_loggers = new HashMap();
+
+    /**
+     * Lock for adding to the index. It is separate from the lock of the
+     * hierarchy, which Loggers take while they hold their own lock.
+     */
+    private final Object m_loggersLock = new Object();
+
     /**
      * Retrieve the default hierarchy.
      *
@@ -205,12 +219,47 @@ public class Hierarchy
     /**
      * Retrieve a logger for named category.
      *
+     * <p>A category that has been retrieved before is found with a
+     * single lookup in a flat index, without locking. Only a new
+     * category walks the tree of Loggers.</p>
+     *
      * @param category the context
      * @return the Logger
      */
     public Logger getLoggerFor( final String category )
     {
-        return getRootLogger().getChildLogger( category );
+        final Logger logger = (Logger)m_loggers.get( category );
+        if( null != logger )
+        {
+            return logger;
+        }
+
+        return createLoggerFor( category );
+    }
+
+    /**
+     * Retrieve a logger from the tree of Loggers, and add it to the
+     * index.
+     *
+     * @param category the context
+     * @return the Logger
+     */
+    private Logger createLoggerFor( final String category )
+    {
+        synchronized( m_loggersLock )
+        {
+            Logger logger = (Logger)m_loggers.get( category );
+            if( null == logger )
+            {
+                logger = getRootLogger().getChildLogger( category );
+
+                final HashMap loggers = new HashMap( m_loggers );
+                loggers.put( category, logger );
+                m_loggers = loggers;
+            }
+
+            return logger;
+        }
     }
 
     /**
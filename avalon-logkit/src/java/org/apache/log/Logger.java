@@ -569,7 +569,12 @@ public class Logger
     {
         final LogEvent event = new LogEvent();
         event.setCategory( m_category );
-        event.setContextMap( ContextMap.getCurrentContext( false ) );
+
+        final ContextMap context = ContextMap.getCurrentContext( false );
+        if( null != context )
+        {
+            event.setContextMap( context.getSnapshot() );
+        }
 
         if( null != message )
         {
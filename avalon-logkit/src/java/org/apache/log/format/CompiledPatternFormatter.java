@@ -0,0 +1,440 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.format;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import org.apache.log.ContextMap;
+import org.apache.log.LogEvent;
+
+/**
+ * A PatternFormatter that compiles the pattern into a flat sequence of
+ * render operations.  It accepts the same pattern syntax and produces the
+ * same output as the <code>PatternFormatter</code>, but does much less work
+ * per event.
+ * <p>
+ * Every thread formats into its own reusable character buffer, so the only
+ * object created for an event is the resulting string.  Each thread also
+ * keeps its own date formats, and a formatted timestamp is reused as long
+ * as the time does not change: for a date format without milliseconds
+ * that means once per second.
+ * </p>
+ * <p>
+ * The built-in fields are rendered directly and do not go through the
+ * <code>getXXX()</code> methods of the PatternFormatter.  Fields added by a
+ * subclass through <code>getTypeIdFor()</code> are still handed to
+ * <code>formatPatternRun()</code>.
+ * </p>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class CompiledPatternFormatter
+    extends PatternFormatter
+{
+    private static final int OP_TEXT = 0;
+    private static final int OP_CATEGORY = 1;
+    private static final int OP_CONTEXT = 2;
+    private static final int OP_MESSAGE = 3;
+    private static final int OP_TIME = 4;
+    private static final int OP_RELATIVE_TIME = 5;
+    private static final int OP_THROWABLE = 6;
+    private static final int OP_PRIORITY = 7;
+    private static final int OP_THREAD = 8;
+    private static final int OP_OTHER = 9;
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private static final char[] SPACES = new char[ 64 ];
+
+    static
+    {
+        for( int i = 0; i < SPACES.length; i++ )
+        {
+            SPACES[ i ] = ' ';
+        }
+    }
+
+    private final PatternRun[] m_runs;
+    private final int[] m_ops;
+
+    /** The text of each text run, pre-extracted */
+    private final char[][] m_text;
+
+    /** Whether the date format of a time run shows milliseconds */
+    private final boolean[] m_millis;
+
+    private final ThreadLocal m_buffers = new ThreadLocal()
+    {
+        protected Object initialValue()
+        {
+            return new RenderBuffer( m_runs.length );
+        }
+    };
+
+    /**
+     * Creation of a new compiled pattern formatter based on a supplied
+     * pattern.
+     *
+     * @param pattern the pattern
+     */
+    public CompiledPatternFormatter( final String pattern )
+    {
+        super( pattern );
+
+        m_runs = getPatternRuns();
+        m_ops = new int[ m_runs.length ];
+        m_text = new char[ m_runs.length ][];
+        m_millis = new boolean[ m_runs.length ];
+
+        for( int i = 0; i < m_runs.length; i++ )
+        {
+            final PatternRun run = m_runs[ i ];
+            m_ops[ i ] = getOpFor( run.m_type );
+
+            if( OP_TEXT == m_ops[ i ] )
+            {
+                m_text[ i ] = run.m_data.toCharArray();
+            }
+            else if( null != run.m_format )
+            {
+                m_millis[ i ] = -1 != run.m_format.indexOf( 'S' );
+            }
+        }
+    }
+
+    /**
+     * Format the event according to the pattern.
+     *
+     * @param event the event
+     * @return the formatted output
+     */
+    public String format( final LogEvent event )
+    {
+        final RenderBuffer buffer = (RenderBuffer)m_buffers.get();
+        buffer.m_length = 0;
+
+        for( int i = 0; i < m_ops.length; i++ )
+        {
+            final PatternRun run = m_runs[ i ];
+
+            switch( m_ops[ i ] )
+            {
+                case OP_TEXT:
+                    buffer.append( m_text[ i ], 0, m_text[ i ].length );
+                    break;
+
+                case OP_CATEGORY:
+                    append( buffer, run, event.getCategory() );
+                    break;
+
+                case OP_CONTEXT:
+                    final ContextMap map = event.getContextMap();
+                    append( buffer, run,
+                            ( null == map ) ? "" : map.get( run.m_format, "" ).toString() );
+                    break;
+
+                case OP_MESSAGE:
+                    append( buffer, run, event.getMessage() );
+                    break;
+
+                case OP_TIME:
+                    appendTime( buffer, i, event.getTime() );
+                    break;
+
+                case OP_RELATIVE_TIME:
+                    appendTime( buffer, i, event.getRelativeTime() );
+                    break;
+
+                case OP_THROWABLE:
+                    append( buffer, run, getStackTrace( event.getThrowable(), run.m_format ) );
+                    break;
+
+                case OP_PRIORITY:
+                    append( buffer, run, event.getPriority().getName() );
+                    break;
+
+                case OP_THREAD:
+                    append( buffer, run, Thread.currentThread().getName() );
+                    break;
+
+                default:
+                    append( buffer, run, formatPatternRun( event, run ) );
+                    break;
+            }
+        }
+
+        return new String( buffer.m_chars, 0, buffer.m_length );
+    }
+
+    /**
+     * Map a type-id of the PatternFormatter to a render operation.
+     *
+     * @param type the type-id
+     * @return the operation
+     */
+    private int getOpFor( final int type )
+    {
+        switch( type )
+        {
+            case TYPE_TEXT:
+                return OP_TEXT;
+            case TYPE_CATEGORY:
+                return OP_CATEGORY;
+            case TYPE_CONTEXT:
+                return OP_CONTEXT;
+            case TYPE_MESSAGE:
+                return OP_MESSAGE;
+            case TYPE_TIME:
+                return OP_TIME;
+            case TYPE_RELATIVE_TIME:
+                return OP_RELATIVE_TIME;
+            case TYPE_THROWABLE:
+                return OP_THROWABLE;
+            case TYPE_PRIORITY:
+                return OP_PRIORITY;
+            case TYPE_THREAD:
+                return OP_THREAD;
+            default:
+                return OP_OTHER;
+        }
+    }
+
+    /**
+     * Append a time, either as a number or through the date format of the
+     * run.
+     *
+     * @param buffer the buffer of the current thread
+     * @param index the index of the run
+     * @param time the time
+     */
+    private void appendTime( final RenderBuffer buffer, final int index, final long time )
+    {
+        final PatternRun run = m_runs[ index ];
+
+        if( null == run.m_format )
+        {
+            final int length = buffer.formatLong( time );
+            append( buffer, run, buffer.m_scratch, buffer.m_scratch.length - length, length );
+        }
+        else
+        {
+            append( buffer, run, buffer.formatTime( index, run.m_format, m_millis[ index ], time ) );
+        }
+    }
+
+    /**
+     * Append a field, padded or truncated the same way as the
+     * PatternFormatter does it.
+     *
+     * @param buffer the buffer of the current thread
+     * @param run the pattern run
+     * @param data the field, ignored if <code>null</code>
+     */
+    private void append( final RenderBuffer buffer, final PatternRun run, final String data )
+    {
+        if( null == data )
+        {
+            return;
+        }
+
+        final int size = data.length();
+
+        if( size < run.m_minSize )
+        {
+            if( run.m_rightJustify )
+            {
+                buffer.appendSpaces( run.m_minSize - size );
+                buffer.append( data, 0, size );
+            }
+            else
+            {
+                buffer.append( data, 0, size );
+                buffer.appendSpaces( run.m_minSize - size );
+            }
+        }
+        else if( run.m_maxSize > 0 && run.m_maxSize < size )
+        {
+            final int offset = run.m_rightJustify ? size - run.m_maxSize : 0;
+            buffer.append( data, offset, run.m_maxSize );
+        }
+        else
+        {
+            buffer.append( data, 0, size );
+        }
+    }
+
+    /**
+     * Append a field held in a character array, padded or truncated the
+     * same way as the PatternFormatter does it.
+     */
+    private void append( final RenderBuffer buffer,
+                         final PatternRun run,
+                         final char[] data,
+                         final int start,
+                         final int size )
+    {
+        if( size < run.m_minSize )
+        {
+            if( run.m_rightJustify )
+            {
+                buffer.appendSpaces( run.m_minSize - size );
+                buffer.append( data, start, size );
+            }
+            else
+            {
+                buffer.append( data, start, size );
+                buffer.appendSpaces( run.m_minSize - size );
+            }
+        }
+        else if( run.m_maxSize > 0 && run.m_maxSize < size )
+        {
+            final int offset = run.m_rightJustify ? start + size - run.m_maxSize : start;
+            buffer.append( data, offset, run.m_maxSize );
+        }
+        else
+        {
+            buffer.append( data, start, size );
+        }
+    }
+
+    /**
+     * The state a thread keeps between events: the output buffer, and the
+     * date formats with the last timestamp each of them formatted.
+     */
+    private static final class RenderBuffer
+    {
+        private char[] m_chars = new char[ INITIAL_BUFFER_SIZE ];
+        private int m_length;
+
+        /** Room for the digits of any long */
+        private final char[] m_scratch = new char[ 20 ];
+
+        private final Date m_date = new Date();
+        private final SimpleDateFormat[] m_formats;
+        private final long[] m_lastKeys;
+        private final String[] m_lastTimes;
+
+        RenderBuffer( final int runs )
+        {
+            m_formats = new SimpleDateFormat[ runs ];
+            m_lastKeys = new long[ runs ];
+            m_lastTimes = new String[ runs ];
+        }
+
+        void append( final char[] data, final int offset, final int length )
+        {
+            ensureCapacity( length );
+            System.arraycopy( data, offset, m_chars, m_length, length );
+            m_length += length;
+        }
+
+        void append( final String data, final int offset, final int length )
+        {
+            ensureCapacity( length );
+            data.getChars( offset, offset + length, m_chars, m_length );
+            m_length += length;
+        }
+
+        void appendSpaces( int length )
+        {
+            ensureCapacity( length );
+            while( length > 0 )
+            {
+                final int count = Math.min( length, SPACES.length );
+                System.arraycopy( SPACES, 0, m_chars, m_length, count );
+                m_length += count;
+                length -= count;
+            }
+        }
+
+        /**
+         * Write the decimal digits of a number to the end of the scratch
+         * array.
+         *
+         * @param value the number
+         * @return the number of characters written
+         */
+        int formatLong( final long value )
+        {
+            if( Long.MIN_VALUE == value )
+            {
+                final String text = Long.toString( value );
+                text.getChars( 0, 20, m_scratch, 0 );
+                return 20;
+            }
+
+            long remaining = Math.abs( value );
+            int position = m_scratch.length;
+
+            do
+            {
+                m_scratch[ --position ] = (char)( '0' + (int)( remaining % 10 ) );
+                remaining /= 10;
+            }
+            while( remaining > 0 );
+
+            if( value < 0 )
+            {
+                m_scratch[ --position ] = '-';
+            }
+
+            return m_scratch.length - position;
+        }
+
+        /**
+         * Format a time, reusing the last result of the run while it is
+         * still valid.
+         *
+         * @param index the index of the run
+         * @param format the date format of the run
+         * @param millis whether the format shows milliseconds
+         * @param time the time
+         * @return the formatted time
+         */
+        String formatTime( final int index, final String format, final boolean millis, final long time )
+        {
+            // floor the seconds, so times before 1970 are cached correctly
+            final long key = millis ? time : ( time >= 0 ? time / 1000 : ( time - 999 ) / 1000 );
+
+            if( null != m_lastTimes[ index ] && key == m_lastKeys[ index ] )
+            {
+                return m_lastTimes[ index ];
+            }
+
+            if( null == m_formats[ index ] )
+            {
+                m_formats[ index ] = new SimpleDateFormat( format );
+            }
+
+            m_date.setTime( time );
+            m_lastTimes[ index ] = m_formats[ index ].format( m_date );
+            m_lastKeys[ index ] = key;
+            return m_lastTimes[ index ];
+        }
+
+        private void ensureCapacity( final int length )
+        {
+            final int required = m_length + length;
+            if( required > m_chars.length )
+            {
+                final char[] chars = new char[ Math.max( required, m_chars.length * 2 ) ];
+                System.arraycopy( m_chars, 0, chars, 0, m_length );
+                m_chars = chars;
+            }
+        }
+    }
+}
@@ -19,7 +19,7 @@ package org.apache.log.format;
 import org.apache.log.ContextMap;
 import org.apache.log.LogEvent;
 import org.apache.log.Logger;
-import org.apache.log.util.StackIntrospector;
+import org.apache.log.util.CallerLocator;
 
 /**
  * Formatter especially designed for debugging applications.
@@ -128,15 +128,9 @@ public class ExtendedPatternFormatter
             }
         }
 
-        //Determine callee of user's class.  If offset is 0, we need to find
-        // Logger.class.  If offset is 1, We need to find caller of Logger.class, etc.
-        final Class clazz = StackIntrospector.getCallerClass( Logger.class, m_callStackOffset - 1 );
-        if( null == clazz )
-        {
-            return "UnknownMethod";
-        }
-
-        final String result = StackIntrospector.getCallerMethod( clazz );
+        //Find the caller of Logger.class. If offset is 1, we need to find
+        // the caller of the user's class that called Logger.class, etc.
+        final String result = CallerLocator.getCallerLocation( Logger.class, m_callStackOffset );
         if( null == result )
         {
             return "UnknownMethod";
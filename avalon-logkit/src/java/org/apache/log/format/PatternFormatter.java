@@ -114,21 +114,21 @@ import org.apache.log.Priority;
 public class PatternFormatter
     implements Formatter
 {
-    private static final int TYPE_TEXT = 1;
-    private static final int TYPE_CATEGORY = 2;
-    private static final int TYPE_CONTEXT = 3;
-    private static final int TYPE_MESSAGE = 4;
-    private static final int TYPE_TIME = 5;
-    private static final int TYPE_RELATIVE_TIME = 6;
-    private static final int TYPE_THROWABLE = 7;
-    private static final int TYPE_PRIORITY = 8;
-    private static final int TYPE_THREAD = 9;
+    protected static final int TYPE_TEXT = 1;
+    protected static final int TYPE_CATEGORY = 2;
+    protected static final int TYPE_CONTEXT = 3;
+    protected static final int TYPE_MESSAGE = 4;
+    protected static final int TYPE_TIME = 5;
+    protected static final int TYPE_RELATIVE_TIME = 6;
+    protected static final int TYPE_THROWABLE = 7;
+    protected static final int TYPE_PRIORITY = 8;
+    protected static final int TYPE_THREAD = 9;
 
     /**
      * The maximum value used for TYPEs. Subclasses can define their own TYPEs
      * starting at <code>MAX_TYPE + 1</code>.
      */
-    protected static final int MAX_TYPE = TYPE_PRIORITY;
+    protected static final int MAX_TYPE = TYPE_THREAD;
 
     private static final String TYPE_CATEGORY_STR = "category";
     private static final String TYPE_CONTEXT_STR = "context";
@@ -642,6 +642,17 @@ public class PatternFormatter
         }
     }
 
+    /**
+     * Retrieve the runs the pattern was parsed into, for subclasses which
+     * render them themselves.
+     *
+     * @return the pattern runs, in order
+     */
+    protected final PatternRun[] getPatternRuns()
+    {
+        return m_formatSpecification;
+    }
+
     /**
      * Parse the input pattern and build internal data structures.
      *
@@ -16,6 +16,11 @@
  */
 package org.apache.log.output;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
 import org.apache.log.ErrorAware;
 import org.apache.log.ErrorHandler;
 import org.apache.log.LogEvent;
@@ -34,12 +39,18 @@ public abstract class AbstractTarget
 {
     private static final ErrorHandler DEFAULT_ERROR_HANDLER = new DefaultErrorHandler();
 
+    ///Background threads running the tasks of all targets, by name
+    private static final Map c_timers = new HashMap();
+
     ///ErrorHandler used by target to delegate Error handling
     private ErrorHandler m_errorHandler = DEFAULT_ERROR_HANDLER;
 
     ///Flag indicating that log session is finished (aka target has been closed)
     private boolean m_isOpen;
 
+    ///Task flushing the target every flush interval, or null
+    private TimerTask m_flushTask;
+
     /**
      * AbstractTarget constructor.
      */
@@ -146,4 +157,92 @@ public abstract class AbstractTarget
         return m_errorHandler;
     }
 
+    /**
+     * Run <code>flush</code> every <code>interval</code> milliseconds on
+     * the shared "flush" thread, until {@link #cancelFlushTask()} is called.
+     * Does nothing if the interval is not positive or a flush task is
+     * already scheduled.
+     *
+     * @param flush the task flushing the target
+     * @param interval the milliseconds between flushes
+     */
+    protected final synchronized void scheduleFlushTask( final Runnable flush,
+                                                         final long interval )
+    {
+        if( interval <= 0 || null != m_flushTask )
+        {
+            return;
+        }
+
+        m_flushTask = schedule( "flush", flush, interval, interval );
+    }
+
+    /**
+     * Stop the task started by {@link #scheduleFlushTask(Runnable, long)}.
+     */
+    protected final synchronized void cancelFlushTask()
+    {
+        if( null != m_flushTask )
+        {
+            m_flushTask.cancel();
+            m_flushTask = null;
+        }
+    }
+
+    /**
+     * Run a task on a background thread shared by all targets using the
+     * same timer name. Exceptions thrown by the task are passed to the
+     * ErrorHandler, so that they do not stop the thread and the tasks of
+     * other targets.
+     *
+     * @param timerName the name of the thread to run the task on
+     * @param task the task
+     * @param delay the milliseconds before the task is first run
+     * @param period the milliseconds between runs, or 0 to run the task once
+     * @return the scheduled task, which may be cancelled
+     */
+    protected final TimerTask schedule( final String timerName,
+                                        final Runnable task,
+                                        final long delay,
+                                        final long period )
+    {
+        final TimerTask timerTask = new TimerTask()
+        {
+            public void run()
+            {
+                try
+                {
+                    task.run();
+                }
+                catch( final Throwable throwable )
+                {
+                    getErrorHandler().error( "Error running background task.", throwable, null );
+                }
+            }
+        };
+
+        if( period > 0 )
+        {
+            getTimer( timerName ).schedule( timerTask, delay, period );
+        }
+        else
+        {
+            getTimer( timerName ).schedule( timerTask, delay );
+        }
+        return timerTask;
+    }
+
+    private static Timer getTimer( final String timerName )
+    {
+        synchronized( c_timers )
+        {
+            Timer timer = (Timer)c_timers.get( timerName );
+            if( null == timer )
+            {
+                timer = new Timer( true );
+                c_timers.put( timerName, timer );
+            }
+            return timer;
+        }
+    }
 }
@@ -0,0 +1,485 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.output;
+
+import org.apache.log.ErrorAware;
+import org.apache.log.ErrorHandler;
+import org.apache.log.LogEvent;
+import org.apache.log.LogTarget;
+import org.apache.log.Priority;
+
+/**
+ * An asynchronous LogTarget that hands entries to another thread through a
+ * pre-allocated ring buffer. Unlike {@link AsyncLogTarget}, logging threads
+ * do not lock the target itself and only hold the lock of the buffer for as
+ * long as it takes to store a reference, so a slow underlying target does not
+ * turn every logging thread into a waiter. The thread that runs this target
+ * takes as many events as it can (up to the batch size) in one go and writes
+ * them to the underlying target without holding the lock.
+ *
+ * <p>What happens when the buffer is full is set by the overflow policy:</p>
+ * <ul>
+ *   <li>{@link #BLOCK} - the logging thread waits for room (the default)</li>
+ *   <li>{@link #DROP_OLDEST} - the oldest waiting event is dropped</li>
+ *   <li>{@link #DROP_NEW} - the new event is dropped</li>
+ *   <li>{@link #DROP_BELOW_PRIORITY} - a new event below the drop priority is
+ *       dropped, others wait for room</li>
+ * </ul>
+ * <p>
+ * The number of dropped events is available from {@link #getDroppedEventCount()},
+ * and subclasses can count them themselves by overriding
+ * {@link #eventDropped(LogEvent)}.
+ * </p>
+ *
+ * <p>
+ * As with the AsyncLogTarget, it is the responsibility of the user of this
+ * class to start the thread. The thread stops once the target has been closed,
+ * or interrupted, and every event in the buffer has been written.
+ * </p>
+ *
+ * <pre>
+ * LogTarget mySlowTarget = ...;
+ * RingBufferLogTarget asyncTarget =
+ *     new RingBufferLogTarget( mySlowTarget, 4096, RingBufferLogTarget.DROP_OLDEST );
+ * Thread thread = new Thread( asyncTarget );
+ * thread.setDaemon( true );
+ * thread.start();
+ *
+ * logger.setLogTargets( new LogTarget[] { asyncTarget } );
+ * </pre>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class RingBufferLogTarget
+    extends AbstractWrappingTarget
+    implements Runnable
+{
+    /** Wait for room when the buffer is full. */
+    public static final int BLOCK = 0;
+
+    /** Drop the oldest event in the buffer when it is full. */
+    public static final int DROP_OLDEST = 1;
+
+    /** Drop the new event when the buffer is full. */
+    public static final int DROP_NEW = 2;
+
+    /** Drop new events below the drop priority when the buffer is full, wait for the others. */
+    public static final int DROP_BELOW_PRIORITY = 3;
+
+    private static final String[] POLICY_NAMES =
+        new String[]{"block", "drop-oldest", "drop-new", "drop-below-priority"};
+
+    private final Object m_lock = new Object();
+    private final LogEvent[] m_ring;
+    private final int m_mask;
+    private final LogEvent[] m_batch;
+    private final int m_policy;
+    private final Priority m_dropPriority;
+
+    ///Index of the oldest event in the ring
+    private int m_head;
+    private int m_size;
+    private long m_dropped;
+
+    private boolean m_consumerWaiting;
+    private int m_producersWaiting;
+    private boolean m_running;
+    private boolean m_writing;
+    private volatile boolean m_closed;
+
+    /**
+     * Creation of a new ring buffer log target, with room for 1024 events
+     * that blocks when the buffer is full.
+     *
+     * @param logTarget the underlying target
+     */
+    public RingBufferLogTarget( final LogTarget logTarget )
+    {
+        this( logTarget, 1024, BLOCK );
+    }
+
+    /**
+     * Creation of a new ring buffer log target.
+     *
+     * @param logTarget the underlying target
+     * @param capacity the number of events the buffer holds, rounded up to a power of two
+     * @param policy what to do when the buffer is full
+     */
+    public RingBufferLogTarget( final LogTarget logTarget, final int capacity, final int policy )
+    {
+        this( logTarget, capacity, policy, Priority.WARN, 256, false );
+    }
+
+    /**
+     * Creation of a new ring buffer log target.
+     *
+     * @param logTarget the underlying target
+     * @param capacity the number of events the buffer holds, rounded up to a power of two
+     * @param policy what to do when the buffer is full
+     * @param dropPriority events below this priority are dropped when the buffer is full
+     *        under the DROP_BELOW_PRIORITY policy
+     * @param batchSize the largest number of events written without taking the lock
+     * @param closeTarget close the underlying target when this target is closed. This flag
+     *        has no effect unless the logTarget implements Closeable.
+     */
+    public RingBufferLogTarget( final LogTarget logTarget,
+                                final int capacity,
+                                final int policy,
+                                final Priority dropPriority,
+                                final int batchSize,
+                                final boolean closeTarget )
+    {
+        super( logTarget, closeTarget );
+
+        if( policy < BLOCK || policy > DROP_BELOW_PRIORITY )
+        {
+            throw new IllegalArgumentException( "Unknown overflow policy " + policy );
+        }
+        if( null == dropPriority )
+        {
+            throw new NullPointerException( "dropPriority" );
+        }
+
+        int size = 1;
+        while( size < capacity )
+        {
+            size <<= 1;
+        }
+
+        m_ring = new LogEvent[ size ];
+        m_mask = size - 1;
+        m_batch = new LogEvent[ Math.max( 1, Math.min( batchSize, size ) ) ];
+        m_policy = policy;
+        m_dropPriority = dropPriority;
+        open();
+    }
+
+    /**
+     * Retrieve the overflow policy with the specified name, one of "block",
+     * "drop-oldest", "drop-new" or "drop-below-priority".
+     *
+     * @param name the name of the policy
+     * @return the policy
+     * @exception IllegalArgumentException if there is no such policy
+     */
+    public static int getPolicyForName( final String name )
+    {
+        for( int i = 0; i < POLICY_NAMES.length; i++ )
+        {
+            if( POLICY_NAMES[ i ].equalsIgnoreCase( name ) )
+            {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException( "Unknown overflow policy " + name );
+    }
+
+    /**
+     * Provide component with ErrorHandler.
+     *
+     * @param errorHandler the errorHandler
+     */
+    public synchronized void setErrorHandler( final ErrorHandler errorHandler )
+    {
+        super.setErrorHandler( errorHandler );
+
+        if( this.getLogTarget() instanceof ErrorAware )
+        {
+            ( (ErrorAware)this.getLogTarget() ).setErrorHandler( errorHandler );
+        }
+    }
+
+    /**
+     * Get the number of events the buffer holds.
+     *
+     * @return the capacity
+     */
+    public int getCapacity()
+    {
+        return m_ring.length;
+    }
+
+    /**
+     * Get the number of events waiting in the buffer.
+     *
+     * @return the number of waiting events
+     */
+    public int getSize()
+    {
+        synchronized( m_lock )
+        {
+            return m_size;
+        }
+    }
+
+    /**
+     * Get the number of events dropped because the buffer was full.
+     *
+     * @return the number of dropped events
+     */
+    public long getDroppedEventCount()
+    {
+        synchronized( m_lock )
+        {
+            return m_dropped;
+        }
+    }
+
+    /**
+     * Process a log event by adding it to the buffer. Unlike the other
+     * targets, this does not lock the target.
+     *
+     * @param event the log event
+     */
+    public void processEvent( final LogEvent event )
+    {
+        if( m_closed )
+        {
+            getErrorHandler().error( "Writing event to closed stream.", null, event );
+            return;
+        }
+
+        try
+        {
+            doProcessEvent( event );
+        }
+        catch( final Throwable throwable )
+        {
+            getErrorHandler().error( "Unknown error writing event.", throwable, event );
+        }
+    }
+
+    /**
+     * Process a log event by adding it to the buffer.
+     *
+     * @param event the log event
+     */
+    protected void doProcessEvent( final LogEvent event )
+    {
+        LogEvent dropped = null;
+
+        synchronized( m_lock )
+        {
+            while( m_size == m_ring.length && null == dropped )
+            {
+                if( DROP_NEW == m_policy
+                    || ( DROP_BELOW_PRIORITY == m_policy
+                         && event.getPriority().isLower( m_dropPriority ) ) )
+                {
+                    dropped = event;
+                }
+                else if( DROP_OLDEST == m_policy )
+                {
+                    dropped = m_ring[ m_head ];
+                    m_ring[ m_head ] = null;
+                    m_head = ( m_head + 1 ) & m_mask;
+                    m_size--;
+                }
+                else if( m_closed )
+                {
+                    //nobody is going to make room any more
+                    dropped = event;
+                }
+                else
+                {
+                    m_producersWaiting++;
+                    try
+                    {
+                        m_lock.wait();
+                    }
+                    catch( final InterruptedException ie )
+                    {
+                        //This really should not occur ...
+                        //as with AsyncLogTarget, ignore it
+                    }
+                    finally
+                    {
+                        m_producersWaiting--;
+                    }
+                }
+            }
+
+            if( dropped != null )
+            {
+                m_dropped++;
+            }
+
+            if( dropped != event )
+            {
+                m_ring[ ( m_head + m_size ) & m_mask ] = event;
+                m_size++;
+
+                if( m_consumerWaiting )
+                {
+                    //tell the "server" thread to wake up
+                    m_lock.notifyAll();
+                }
+            }
+        }
+
+        if( null != dropped )
+        {
+            eventDropped( dropped );
+        }
+    }
+
+    /**
+     * Called, without any lock held, for every event that is dropped because
+     * the buffer was full. Does nothing by default.
+     *
+     * @param event the dropped event
+     */
+    protected void eventDropped( final LogEvent event )
+    {
+    }
+
+    /**
+     * Thread startup. Writes events to the underlying target until this
+     * target is closed or the thread is interrupted, and the buffer is empty.
+     */
+    public void run()
+    {
+        //set this variable when thread is interupted
+        //so we know we can shutdown thread soon.
+        boolean interupted = false;
+
+        synchronized( m_lock )
+        {
+            m_running = true;
+        }
+
+        try
+        {
+            while( true )
+            {
+                final int count;
+
+                synchronized( m_lock )
+                {
+                    while( 0 == m_size )
+                    {
+                        if( m_closed || interupted || Thread.interrupted() )
+                        {
+                            return;
+                        }
+
+                        m_consumerWaiting = true;
+                        try
+                        {
+                            m_lock.wait();
+                        }
+                        catch( final InterruptedException ie )
+                        {
+                            interupted = true;
+                        }
+                        finally
+                        {
+                            m_consumerWaiting = false;
+                        }
+                    }
+
+                    count = Math.min( m_size, m_batch.length );
+                    for( int i = 0; i < count; i++ )
+                    {
+                        m_batch[ i ] = m_ring[ m_head ];
+                        m_ring[ m_head ] = null;
+                        m_head = ( m_head + 1 ) & m_mask;
+                    }
+                    m_size -= count;
+                    m_writing = true;
+
+                    if( m_producersWaiting > 0 )
+                    {
+                        //tell the "client" threads there is room again
+                        m_lock.notifyAll();
+                    }
+                }
+
+                try
+                {
+                    writeBatch( count );
+                }
+                finally
+                {
+                    synchronized( m_lock )
+                    {
+                        m_writing = false;
+                        if( m_closed )
+                        {
+                            m_lock.notifyAll();
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            synchronized( m_lock )
+            {
+                m_running = false;
+                m_lock.notifyAll();
+            }
+        }
+    }
+
+    private void writeBatch( final int count )
+    {
+        final LogTarget target = getLogTarget();
+        for( int i = 0; i < count; i++ )
+        {
+            final LogEvent event = m_batch[ i ];
+            m_batch[ i ] = null;
+
+            try
+            {
+                target.processEvent( event );
+            }
+            catch( final Throwable throwable )
+            {
+                getErrorHandler().error( "Unknown error writing event.", throwable, event );
+            }
+        }
+    }
+
+    /**
+     * Shutdown target. If the thread of this target is running, waits for
+     * the events in the buffer to be written before the underlying target
+     * is closed.
+     */
+    public void close()
+    {
+        synchronized( m_lock )
+        {
+            m_closed = true;
+            m_lock.notifyAll();
+
+            while( m_running && ( m_size > 0 || m_writing ) )
+            {
+                try
+                {
+                    m_lock.wait();
+                }
+                catch( final InterruptedException ie )
+                {
+                    break;
+                }
+            }
+        }
+
+        super.close();
+    }
+}
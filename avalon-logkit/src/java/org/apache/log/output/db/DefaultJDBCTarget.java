@@ -28,6 +28,12 @@ import org.apache.log.LogEvent;
 /**
  * The basic DB target for configurable output formats.
  *
+ * <p>By default every event is inserted in a statement of its own. After
+ * {@link #setBatching(int, long)} events are added to a JDBC batch
+ * instead, which is executed and committed in one transaction when it is
+ * full, when the flush interval has passed, and before the connection is
+ * closed.</p>
+ *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  * @author Peter Donald
  */
@@ -39,6 +45,15 @@ public class DefaultJDBCTarget
 
     private PreparedStatement m_statement;
 
+    /** The number of events per batch, or 0 if the target is not batched. */
+    private int m_batchSize;
+
+    /** Milliseconds between flushes of the batch, or 0. */
+    private long m_flushInterval;
+
+    /** The number of events added to the current batch. */
+    private int m_pending;
+
     /**
      * Creation of a new JDBC logging target.
      * @param dataSource the JDBC datasource
@@ -71,6 +86,60 @@ public class DefaultJDBCTarget
         open();
     }
 
+    /**
+     * Batch the inserts of this target. Events are added to a JDBC batch,
+     * which is executed and committed in one transaction when it holds
+     * <code>batchSize</code> events, every <code>flushInterval</code>
+     * milliseconds, and before the connection is closed.
+     *
+     * @param batchSize the number of events per batch, 0 to insert and
+     *        commit every event on its own
+     * @param flushInterval the number of milliseconds between flushes, 0 to
+     *        only flush when the batch is full
+     */
+    public synchronized void setBatching( final int batchSize, final long flushInterval )
+    {
+        flushBatch();
+        cancelFlushTask();
+
+        m_batchSize = Math.max( 0, batchSize );
+        m_flushInterval = ( m_batchSize > 0 ) ? Math.max( 0, flushInterval ) : 0;
+
+        setAutoCommit( 0 == m_batchSize );
+
+        if( isOpen() )
+        {
+            scheduleFlushTask();
+        }
+    }
+
+    /**
+     * Execute and commit the events in the current batch.
+     */
+    public synchronized void flush()
+    {
+        flushBatch();
+    }
+
+    /**
+     * Startup log session, and start flushing the batch every flush
+     * interval if there is one.
+     */
+    protected synchronized void open()
+    {
+        super.open();
+        scheduleFlushTask();
+    }
+
+    /**
+     * Shutdown target, after the current batch has been written.
+     */
+    public synchronized void close()
+    {
+        cancelFlushTask();
+        super.close();
+    }
+
     /**
      * Output a log event to DB.
      * This must be implemented by subclasses.
@@ -88,11 +157,59 @@ public class DefaultJDBCTarget
                 specifyColumn( m_statement, i, event );
             }
 
-            m_statement.executeUpdate();
+            if( 0 == m_batchSize )
+            {
+                m_statement.executeUpdate();
+                return;
+            }
+
+            m_statement.addBatch();
+            m_pending++;
         }
         catch( final SQLException se )
         {
             getErrorHandler().error( "Error executing statement", se, event );
+            return;
+        }
+
+        if( m_pending >= m_batchSize )
+        {
+            flushBatch();
+        }
+    }
+
+    /**
+     * Execute the current batch and commit it. If that fails the whole
+     * batch is rolled back and reported to the ErrorHandler.
+     */
+    protected synchronized void flushBatch()
+    {
+        if( 0 == m_pending || null == m_statement )
+        {
+            return;
+        }
+
+        final int pending = m_pending;
+        m_pending = 0;
+
+        try
+        {
+            m_statement.executeBatch();
+            getConnection().commit();
+        }
+        catch( final SQLException se )
+        {
+            getErrorHandler().error( "Error executing batch of " + pending + " events", se, null );
+
+            try
+            {
+                m_statement.clearBatch();
+                getConnection().rollback();
+            }
+            catch( final SQLException rse )
+            {
+                getErrorHandler().error( "Error rolling back batch", rse, null );
+            }
         }
     }
 
@@ -118,6 +235,8 @@ public class DefaultJDBCTarget
         {
             getErrorHandler().error( "Error preparing statement", se, null );
         }
+
+        setAutoCommit( 0 == m_batchSize );
     }
 
     /**
@@ -165,6 +284,12 @@ public class DefaultJDBCTarget
      */
     protected synchronized void closeConnection()
     {
+        flushBatch();
+        if( 0 != m_batchSize && !isStale() )
+        {
+            setAutoCommit( true );
+        }
+
         //close prepared statement here
         super.closeConnection();
 
@@ -258,6 +383,38 @@ public class DefaultJDBCTarget
         return m_columns[ index ];
     }
 
+    private void setAutoCommit( final boolean autoCommit )
+    {
+        final Connection connection = getConnection();
+        if( null == connection )
+        {
+            return;
+        }
+
+        try
+        {
+            if( autoCommit != connection.getAutoCommit() )
+            {
+                connection.setAutoCommit( autoCommit );
+            }
+        }
+        catch( final SQLException se )
+        {
+            getErrorHandler().error( "Error setting auto-commit", se, null );
+        }
+    }
+
+    private void scheduleFlushTask()
+    {
+        scheduleFlushTask( new Runnable()
+        {
+            public void run()
+            {
+                flush();
+            }
+        }, m_flushInterval );
+    }
+
     private String getStackTrace( final Throwable throwable )
     {
         if( null == throwable )
@@ -16,6 +16,7 @@
  */
 package org.apache.log.output.db;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -31,6 +32,11 @@ import org.apache.log.LogEvent;
  * <p>Parts based on JDBC logger from prottomatter by
  * <a href="mailto:nate@protomatter.com">Nate Sammons</a></p>
  *
+ * <p>The ids of categories and priorities are kept in memory once they
+ * have been looked up, so the database is only queried for names that
+ * have not been seen before. A new id is committed at once, so it stays
+ * valid even if the batch of the event that created it is rolled back.</p>
+ *
  * @author Peter Donald
  */
 public class NormalizedJDBCTarget
@@ -39,11 +45,16 @@ public class NormalizedJDBCTarget
     private HashMap m_categoryIDs = new HashMap();
     private HashMap m_priorityIDs = new HashMap();
 
+    private final String m_categoryTable;
+    private final String m_priorityTable;
+
     public NormalizedJDBCTarget( final DataSource dataSource,
                                  final String table,
                                  final ColumnInfo[] columns )
     {
         super( dataSource, table, columns );
+        m_categoryTable = table + "_" + ColumnType.CATEGORY_STR + "_SET";
+        m_priorityTable = table + "_" + ColumnType.PRIORITY_STR + "_SET";
     }
 
     /**
@@ -55,21 +66,18 @@ public class NormalizedJDBCTarget
         throws SQLException
     {
         final ColumnInfo info = getColumn( index );
-        int id = 0;
-        String tableName = null;
 
         switch( info.getType() )
         {
             case ColumnType.CATEGORY:
-                tableName = getTable() + "_" + ColumnType.CATEGORY_STR + "_SET";
-                id = getID( tableName, m_categoryIDs, event.getCategory() );
-                statement.setInt( index + 1, id );
+                statement.setInt( index + 1,
+                                  getID( m_categoryTable, m_categoryIDs, event.getCategory() ) );
                 break;
 
             case ColumnType.PRIORITY:
-                tableName = getTable() + "_" + ColumnType.PRIORITY_STR + "_SET";
-                id = getID( tableName, m_priorityIDs, event.getPriority().getName() );
-                statement.setInt( index + 1, id );
+                statement.setInt( index + 1,
+                                  getID( m_priorityTable, m_priorityIDs,
+                                         event.getPriority().getName() ) );
                 break;
 
             default:
@@ -89,7 +97,8 @@ public class NormalizedJDBCTarget
 
         try
         {
-            statement = getConnection().createStatement();
+            final Connection connection = getConnection();
+            statement = connection.createStatement();
 
             final String querySql = "SELECT ID FROM " + tableName + " WHERE NAME='" + instance + "'";
             resultSet = statement.executeQuery( querySql );
@@ -119,6 +128,11 @@ public class NormalizedJDBCTarget
                 " (ID, NAME) VALUES ( " + newID + ", '" + instance + "')";
             statement.executeUpdate( insertSQL );
 
+            if( !connection.getAutoCommit() )
+            {
+                connection.commit();
+            }
+
             idMap.put( instance, new Integer( newID ) );
             return newID;
         }
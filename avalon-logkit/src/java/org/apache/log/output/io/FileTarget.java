@@ -19,6 +19,7 @@ package org.apache.log.output.io;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import org.apache.log.format.Formatter;
 
 /**
@@ -110,6 +111,27 @@ public class FileTarget
         open();
     }
 
+    /**
+     * Switch to a file that has already been opened, while the target
+     * stays open.
+     *
+     * @param file the file to write to
+     * @param outputStream the stream writing to the file
+     * @return the stream of the previous file, which the caller has to close
+     */
+    protected synchronized OutputStream switchFile( final File file,
+                                                    final OutputStream outputStream )
+    {
+        if( null == file )
+        {
+            throw new NullPointerException( "file property must not be null" );
+        }
+
+        final OutputStream old = replaceOutputStream( outputStream );
+        m_file = file;
+        return old;
+    }
+
     /**
      * Retrieve file associated with target.
      * This allows subclasses to access file object.
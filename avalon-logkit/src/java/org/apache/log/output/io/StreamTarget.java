@@ -16,14 +16,31 @@
  */
 package org.apache.log.output.io;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import org.apache.log.LogEvent;
+import org.apache.log.Priority;
 import org.apache.log.format.Formatter;
 import org.apache.log.output.AbstractOutputTarget;
 
 /**
  * A basic target that writes to an OutputStream.
  *
+ * <p>By default every event is written and flushed on its own. After
+ * {@link #setBuffering(int, long, Priority)} events are encoded into a
+ * reusable buffer instead, which is written to the stream when it is full,
+ * when the flush interval has passed, when an event at or above the flush
+ * priority arrives, and when the stream is closed or replaced (so also when
+ * a RotatingFileTarget rotates).</p>
+ *
  * @author Peter Donald
  */
 public class StreamTarget
@@ -35,6 +52,21 @@ public class StreamTarget
     /** The encoding to use when creating byte array for string, may be null. */
     private String m_encoding;
 
+    /** The buffer events are encoded into, or null if the target is not buffered. */
+    private ByteBuffer m_buffer;
+
+    /** The encoder filling the buffer. */
+    private CharsetEncoder m_encoder;
+
+    /** Milliseconds between flushes of the buffer, or 0. */
+    private long m_flushInterval;
+
+    /** Events at or above this priority are flushed at once, may be null. */
+    private Priority m_flushPriority;
+
+    /** Whether the event being written must be flushed at once. */
+    private boolean m_flushEvent;
+
     /**
      * Constructor that writes to a stream and uses a particular formatter.
      *
@@ -87,9 +119,98 @@ public class StreamTarget
             throw new NullPointerException( "outputStream property must not be null" );
         }
 
+        flushBuffer();
         m_outputStream = outputStream;
     }
 
+    /**
+     * Replace the output stream without closing the old one. Whatever is
+     * buffered is written to the old stream first.
+     *
+     * @param outputStream the new OutputStream
+     * @return the old OutputStream, which the caller has to close, may be null
+     */
+    protected synchronized OutputStream replaceOutputStream( final OutputStream outputStream )
+    {
+        final OutputStream old = m_outputStream;
+        setOutputStream( outputStream );
+        return old;
+    }
+
+    /**
+     * Buffer the output of this target. Events are encoded into a buffer of
+     * <code>bufferSize</code> bytes, which is written to the stream when it
+     * is full, every <code>flushInterval</code> milliseconds, at once after
+     * an event at or above <code>flushPriority</code>, and when the stream is
+     * closed or replaced.
+     *
+     * @param bufferSize the size of the buffer in bytes, 0 to write and flush
+     *        every event on its own
+     * @param flushInterval the number of milliseconds between flushes, 0 to
+     *        only flush when the buffer is full
+     * @param flushPriority the priority from which events are flushed at once,
+     *        null to not flush on priority
+     */
+    public synchronized void setBuffering( final int bufferSize,
+                                           final long flushInterval,
+                                           final Priority flushPriority )
+    {
+        flushBuffer();
+        cancelFlushTask();
+
+        if( bufferSize > 0 )
+        {
+            m_buffer = ByteBuffer.allocate( Math.max( bufferSize, 16 ) );
+            m_encoder = getCharset().newEncoder()
+                .onMalformedInput( CodingErrorAction.REPLACE )
+                .onUnmappableCharacter( CodingErrorAction.REPLACE );
+            m_flushInterval = Math.max( 0, flushInterval );
+            m_flushPriority = flushPriority;
+        }
+        else
+        {
+            m_buffer = null;
+            m_encoder = null;
+            m_flushInterval = 0;
+            m_flushPriority = null;
+        }
+
+        if( isOpen() )
+        {
+            scheduleFlushTask();
+        }
+    }
+
+    /**
+     * Startup log session, and start flushing the buffer every flush
+     * interval if there is one.
+     */
+    protected synchronized void open()
+    {
+        super.open();
+        scheduleFlushTask();
+    }
+
+    /**
+     * Process a log event. If the target is buffered, the event is flushed
+     * at once if its priority is at or above the flush priority.
+     *
+     * @param event the log event
+     */
+    protected synchronized void doProcessEvent( final LogEvent event )
+    {
+        m_flushEvent = null != m_flushPriority
+            && !event.getPriority().isLower( m_flushPriority );
+        try
+        {
+            super.doProcessEvent( event );
+        }
+        finally
+        {
+            m_flushEvent = false;
+        }
+    }
+
     /**
      * Abstract method that will output event.
      *
@@ -108,6 +229,12 @@ public class StreamTarget
             return;
         }
 
+        if( null != m_buffer )
+        {
+            writeBuffered( outputStream, data );
+            return;
+        }
+
         try
         {
             byte[] bytes;
@@ -137,14 +264,25 @@ public class StreamTarget
     public synchronized void close()
     {
         super.close();
+        cancelFlushTask();
         shutdownStream();
     }
 
+    /**
+     * Write out what is in the buffer, and flush the output stream.
+     */
+    public synchronized void flush()
+    {
+        flushBuffer();
+    }
+
     /**
      * Shutdown output stream.
      */
     protected synchronized void shutdownStream()
     {
+        flushBuffer();
+
         final OutputStream outputStream = m_outputStream;
         m_outputStream = null;
 
@@ -164,4 +302,104 @@ public class StreamTarget
             getErrorHandler().error( "Error closing OutputStream", ioe, null );
         }
     }
+
+    /**
+     * Encode data into the buffer, writing the buffer out whenever it is full.
+     */
+    private void writeBuffered( final OutputStream outputStream, final String data )
+    {
+        try
+        {
+            final CharBuffer chars = CharBuffer.wrap( data );
+            CoderResult result = m_encoder.encode( chars, m_buffer, true );
+            while( result.isOverflow() )
+            {
+                writeBuffer( outputStream );
+                result = m_encoder.encode( chars, m_buffer, true );
+            }
+            while( m_encoder.flush( m_buffer ).isOverflow() )
+            {
+                writeBuffer( outputStream );
+            }
+            m_encoder.reset();
+
+            if( m_flushEvent )
+            {
+                writeBuffer( outputStream );
+                outputStream.flush();
+            }
+        }
+        catch( final IOException ioe )
+        {
+            m_buffer.clear();
+            m_encoder.reset();
+
+            final String message = "Error writing data '" + data + "' to OutputStream";
+            getErrorHandler().error( message, ioe, null );
+        }
+    }
+
+    /**
+     * Write the buffer to the stream, and flush the stream.
+     */
+    private void flushBuffer()
+    {
+        final OutputStream outputStream = m_outputStream;
+        if( null == m_buffer || 0 == m_buffer.position() || null == outputStream )
+        {
+            return;
+        }
+
+        try
+        {
+            writeBuffer( outputStream );
+            outputStream.flush();
+        }
+        catch( final IOException ioe )
+        {
+            getErrorHandler().error( "Error flushing OutputStream", ioe, null );
+        }
+    }
+
+    private void writeBuffer( final OutputStream outputStream )
+        throws IOException
+    {
+        final int length = m_buffer.position();
+        m_buffer.clear();
+        if( length > 0 )
+        {
+            outputStream.write( m_buffer.array(), 0, length );
+        }
+    }
+
+    private Charset getCharset()
+    {
+        String encoding = m_encoding;
+        if( null == encoding )
+        {
+            // The name of the default encoding, as used by String.getBytes()
+            encoding = new OutputStreamWriter( new ByteArrayOutputStream() ).getEncoding();
+        }
+
+        try
+        {
+            return Charset.forName( encoding );
+        }
+        catch( final IllegalArgumentException iae )
+        {
+            getErrorHandler().error( "Unknown encoding " + encoding + ", using ISO-8859-1", iae, null );
+            return Charset.forName( "ISO-8859-1" );
+        }
+    }
+
+    private void scheduleFlushTask()
+    {
+        scheduleFlushTask( new Runnable()
+        {
+            public void run()
+            {
+                flush();
+            }
+        }, m_flushInterval );
+    }
 }
@@ -17,13 +17,32 @@
 package org.apache.log.output.io.rotate;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.zip.GZIPOutputStream;
 import org.apache.log.format.Formatter;
 import org.apache.log.output.io.FileTarget;
 
 /**
  * This is a basic Output log target that writes to rotating files.
  *
+ * <p>By default the file is rotated by the thread that logs the event
+ * which makes rotation necessary. After
+ * {@link #setBackgroundRotation(boolean, int)} that thread only asks the
+ * FileStrategy for the name of the next file, and a background thread
+ * opens it. Until it is open, the target keeps writing to the current
+ * file, and then switches to it. The background thread closes the old
+ * file, compresses it with gzip if asked to, and deletes the oldest
+ * rotated out files beyond the maximum number of archives. The file the
+ * target writes to, or is about to switch to, is never archived. If the
+ * FileStrategy names the current file as the next one, as a
+ * UniqueFileStrategy does within the same period, there is nothing to
+ * rotate.</p>
+ *
  * @author Peter Donald
  * @author <a href="mailto:mcconnell@osm.net">Stephen McConnell</a>
  * @author <a href="mailto:bh22351@i-one.at">Bernhard Huber</a>
@@ -31,6 +50,12 @@ import org.apache.log.output.io.FileTarget;
 public class RotatingFileTarget
     extends FileTarget
 {
+    ///The suffix of compressed files
+    private static final String GZIP_SUFFIX = ".gz";
+
+    ///The thread running the background work of all targets
+    private static final String ROTATION_TIMER = "rotation";
+
     ///Flag indicating whether or not file should be appended to
     private boolean m_append;
 
@@ -40,6 +65,30 @@ public class RotatingFileTarget
     ///The file strategy to be used.
     private FileStrategy m_fileStrategy;
 
+    ///Flag indicating whether files are opened and archived in the background
+    private boolean m_background;
+
+    ///Flag indicating whether rotated out files are compressed
+    private boolean m_compress;
+
+    ///The number of rotated out files to keep, 0 to keep all
+    private int m_maxArchives;
+
+    ///Flag indicating whether the next file is being opened in the background
+    private boolean m_preparing;
+
+    ///The file to switch to, or null if no rotation is pending
+    private File m_nextFile;
+
+    ///The stream writing to the next file
+    private OutputStream m_nextStream;
+
+    ///Flag indicating whether the next file did not exist before it was opened
+    private boolean m_nextCreated;
+
+    ///The rotated out files, oldest first. Only used by the background thread
+    private final LinkedList m_archives = new LinkedList();
+
     /**
      * Construct RotatingFileTarget object.
      *
@@ -80,6 +129,23 @@ public class RotatingFileTarget
         rotate();
     }
 
+    /**
+     * Rotate in the background. The next file is opened by a background
+     * thread, so that rotating only has to switch to it, and the rotated
+     * out files are closed and archived by that thread as well.
+     *
+     * @param compress true to compress rotated out files with gzip
+     * @param maxArchives the number of rotated out files to keep, 0 to keep
+     *        all of them. Only files rotated out by this target are counted
+     */
+    public synchronized void setBackgroundRotation( final boolean compress,
+                                                    final int maxArchives )
+    {
+        m_background = true;
+        m_compress = compress;
+        m_maxArchives = Math.max( 0, maxArchives );
+    }
+
     /**
      * Rotates the file.
      * @exception IOException if a file access or write related error occurs
@@ -100,23 +166,324 @@ public class RotatingFileTarget
      */
     protected synchronized void write( final String data )
     {
-        // if rotation is needed, close old File, create new File
-        if( m_rotateStrategy.isRotationNeeded( data, getFile() ) )
+        try
         {
-            try
+            if( null != m_nextFile )
             {
-                rotate();
-
-                m_rotateStrategy.reset();
+                // a rotation is pending, switch once the next file is open
+                switchToNextFile();
             }
-            catch( final IOException ioe )
+            // if rotation is needed, close old File, create new File
+            else if( m_rotateStrategy.isRotationNeeded( data, getFile() ) )
             {
-                getErrorHandler().error( "Error rotating file", ioe, null );
+                if( !m_background )
+                {
+                    rotate();
+                }
+                else
+                {
+                    prepareNextFile();
+                }
+
+                m_rotateStrategy.reset();
             }
         }
+        catch( final IOException ioe )
+        {
+            getErrorHandler().error( "Error rotating file", ioe, null );
+        }
 
         // write the log message
         super.write( data );
     }
-}
 
+    /**
+     * Shutdown target, and close the next file if it was already opened.
+     */
+    public synchronized void close()
+    {
+        super.close();
+        discardNextFile();
+    }
+
+    /**
+     * Switch to the next file once it has been opened in the background,
+     * and hand the current file to the background thread.
+     *
+     * @exception IOException if a file access or write related error occurs
+     */
+    private void switchToNextFile()
+        throws IOException
+    {
+        if( m_preparing )
+        {
+            return;
+        }
+
+        final File file = getFile();
+        final File nextFile = m_nextFile;
+        final OutputStream outputStream;
+        if( null == m_nextStream )
+        {
+            //Opening the next file failed, so try again here
+            m_nextFile = null;
+            outputStream = null;
+            close();
+            setFile( nextFile, m_append );
+            openFile();
+        }
+        else
+        {
+            if( !m_append && !m_nextCreated )
+            {
+                //The file was opened for appending so that its old content
+                //stays in place until now
+                ( (FileOutputStream)m_nextStream ).getChannel().truncate( 0 );
+            }
+            outputStream = switchFile( nextFile, m_nextStream );
+            m_nextFile = null;
+            m_nextStream = null;
+        }
+
+        archive( file, outputStream );
+    }
+
+    /**
+     * Ask the FileStrategy for the next file, and open it in the
+     * background.
+     *
+     * @exception IOException if a file access related error occurs
+     */
+    private void prepareNextFile()
+        throws IOException
+    {
+        final File file = m_fileStrategy.nextFile();
+        if( file.getCanonicalFile().equals( getFile().getCanonicalFile() ) )
+        {
+            //already writing to it
+            return;
+        }
+
+        m_nextFile = file;
+        m_preparing = true;
+        schedule( ROTATION_TIMER, new Runnable()
+        {
+            public void run()
+            {
+                openNextFile( file );
+            }
+        }, 0, 0 );
+    }
+
+    /**
+     * Close and archive a rotated out file in the background.
+     *
+     * @param file the file
+     * @param outputStream the stream writing to the file, may be null
+     */
+    private void archive( final File file, final OutputStream outputStream )
+    {
+        final boolean compress = m_compress;
+        final int maxArchives = m_maxArchives;
+        schedule( ROTATION_TIMER, new Runnable()
+        {
+            public void run()
+            {
+                archiveFile( file, outputStream, compress, maxArchives );
+            }
+        }, 0, 0 );
+    }
+
+    /**
+     * Open the next file. Called by the background thread.
+     *
+     * @param file the file
+     */
+    private void openNextFile( final File file )
+    {
+        OutputStream outputStream = null;
+        boolean created = false;
+        try
+        {
+            final File canonical = file.getCanonicalFile();
+
+            //Never delete the file we are about to write to
+            m_archives.remove( canonical );
+
+            final File parent = canonical.getParentFile();
+            if( null != parent && !parent.exists() )
+            {
+                parent.mkdirs();
+            }
+
+            created = !canonical.exists();
+            outputStream = new FileOutputStream( canonical.getPath(), true );
+        }
+        catch( final Exception e )
+        {
+            getErrorHandler().error( "Error opening file " + file, e, null );
+        }
+
+        synchronized( this )
+        {
+            m_preparing = false;
+            m_nextStream = outputStream;
+            m_nextCreated = created;
+
+            if( !isOpen() )
+            {
+                discardNextFile();
+            }
+        }
+    }
+
+    /**
+     * Close the next file if it was opened, and delete it if opening
+     * created it.
+     */
+    private void discardNextFile()
+    {
+        if( null == m_nextStream )
+        {
+            if( !m_preparing )
+            {
+                m_nextFile = null;
+            }
+            return;
+        }
+
+        try
+        {
+            m_nextStream.close();
+            if( m_nextCreated )
+            {
+                m_nextFile.getCanonicalFile().delete();
+            }
+        }
+        catch( final IOException ioe )
+        {
+            getErrorHandler().error( "Error closing file " + m_nextFile, ioe, null );
+        }
+
+        m_nextFile = null;
+        m_nextStream = null;
+    }
+
+    /**
+     * Close a rotated out file, compress it, and delete the oldest
+     * archives. Called by the background thread.
+     *
+     * @param file the file
+     * @param outputStream the stream writing to the file, may be null
+     * @param compress true to compress the file
+     * @param maxArchives the number of archives to keep, 0 to keep all
+     */
+    private void archiveFile( final File file,
+                              final OutputStream outputStream,
+                              final boolean compress,
+                              final int maxArchives )
+    {
+        try
+        {
+            if( null != outputStream )
+            {
+                outputStream.close();
+            }
+
+            File archive = file.getCanonicalFile();
+            if( isInUse( archive ) )
+            {
+                //the target writes to it again, so it is not an archive
+                return;
+            }
+
+            if( compress && archive.exists() )
+            {
+                final File compressed = new File( archive.getPath() + GZIP_SUFFIX );
+                compress( archive, compressed );
+                archive.delete();
+                archive = compressed;
+            }
+
+            m_archives.remove( archive );
+            m_archives.addLast( archive );
+            while( maxArchives > 0 && m_archives.size() > maxArchives )
+            {
+                final File oldest = (File)m_archives.removeFirst();
+                if( !isInUse( oldest ) && oldest.exists() && !oldest.delete() )
+                {
+                    getErrorHandler().error( "Unable to delete file " + oldest, null, null );
+                }
+            }
+        }
+        catch( final Exception e )
+        {
+            getErrorHandler().error( "Error archiving file " + file, e, null );
+        }
+    }
+
+    /**
+     * Determine whether the target writes to a file, or is about to
+     * switch to it. Called by the background thread.
+     *
+     * @param file the canonical file
+     * @return true if the file is in use
+     * @exception IOException if a file access related error occurs
+     */
+    private boolean isInUse( final File file )
+        throws IOException
+    {
+        final File current;
+        final File next;
+        synchronized( this )
+        {
+            current = getFile();
+            next = m_nextFile;
+        }
+
+        return ( null != current && file.equals( current.getCanonicalFile() ) )
+            || ( null != next && file.equals( next.getCanonicalFile() ) );
+    }
+
+    /**
+     * Compress a file with gzip. A partly written destination is deleted
+     * if compression fails.
+     *
+     * @param source the file to compress
+     * @param destination the compressed file
+     * @exception IOException if a file access or write related error occurs
+     */
+    private static void compress( final File source, final File destination )
+        throws IOException
+    {
+        final InputStream input = new FileInputStream( source );
+        boolean completed = false;
+        try
+        {
+            final OutputStream output =
+                new GZIPOutputStream( new FileOutputStream( destination ) );
+            try
+            {
+                final byte[] buffer = new byte[ 8192 ];
+                int count;
+                while( -1 != ( count = input.read( buffer ) ) )
+                {
+                    output.write( buffer, 0, count );
+                }
+            }
+            finally
+            {
+                output.close();
+            }
+            completed = true;
+        }
+        finally
+        {
+            input.close();
+            if( !completed )
+            {
+                destination.delete();
+            }
+        }
+    }
+}
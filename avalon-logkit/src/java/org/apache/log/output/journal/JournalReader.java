@@ -0,0 +1,389 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.output.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import org.apache.log.LogEvent;
+import org.apache.log.LogTarget;
+import org.apache.log.format.PatternFormatter;
+import org.apache.log.output.io.StreamTarget;
+import org.apache.log.output.net.LogEventDecoder;
+import org.apache.log.output.net.TransmittedThrowable;
+
+/**
+ * Reads the events of a journal written by the {@link JournalTarget}, and
+ * passes them on to a LogTarget, such as a StreamTarget with any
+ * Formatter. The events can be restricted to a time range and to a
+ * category with its subcategories. Where a segment has an index, blocks
+ * of the segment without matching events are skipped. Segments without
+ * an index, such as the last segment of a journal that is still being
+ * written, are read in full.
+ *
+ * <p>The reader can also be run from the command line:</p>
+ * <pre>
+ * java org.apache.log.output.journal.JournalReader [-from time] [-to time]
+ *     [-category name] [-format pattern] basefile
+ * </pre>
+ * <p>Times are given as <code>yyyy-MM-dd'T'HH:mm:ss</code> or in
+ * milliseconds, and the pattern is that of the PatternFormatter.</p>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class JournalReader
+{
+    private static final String DEFAULT_FORMAT =
+        "%7.7{priority} %23.23{time:yyyy-MM-dd HH:mm:ss.SSS} [%{category}]: %{message}\\n%{throwable}";
+
+    private static final String TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
+
+    private final File m_baseFile;
+    private final LogEventDecoder m_decoder = new LogEventDecoder();
+
+    private long m_from = Long.MIN_VALUE;
+    private long m_to = Long.MAX_VALUE;
+    private String m_category;
+
+    ///The record being decoded
+    private byte[] m_data = new byte[ 1024 ];
+
+    /**
+     * Create a reader for a journal.
+     *
+     * @param baseFile the base file of the journal
+     * @exception IOException if the base file can not be resolved
+     */
+    public JournalReader( final File baseFile )
+        throws IOException
+    {
+        m_baseFile = baseFile.getCanonicalFile();
+    }
+
+    /**
+     * Only read events in a time range.
+     *
+     * @param from the earliest time, inclusive
+     * @param to the latest time, inclusive
+     */
+    public void setTimeRange( final long from, final long to )
+    {
+        m_from = from;
+        m_to = to;
+    }
+
+    /**
+     * Only read events of a category and its subcategories.
+     *
+     * @param category the category, null to read all categories
+     */
+    public void setCategory( final String category )
+    {
+        m_category = category;
+    }
+
+    /**
+     * Retrieve the segments of the journal, in order.
+     *
+     * @return the segment files
+     */
+    public File[] getSegments()
+    {
+        return JournalTarget.getSegments( m_baseFile );
+    }
+
+    /**
+     * Read the matching events of all segments, in the order they were
+     * written.
+     *
+     * @param target the target the events are passed to
+     * @return the number of events read
+     * @exception IOException if a segment can not be read or is corrupt
+     */
+    public int read( final LogTarget target )
+        throws IOException
+    {
+        final File[] segments = getSegments();
+
+        int count = 0;
+        for( int i = 0; i < segments.length; i++ )
+        {
+            count += readSegment( segments[ i ], target );
+        }
+        return count;
+    }
+
+    private int readSegment( final File segment, final LogTarget target )
+        throws IOException
+    {
+        final int sequence = JournalTarget.getSequence( m_baseFile, segment );
+        final SegmentIndex index =
+            SegmentIndex.read( JournalTarget.getIndexFile( m_baseFile, sequence ) );
+
+        final RandomAccessFile file = new RandomAccessFile( segment, "r" );
+        try
+        {
+            final MappedByteBuffer buffer =
+                file.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, file.length() );
+
+            for( int i = 0; i < JournalTarget.HEADER.length; i++ )
+            {
+                if( buffer.remaining() < 1 || JournalTarget.HEADER[ i ] != buffer.get() )
+                {
+                    throw new IOException( "File " + segment + " is not a journal segment" );
+                }
+            }
+
+            if( null == index )
+            {
+                return readRecords( buffer, buffer.position(), buffer.limit(),
+                                    new SegmentIndex(), target );
+            }
+
+            final long mask = getCategoryMask( index );
+            int count = 0;
+            for( int i = 0; i < index.getBlockCount(); i++ )
+            {
+                final SegmentIndex.Block block = index.getBlock( i );
+                if( block.m_maxTime < m_from || block.m_minTime > m_to
+                    || 0 == ( block.m_mask & mask ) )
+                {
+                    continue;
+                }
+
+                final int end = ( i + 1 < index.getBlockCount() )
+                    ? index.getBlock( i + 1 ).m_offset : index.getEnd();
+                count += readRecords( buffer, block.m_offset, end, index, target );
+            }
+            return count;
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    /**
+     * Read the records between two offsets.
+     *
+     * @param buffer the segment
+     * @param start the offset of the first record
+     * @param end the offset after the last record
+     * @param index the categories of the segment, which category records
+     *        are added to
+     * @param target the target the events are passed to
+     * @return the number of events read
+     */
+    private int readRecords( final MappedByteBuffer buffer,
+                             final int start,
+                             final int end,
+                             final SegmentIndex index,
+                             final LogTarget target )
+        throws IOException
+    {
+        int count = 0;
+        int position = start;
+        while( position + 4 <= end )
+        {
+            final int length = buffer.getInt( position );
+            if( length <= 0 )
+            {
+                //the end of the data
+                break;
+            }
+            if( position + 4 + length > end )
+            {
+                throw new IOException( "Truncated journal record at " + position );
+            }
+
+            if( length > m_data.length )
+            {
+                m_data = new byte[ Math.max( length, m_data.length * 2 ) ];
+            }
+            buffer.position( position + 4 );
+            buffer.get( m_data, 0, length );
+            position += 4 + length;
+
+            m_decoder.setInput( m_data, 0, length );
+            final int type = m_decoder.readByte();
+            if( JournalTarget.TYPE_CATEGORY == type )
+            {
+                final int id = m_decoder.readVarInt();
+                index.setCategory( id, m_decoder.readString() );
+            }
+            else if( JournalTarget.TYPE_EVENT == type )
+            {
+                final LogEvent event = readEvent( index );
+                if( null != event )
+                {
+                    target.processEvent( event );
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Decode the rest of an event record, if the event matches.
+     *
+     * @return the event, or null if it does not match
+     */
+    private LogEvent readEvent( final SegmentIndex index )
+        throws IOException
+    {
+        final long time = m_decoder.readLong();
+        if( time < m_from || time > m_to )
+        {
+            return null;
+        }
+
+        final int priority = m_decoder.readByte();
+        final String category = index.getCategory( m_decoder.readVarInt() );
+        if( !isMatch( category ) )
+        {
+            return null;
+        }
+
+        final LogEvent event = new LogEvent();
+        event.setTime( time );
+        event.setPriority( LogEventDecoder.getPriority( priority ) );
+        event.setCategory( category );
+        event.setMessage( m_decoder.readString() );
+
+        final String stackTrace = m_decoder.readString();
+        if( null != stackTrace )
+        {
+            event.setThrowable( new TransmittedThrowable( stackTrace ) );
+        }
+
+        event.setContextMap( m_decoder.readContextMap() );
+        return event;
+    }
+
+    /**
+     * Get the mask of the blocks that may hold events of the category.
+     */
+    private long getCategoryMask( final SegmentIndex index )
+    {
+        if( null == m_category )
+        {
+            return -1L;
+        }
+
+        long mask = 0;
+        for( int id = 0; id < index.getCategoryCount(); id++ )
+        {
+            if( isMatch( index.getCategory( id ) ) )
+            {
+                mask |= SegmentIndex.getCategoryMask( id );
+            }
+        }
+        return mask;
+    }
+
+    private boolean isMatch( final String category )
+    {
+        if( null == m_category )
+        {
+            return true;
+        }
+        else if( null == category )
+        {
+            return false;
+        }
+
+        return category.equals( m_category )
+            || ( category.startsWith( m_category )
+                 && '.' == category.charAt( m_category.length() ) );
+    }
+
+    /**
+     * Print the events of a journal to standard out.
+     *
+     * @param args the command line arguments
+     * @exception Exception if the journal can not be read
+     */
+    public static void main( final String[] args )
+        throws Exception
+    {
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        String category = null;
+        String format = DEFAULT_FORMAT;
+        String baseFile = null;
+
+        for( int i = 0; i < args.length; i++ )
+        {
+            if( "-from".equals( args[ i ] ) && i + 1 < args.length )
+            {
+                from = parseTime( args[ ++i ] );
+            }
+            else if( "-to".equals( args[ i ] ) && i + 1 < args.length )
+            {
+                to = parseTime( args[ ++i ] );
+            }
+            else if( "-category".equals( args[ i ] ) && i + 1 < args.length )
+            {
+                category = args[ ++i ];
+            }
+            else if( "-format".equals( args[ i ] ) && i + 1 < args.length )
+            {
+                format = args[ ++i ];
+            }
+            else
+            {
+                baseFile = args[ i ];
+            }
+        }
+
+        if( null == baseFile )
+        {
+            System.err.println( "Usage: java " + JournalReader.class.getName()
+                                + " [-from time] [-to time] [-category name]"
+                                + " [-format pattern] basefile" );
+            System.exit( 1 );
+            return;
+        }
+
+        final JournalReader reader = new JournalReader( new File( baseFile ) );
+        reader.setTimeRange( from, to );
+        reader.setCategory( category );
+
+        final StreamTarget target = new StreamTarget( System.out, new PatternFormatter( format ) );
+        target.setBuffering( 64 * 1024, 0, null );
+        reader.read( target );
+        target.flush();
+    }
+
+    private static long parseTime( final String time )
+        throws ParseException
+    {
+        try
+        {
+            return Long.parseLong( time );
+        }
+        catch( final NumberFormatException nfe )
+        {
+            return new SimpleDateFormat( TIME_FORMAT ).parse( time ).getTime();
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.output.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.TreeMap;
+import org.apache.log.LogEvent;
+import org.apache.log.output.AbstractTarget;
+import org.apache.log.output.net.LogEventEncoder;
+
+/**
+ * Appends LogEvents to a journal of memory-mapped segment files, in a
+ * compact binary format that is neither formatted nor encoded as text
+ * when the event is logged. The journal is read back, and rendered with
+ * any Formatter, by the {@link JournalReader}.
+ *
+ * <p>A journal with the base file <code>logs/audit</code> consists of the
+ * segments <code>logs/audit.000000.journal</code>,
+ * <code>logs/audit.000001.journal</code> and so on. A new target starts
+ * a new segment after the last existing one. Each segment is created with
+ * its full size and mapped into memory, and the next segment is started
+ * when an event does not fit anymore. When a segment is finished, its
+ * sparse index is written next to it, as <code>.index</code> file.</p>
+ *
+ * <p>A segment starts with the header <code>'L' 'K' 'J' 1</code>,
+ * followed by records. Each record is a four byte big-endian length,
+ * followed by that many bytes holding a type byte and the record body. A
+ * length of 0 marks the end of the data. A category record defines the id
+ * of a category within the segment, as a varint id and the category name.
+ * An event record holds the time, the priority code, the category id as a
+ * varint, the message, the stack trace of the throwable and the context,
+ * encoded like the records of the {@link LogEventEncoder}.</p>
+ *
+ * <p>The data is written to disk by the operating system. {@link #flush()}
+ * forces it to disk, which also happens when a segment is finished.</p>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class JournalTarget
+    extends AbstractTarget
+{
+    /** The default size of a segment. */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /** The default number of bytes per block of the index. */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    static final byte[] HEADER = new byte[]{'L', 'K', 'J', 1};
+    static final String SEGMENT_SUFFIX = ".journal";
+    static final String INDEX_SUFFIX = ".index";
+
+    static final int TYPE_CATEGORY = 1;
+    static final int TYPE_EVENT = 2;
+
+    ///The smallest allowed segment
+    private static final int MIN_SEGMENT_SIZE = 4096;
+
+    private final File m_baseFile;
+    private final int m_segmentSize;
+    private final int m_blockSize;
+    private final LogEventEncoder m_encoder = new LogEventEncoder( 8192 );
+
+    ///The number of the current segment
+    private int m_sequence;
+
+    private RandomAccessFile m_file;
+    private MappedByteBuffer m_buffer;
+    private SegmentIndex m_index;
+
+    ///The size of the category record after the event record in the encoder, or 0
+    private int m_categorySize;
+
+    /**
+     * Create a journal with segments of the default size.
+     *
+     * @param baseFile the base file of the segments
+     * @exception IOException if the first segment can not be created
+     */
+    public JournalTarget( final File baseFile )
+        throws IOException
+    {
+        this( baseFile, DEFAULT_SEGMENT_SIZE, DEFAULT_BLOCK_SIZE );
+    }
+
+    /**
+     * Create a journal.
+     *
+     * @param baseFile the base file of the segments
+     * @param segmentSize the size of a segment in bytes, at least 4096
+     * @param blockSize the number of bytes per block of the index
+     * @exception IOException if the first segment can not be created
+     */
+    public JournalTarget( final File baseFile, final int segmentSize, final int blockSize )
+        throws IOException
+    {
+        m_baseFile = baseFile.getCanonicalFile();
+        m_segmentSize = Math.max( MIN_SEGMENT_SIZE, segmentSize );
+        m_blockSize = Math.max( 1, blockSize );
+
+        final File parent = m_baseFile.getParentFile();
+        if( null != parent && !parent.exists() )
+        {
+            parent.mkdirs();
+        }
+
+        final File[] segments = getSegments( m_baseFile );
+        m_sequence = ( 0 == segments.length )
+            ? 0 : getSequence( m_baseFile, segments[ segments.length - 1 ] ) + 1;
+
+        openSegment();
+        open();
+    }
+
+    /**
+     * Append an event to the journal.
+     *
+     * @param event the event
+     */
+    protected void doProcessEvent( final LogEvent event )
+        throws Exception
+    {
+        int categoryId = encode( event );
+        if( !fits() )
+        {
+            closeSegment();
+            m_sequence++;
+            openSegment();
+
+            categoryId = encode( event );
+            if( !fits() )
+            {
+                getErrorHandler().error( "Event is too large for a journal segment", null, event );
+                return;
+            }
+        }
+
+        final int offset = m_buffer.position();
+        final byte[] data = m_encoder.getBuffer();
+        final int eventSize = m_encoder.size() - m_categorySize;
+        if( 0 != m_categorySize )
+        {
+            //the category record goes first, so readers know it before the event
+            m_buffer.putInt( m_categorySize );
+            m_buffer.put( data, eventSize, m_categorySize );
+            m_index.setCategory( categoryId, event.getCategory() );
+        }
+
+        m_buffer.putInt( eventSize );
+        m_buffer.put( data, 0, eventSize );
+
+        m_index.addEvent( offset, event.getTime(), categoryId, m_blockSize );
+    }
+
+    /**
+     * Force the journal to disk.
+     */
+    public synchronized void flush()
+    {
+        if( null != m_buffer )
+        {
+            m_buffer.force();
+        }
+    }
+
+    /**
+     * Finish the current segment and close the journal.
+     */
+    public synchronized void close()
+    {
+        super.close();
+
+        try
+        {
+            closeSegment();
+        }
+        catch( final IOException ioe )
+        {
+            getErrorHandler().error( "Error closing journal segment", ioe, null );
+        }
+    }
+
+    /**
+     * Encode the event record, followed by the category record if the
+     * category has no id in the current segment yet.
+     *
+     * @return the id of the category
+     */
+    private int encode( final LogEvent event )
+    {
+        m_encoder.reset();
+
+        int categoryId = m_index.getCategoryId( event.getCategory() );
+        final boolean newCategory = ( -1 == categoryId );
+        if( newCategory )
+        {
+            categoryId = m_index.getCategoryCount();
+        }
+
+        m_encoder.writeByte( TYPE_EVENT );
+        m_encoder.writeLong( event.getTime() );
+        m_encoder.writeByte( LogEventEncoder.getPriorityCode( event.getPriority() ) );
+        m_encoder.writeVarInt( categoryId );
+        m_encoder.writeString( event.getMessage() );
+        m_encoder.writeString( LogEventEncoder.getStackTrace( event.getThrowable() ) );
+        m_encoder.writeContextMap( event.getContextMap() );
+
+        m_categorySize = 0;
+        if( newCategory )
+        {
+            final int start = m_encoder.size();
+            m_encoder.writeByte( TYPE_CATEGORY );
+            m_encoder.writeVarInt( categoryId );
+            m_encoder.writeString( event.getCategory() );
+            m_categorySize = m_encoder.size() - start;
+        }
+
+        return categoryId;
+    }
+
+    /**
+     * Determine whether the encoded records fit into the current segment.
+     */
+    private boolean fits()
+    {
+        final int records = ( 0 == m_categorySize ) ? 1 : 2;
+        return m_buffer.remaining() >= m_encoder.size() + 4 * records;
+    }
+
+    private void openSegment()
+        throws IOException
+    {
+        final File file = getSegmentFile( m_baseFile, m_sequence );
+        m_file = new RandomAccessFile( file, "rw" );
+        m_file.setLength( m_segmentSize );
+        m_buffer = m_file.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, m_segmentSize );
+        m_buffer.put( HEADER );
+        m_index = new SegmentIndex();
+    }
+
+    private void closeSegment()
+        throws IOException
+    {
+        if( null == m_buffer )
+        {
+            return;
+        }
+
+        m_index.setEnd( m_buffer.position() );
+        m_buffer.force();
+        m_buffer = null;
+
+        try
+        {
+            m_index.write( getIndexFile( m_baseFile, m_sequence ) );
+        }
+        finally
+        {
+            m_file.close();
+            m_file = null;
+        }
+    }
+
+    /**
+     * Get the segment file with a sequence number.
+     *
+     * @param baseFile the base file of the journal
+     * @param sequence the sequence number
+     * @return the segment file
+     */
+    static File getSegmentFile( final File baseFile, final int sequence )
+    {
+        return new File( baseFile.getPath() + getSuffix( sequence ) + SEGMENT_SUFFIX );
+    }
+
+    /**
+     * Get the index file of a segment.
+     *
+     * @param baseFile the base file of the journal
+     * @param sequence the sequence number of the segment
+     * @return the index file
+     */
+    static File getIndexFile( final File baseFile, final int sequence )
+    {
+        return new File( baseFile.getPath() + getSuffix( sequence ) + INDEX_SUFFIX );
+    }
+
+    /**
+     * Get the segments of a journal, in order.
+     *
+     * @param baseFile the canonical base file of the journal
+     * @return the segment files
+     */
+    static File[] getSegments( final File baseFile )
+    {
+        final File directory = baseFile.getParentFile();
+        final String prefix = baseFile.getName() + ".";
+        final String[] names = ( null == directory ) ? null : directory.list();
+        if( null == names )
+        {
+            return new File[ 0 ];
+        }
+
+        final TreeMap segments = new TreeMap();
+        for( int i = 0; i < names.length; i++ )
+        {
+            final String name = names[ i ];
+            if( name.startsWith( prefix ) && name.endsWith( SEGMENT_SUFFIX ) )
+            {
+                final File file = new File( directory, name );
+                final int sequence = getSequence( baseFile, file );
+                if( -1 != sequence )
+                {
+                    segments.put( new Integer( sequence ), file );
+                }
+            }
+        }
+
+        return (File[])segments.values().toArray( new File[ segments.size() ] );
+    }
+
+    /**
+     * Get the sequence number of a segment file.
+     *
+     * @param baseFile the base file of the journal
+     * @param file the segment file
+     * @return the sequence number, or -1 if the file is not a segment
+     */
+    static int getSequence( final File baseFile, final File file )
+    {
+        final String name = file.getName();
+        final int start = baseFile.getName().length() + 1;
+        final int end = name.length() - SEGMENT_SUFFIX.length();
+        if( end <= start )
+        {
+            return -1;
+        }
+
+        try
+        {
+            return Integer.parseInt( name.substring( start, end ) );
+        }
+        catch( final NumberFormatException nfe )
+        {
+            return -1;
+        }
+    }
+
+    private static String getSuffix( final int sequence )
+    {
+        final String number = String.valueOf( sequence );
+        final StringBuffer sb = new StringBuffer( ".000000" );
+        sb.replace( Math.max( 1, sb.length() - number.length() ), sb.length(), number );
+        return sb.toString();
+    }
+}
@@ -0,0 +1,291 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.output.journal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import org.apache.log.output.net.LogEventDecoder;
+import org.apache.log.output.net.LogEventEncoder;
+
+/**
+ * The sparse index of a journal segment. The segment is divided into
+ * blocks of about the same number of bytes, and for each block the index
+ * holds its offset, the earliest and latest time of its events, and a
+ * mask of the category ids of its events (bit <code>id % 64</code>). It
+ * also holds the names of the categories by their id.
+ *
+ * <p>The index file starts with the header <code>'L' 'K' 'I' 1</code>,
+ * followed by the end of the data in the segment, the category names, and
+ * the blocks, written with the primitives of the {@link LogEventEncoder}.</p>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+final class SegmentIndex
+{
+    private static final byte[] HEADER = new byte[]{'L', 'K', 'I', 1};
+
+    ///The category names, indexed by id
+    private final ArrayList m_categories = new ArrayList();
+
+    ///The category ids by name
+    private final HashMap m_categoryIds = new HashMap();
+
+    ///The blocks, in order of offset
+    private final ArrayList m_blocks = new ArrayList();
+
+    ///The offset after the last record in the segment
+    private int m_end;
+
+    /**
+     * Get the id of a category.
+     *
+     * @param category the name of the category
+     * @return the id, or -1 if the category has no id yet
+     */
+    int getCategoryId( final String category )
+    {
+        final Integer id = (Integer)m_categoryIds.get( category );
+        return ( null == id ) ? -1 : id.intValue();
+    }
+
+    /**
+     * Get the number of categories, which is also the id of the next one.
+     *
+     * @return the number of categories
+     */
+    int getCategoryCount()
+    {
+        return m_categories.size();
+    }
+
+    /**
+     * Get the name of a category.
+     *
+     * @param id the id of the category
+     * @return the name, or null if the id is unknown
+     */
+    String getCategory( final int id )
+    {
+        return ( id >= 0 && id < m_categories.size() ) ? (String)m_categories.get( id ) : null;
+    }
+
+    /**
+     * Set the name of a category.
+     *
+     * @param id the id of the category
+     * @param category the name of the category
+     */
+    void setCategory( final int id, final String category )
+    {
+        while( m_categories.size() <= id )
+        {
+            m_categories.add( null );
+        }
+        m_categories.set( id, category );
+        m_categoryIds.put( category, new Integer( id ) );
+    }
+
+    /**
+     * Record an event. A new block is started if the event is at least
+     * <code>blockSize</code> bytes after the start of the current block.
+     *
+     * @param offset the offset of the record of the event
+     * @param time the time of the event
+     * @param categoryId the id of the category of the event
+     * @param blockSize the number of bytes per block
+     */
+    void addEvent( final int offset, final long time, final int categoryId, final int blockSize )
+    {
+        Block block = ( m_blocks.isEmpty() ) ? null : (Block)m_blocks.get( m_blocks.size() - 1 );
+        if( null == block || offset - block.m_offset >= blockSize )
+        {
+            block = new Block( offset, time, time, 0 );
+            m_blocks.add( block );
+        }
+
+        block.m_minTime = Math.min( block.m_minTime, time );
+        block.m_maxTime = Math.max( block.m_maxTime, time );
+        block.m_mask |= getCategoryMask( categoryId );
+    }
+
+    int getBlockCount()
+    {
+        return m_blocks.size();
+    }
+
+    Block getBlock( final int index )
+    {
+        return (Block)m_blocks.get( index );
+    }
+
+    int getEnd()
+    {
+        return m_end;
+    }
+
+    void setEnd( final int end )
+    {
+        m_end = end;
+    }
+
+    /**
+     * Get the bit of a category id in the mask of a block.
+     *
+     * @param categoryId the id of the category
+     * @return the bit
+     */
+    static long getCategoryMask( final int categoryId )
+    {
+        return 1L << ( categoryId & 63 );
+    }
+
+    /**
+     * Write the index to a file.
+     *
+     * @param file the file
+     * @exception IOException if an error occurs writing
+     */
+    void write( final File file )
+        throws IOException
+    {
+        final LogEventEncoder encoder = new LogEventEncoder();
+        for( int i = 0; i < HEADER.length; i++ )
+        {
+            encoder.writeByte( HEADER[ i ] );
+        }
+
+        encoder.writeVarInt( m_end );
+
+        encoder.writeVarInt( m_categories.size() );
+        for( int i = 0; i < m_categories.size(); i++ )
+        {
+            encoder.writeString( (String)m_categories.get( i ) );
+        }
+
+        encoder.writeVarInt( m_blocks.size() );
+        for( int i = 0; i < m_blocks.size(); i++ )
+        {
+            final Block block = (Block)m_blocks.get( i );
+            encoder.writeVarInt( block.m_offset );
+            encoder.writeLong( block.m_minTime );
+            encoder.writeLong( block.m_maxTime );
+            encoder.writeLong( block.m_mask );
+        }
+
+        final OutputStream outputStream = new FileOutputStream( file );
+        try
+        {
+            encoder.writeTo( outputStream );
+        }
+        finally
+        {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Read an index from a file.
+     *
+     * @param file the file
+     * @return the index, or null if the file does not exist
+     * @exception IOException if the file can not be read or is corrupt
+     */
+    static SegmentIndex read( final File file )
+        throws IOException
+    {
+        if( !file.exists() )
+        {
+            return null;
+        }
+
+        final byte[] data = new byte[ (int)file.length() ];
+        final InputStream inputStream = new FileInputStream( file );
+        try
+        {
+            int count = 0;
+            while( count < data.length )
+            {
+                final int read = inputStream.read( data, count, data.length - count );
+                if( -1 == read )
+                {
+                    break;
+                }
+                count += read;
+            }
+        }
+        finally
+        {
+            inputStream.close();
+        }
+
+        final LogEventDecoder decoder = new LogEventDecoder();
+        decoder.setInput( data, 0, data.length );
+        for( int i = 0; i < HEADER.length; i++ )
+        {
+            if( HEADER[ i ] != decoder.readByte() )
+            {
+                throw new IOException( "File " + file + " is not a journal index" );
+            }
+        }
+
+        final SegmentIndex index = new SegmentIndex();
+        index.m_end = decoder.readVarInt();
+
+        final int categories = decoder.readVarInt();
+        for( int i = 0; i < categories; i++ )
+        {
+            index.setCategory( i, decoder.readString() );
+        }
+
+        final int blocks = decoder.readVarInt();
+        for( int i = 0; i < blocks; i++ )
+        {
+            final int offset = decoder.readVarInt();
+            final long minTime = decoder.readLong();
+            final long maxTime = decoder.readLong();
+            final long mask = decoder.readLong();
+            index.m_blocks.add( new Block( offset, minTime, maxTime, mask ) );
+        }
+
+        return index;
+    }
+
+    /**
+     * A block of records in a segment.
+     */
+    static final class Block
+    {
+        final int m_offset;
+        long m_minTime;
+        long m_maxTime;
+        long m_mask;
+
+        Block( final int offset, final long minTime, final long maxTime, final long mask )
+        {
+            m_offset = offset;
+            m_minTime = minTime;
+            m_maxTime = maxTime;
+            m_mask = mask;
+        }
+    }
+}
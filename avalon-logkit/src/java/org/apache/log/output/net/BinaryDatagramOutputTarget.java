@@ -0,0 +1,194 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.output.net;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import org.apache.log.LogEvent;
+import org.apache.log.output.AbstractTarget;
+
+/**
+ * Sends LogEvents as datagrams in the compact binary format of the
+ * {@link LogEventEncoder}, to be received by a {@link DatagramLogServer}.
+ * Each datagram holds the stream header followed by one or more records;
+ * a record is never split over two datagrams.
+ *
+ * <p>Without a flush interval every event is sent in a datagram of its
+ * own. With a flush interval, events are packed into datagrams of up to
+ * <code>maxPacketSize</code> bytes, and a partly filled datagram is sent
+ * every <code>flushInterval</code> milliseconds and when the target is
+ * closed.</p>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class BinaryDatagramOutputTarget
+    extends AbstractTarget
+{
+    /** The default size of a datagram, which fits into an ethernet frame. */
+    public static final int DEFAULT_PACKET_SIZE = 1400;
+
+    ///The largest payload of a UDP datagram
+    private static final int MAX_DATAGRAM_SIZE = 65507;
+
+    ///Socket on which to send datagrams
+    private DatagramSocket m_socket;
+
+    ///The packet, reused for every datagram
+    private final DatagramPacket m_packet = new DatagramPacket( new byte[ 0 ], 0 );
+
+    private final LogEventEncoder m_encoder;
+    private final int m_maxPacketSize;
+    private final boolean m_packed;
+
+    /**
+     * Create a output target with end point specified by address and port,
+     * which sends every event at once.
+     *
+     * @param address the address endpoint
+     * @param port the address port
+     * @exception IOException if an error occurs
+     */
+    public BinaryDatagramOutputTarget( final InetAddress address, final int port )
+        throws IOException
+    {
+        this( address, port, DEFAULT_PACKET_SIZE, 0 );
+    }
+
+    /**
+     * Create a output target with end point specified by address and port.
+     *
+     * @param address the address endpoint
+     * @param port the address port
+     * @param maxPacketSize the largest datagram to pack events into
+     * @param flushInterval the number of milliseconds between flushes, 0 to
+     *        send every event at once
+     * @exception IOException if an error occurs
+     */
+    public BinaryDatagramOutputTarget( final InetAddress address,
+                                       final int port,
+                                       final int maxPacketSize,
+                                       final long flushInterval )
+        throws IOException
+    {
+        m_maxPacketSize = Math.min( MAX_DATAGRAM_SIZE,
+                                    Math.max( LogEventEncoder.HEADER_SIZE + 64, maxPacketSize ) );
+        m_packed = flushInterval > 0;
+        m_encoder = new LogEventEncoder( m_maxPacketSize );
+        m_encoder.writeHeader();
+
+        m_socket = new DatagramSocket();
+        m_socket.connect( address, port );
+
+        open();
+
+        scheduleFlushTask( new Runnable()
+        {
+            public void run()
+            {
+                flush();
+            }
+        }, flushInterval );
+    }
+
+    /**
+     * Add the event to the current datagram, and send the datagram if it
+     * is full.
+     *
+     * @param event the LogEvent
+     */
+    protected void doProcessEvent( final LogEvent event )
+    {
+        final int previous = m_encoder.size();
+        m_encoder.encode( event );
+
+        if( m_encoder.size() > m_maxPacketSize && previous > LogEventEncoder.HEADER_SIZE )
+        {
+            //send what was there before, and keep the new record
+            send( previous );
+            m_encoder.remove( LogEventEncoder.HEADER_SIZE, previous );
+        }
+
+        if( !m_packed || m_encoder.size() >= m_maxPacketSize )
+        {
+            flushPacket();
+        }
+    }
+
+    /**
+     * Send the events in the current datagram.
+     */
+    public synchronized void flush()
+    {
+        flushPacket();
+    }
+
+    /**
+     * Shutdown target, after the current datagram has been sent.
+     * Attempting to write to target after close() will cause errors to be logged.
+     */
+    public synchronized void close()
+    {
+        if( !isOpen() )
+        {
+            return;
+        }
+
+        cancelFlushTask();
+
+        flushPacket();
+        super.close();
+        m_socket.close();
+        m_socket = null;
+    }
+
+    private void flushPacket()
+    {
+        if( m_encoder.size() > LogEventEncoder.HEADER_SIZE )
+        {
+            send( m_encoder.size() );
+            m_encoder.reset();
+            m_encoder.writeHeader();
+        }
+    }
+
+    private void send( final int length )
+    {
+        if( null == m_socket )
+        {
+            return;
+        }
+
+        if( length > MAX_DATAGRAM_SIZE )
+        {
+            getErrorHandler().error( "LogEvent of " + length + " bytes is too large for a datagram",
+                                     null, null );
+            return;
+        }
+
+        try
+        {
+            m_packet.setData( m_encoder.getBuffer(), 0, length );
+            m_socket.send( m_packet );
+        }
+        catch( final IOException ioe )
+        {
+            getErrorHandler().error( "Error sending datagram.", ioe, null );
+        }
+    }
+}
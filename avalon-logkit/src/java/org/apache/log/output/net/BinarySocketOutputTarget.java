@@ -0,0 +1,187 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.output.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import org.apache.log.LogEvent;
+import org.apache.log.output.AbstractTarget;
+
+/**
+ * Sends LogEvents to a TCP/IP socket in the compact binary format of the
+ * {@link LogEventEncoder}, to be received by a {@link SocketLogServer}.
+ * Unlike the {@link SocketOutputTarget} it does not use Java
+ * serialization, and it can collect events into batches which are sent
+ * with a single write.
+ *
+ * <p>A batch is sent when it holds <code>batchSize</code> events or 64k
+ * of data, every <code>flushInterval</code> milliseconds, and when the
+ * target is closed.</p>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class BinarySocketOutputTarget
+    extends AbstractTarget
+{
+    ///The number of bytes after which a batch is sent regardless of its size
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+
+    /** Socket to communicate with the server */
+    private Socket m_socket;
+
+    /** Output stream of the socket */
+    private OutputStream m_outputStream;
+
+    private final LogEventEncoder m_encoder = new LogEventEncoder( 8192 );
+
+    /** The number of events per batch. */
+    private final int m_batchSize;
+
+    /** The number of events in the current batch. */
+    private int m_pending;
+
+    /**
+     * Creates output target with the end point specified by the address
+     * and port, which sends every event at once.
+     *
+     * @param address end point address
+     * @param port the end point port
+     * @exception IOException if an I/O error ocurrs when creating socket
+     */
+    public BinarySocketOutputTarget( final InetAddress address,
+                                     final int port )
+        throws IOException
+    {
+        this( address, port, 1, 0 );
+    }
+
+    /**
+     * Creates output target with the end point specified by the address
+     * and port, which sends events in batches.
+     *
+     * @param address end point address
+     * @param port the end point port
+     * @param batchSize the number of events per batch
+     * @param flushInterval the number of milliseconds between flushes, 0 to
+     *        only send full batches
+     * @exception IOException if an I/O error ocurrs when creating socket
+     */
+    public BinarySocketOutputTarget( final InetAddress address,
+                                     final int port,
+                                     final int batchSize,
+                                     final long flushInterval )
+        throws IOException
+    {
+        m_batchSize = Math.max( 1, batchSize );
+
+        m_socket = new Socket( address, port );
+        m_socket.setTcpNoDelay( true );
+        m_outputStream = m_socket.getOutputStream();
+
+        //the header goes out with the first batch
+        m_encoder.writeHeader();
+
+        open();
+
+        scheduleFlushTask( new Runnable()
+        {
+            public void run()
+            {
+                flush();
+            }
+        }, flushInterval );
+    }
+
+    /**
+     * Add the event to the current batch, and send the batch if it is
+     * full.
+     *
+     * @param event the LogEvent
+     */
+    protected void doProcessEvent( final LogEvent event )
+    {
+        m_encoder.encode( event );
+        m_pending++;
+
+        if( m_pending >= m_batchSize || m_encoder.size() >= MAX_BATCH_BYTES )
+        {
+            flushBatch();
+        }
+    }
+
+    /**
+     * Send the events in the current batch.
+     */
+    public synchronized void flush()
+    {
+        flushBatch();
+    }
+
+    /**
+     * Shutdown target, after the current batch has been sent.
+     * Attempting to write to target after close() will cause errors to be logged.
+     */
+    public synchronized void close()
+    {
+        if( !isOpen() )
+        {
+            return;
+        }
+
+        cancelFlushTask();
+
+        flushBatch();
+        super.close();
+
+        try
+        {
+            m_socket.close();
+        }
+        catch( final IOException ioe )
+        {
+            getErrorHandler().error( "Error closing socket", ioe, null );
+        }
+
+        m_outputStream = null;
+        m_socket = null;
+    }
+
+    private void flushBatch()
+    {
+        if( 0 == m_encoder.size() || null == m_outputStream )
+        {
+            return;
+        }
+
+        try
+        {
+            m_encoder.writeTo( m_outputStream );
+            m_outputStream.flush();
+        }
+        catch( final IOException ioe )
+        {
+            getErrorHandler().error( "Error writing " + m_pending + " events to socket", ioe, null );
+        }
+        finally
+        {
+            m_encoder.reset();
+            m_pending = 0;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.output.net;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.log.ErrorHandler;
+import org.apache.log.LogEvent;
+import org.apache.log.LogTarget;
+import org.apache.log.util.DefaultErrorHandler;
+
+/**
+ * Receives LogEvents sent by {@link BinaryDatagramOutputTarget}s and
+ * hands them to a LogTarget. A datagram that can not be decoded is
+ * reported to the ErrorHandler and dropped.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class DatagramLogServer
+    implements Runnable
+{
+    private final DatagramSocket m_socket;
+    private final LogTarget m_target;
+    private ErrorHandler m_errorHandler = new DefaultErrorHandler();
+    private int m_maxRecordLength = LogEventDecoder.DEFAULT_MAX_RECORD_LENGTH;
+    private Thread m_thread;
+    private volatile boolean m_running;
+
+    /**
+     * Create a server listening on a port.
+     *
+     * @param port the port, 0 for any free port
+     * @param target the target receiving the events
+     * @exception IOException if the port can not be opened
+     */
+    public DatagramLogServer( final int port, final LogTarget target )
+        throws IOException
+    {
+        this( new DatagramSocket( port ), target );
+    }
+
+    /**
+     * Create a server listening on a datagram socket.
+     *
+     * @param socket the socket
+     * @param target the target receiving the events
+     */
+    public DatagramLogServer( final DatagramSocket socket, final LogTarget target )
+    {
+        if( null == socket )
+        {
+            throw new NullPointerException( "socket" );
+        }
+        if( null == target )
+        {
+            throw new NullPointerException( "target" );
+        }
+
+        m_socket = socket;
+        m_target = target;
+    }
+
+    /**
+     * Provide the server with an ErrorHandler for datagrams that can not
+     * be read.
+     *
+     * @param errorHandler the error handler
+     */
+    public synchronized void setErrorHandler( final ErrorHandler errorHandler )
+    {
+        if( null == errorHandler )
+        {
+            throw new NullPointerException( "errorHandler property must not be null" );
+        }
+        m_errorHandler = errorHandler;
+    }
+
+    /**
+     * Set the maximum length of a received record. A datagram holding a
+     * longer record is reported to the ErrorHandler and dropped. Takes
+     * effect when the server is started.
+     *
+     * @param maxRecordLength the maximum length in bytes, by default
+     *        {@link LogEventDecoder#DEFAULT_MAX_RECORD_LENGTH}
+     */
+    public synchronized void setMaxRecordLength( final int maxRecordLength )
+    {
+        if( maxRecordLength <= 0 )
+        {
+            throw new IllegalArgumentException( "maxRecordLength must be positive" );
+        }
+        m_maxRecordLength = maxRecordLength;
+    }
+
+    /**
+     * Retrieve the port the server listens on.
+     *
+     * @return the port
+     */
+    public int getPort()
+    {
+        return m_socket.getLocalPort();
+    }
+
+    /**
+     * Start receiving datagrams on a daemon thread.
+     */
+    public synchronized void start()
+    {
+        if( null != m_thread )
+        {
+            return;
+        }
+
+        m_running = true;
+        m_thread = new Thread( this, "DatagramLogServer:" + getPort() );
+        m_thread.setDaemon( true );
+        m_thread.start();
+    }
+
+    /**
+     * Receive datagrams until the server is closed.
+     */
+    public void run()
+    {
+        final LogEventDecoder decoder = new LogEventDecoder();
+        decoder.setMaxRecordLength( getMaxRecordLength() );
+        final DatagramPacket packet = new DatagramPacket( new byte[ 65535 ], 65535 );
+        final List events = new ArrayList();
+
+        while( m_running )
+        {
+            try
+            {
+                packet.setLength( packet.getData().length );
+                m_socket.receive( packet );
+
+                decoder.decodePacket( packet.getData(), packet.getOffset(),
+                                      packet.getLength(), events );
+                for( int i = 0; i < events.size(); i++ )
+                {
+                    m_target.processEvent( (LogEvent)events.get( i ) );
+                }
+            }
+            catch( final IOException ioe )
+            {
+                if( m_running )
+                {
+                    getErrorHandler().error( "Error receiving datagram", ioe, null );
+                }
+            }
+            finally
+            {
+                events.clear();
+            }
+        }
+    }
+
+    /**
+     * Stop receiving datagrams.
+     */
+    public void close()
+    {
+        m_running = false;
+        m_socket.close();
+    }
+
+    private synchronized ErrorHandler getErrorHandler()
+    {
+        return m_errorHandler;
+    }
+
+    private synchronized int getMaxRecordLength()
+    {
+        return m_maxRecordLength;
+    }
+}
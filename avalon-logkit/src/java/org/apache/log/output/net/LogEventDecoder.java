@@ -0,0 +1,414 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.output.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+import org.apache.log.ContextMap;
+import org.apache.log.LogEvent;
+import org.apache.log.Priority;
+
+/**
+ * Decodes LogEvents from the binary format written by the
+ * {@link LogEventEncoder}. A received throwable is represented by a
+ * {@link TransmittedThrowable}, and a received context by a read-only
+ * ContextMap of strings. The decoder is not thread safe.
+ *
+ * <p>After {@link #setInput(byte[], int, int)} the single values of a
+ * record can also be read one by one, for other binary formats that share
+ * the encoding of strings and context.</p>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class LogEventDecoder
+{
+    /**
+     * The default maximum length of a record, 1MB.
+     */
+    public static final int DEFAULT_MAX_RECORD_LENGTH = 1024 * 1024;
+
+    private byte[] m_buffer = new byte[ 1024 ];
+    private int m_maxRecordLength = DEFAULT_MAX_RECORD_LENGTH;
+
+    ///The record being decoded
+    private byte[] m_data;
+    private int m_position;
+    private int m_limit;
+
+    /**
+     * Set the maximum length of a record. A longer record is rejected
+     * before a buffer is allocated for it, so that a corrupt or hostile
+     * length prefix can not exhaust the heap.
+     *
+     * @param maxRecordLength the maximum length in bytes
+     */
+    public void setMaxRecordLength( final int maxRecordLength )
+    {
+        if( maxRecordLength <= 0 )
+        {
+            throw new IllegalArgumentException( "maxRecordLength must be positive" );
+        }
+        m_maxRecordLength = maxRecordLength;
+    }
+
+    /**
+     * Read the stream header.
+     *
+     * @param inputStream the stream
+     * @exception IOException if the stream does not start with the header
+     */
+    public void readHeader( final InputStream inputStream )
+        throws IOException
+    {
+        readFully( inputStream, m_buffer, LogEventEncoder.HEADER_SIZE );
+        if( !isHeader( m_buffer, 0 ) )
+        {
+            throw new IOException( "Stream does not contain binary LogEvents" );
+        }
+    }
+
+    /**
+     * Read the next event from a stream.
+     *
+     * @param inputStream the stream, positioned after the header or a
+     *        previous event
+     * @return the event, or null if the stream has ended
+     * @exception IOException if the stream can not be read or is corrupt,
+     *            or the record is longer than the maximum record length
+     */
+    public LogEvent readEvent( final InputStream inputStream )
+        throws IOException
+    {
+        final int first = inputStream.read();
+        if( -1 == first )
+        {
+            return null;
+        }
+
+        m_buffer[ 0 ] = (byte)first;
+        readFully( inputStream, m_buffer, 1, 3 );
+        final int length = readInt( m_buffer, 0 );
+        if( length < 0 )
+        {
+            throw new IOException( "Corrupt LogEvent record length " + length );
+        }
+        if( length > m_maxRecordLength )
+        {
+            throw new IOException( "LogEvent record length " + length +
+                                   " exceeds the maximum of " + m_maxRecordLength );
+        }
+
+        if( length > m_buffer.length )
+        {
+            m_buffer = new byte[ Math.max( length, m_buffer.length * 2 ) ];
+        }
+        readFully( inputStream, m_buffer, length );
+
+        return decode( m_buffer, 0, length );
+    }
+
+    /**
+     * Decode all events in a packet, which holds the header followed by
+     * any number of records.
+     *
+     * @param data the packet data
+     * @param offset the start of the packet
+     * @param length the length of the packet
+     * @param events the list the events are added to
+     * @exception IOException if the packet is corrupt
+     */
+    public void decodePacket( final byte[] data,
+                              final int offset,
+                              final int length,
+                              final List events )
+        throws IOException
+    {
+        if( length < LogEventEncoder.HEADER_SIZE || !isHeader( data, offset ) )
+        {
+            throw new IOException( "Packet does not contain binary LogEvents" );
+        }
+
+        final int end = offset + length;
+        int position = offset + LogEventEncoder.HEADER_SIZE;
+        while( position < end )
+        {
+            if( position + 4 > end )
+            {
+                throw new IOException( "Truncated LogEvent record" );
+            }
+
+            final int recordLength = readInt( data, position );
+            position += 4;
+            if( recordLength < 0 || recordLength > end - position )
+            {
+                throw new IOException( "Truncated LogEvent record" );
+            }
+            if( recordLength > m_maxRecordLength )
+            {
+                throw new IOException( "LogEvent record length " + recordLength +
+                                       " exceeds the maximum of " + m_maxRecordLength );
+            }
+
+            events.add( decode( data, position, recordLength ) );
+            position += recordLength;
+        }
+    }
+
+    /**
+     * Decode the body of a single record.
+     *
+     * @param data the record data
+     * @param offset the start of the record, after its length
+     * @param length the length of the record
+     * @return the event
+     * @exception IOException if the record is corrupt
+     */
+    public LogEvent decode( final byte[] data, final int offset, final int length )
+        throws IOException
+    {
+        setInput( data, offset, length );
+
+        try
+        {
+            final LogEvent event = new LogEvent();
+
+            event.setTime( readLong() );
+            event.setPriority( getPriority( readByte() ) );
+
+            event.setCategory( readString() );
+            event.setMessage( readString() );
+
+            final String stackTrace = readString();
+            if( null != stackTrace )
+            {
+                event.setThrowable( new TransmittedThrowable( stackTrace ) );
+            }
+
+            event.setContextMap( readContextMap() );
+
+            return event;
+        }
+        finally
+        {
+            m_data = null;
+        }
+    }
+
+    /**
+     * Set the data the single values are read from.
+     *
+     * @param data the data
+     * @param offset the position of the first value
+     * @param length the number of bytes that may be read
+     */
+    public void setInput( final byte[] data, final int offset, final int length )
+    {
+        m_data = data;
+        m_position = offset;
+        m_limit = offset + length;
+    }
+
+    /**
+     * Read a single byte.
+     *
+     * @return the byte
+     * @exception IOException if the data has ended
+     */
+    public int readByte()
+        throws IOException
+    {
+        require( 1 );
+        return m_data[ m_position++ ];
+    }
+
+    /**
+     * Read a long of eight bytes big-endian.
+     *
+     * @return the long
+     * @exception IOException if the data has ended
+     */
+    public long readLong()
+        throws IOException
+    {
+        require( 8 );
+        long value = 0;
+        for( int i = 0; i < 8; i++ )
+        {
+            value = ( value << 8 ) | ( m_data[ m_position++ ] & 0xFF );
+        }
+        return value;
+    }
+
+    /**
+     * Read the entries of a context.
+     *
+     * @return a read-only ContextMap, or null if there are no entries
+     * @exception IOException if the data is corrupt
+     */
+    public ContextMap readContextMap()
+        throws IOException
+    {
+        final int entries = readVarInt();
+        if( 0 == entries )
+        {
+            return null;
+        }
+
+        final ContextMap map = new ContextMap();
+        for( int i = 0; i < entries; i++ )
+        {
+            final String key = readString();
+            final String value = readString();
+            if( null != key )
+            {
+                map.set( key, value );
+            }
+        }
+        map.makeReadOnly();
+        return map;
+    }
+
+    /**
+     * Read a string.
+     *
+     * @return the string, may be null
+     * @exception IOException if the data is corrupt
+     */
+    public String readString()
+        throws IOException
+    {
+        final int length = readVarInt() - 1;
+        if( -1 == length )
+        {
+            return null;
+        }
+
+        require( length );
+        try
+        {
+            final String value = new String( m_data, m_position, length, "UTF-8" );
+            m_position += length;
+            return value;
+        }
+        catch( final UnsupportedEncodingException uee )
+        {
+            //every JVM supports UTF-8
+            throw new IllegalStateException( uee.toString() );
+        }
+    }
+
+    /**
+     * Read a varint.
+     *
+     * @return the int
+     * @exception IOException if the data is corrupt
+     */
+    public int readVarInt()
+        throws IOException
+    {
+        int value = 0;
+        for( int shift = 0; shift < 35; shift += 7 )
+        {
+            require( 1 );
+            final int b = m_data[ m_position++ ];
+            value |= ( b & 0x7F ) << shift;
+            if( 0 == ( b & 0x80 ) )
+            {
+                if( value < 0 )
+                {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IOException( "Corrupt LogEvent record" );
+    }
+
+    private void require( final int length )
+        throws IOException
+    {
+        // m_position + length could overflow
+        if( length < 0 || length > m_limit - m_position )
+        {
+            throw new IOException( "Truncated LogEvent record" );
+        }
+    }
+
+    /**
+     * Get the priority for a code.
+     *
+     * @param code the code, 0 for DEBUG up to 5 for NONE
+     * @return the priority, DEBUG for an unknown code
+     */
+    public static Priority getPriority( final int code )
+    {
+        if( code >= 0 && code < LogEventEncoder.PRIORITIES.length )
+        {
+            return LogEventEncoder.PRIORITIES[ code ];
+        }
+        return Priority.DEBUG;
+    }
+
+    private static boolean isHeader( final byte[] data, final int offset )
+    {
+        for( int i = 0; i < LogEventEncoder.HEADER_SIZE; i++ )
+        {
+            if( LogEventEncoder.HEADER[ i ] != data[ offset + i ] )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readInt( final byte[] data, final int offset )
+    {
+        return ( ( data[ offset ] & 0xFF ) << 24 )
+            | ( ( data[ offset + 1 ] & 0xFF ) << 16 )
+            | ( ( data[ offset + 2 ] & 0xFF ) << 8 )
+            | ( data[ offset + 3 ] & 0xFF );
+    }
+
+    private static void readFully( final InputStream inputStream,
+                                   final byte[] buffer,
+                                   final int length )
+        throws IOException
+    {
+        readFully( inputStream, buffer, 0, length );
+    }
+
+    private static void readFully( final InputStream inputStream,
+                                   final byte[] buffer,
+                                   final int offset,
+                                   final int length )
+        throws IOException
+    {
+        int count = 0;
+        while( count < length )
+        {
+            final int read = inputStream.read( buffer, offset + count, length - count );
+            if( -1 == read )
+            {
+                throw new EOFException( "Stream ended inside a LogEvent record" );
+            }
+            count += read;
+        }
+    }
+}
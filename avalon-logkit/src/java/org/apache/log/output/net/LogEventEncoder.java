@@ -0,0 +1,408 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.output.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import org.apache.log.ContextMap;
+import org.apache.log.LogEvent;
+import org.apache.log.Priority;
+
+/**
+ * Encodes LogEvents into a compact binary format, as a cheaper alternative
+ * to Java serialization for shipping events over the network.
+ * <p>
+ * A stream starts with the four byte header <code>'L' 'K' 'B' 1</code>
+ * (the last byte is the version), followed by any number of records.
+ * Each record is a four byte big-endian length, followed by that many
+ * bytes holding:
+ * </p>
+ * <ul>
+ *   <li>the time, as an eight byte big-endian long</li>
+ *   <li>the priority, as one byte: 0 for DEBUG up to 5 for NONE</li>
+ *   <li>the category, the message and the stack trace of the throwable,
+ *     as strings</li>
+ *   <li>the number of context entries as a varint, followed by the key and
+ *     the value of each entry as strings</li>
+ * </ul>
+ * <p>
+ * A string is a varint holding its length in bytes plus one, or 0 for
+ * null, followed by its UTF-8 bytes. A varint stores seven bits per byte,
+ * least significant first, with the high bit set on all but the last byte.
+ * Context values are sent as their <code>toString()</code>.
+ * </p>
+ * <p>
+ * Events are appended to an internal buffer which grows as needed and is
+ * reused after <code>reset()</code>, so encoding does not allocate unless
+ * the event holds a throwable. The encoder is not thread safe.
+ * </p>
+ * <p>
+ * The methods writing single values are public, so that other binary
+ * formats, such as the journal of the
+ * {@link org.apache.log.output.journal.JournalTarget}, can share the
+ * encoding of strings and context.
+ * </p>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @see LogEventDecoder
+ */
+public final class LogEventEncoder
+{
+    /** The number of bytes in the stream header. */
+    public static final int HEADER_SIZE = 4;
+
+    static final byte[] HEADER = new byte[]{'L', 'K', 'B', 1};
+
+    /** The priorities, indexed by their code on the wire. */
+    static final Priority[] PRIORITIES = new Priority[]{
+        Priority.DEBUG,
+        Priority.INFO,
+        Priority.WARN,
+        Priority.ERROR,
+        Priority.FATAL_ERROR,
+        Priority.NONE
+    };
+
+    private byte[] m_buffer;
+    private int m_size;
+
+    /**
+     * Create an encoder with a 1k buffer.
+     */
+    public LogEventEncoder()
+    {
+        this( 1024 );
+    }
+
+    /**
+     * Create an encoder.
+     *
+     * @param initialSize the initial size of the buffer in bytes
+     */
+    public LogEventEncoder( final int initialSize )
+    {
+        m_buffer = new byte[ Math.max( 64, initialSize ) ];
+    }
+
+    /**
+     * Append the stream header to the buffer.
+     */
+    public void writeHeader()
+    {
+        ensureCapacity( HEADER_SIZE );
+        System.arraycopy( HEADER, 0, m_buffer, m_size, HEADER_SIZE );
+        m_size += HEADER_SIZE;
+    }
+
+    /**
+     * Append the record of an event to the buffer.
+     *
+     * @param event the event
+     */
+    public void encode( final LogEvent event )
+    {
+        final int start = m_size;
+
+        ensureCapacity( 4 );
+        m_size += 4;
+
+        writeLong( event.getTime() );
+        writeByte( getPriorityCode( event.getPriority() ) );
+
+        writeString( event.getCategory() );
+        writeString( event.getMessage() );
+        writeString( getStackTrace( event.getThrowable() ) );
+        writeContextMap( event.getContextMap() );
+
+        final int length = m_size - start - 4;
+        m_buffer[ start ] = (byte)( length >>> 24 );
+        m_buffer[ start + 1 ] = (byte)( length >>> 16 );
+        m_buffer[ start + 2 ] = (byte)( length >>> 8 );
+        m_buffer[ start + 3 ] = (byte)length;
+    }
+
+    /**
+     * Retrieve the buffer. Only the first <code>size()</code> bytes are
+     * valid, and the buffer may be replaced when more is encoded.
+     *
+     * @return the buffer
+     */
+    public byte[] getBuffer()
+    {
+        return m_buffer;
+    }
+
+    /**
+     * Retrieve the number of bytes encoded.
+     *
+     * @return the number of bytes in the buffer
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Empty the buffer.
+     */
+    public void reset()
+    {
+        m_size = 0;
+    }
+
+    /**
+     * Remove a range of bytes from the buffer, moving the bytes after it
+     * forward.
+     *
+     * @param from the first byte to remove
+     * @param to the byte after the last byte to remove
+     */
+    public void remove( final int from, final int to )
+    {
+        System.arraycopy( m_buffer, to, m_buffer, from, m_size - to );
+        m_size -= to - from;
+    }
+
+    /**
+     * Write the buffer to a stream.
+     *
+     * @param outputStream the stream
+     * @exception IOException if an error occurs writing
+     */
+    public void writeTo( final OutputStream outputStream )
+        throws IOException
+    {
+        outputStream.write( m_buffer, 0, m_size );
+    }
+
+    /**
+     * Append a single byte to the buffer.
+     *
+     * @param value the byte
+     */
+    public void writeByte( final int value )
+    {
+        ensureCapacity( 1 );
+        m_buffer[ m_size++ ] = (byte)value;
+    }
+
+    /**
+     * Append a long to the buffer, as eight bytes big-endian.
+     *
+     * @param value the long
+     */
+    public void writeLong( final long value )
+    {
+        ensureCapacity( 8 );
+        for( int shift = 56; shift >= 0; shift -= 8 )
+        {
+            m_buffer[ m_size++ ] = (byte)( value >>> shift );
+        }
+    }
+
+    /**
+     * Append the entries of a context to the buffer, as their number
+     * followed by the key and value of each entry.
+     *
+     * @param map the context, may be null
+     */
+    public void writeContextMap( final ContextMap map )
+    {
+        if( null == map )
+        {
+            writeVarInt( 0 );
+            return;
+        }
+
+        final String[] keys = map.getKeys();
+        writeVarInt( keys.length );
+        for( int i = 0; i < keys.length; i++ )
+        {
+            final Object value = map.get( keys[ i ] );
+            writeString( keys[ i ] );
+            writeString( ( null == value ) ? null : value.toString() );
+        }
+    }
+
+    /**
+     * Append a string to the buffer, as a varint holding its length in
+     * bytes plus one, or 0 for null, followed by its UTF-8 bytes.
+     *
+     * @param value the string, may be null
+     */
+    public void writeString( final String value )
+    {
+        if( null == value )
+        {
+            writeVarInt( 0 );
+            return;
+        }
+
+        final int length = value.length();
+        int bytes = 0;
+        for( int i = 0; i < length; i++ )
+        {
+            final char c = value.charAt( i );
+            if( c < 0x80 )
+            {
+                bytes += 1;
+            }
+            else if( c < 0x800 )
+            {
+                bytes += 2;
+            }
+            else if( isSurrogatePair( value, i ) )
+            {
+                bytes += 4;
+                i++;
+            }
+            else if( isSurrogate( c ) )
+            {
+                bytes += 1;
+            }
+            else
+            {
+                bytes += 3;
+            }
+        }
+
+        writeVarInt( bytes + 1 );
+        ensureCapacity( bytes );
+
+        final byte[] buffer = m_buffer;
+        int position = m_size;
+        for( int i = 0; i < length; i++ )
+        {
+            final char c = value.charAt( i );
+            if( c < 0x80 )
+            {
+                buffer[ position++ ] = (byte)c;
+            }
+            else if( c < 0x800 )
+            {
+                buffer[ position++ ] = (byte)( 0xC0 | ( c >> 6 ) );
+                buffer[ position++ ] = (byte)( 0x80 | ( c & 0x3F ) );
+            }
+            else if( isSurrogatePair( value, i ) )
+            {
+                final int codePoint =
+                    0x10000 + ( ( c - 0xD800 ) << 10 ) + ( value.charAt( ++i ) - 0xDC00 );
+                buffer[ position++ ] = (byte)( 0xF0 | ( codePoint >> 18 ) );
+                buffer[ position++ ] = (byte)( 0x80 | ( ( codePoint >> 12 ) & 0x3F ) );
+                buffer[ position++ ] = (byte)( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+                buffer[ position++ ] = (byte)( 0x80 | ( codePoint & 0x3F ) );
+            }
+            else if( isSurrogate( c ) )
+            {
+                //unpaired surrogates can not be encoded
+                buffer[ position++ ] = (byte)'?';
+            }
+            else
+            {
+                buffer[ position++ ] = (byte)( 0xE0 | ( c >> 12 ) );
+                buffer[ position++ ] = (byte)( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+                buffer[ position++ ] = (byte)( 0x80 | ( c & 0x3F ) );
+            }
+        }
+        m_size = position;
+    }
+
+    /**
+     * Append a non-negative int to the buffer as a varint.
+     *
+     * @param value the int
+     */
+    public void writeVarInt( int value )
+    {
+        ensureCapacity( 5 );
+        while( ( value & ~0x7F ) != 0 )
+        {
+            m_buffer[ m_size++ ] = (byte)( ( value & 0x7F ) | 0x80 );
+            value >>>= 7;
+        }
+        m_buffer[ m_size++ ] = (byte)value;
+    }
+
+    private void ensureCapacity( final int length )
+    {
+        final int required = m_size + length;
+        if( required > m_buffer.length )
+        {
+            final byte[] buffer = new byte[ Math.max( required, m_buffer.length * 2 ) ];
+            System.arraycopy( m_buffer, 0, buffer, 0, m_size );
+            m_buffer = buffer;
+        }
+    }
+
+    private static boolean isSurrogate( final char c )
+    {
+        return c >= 0xD800 && c <= 0xDFFF;
+    }
+
+    private static boolean isSurrogatePair( final String value, final int index )
+    {
+        final char c = value.charAt( index );
+        if( c < 0xD800 || c > 0xDBFF || index + 1 >= value.length() )
+        {
+            return false;
+        }
+        final char next = value.charAt( index + 1 );
+        return next >= 0xDC00 && next <= 0xDFFF;
+    }
+
+    /**
+     * Get the code of a priority.
+     *
+     * @param priority the priority
+     * @return the code, 0 for DEBUG up to 5 for NONE
+     */
+    public static byte getPriorityCode( final Priority priority )
+    {
+        for( int i = 0; i < PRIORITIES.length; i++ )
+        {
+            if( PRIORITIES[ i ] == priority )
+            {
+                return (byte)i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the text of the stack trace of a throwable.
+     *
+     * @param throwable the throwable, may be null
+     * @return the stack trace, or null if there is no throwable
+     */
+    public static String getStackTrace( final Throwable throwable )
+    {
+        if( null == throwable )
+        {
+            return null;
+        }
+        if( throwable instanceof TransmittedThrowable )
+        {
+            return ( (TransmittedThrowable)throwable ).getStackTraceText();
+        }
+
+        final StringWriter sw = new StringWriter();
+        throwable.printStackTrace( new PrintWriter( sw ) );
+        return sw.toString();
+    }
+}
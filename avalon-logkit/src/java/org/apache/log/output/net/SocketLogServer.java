@@ -0,0 +1,274 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.output.net;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.log.ErrorHandler;
+import org.apache.log.LogEvent;
+import org.apache.log.LogTarget;
+import org.apache.log.util.DefaultErrorHandler;
+
+/**
+ * Receives LogEvents sent by {@link BinarySocketOutputTarget}s and hands
+ * them to a LogTarget. Every connection is read by a thread of its own.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class SocketLogServer
+    implements Runnable
+{
+    private final ServerSocket m_serverSocket;
+    private final LogTarget m_target;
+    private final List m_connections = new ArrayList();
+    private ErrorHandler m_errorHandler = new DefaultErrorHandler();
+    private int m_maxRecordLength = LogEventDecoder.DEFAULT_MAX_RECORD_LENGTH;
+    private Thread m_thread;
+    private volatile boolean m_running;
+
+    /**
+     * Create a server listening on a port.
+     *
+     * @param port the port, 0 for any free port
+     * @param target the target receiving the events
+     * @exception IOException if the port can not be opened
+     */
+    public SocketLogServer( final int port, final LogTarget target )
+        throws IOException
+    {
+        this( new ServerSocket( port ), target );
+    }
+
+    /**
+     * Create a server listening on a server socket.
+     *
+     * @param serverSocket the server socket
+     * @param target the target receiving the events
+     */
+    public SocketLogServer( final ServerSocket serverSocket, final LogTarget target )
+    {
+        if( null == serverSocket )
+        {
+            throw new NullPointerException( "serverSocket" );
+        }
+        if( null == target )
+        {
+            throw new NullPointerException( "target" );
+        }
+
+        m_serverSocket = serverSocket;
+        m_target = target;
+    }
+
+    /**
+     * Provide the server with an ErrorHandler for connections that fail.
+     *
+     * @param errorHandler the error handler
+     */
+    public synchronized void setErrorHandler( final ErrorHandler errorHandler )
+    {
+        if( null == errorHandler )
+        {
+            throw new NullPointerException( "errorHandler property must not be null" );
+        }
+        m_errorHandler = errorHandler;
+    }
+
+    /**
+     * Set the maximum length of a received record. A connection sending a
+     * longer record is reported to the ErrorHandler and dropped. Takes
+     * effect for new connections.
+     *
+     * @param maxRecordLength the maximum length in bytes, by default
+     *        {@link LogEventDecoder#DEFAULT_MAX_RECORD_LENGTH}
+     */
+    public synchronized void setMaxRecordLength( final int maxRecordLength )
+    {
+        if( maxRecordLength <= 0 )
+        {
+            throw new IllegalArgumentException( "maxRecordLength must be positive" );
+        }
+        m_maxRecordLength = maxRecordLength;
+    }
+
+    /**
+     * Retrieve the port the server listens on.
+     *
+     * @return the port
+     */
+    public int getPort()
+    {
+        return m_serverSocket.getLocalPort();
+    }
+
+    /**
+     * Start accepting connections on a daemon thread.
+     */
+    public synchronized void start()
+    {
+        if( null != m_thread )
+        {
+            return;
+        }
+
+        m_running = true;
+        m_thread = new Thread( this, "SocketLogServer:" + getPort() );
+        m_thread.setDaemon( true );
+        m_thread.start();
+    }
+
+    /**
+     * Accept connections until the server is closed.
+     */
+    public void run()
+    {
+        while( m_running )
+        {
+            final Socket socket;
+            try
+            {
+                socket = m_serverSocket.accept();
+            }
+            catch( final IOException ioe )
+            {
+                if( m_running )
+                {
+                    getErrorHandler().error( "Error accepting connection", ioe, null );
+                }
+                continue;
+            }
+
+            synchronized( m_connections )
+            {
+                if( !m_running )
+                {
+                    closeSocket( socket );
+                    break;
+                }
+                m_connections.add( socket );
+            }
+
+            final Thread thread = new Thread( new Connection( socket ),
+                                              "SocketLogServer:" + socket.getRemoteSocketAddress() );
+            thread.setDaemon( true );
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop accepting connections, and close the open ones.
+     */
+    public void close()
+    {
+        m_running = false;
+
+        try
+        {
+            m_serverSocket.close();
+        }
+        catch( final IOException ioe )
+        {
+            getErrorHandler().error( "Error closing server socket", ioe, null );
+        }
+
+        synchronized( m_connections )
+        {
+            for( int i = 0; i < m_connections.size(); i++ )
+            {
+                closeSocket( (Socket)m_connections.get( i ) );
+            }
+            m_connections.clear();
+        }
+    }
+
+    private synchronized ErrorHandler getErrorHandler()
+    {
+        return m_errorHandler;
+    }
+
+    private synchronized int getMaxRecordLength()
+    {
+        return m_maxRecordLength;
+    }
+
+    private void closeSocket( final Socket socket )
+    {
+        try
+        {
+            socket.close();
+        }
+        catch( final IOException ioe )
+        {
+            //nothing left to do with it
+        }
+    }
+
+    /**
+     * Reads the events of a single connection.
+     */
+    private final class Connection
+        implements Runnable
+    {
+        private final Socket m_socket;
+
+        Connection( final Socket socket )
+        {
+            m_socket = socket;
+        }
+
+        public void run()
+        {
+            final LogEventDecoder decoder = new LogEventDecoder();
+            decoder.setMaxRecordLength( getMaxRecordLength() );
+
+            try
+            {
+                final InputStream inputStream =
+                    new BufferedInputStream( m_socket.getInputStream(), 8192 );
+                decoder.readHeader( inputStream );
+
+                LogEvent event = decoder.readEvent( inputStream );
+                while( null != event )
+                {
+                    m_target.processEvent( event );
+                    event = decoder.readEvent( inputStream );
+                }
+            }
+            catch( final IOException ioe )
+            {
+                if( m_running )
+                {
+                    getErrorHandler().error( "Error reading from " +
+                                             m_socket.getRemoteSocketAddress(), ioe, null );
+                }
+            }
+            finally
+            {
+                synchronized( m_connections )
+                {
+                    m_connections.remove( m_socket );
+                }
+                closeSocket( m_socket );
+            }
+        }
+    }
+}
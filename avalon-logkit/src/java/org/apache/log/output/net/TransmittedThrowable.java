@@ -0,0 +1,101 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.output.net;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+
+/**
+ * Stands in for the throwable of a LogEvent that was received over the
+ * network. Only the stack trace text of the original throwable is sent,
+ * and this throwable prints that text instead of its own stack trace, so
+ * formatters and targets on the receiving side show the original.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class TransmittedThrowable
+    extends Throwable
+{
+    private final String m_stackTrace;
+
+    /**
+     * Create a throwable for a received stack trace.
+     *
+     * @param stackTrace the stack trace text of the original throwable
+     */
+    public TransmittedThrowable( final String stackTrace )
+    {
+        super( getFirstLine( stackTrace ) );
+        m_stackTrace = stackTrace;
+    }
+
+    /**
+     * Retrieve the stack trace text of the original throwable.
+     *
+     * @return the stack trace text
+     */
+    public String getStackTraceText()
+    {
+        return m_stackTrace;
+    }
+
+    /**
+     * The stack trace of the receiving side is of no interest, so it is
+     * not filled in.
+     *
+     * @return this throwable
+     */
+    public Throwable fillInStackTrace()
+    {
+        return this;
+    }
+
+    public void printStackTrace( final PrintStream stream )
+    {
+        stream.print( m_stackTrace );
+    }
+
+    public void printStackTrace( final PrintWriter writer )
+    {
+        writer.print( m_stackTrace );
+    }
+
+    /**
+     * Retrieve the first line of the original stack trace, which names the
+     * original throwable and its message.
+     *
+     * @return the first line of the stack trace
+     */
+    public String toString()
+    {
+        return getMessage();
+    }
+
+    private static String getFirstLine( final String stackTrace )
+    {
+        int end = stackTrace.indexOf( '\n' );
+        if( -1 == end )
+        {
+            return stackTrace;
+        }
+        if( end > 0 && '\r' == stackTrace.charAt( end - 1 ) )
+        {
+            end--;
+        }
+        return stackTrace.substring( 0, end );
+    }
+}
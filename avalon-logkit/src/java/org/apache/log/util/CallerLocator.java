@@ -0,0 +1,342 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Finds the location a class was called from, such as the line of user
+ * code that called a Logger.
+ *
+ * <p>On a JVM with <code>java.lang.StackWalker</code> (Java 9 and later)
+ * the stack is walked lazily and only up to the caller, through
+ * reflection, and only the caller's frame is turned into a
+ * <code>StackTraceElement</code>. On older JVMs the stack is taken from
+ * <code>Throwable.getStackTrace()</code>. Neither prints and parses a
+ * stack trace.</p>
+ *
+ * <p>The stack is walked on every call. What is kept between calls is the
+ * <code>StackWalker</code> with the <code>Function</code> handed to it,
+ * a matcher per thread, and the formatted location of each call site, so
+ * a location that was seen before is not built again.</p>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class CallerLocator
+{
+    ///The largest number of call sites kept in the cache
+    private static final int MAX_CACHED_LOCATIONS = 4096;
+
+    ///Access to java.lang.StackWalker, or null if the JVM does not have it
+    private static final StackWalkerAccess c_stackWalker = StackWalkerAccess.create();
+
+    ///Formatted locations by StackTraceElement, replaced but never modified once published
+    private static volatile HashMap c_locations = new HashMap();
+
+    ///The CallerMatcher of each thread, reused for every search
+    private static final ThreadLocal c_matcher = new ThreadLocal()
+    {
+        protected Object initialValue()
+        {
+            return new CallerMatcher();
+        }
+    };
+
+    /**
+     * Private constructor to block instantiation.
+     */
+    private CallerLocator()
+    {
+    }
+
+    /**
+     * Find the stack frame that called the passed in Class.  The frames of
+     * the class (and of its inner classes) are skipped, and the first frame
+     * after them is the caller.  With an offset, the frames of that caller's
+     * class are skipped as well, and so on, which helps when the class is
+     * only reached through a wrapper.
+     *
+     * @param clazz the Class to search for on stack to find caller of
+     * @param offset the number of calling classes to skip
+     * @return the frame of the caller, or null if clazz is not on the stack
+     */
+    public static StackTraceElement getCallerFrame( final Class clazz, final int offset )
+    {
+        final CallerMatcher matcher = (CallerMatcher)c_matcher.get();
+        matcher.start( clazz.getName(), offset );
+
+        if( null != c_stackWalker )
+        {
+            try
+            {
+                return c_stackWalker.find();
+            }
+            catch( final Exception e )
+            {
+                //fall back to the full stack below
+                matcher.reset();
+            }
+        }
+
+        final StackTraceElement[] stack = new Throwable().getStackTrace();
+        for( int i = 0; i < stack.length; i++ )
+        {
+            if( matcher.isCaller( stack[ i ].getClassName() ) )
+            {
+                return stack[ i ];
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the location the passed in Class was called from, in the form
+     * <code>com.biz.SomeClass.someMethod(SomeClass.java:22)</code>.
+     *
+     * @param clazz the Class to search for on stack to find caller of
+     * @param offset the number of calling classes to skip
+     * @return the location, or null if clazz is not on the stack
+     * @see #getCallerFrame(Class, int)
+     */
+    public static String getCallerLocation( final Class clazz, final int offset )
+    {
+        final StackTraceElement frame = getCallerFrame( clazz, offset );
+        if( null == frame )
+        {
+            return null;
+        }
+
+        return getLocation( frame );
+    }
+
+    /**
+     * Format a stack frame in the form
+     * <code>com.biz.SomeClass.someMethod(SomeClass.java:22)</code>.
+     *
+     * @param frame the stack frame
+     * @return the formatted location
+     */
+    public static String getLocation( final StackTraceElement frame )
+    {
+        final String cached = (String)c_locations.get( frame );
+        if( null != cached )
+        {
+            return cached;
+        }
+
+        final StringBuffer sb = new StringBuffer();
+        sb.append( frame.getClassName() );
+        sb.append( '.' );
+        sb.append( frame.getMethodName() );
+        sb.append( '(' );
+        if( frame.isNativeMethod() )
+        {
+            sb.append( "Native Method" );
+        }
+        else if( null == frame.getFileName() )
+        {
+            sb.append( "Unknown Source" );
+        }
+        else
+        {
+            sb.append( frame.getFileName() );
+            if( frame.getLineNumber() >= 0 )
+            {
+                sb.append( ':' );
+                sb.append( frame.getLineNumber() );
+            }
+        }
+        sb.append( ')' );
+
+        final String location = sb.toString();
+        cacheLocation( frame, location );
+        return location;
+    }
+
+    private static synchronized void cacheLocation( final StackTraceElement frame,
+                                                    final String location )
+    {
+        if( c_locations.size() < MAX_CACHED_LOCATIONS )
+        {
+            final HashMap locations = new HashMap( c_locations );
+            locations.put( frame, location );
+            c_locations = locations;
+        }
+    }
+
+    /**
+     * Decides frame by frame, from the innermost outwards, whether a frame
+     * is the caller that is looked for.
+     */
+    private static final class CallerMatcher
+    {
+        private String m_className;
+        private int m_offset;
+        private int m_remaining;
+        private String m_skipClassName;
+
+        void start( final String className, final int offset )
+        {
+            m_className = className;
+            m_offset = offset;
+            reset();
+        }
+
+        void reset()
+        {
+            m_remaining = m_offset;
+            m_skipClassName = null;
+        }
+
+        boolean isCaller( final String className )
+        {
+            if( null == m_skipClassName )
+            {
+                //still looking for the class itself
+                if( className.startsWith( m_className ) )
+                {
+                    m_skipClassName = m_className;
+                }
+                return false;
+            }
+
+            if( className.startsWith( m_skipClassName ) )
+            {
+                return false;
+            }
+
+            if( m_remaining <= 0 )
+            {
+                return true;
+            }
+
+            m_remaining--;
+            final int inner = className.indexOf( '$' );
+            m_skipClassName = ( -1 == inner ) ? className : className.substring( 0, inner );
+            return false;
+        }
+    }
+
+    /**
+     * Calls <code>StackWalker.walk()</code> through reflection, with a
+     * proxy for the <code>java.util.function.Function</code> that looks
+     * through the stream of frames.  The proxy is created once, and uses
+     * the matcher of the calling thread.
+     */
+    private static final class StackWalkerAccess
+    {
+        private static final Object[] NO_ARGUMENTS = new Object[ 0 ];
+
+        private final Object m_walker;
+        private final Method m_walk;
+        private final Object[] m_walkArguments;
+        private final Method m_iterator;
+        private final Method m_getClassName;
+        private final Method m_toStackTraceElement;
+
+        private StackWalkerAccess()
+            throws Exception
+        {
+            final Class walkerClass = Class.forName( "java.lang.StackWalker" );
+            final Class frameClass = Class.forName( "java.lang.StackWalker$StackFrame" );
+            final Class functionClass = Class.forName( "java.util.function.Function" );
+            final Class streamClass = Class.forName( "java.util.stream.Stream" );
+
+            m_walker = walkerClass.getMethod( "getInstance", new Class[ 0 ] )
+                .invoke( null, new Object[ 0 ] );
+            m_walk = walkerClass.getMethod( "walk", new Class[]{functionClass} );
+            final Object function = Proxy.newProxyInstance( CallerLocator.class.getClassLoader(),
+                                                            new Class[]{functionClass},
+                                                            new WalkFunction() );
+            m_walkArguments = new Object[]{function};
+            m_iterator = streamClass.getMethod( "iterator", new Class[ 0 ] );
+            m_getClassName = frameClass.getMethod( "getClassName", new Class[ 0 ] );
+            m_toStackTraceElement = frameClass.getMethod( "toStackTraceElement", new Class[ 0 ] );
+        }
+
+        static StackWalkerAccess create()
+        {
+            try
+            {
+                return new StackWalkerAccess();
+            }
+            catch( final Throwable t )
+            {
+                return null;
+            }
+        }
+
+        /**
+         * Walk the stack up to the frame the matcher of the current thread
+         * is looking for.
+         */
+        StackTraceElement find()
+            throws Exception
+        {
+            return (StackTraceElement)m_walk.invoke( m_walker, m_walkArguments );
+        }
+
+        /**
+         * The body of the Function handed to <code>StackWalker.walk()</code>.
+         */
+        private final class WalkFunction
+            implements InvocationHandler
+        {
+            public Object invoke( final Object proxy, final Method method, final Object[] args )
+                throws Throwable
+            {
+                final String name = method.getName();
+                if( "apply".equals( name ) )
+                {
+                    final CallerMatcher matcher = (CallerMatcher)c_matcher.get();
+                    final Iterator frames =
+                        (Iterator)m_iterator.invoke( args[ 0 ], NO_ARGUMENTS );
+                    while( frames.hasNext() )
+                    {
+                        final Object frame = frames.next();
+                        final String className =
+                            (String)m_getClassName.invoke( frame, NO_ARGUMENTS );
+                        if( matcher.isCaller( className ) )
+                        {
+                            return m_toStackTraceElement.invoke( frame, NO_ARGUMENTS );
+                        }
+                    }
+                    return null;
+                }
+                else if( "equals".equals( name ) )
+                {
+                    return Boolean.valueOf( proxy == args[ 0 ] );
+                }
+                else if( "hashCode".equals( name ) )
+                {
+                    return new Integer( System.identityHashCode( proxy ) );
+                }
+                else if( "toString".equals( name ) )
+                {
+                    return "CallerLocator.WalkFunction";
+                }
+
+                throw new UnsupportedOperationException( name );
+            }
+        }
+    }
+}
@@ -16,9 +16,6 @@
  */
 package org.apache.log.util;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
-
 /**
  * A set of utilities to inspect current stack frame.
  *
@@ -133,84 +130,13 @@ public final class StackIntrospector
      */
     public static final String getCallerMethod( final Class clazz )
     {
-        final String className = clazz.getName();
-
-        //Extract stack into a StringBuffer
-        final StringWriter sw = new StringWriter();
-        final Throwable throwable = new Throwable();
-        throwable.printStackTrace( new PrintWriter( sw, true ) );
-        final StringBuffer buffer = sw.getBuffer();
-
-        //Cache vars used in loop
-        final StringBuffer line = new StringBuffer();
-        final int length = buffer.length();
-
-        //setup state
-        boolean found = false;
-        int state = 0;
-
-        //parse line
-        for( int i = 0; i < length; i++ )
+        final String location = CallerLocator.getCallerLocation( clazz, 0 );
+        if( null == location )
         {
-            final char ch = buffer.charAt( i );
-
-            switch( state )
-            {
-                case 0:
-                    //Strip the first line from input
-                    if( '\n' == ch )
-                    {
-                        state = 1;
-                    }
-                    break;
-
-                case 1:
-                    //strip 't' from 'at'
-                    if( 't' == ch )
-                    {
-                        state = 2;
-                    }
-                    break;
-
-                case 2:
-                    //Strip space after 'at'
-                    line.setLength( 0 );
-                    state = 3;
-                    break;
-
-                case 3:
-                    //accumulate all characters to end of line
-                    if( '\n' != ch )
-                    {
-                        line.append( ch );
-                    }
-                    else
-                    {
-                        //At this stage you have the line that looks like
-                        //com.biz.SomeClass.someMethod(SomeClass.java:22)
-                        final String method = line.toString();
-
-                        ///Determine if line is a match for class
-                        final boolean match = method.startsWith( className );
-                        if( !found && match )
-                        {
-                            //If this is the first time we cound class then
-                            //set found to true and look for caller into class
-                            found = true;
-                        }
-                        else if( found && !match )
-                        {
-                            //We have now located caller of Clazz
-                            return method;
-                        }
-
-                        //start parsing from start of line again
-                        state = 1;
-                    }
-            }
+            return "";
         }
 
-        return "";
+        return location;
     }
 
     /**
@@ -229,90 +155,34 @@ public final class StackIntrospector
     public static final String getRecentStack( final Class clazz, int entries )
     {
         final String className = clazz.getName();
+        final StackTraceElement[] frames = new Throwable().getStackTrace();
 
-        //Extract stack into a StringBuffer
-        final StringWriter sw = new StringWriter();
-        final Throwable throwable = new Throwable();
-        throwable.printStackTrace( new PrintWriter( sw, true ) );
-        final StringBuffer buffer = sw.getBuffer();
-
-        //Cache vars used in loop
-        final StringBuffer line = new StringBuffer();
         final StringBuffer stack = new StringBuffer();
-        final int length = buffer.length();
-
-        //setup state
         boolean found = false;
-        int state = 0;
 
-        //parse line
-        for( int i = 0; i < length; i++ )
+        for( int i = 0; i < frames.length; i++ )
         {
-            final char ch = buffer.charAt( i );
-
-            switch( state )
+            ///Determine if frame is a match for class
+            final boolean match = frames[ i ].getClassName().startsWith( className );
+            if( !found && match )
             {
-                case 0:
-                    //Strip the first line from input
-                    if( '\n' == ch )
-                    {
-                        state = 1;
-                    }
-                    break;
-
-                case 1:
-                    //strip 't' from 'at'
-                    if( 't' == ch )
-                    {
-                        state = 2;
-                    }
-                    break;
-
-                case 2:
-                    //Strip space after 'at'
-                    line.setLength( 0 );
-                    state = 3;
-                    break;
-
-                case 3:
-                    //accumulate all characters to end of line
-                    if( '\n' != ch )
-                    {
-                        line.append( ch );
-                    }
-                    else
-                    {
-                        //At this stage you have the line that looks like
-                        //com.biz.SomeClass.someMethod(SomeClass.java:22)
-                        final String method = line.toString();
-
-                        ///Determine if line is a match for class
-                        final boolean match = method.startsWith( className );
-                        if( !found && match )
-                        {
-                            //If this is the first time we cound class then
-                            //set found to true and look for caller into class
-                            found = true;
-                        }
-                        else if( found && !match )
-                        {
-                            //We are looking at the callers of Clazz
-                            stack.append( method );
-                            entries--;
-                            if( entries == 0 )
-                            {
-                                return stack.toString();
-                            }
-                            stack.append( "\n" );
-                        }
-
-                        //start parsing from start of line again
-                        state = 1;
-                    }
+                //If this is the first time we cound class then
+                //set found to true and look for caller into class
+                found = true;
+            }
+            else if( found && !match )
+            {
+                //We are looking at the callers of Clazz
+                stack.append( CallerLocator.getLocation( frames[ i ] ) );
+                entries--;
+                if( entries == 0 )
+                {
+                    return stack.toString();
+                }
+                stack.append( "\n" );
             }
         }
 
         return "";
     }
 }
-
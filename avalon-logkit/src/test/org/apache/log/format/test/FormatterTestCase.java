@@ -20,6 +20,7 @@ import junit.framework.TestCase;
 import org.apache.log.ContextMap;
 import org.apache.log.LogEvent;
 import org.apache.log.Priority;
+import org.apache.log.format.CompiledPatternFormatter;
 import org.apache.log.format.Formatter;
 import org.apache.log.format.PatternFormatter;
 import org.apache.log.format.RawFormatter;
@@ -394,4 +395,54 @@ public final class FormatterTestCase
         assertEquals( "Pattern11 formatting of E2", E2_PATTERN11, result2 );
         assertEquals( "Pattern11 formatting of E3", E3_PATTERN11, result3 );
     }
+
+    public void testCompiledPatternFormatter()
+    {
+        final String[] patterns = new String[]{PATTERN1, PATTERN2, PATTERN3, PATTERN4,
+                                               PATTERN5, PATTERN6, PATTERN7, PATTERN8};
+        final String[][] expected = new String[][]{
+            {E1_PATTERN1, E2_PATTERN1, E3_PATTERN1},
+            {E1_PATTERN2, E2_PATTERN2, E3_PATTERN2},
+            {E1_PATTERN3, E2_PATTERN3, E3_PATTERN3},
+            {E1_PATTERN4, E2_PATTERN4, E3_PATTERN4},
+            {E1_PATTERN5, E2_PATTERN5, E3_PATTERN5},
+            {E1_PATTERN6, E2_PATTERN6, E3_PATTERN6},
+            {E1_PATTERN7, E2_PATTERN7, E3_PATTERN7},
+            {E1_PATTERN8, E2_PATTERN8, E3_PATTERN8}};
+
+        for( int i = 0; i < patterns.length; i++ )
+        {
+            final Formatter formatter = new CompiledPatternFormatter( patterns[ i ] );
+
+            assertEquals( "Compiled pattern" + ( i + 1 ) + " formatting of E1",
+                          expected[ i ][ 0 ], formatter.format( E1 ) );
+            assertEquals( "Compiled pattern" + ( i + 1 ) + " formatting of E2",
+                          expected[ i ][ 1 ], formatter.format( E2 ) );
+            assertEquals( "Compiled pattern" + ( i + 1 ) + " formatting of E3",
+                          expected[ i ][ 2 ], formatter.format( E3 ) );
+        }
+    }
+
+    public void testCompiledPatternFormatterMatchesPatternFormatter()
+    {
+        final String[] patterns = new String[]{
+            "%7.7{priority} %5.5{time} [%+20.10{category}] %{message}\n%{throwable}",
+            "%{time:yyyy-MM-dd HH:mm:ss} %-10{rtime} %%{context:user} %.3{thread}",
+            "%{time:HH:mm:ss.SSS} %20.5{message} %-3.30{category}%{message}"};
+        final long[] times = new long[]{0, 999, 1000, 1001, 61999, -1, -1001, 1234567890123L};
+        final LogEvent event = createEvent( C2, M2, new Exception( "test" ), 0, P2, CM1 );
+
+        for( int i = 0; i < patterns.length; i++ )
+        {
+            final Formatter expected = new PatternFormatter( patterns[ i ] );
+            final Formatter formatter = new CompiledPatternFormatter( patterns[ i ] );
+
+            for( int j = 0; j < times.length; j++ )
+            {
+                event.setTime( times[ j ] );
+                assertEquals( "Pattern " + patterns[ i ] + " at " + times[ j ],
+                              expected.format( event ), formatter.format( event ) );
+            }
+        }
+    }
 }
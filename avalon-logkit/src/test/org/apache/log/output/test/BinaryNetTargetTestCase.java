@@ -0,0 +1,365 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.output.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.log.ContextMap;
+import org.apache.log.ErrorHandler;
+import org.apache.log.LogEvent;
+import org.apache.log.LogTarget;
+import org.apache.log.Priority;
+import org.apache.log.output.net.BinaryDatagramOutputTarget;
+import org.apache.log.output.net.BinarySocketOutputTarget;
+import org.apache.log.output.net.DatagramLogServer;
+import org.apache.log.output.net.LogEventDecoder;
+import org.apache.log.output.net.LogEventEncoder;
+import org.apache.log.output.net.SocketLogServer;
+
+/**
+ * Test suite for the binary LogEvent format and the targets and servers
+ * using it.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class BinaryNetTargetTestCase
+    extends TestCase
+{
+    public BinaryNetTargetTestCase( final String name )
+    {
+        super( name );
+    }
+
+    public void testRoundTrip()
+        throws Exception
+    {
+        final Exception exception = new Exception( "failure" );
+        final ContextMap parent = new ContextMap();
+        parent.set( "hostname", "helm.realityforge.org" );
+        final ContextMap map = new ContextMap( parent );
+        map.set( "user", "fr\u00e9d \u20ac \ud834\udd1e" );
+        map.set( "count", new Integer( 42 ) );
+
+        final LogEvent event = createEvent( Priority.ERROR, "caf\u00e9 \u4e2d\u6587" );
+        event.setCategory( "a.b.c" );
+        event.setThrowable( exception );
+        event.setContextMap( map );
+
+        final LogEvent empty = new LogEvent();
+        empty.setTime( -1 );
+        empty.setPriority( Priority.NONE );
+
+        final LogEventEncoder encoder = new LogEventEncoder( 16 );
+        encoder.writeHeader();
+        encoder.encode( event );
+        encoder.encode( empty );
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        encoder.writeTo( output );
+
+        final ByteArrayInputStream input = new ByteArrayInputStream( output.toByteArray() );
+        final LogEventDecoder decoder = new LogEventDecoder();
+        decoder.readHeader( input );
+
+        final LogEvent result = decoder.readEvent( input );
+        assertEquals( event.getTime(), result.getTime() );
+        assertSame( Priority.ERROR, result.getPriority() );
+        assertEquals( "a.b.c", result.getCategory() );
+        assertEquals( event.getMessage(), result.getMessage() );
+        assertEquals( getStackTrace( exception ), getStackTrace( result.getThrowable() ) );
+        assertEquals( exception.toString(), result.getThrowable().toString() );
+        assertEquals( "fr\u00e9d \u20ac \ud834\udd1e", result.getContextMap().get( "user" ) );
+        assertEquals( "42", result.getContextMap().get( "count" ) );
+        assertEquals( "helm.realityforge.org", result.getContextMap().get( "hostname" ) );
+        assertTrue( result.getContextMap().isReadOnly() );
+
+        final LogEvent emptyResult = decoder.readEvent( input );
+        assertEquals( -1, emptyResult.getTime() );
+        assertSame( Priority.NONE, emptyResult.getPriority() );
+        assertNull( emptyResult.getCategory() );
+        assertNull( emptyResult.getMessage() );
+        assertNull( emptyResult.getThrowable() );
+        assertNull( emptyResult.getContextMap() );
+
+        assertNull( decoder.readEvent( input ) );
+    }
+
+    public void testRejectsOtherStreams()
+        throws Exception
+    {
+        final ByteArrayInputStream input =
+            new ByteArrayInputStream( new byte[]{(byte)0xAC, (byte)0xED, 0, 5} );
+        try
+        {
+            new LogEventDecoder().readHeader( input );
+            fail( "Expected an IOException" );
+        }
+        catch( final java.io.IOException ioe )
+        {
+            //expected
+        }
+    }
+
+    public void testRejectsLongRecords()
+        throws Exception
+    {
+        final LogEventEncoder encoder = new LogEventEncoder( 16 );
+        encoder.writeHeader();
+        encoder.encode( createEvent( Priority.INFO, "a message longer than the maximum" ) );
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        encoder.writeTo( output );
+        //a length prefix of Integer.MAX_VALUE must not be allocated
+        output.write( new byte[]{0x7F, (byte)0xFF, (byte)0xFF, (byte)0xFF} );
+
+        final ByteArrayInputStream input = new ByteArrayInputStream( output.toByteArray() );
+        final LogEventDecoder decoder = new LogEventDecoder();
+        decoder.readHeader( input );
+        decoder.setMaxRecordLength( 16 );
+        try
+        {
+            decoder.readEvent( input );
+            fail( "Expected an IOException" );
+        }
+        catch( final java.io.IOException ioe )
+        {
+            //expected
+        }
+
+        decoder.setMaxRecordLength( LogEventDecoder.DEFAULT_MAX_RECORD_LENGTH );
+        try
+        {
+            decoder.readEvent( input );
+            fail( "Expected an IOException" );
+        }
+        catch( final java.io.IOException ioe )
+        {
+            //expected
+        }
+    }
+
+    public void testSocketServerMaxRecordLength()
+        throws Exception
+    {
+        final ListTarget target = new ListTarget();
+        final ListErrorHandler errorHandler = new ListErrorHandler();
+        final SocketLogServer server = new SocketLogServer( 0, target );
+        server.setErrorHandler( errorHandler );
+        server.setMaxRecordLength( 64 );
+        server.start();
+
+        try
+        {
+            final LogEventEncoder encoder = new LogEventEncoder( 16 );
+            encoder.writeHeader();
+            encoder.encode( createEvent( Priority.INFO, "0" ) );
+            final StringBuffer message = new StringBuffer();
+            for( int i = 0; i < 100; i++ )
+            {
+                message.append( 'x' );
+            }
+            encoder.encode( createEvent( Priority.INFO, message.toString() ) );
+
+            final Socket socket = new Socket( InetAddress.getByName( "localhost" ),
+                                              server.getPort() );
+            try
+            {
+                final OutputStream outputStream = socket.getOutputStream();
+                encoder.writeTo( outputStream );
+                outputStream.flush();
+                errorHandler.waitFor( 1 );
+            }
+            finally
+            {
+                socket.close();
+            }
+
+            //the connection is dropped at the long record
+            assertEquals( 1, errorHandler.getErrors().size() );
+            assertMessages( 1, target );
+        }
+        finally
+        {
+            server.close();
+        }
+    }
+
+    public void testRejectsHugeStringLength()
+        throws Exception
+    {
+        //the time and priority, then a category length of Integer.MAX_VALUE
+        final byte[] data = new byte[]{0, 0, 0, 0, 0, 0, 0, 0, 0,
+                                       (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x07, 0};
+        final LogEventDecoder decoder = new LogEventDecoder();
+        try
+        {
+            decoder.decode( data, 0, data.length );
+            fail( "Expected an IOException" );
+        }
+        catch( final java.io.IOException ioe )
+        {
+            //expected
+        }
+    }
+
+    public void testSocketTarget()
+        throws Exception
+    {
+        final ListTarget target = new ListTarget();
+        final SocketLogServer server = new SocketLogServer( 0, target );
+        server.start();
+
+        try
+        {
+            final BinarySocketOutputTarget socketTarget =
+                new BinarySocketOutputTarget( InetAddress.getByName( "localhost" ),
+                                              server.getPort(), 10, 0 );
+            for( int i = 0; i < 25; i++ )
+            {
+                socketTarget.processEvent( createEvent( Priority.INFO, "" + i ) );
+            }
+
+            //two full batches have been sent, the rest is sent on close
+            target.waitFor( 20 );
+            socketTarget.close();
+            target.waitFor( 25 );
+
+            assertMessages( 25, target );
+        }
+        finally
+        {
+            server.close();
+        }
+    }
+
+    public void testDatagramTarget()
+        throws Exception
+    {
+        final ListTarget target = new ListTarget();
+        final DatagramLogServer server = new DatagramLogServer( 0, target );
+        server.start();
+
+        try
+        {
+            final BinaryDatagramOutputTarget datagramTarget =
+                new BinaryDatagramOutputTarget( InetAddress.getByName( "localhost" ),
+                                                server.getPort(), 256, 60000 );
+            for( int i = 0; i < 25; i++ )
+            {
+                datagramTarget.processEvent( createEvent( Priority.INFO, "" + i ) );
+            }
+            datagramTarget.close();
+            target.waitFor( 25 );
+
+            assertMessages( 25, target );
+        }
+        finally
+        {
+            server.close();
+        }
+    }
+
+    private static LogEvent createEvent( final Priority priority, final String message )
+    {
+        final LogEvent event = new LogEvent();
+        event.setCategory( "test" );
+        event.setMessage( message );
+        event.setPriority( priority );
+        event.setTime( System.currentTimeMillis() );
+        return event;
+    }
+
+    private static String getStackTrace( final Throwable throwable )
+    {
+        final StringWriter sw = new StringWriter();
+        throwable.printStackTrace( new PrintWriter( sw ) );
+        return sw.toString();
+    }
+
+    private static void assertMessages( final int count, final ListTarget target )
+    {
+        final List events = target.getEvents();
+        assertEquals( count, events.size() );
+        for( int i = 0; i < count; i++ )
+        {
+            assertEquals( "" + i, ( (LogEvent)events.get( i ) ).getMessage() );
+        }
+    }
+
+    private static final class ListErrorHandler
+        implements ErrorHandler
+    {
+        private final List m_errors = new ArrayList();
+
+        public synchronized void error( final String message,
+                                        final Throwable throwable,
+                                        final LogEvent event )
+        {
+            m_errors.add( throwable );
+            notifyAll();
+        }
+
+        public synchronized List getErrors()
+        {
+            return new ArrayList( m_errors );
+        }
+
+        public synchronized void waitFor( final int count )
+            throws InterruptedException
+        {
+            final long end = System.currentTimeMillis() + 5000;
+            while( m_errors.size() < count && System.currentTimeMillis() < end )
+            {
+                wait( 100 );
+            }
+        }
+    }
+
+    private static final class ListTarget
+        implements LogTarget
+    {
+        private final List m_events = new ArrayList();
+
+        public synchronized void processEvent( final LogEvent event )
+        {
+            m_events.add( event );
+            notifyAll();
+        }
+
+        public synchronized List getEvents()
+        {
+            return new ArrayList( m_events );
+        }
+
+        public synchronized void waitFor( final int count )
+            throws InterruptedException
+        {
+            final long end = System.currentTimeMillis() + 5000;
+            while( m_events.size() < count && System.currentTimeMillis() < end )
+            {
+                wait( 100 );
+            }
+        }
+    }
+}
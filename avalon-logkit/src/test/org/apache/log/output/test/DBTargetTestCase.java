@@ -16,8 +16,20 @@
  */
 package org.apache.log.output.test;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sql.DataSource;
 import junit.framework.TestCase;
+import org.apache.log.ErrorHandler;
 import org.apache.log.Hierarchy;
+import org.apache.log.LogEvent;
 import org.apache.log.LogTarget;
 import org.apache.log.Logger;
 import org.apache.log.output.db.ColumnInfo;
@@ -123,6 +135,128 @@ public final class DBTargetTestCase
         logger.fatalError( "Hello fatalError" );
     }
 
+    public void testBatchedTarget()
+        throws Exception
+    {
+        final StubDatabase database = new StubDatabase();
+        final DefaultJDBCTarget target =
+            new DefaultJDBCTarget( database.getDataSource(), "log_entrys", getColumns() );
+        target.setBatching( 10, 0 );
+        assertFalse( "Auto-commit while batching", database.m_autoCommit );
+
+        final Logger logger = getNewLogger( target );
+        for( int i = 0; i < 25; i++ )
+        {
+            logger.info( "Hello batch " + i );
+        }
+
+        assertEquals( "Events added", 25, database.m_added );
+        assertEquals( "Batches", "[10, 10]", database.m_batches.toString() );
+        assertEquals( "Commits", 2, database.m_commits );
+        assertEquals( "Updates", 0, database.m_updates );
+
+        // the last five events are written when the target is closed
+        target.close();
+
+        assertEquals( "Batches after close", "[10, 10, 5]", database.m_batches.toString() );
+        assertEquals( "Commits after close", 3, database.m_commits );
+        assertTrue( "Auto-commit restored", database.m_autoCommit );
+        assertTrue( "Connection closed", database.m_closed );
+    }
+
+    public void testUnbatchedTarget()
+        throws Exception
+    {
+        final StubDatabase database = new StubDatabase();
+        final DefaultJDBCTarget target =
+            new DefaultJDBCTarget( database.getDataSource(), "log_entrys", getColumns() );
+
+        final Logger logger = getNewLogger( target );
+        logger.info( "Hello" );
+        logger.info( "Hello again" );
+
+        assertTrue( "Auto-commit", database.m_autoCommit );
+        assertEquals( "Updates", 2, database.m_updates );
+        assertEquals( "Batches", 0, database.m_batches.size() );
+
+        target.close();
+        assertEquals( "Batches after close", 0, database.m_batches.size() );
+    }
+
+    public void testFailedBatch()
+        throws Exception
+    {
+        final StubDatabase database = new StubDatabase();
+        final DefaultJDBCTarget target =
+            new DefaultJDBCTarget( database.getDataSource(), "log_entrys", getColumns() );
+        target.setBatching( 2, 0 );
+
+        final Logger logger = getNewLogger( target );
+        final ListErrorHandler errorHandler = new ListErrorHandler();
+        target.setErrorHandler( errorHandler );
+
+        database.m_failBatch = true;
+        logger.info( "Hello 1" );
+        logger.info( "Hello 2" );
+
+        assertEquals( "Errors", 1, errorHandler.m_messages.size() );
+        assertEquals( "Error", "Error executing batch of 2 events", errorHandler.m_messages.get( 0 ) );
+        assertEquals( "Cleared batches", 1, database.m_clears );
+        assertEquals( "Rollbacks", 1, database.m_rollbacks );
+        assertEquals( "Commits", 0, database.m_commits );
+
+        // the target goes on with the next batch
+        database.m_failBatch = false;
+        logger.info( "Hello 3" );
+        logger.info( "Hello 4" );
+
+        assertEquals( "Batches", "[2]", database.m_batches.toString() );
+        assertEquals( "Commits", 1, database.m_commits );
+        assertEquals( "Errors", 1, errorHandler.m_messages.size() );
+
+        target.close();
+    }
+
+    public void testNormalizedBatchedTarget()
+        throws Exception
+    {
+        final StubDatabase database = new StubDatabase();
+        final NormalizedJDBCTarget target =
+            new NormalizedJDBCTarget( database.getDataSource(), "log_entrys2", getColumns() );
+        target.setBatching( 10, 0 );
+
+        final Logger logger = getNewLogger( target );
+        logger.info( "Hello 1" );
+
+        // the new category and priority ids are committed at once, the event is not
+        assertEquals( "Inserted ids", 2, database.m_updates );
+        assertEquals( "Commits", 2, database.m_commits );
+        assertEquals( "Batches", 0, database.m_batches.size() );
+
+        // known ids are not looked up again
+        final int queries = database.m_queries;
+        logger.info( "Hello 2" );
+        assertEquals( "Queries", queries, database.m_queries );
+        assertEquals( "Inserted ids", 2, database.m_updates );
+
+        target.close();
+
+        assertEquals( "Batches after close", "[2]", database.m_batches.toString() );
+        assertEquals( "Commits after close", 3, database.m_commits );
+    }
+
+    private ColumnInfo[] getColumns()
+    {
+        return new ColumnInfo[]
+        {
+            new ColumnInfo( "TIME", ColumnType.TIME, null ),
+            new ColumnInfo( "PRIORITY", ColumnType.PRIORITY, null ),
+            new ColumnInfo( "CATEGORY", ColumnType.CATEGORY, null ),
+            new ColumnInfo( "HOSTNAME", ColumnType.STATIC, "helm.realityforge.net" ),
+            new ColumnInfo( "MESSAGE", ColumnType.MESSAGE, null )
+        };
+    }
+
     private Logger getNewLogger( final LogTarget target )
     {
         final Hierarchy hierarchy = new Hierarchy();
@@ -130,4 +264,203 @@ public final class DBTargetTestCase
         logger.setLogTargets( new LogTarget[]{target} );
         return logger;
     }
+
+    /**
+     * Remembers the messages of the errors reported by a target.
+     */
+    private static final class ListErrorHandler
+        implements ErrorHandler
+    {
+        final List m_messages = new ArrayList();
+
+        public void error( final String message, final Throwable throwable, final LogEvent event )
+        {
+            m_messages.add( message );
+        }
+    }
+
+    /**
+     * A database, made of dynamic proxies, which counts what the target
+     * does with its connection. The category and priority tables are
+     * always empty.
+     */
+    private static final class StubDatabase
+    {
+        boolean m_autoCommit = true;
+        boolean m_closed;
+        boolean m_failBatch;
+        int m_added;
+        int m_pending;
+        int m_clears;
+        int m_commits;
+        int m_rollbacks;
+        int m_updates;
+        int m_queries;
+        final List m_batches = new ArrayList();
+
+        DataSource getDataSource()
+        {
+            return (DataSource)newProxy( DataSource.class, new InvocationHandler()
+            {
+                public Object invoke( final Object proxy, final Method method, final Object[] args )
+                {
+                    if( "getConnection".equals( method.getName() ) )
+                    {
+                        return newConnection();
+                    }
+                    return defaultResult( proxy, method, args );
+                }
+            } );
+        }
+
+        Connection newConnection()
+        {
+            return (Connection)newProxy( Connection.class, new InvocationHandler()
+            {
+                public Object invoke( final Object proxy, final Method method, final Object[] args )
+                {
+                    final String name = method.getName();
+                    if( "prepareStatement".equals( name ) || "createStatement".equals( name ) )
+                    {
+                        return newStatement();
+                    }
+                    else if( "getAutoCommit".equals( name ) )
+                    {
+                        return m_autoCommit ? Boolean.TRUE : Boolean.FALSE;
+                    }
+                    else if( "setAutoCommit".equals( name ) )
+                    {
+                        m_autoCommit = ( (Boolean)args[ 0 ] ).booleanValue();
+                    }
+                    else if( "commit".equals( name ) )
+                    {
+                        m_commits++;
+                    }
+                    else if( "rollback".equals( name ) )
+                    {
+                        m_rollbacks++;
+                    }
+                    else if( "isClosed".equals( name ) )
+                    {
+                        return m_closed ? Boolean.TRUE : Boolean.FALSE;
+                    }
+                    else if( "close".equals( name ) )
+                    {
+                        m_closed = true;
+                    }
+                    return defaultResult( proxy, method, args );
+                }
+            } );
+        }
+
+        PreparedStatement newStatement()
+        {
+            return (PreparedStatement)newProxy( PreparedStatement.class, new InvocationHandler()
+            {
+                public Object invoke( final Object proxy, final Method method, final Object[] args )
+                    throws SQLException
+                {
+                    final String name = method.getName();
+                    if( "addBatch".equals( name ) )
+                    {
+                        m_added++;
+                        m_pending++;
+                    }
+                    else if( "clearBatch".equals( name ) )
+                    {
+                        m_clears++;
+                        m_pending = 0;
+                    }
+                    else if( "executeBatch".equals( name ) )
+                    {
+                        if( m_failBatch )
+                        {
+                            throw new SQLException( "For testing, the batch fails." );
+                        }
+                        m_batches.add( new Integer( m_pending ) );
+                        final int[] counts = new int[ m_pending ];
+                        m_pending = 0;
+                        return counts;
+                    }
+                    else if( "executeUpdate".equals( name ) )
+                    {
+                        m_updates++;
+                        return new Integer( 1 );
+                    }
+                    else if( "executeQuery".equals( name ) )
+                    {
+                        m_queries++;
+                        return newResultSet( ( (String)args[ 0 ] ).indexOf( "MAX(ID)" ) != -1 );
+                    }
+                    return defaultResult( proxy, method, args );
+                }
+            } );
+        }
+
+        ResultSet newResultSet( final boolean hasRow )
+        {
+            return (ResultSet)newProxy( ResultSet.class, new InvocationHandler()
+            {
+                private boolean m_next = hasRow;
+
+                public Object invoke( final Object proxy, final Method method, final Object[] args )
+                {
+                    final String name = method.getName();
+                    if( "next".equals( name ) )
+                    {
+                        final boolean next = m_next;
+                        m_next = false;
+                        return next ? Boolean.TRUE : Boolean.FALSE;
+                    }
+                    else if( "getInt".equals( name ) )
+                    {
+                        return new Integer( 0 );
+                    }
+                    return defaultResult( proxy, method, args );
+                }
+            } );
+        }
+
+        private static Object newProxy( final Class type, final InvocationHandler handler )
+        {
+            return Proxy.newProxyInstance( DBTargetTestCase.class.getClassLoader(),
+                                           new Class[]{type},
+                                           handler );
+        }
+
+        private static Object defaultResult( final Object proxy, final Method method, final Object[] args )
+        {
+            final String name = method.getName();
+            final Class type = method.getReturnType();
+            if( "equals".equals( name ) )
+            {
+                return ( proxy == args[ 0 ] ) ? Boolean.TRUE : Boolean.FALSE;
+            }
+            else if( "hashCode".equals( name ) )
+            {
+                return new Integer( System.identityHashCode( proxy ) );
+            }
+            else if( "toString".equals( name ) )
+            {
+                return "Stub" + method.getDeclaringClass().getName();
+            }
+            else if( Boolean.TYPE == type )
+            {
+                return Boolean.FALSE;
+            }
+            else if( Integer.TYPE == type )
+            {
+                return new Integer( 0 );
+            }
+            else if( Long.TYPE == type )
+            {
+                return new Long( 0 );
+            }
+            else if( type.isPrimitive() && Void.TYPE != type )
+            {
+                throw new UnsupportedOperationException( method.toString() );
+            }
+            return null;
+        }
+    }
 }
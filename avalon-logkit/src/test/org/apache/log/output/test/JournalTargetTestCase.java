@@ -0,0 +1,186 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.output.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.log.ContextMap;
+import org.apache.log.LogEvent;
+import org.apache.log.LogTarget;
+import org.apache.log.Priority;
+import org.apache.log.format.PatternFormatter;
+import org.apache.log.output.io.StreamTarget;
+import org.apache.log.output.journal.JournalReader;
+import org.apache.log.output.journal.JournalTarget;
+
+/**
+ * Test suite for the JournalTarget and the JournalReader.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class JournalTargetTestCase
+    extends TestCase
+{
+    private static final String[] CATEGORIES = new String[]{"app", "app.db", "application", "net"};
+    private static final int EVENTS = 400;
+
+    private final File m_directory;
+    private final File m_baseFile;
+
+    public JournalTargetTestCase( final String name )
+        throws IOException
+    {
+        super( name );
+
+        m_directory = ( new File( "build/testdata/journal" ) ).getCanonicalFile();
+        m_baseFile = new File( m_directory, "audit" );
+    }
+
+    protected void setUp()
+        throws Exception
+    {
+        m_directory.mkdirs();
+
+        final File[] files = m_directory.listFiles();
+        for( int i = 0; i < files.length; i++ )
+        {
+            if( !files[ i ].delete() )
+            {
+                throw new IOException( "Failed to delete file " + files[ i ] );
+            }
+        }
+    }
+
+    public void testRoundTrip()
+        throws Exception
+    {
+        writeJournal();
+
+        final JournalReader reader = new JournalReader( m_baseFile );
+        assertTrue( "segments", reader.getSegments().length > 1 );
+
+        final List events = read( reader );
+        assertEquals( EVENTS, events.size() );
+        for( int i = 0; i < EVENTS; i++ )
+        {
+            final LogEvent event = (LogEvent)events.get( i );
+            assertEquals( 1000L + i, event.getTime() );
+            assertEquals( CATEGORIES[ i % CATEGORIES.length ], event.getCategory() );
+            assertEquals( getPriority( i ), event.getPriority() );
+            assertEquals( "message " + i + " \u00e9", event.getMessage() );
+            assertEquals( "user" + ( i % 3 ), event.getContextMap().get( "user" ) );
+            assertEquals( 0 == i % 50, null != event.getThrowable() );
+        }
+    }
+
+    public void testFilter()
+        throws Exception
+    {
+        writeJournal();
+
+        final JournalReader reader = new JournalReader( m_baseFile );
+        reader.setTimeRange( 1100, 1299 );
+        reader.setCategory( "app" );
+        assertFiltered( read( reader ) );
+
+        //without the indexes every segment is read in full
+        final File[] files = m_directory.listFiles();
+        for( int i = 0; i < files.length; i++ )
+        {
+            if( files[ i ].getName().endsWith( ".index" ) )
+            {
+                assertTrue( files[ i ].delete() );
+            }
+        }
+        assertFiltered( read( reader ) );
+    }
+
+    public void testFormatter()
+        throws Exception
+    {
+        writeJournal();
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final StreamTarget target =
+            new StreamTarget( output, new PatternFormatter( "%{category}: %{message}\n" ), "UTF-8" );
+
+        final JournalReader reader = new JournalReader( m_baseFile );
+        reader.setTimeRange( 1000, 1001 );
+        assertEquals( 2, reader.read( target ) );
+        assertEquals( "app: message 0 \u00e9\napp.db: message 1 \u00e9\n",
+                      new String( output.toByteArray(), "UTF-8" ) );
+    }
+
+    private void assertFiltered( final List events )
+    {
+        assertEquals( 100, events.size() );
+        for( int i = 0; i < events.size(); i++ )
+        {
+            final LogEvent event = (LogEvent)events.get( i );
+            assertTrue( event.getCategory().equals( "app" )
+                        || event.getCategory().equals( "app.db" ) );
+            assertTrue( event.getTime() >= 1100 && event.getTime() <= 1299 );
+        }
+    }
+
+    private void writeJournal()
+        throws Exception
+    {
+        final JournalTarget target = new JournalTarget( m_baseFile, 8192, 512 );
+        for( int i = 0; i < EVENTS; i++ )
+        {
+            final ContextMap context = new ContextMap();
+            context.set( "user", "user" + ( i % 3 ) );
+
+            final LogEvent event = new LogEvent();
+            event.setTime( 1000L + i );
+            event.setCategory( CATEGORIES[ i % CATEGORIES.length ] );
+            event.setPriority( getPriority( i ) );
+            event.setMessage( "message " + i + " \u00e9" );
+            event.setContextMap( context );
+            if( 0 == i % 50 )
+            {
+                event.setThrowable( new Exception( "failure " + i ) );
+            }
+            target.processEvent( event );
+        }
+        target.close();
+    }
+
+    private Priority getPriority( final int i )
+    {
+        return ( 0 == i % 2 ) ? Priority.INFO : Priority.ERROR;
+    }
+
+    private List read( final JournalReader reader )
+        throws IOException
+    {
+        final List events = new ArrayList();
+        reader.read( new LogTarget()
+        {
+            public void processEvent( final LogEvent event )
+            {
+                events.add( event );
+            }
+        } );
+        return events;
+    }
+}
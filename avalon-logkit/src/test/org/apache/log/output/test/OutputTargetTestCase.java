@@ -22,8 +22,10 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import junit.framework.TestCase;
+import org.apache.log.ErrorHandler;
 import org.apache.log.Hierarchy;
 import org.apache.log.LogTarget;
+import org.apache.log.LogEvent;
 import org.apache.log.Logger;
 import org.apache.log.Priority;
 import org.apache.log.format.RawFormatter;
@@ -118,6 +120,132 @@ public final class OutputTargetTestCase
         assertTrue( "Write after close()", !m_logFile.exists() );
     }
 
+    public void testBufferedStreamTarget()
+        throws Exception
+    {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final StreamTarget target = new StreamTarget( output, FORMATTER );
+        target.setBuffering( 1024, 0, Priority.ERROR );
+
+        final Logger logger = getNewLogger( target );
+        logger.debug( M1 );
+        logger.warn( M2 );
+        assertEquals( "Buffered output", "", output.toString() );
+
+        logger.error( M3 );
+        assertEquals( "Flushed on priority", R1 + R2 + R3, getResult( output ) );
+
+        logger.debug( M1 );
+        target.flush();
+        assertEquals( "Flushed explicitly", R1, getResult( output ) );
+
+        logger.debug( M2 );
+        target.close();
+        assertEquals( "Flushed on close", R2 + TAIL, getResult( output ) );
+    }
+
+    public void testBufferedStreamTargetOverflow()
+        throws Exception
+    {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final StreamTarget target = new StreamTarget( output, FORMATTER );
+        target.setBuffering( 16, 0, null );
+
+        final Logger logger = getNewLogger( target );
+        logger.debug( M1 );
+        assertEquals( "Buffered output", "", output.toString() );
+
+        // longer than the buffer
+        logger.debug( M3 );
+        assertEquals( "Written on full buffer", 32, output.size() );
+
+        target.close();
+        assertEquals( "Flushed on close", R1 + R3, getResult( output ) );
+    }
+
+    public void testBufferedStreamTargetInterval()
+        throws Exception
+    {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final StreamTarget target = new StreamTarget( output, FORMATTER );
+        target.setBuffering( 1024, 20, null );
+
+        final Logger logger = getNewLogger( target );
+        logger.debug( M1 );
+
+        final long end = System.currentTimeMillis() + 5000;
+        while( 0 == output.size() && System.currentTimeMillis() < end )
+        {
+            Thread.sleep( 10 );
+        }
+        assertEquals( "Flushed on interval", R1, getResult( output ) );
+        target.close();
+    }
+
+    public void testFailingFlushKeepsTimer()
+        throws Exception
+    {
+        final StreamTarget failing = new StreamTarget( new ByteArrayOutputStream(), FORMATTER )
+        {
+            public synchronized void flush()
+            {
+                throw new IllegalStateException( "flush failed" );
+            }
+        };
+        final int[] errors = new int[ 1 ];
+        failing.setErrorHandler( new ErrorHandler()
+        {
+            public void error( final String message, final Throwable throwable, final LogEvent event )
+            {
+                synchronized( errors )
+                {
+                    errors[ 0 ]++;
+                }
+            }
+        } );
+        failing.setBuffering( 1024, 10, null );
+
+        final long end = System.currentTimeMillis() + 5000;
+        while( System.currentTimeMillis() < end )
+        {
+            synchronized( errors )
+            {
+                if( errors[ 0 ] > 0 )
+                {
+                    break;
+                }
+            }
+            Thread.sleep( 10 );
+        }
+        synchronized( errors )
+        {
+            assertTrue( "Error reported", errors[ 0 ] > 0 );
+        }
+
+        // The other targets are still flushed by the shared thread.
+        testBufferedStreamTargetInterval();
+        failing.close();
+    }
+
+    public void testBufferedFileTarget()
+        throws Exception
+    {
+        final FileTarget target = new FileTarget( m_logFile, false, FORMATTER );
+        target.setBuffering( 8192, 0, null );
+
+        final Logger logger = getNewLogger( target );
+        logger.debug( M1 );
+        logger.debug( M2 );
+        assertEquals( "Buffered file output", 0, m_logFile.length() );
+
+        logger.debug( M3 );
+        target.close();
+
+        final String data = getFileContents( m_logFile );
+        assertEquals( "Targets file output", OUTPUT, data );
+        assertTrue( "Deleting logfile", m_logFile.delete() );
+    }
+
     public void testSafeFileTarget()
         throws Exception
     {
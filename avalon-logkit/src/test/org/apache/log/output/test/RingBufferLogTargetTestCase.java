@@ -0,0 +1,194 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.output.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.log.LogEvent;
+import org.apache.log.LogTarget;
+import org.apache.log.Priority;
+import org.apache.log.output.RingBufferLogTarget;
+
+/**
+ * Test suite for the RingBufferLogTarget.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class RingBufferLogTargetTestCase
+    extends TestCase
+{
+    public RingBufferLogTargetTestCase( final String name )
+    {
+        super( name );
+    }
+
+    public void testDeliversInOrder()
+        throws Exception
+    {
+        final ListTarget target = new ListTarget();
+        final RingBufferLogTarget ringTarget =
+            new RingBufferLogTarget( target, 16, RingBufferLogTarget.BLOCK );
+        final Thread thread = start( ringTarget );
+
+        for( int i = 0; i < 1000; i++ )
+        {
+            ringTarget.processEvent( createEvent( Priority.INFO, "" + i ) );
+        }
+        ringTarget.close();
+        thread.join( 5000 );
+
+        assertFalse( "thread stopped", thread.isAlive() );
+        assertEquals( 1000, target.getEvents().size() );
+        for( int i = 0; i < 1000; i++ )
+        {
+            assertEquals( "" + i, ( (LogEvent)target.getEvents().get( i ) ).getMessage() );
+        }
+        assertEquals( 0, ringTarget.getDroppedEventCount() );
+    }
+
+    public void testDropNew()
+        throws Exception
+    {
+        final ListTarget target = new ListTarget();
+        final RingBufferLogTarget ringTarget =
+            new RingBufferLogTarget( target, 4, RingBufferLogTarget.DROP_NEW );
+
+        for( int i = 0; i < 10; i++ )
+        {
+            ringTarget.processEvent( createEvent( Priority.INFO, "" + i ) );
+        }
+        assertEquals( 6, ringTarget.getDroppedEventCount() );
+
+        drain( ringTarget );
+        assertMessages( new String[]{"0", "1", "2", "3"}, target );
+    }
+
+    public void testDropOldest()
+        throws Exception
+    {
+        final ListTarget target = new ListTarget();
+        final RingBufferLogTarget ringTarget =
+            new RingBufferLogTarget( target, 4, RingBufferLogTarget.DROP_OLDEST );
+
+        for( int i = 0; i < 10; i++ )
+        {
+            ringTarget.processEvent( createEvent( Priority.INFO, "" + i ) );
+        }
+        assertEquals( 6, ringTarget.getDroppedEventCount() );
+
+        drain( ringTarget );
+        assertMessages( new String[]{"6", "7", "8", "9"}, target );
+    }
+
+    public void testDropBelowPriority()
+        throws Exception
+    {
+        final ListTarget target = new ListTarget();
+        final RingBufferLogTarget ringTarget = new RingBufferLogTarget(
+            target, 2, RingBufferLogTarget.DROP_BELOW_PRIORITY, Priority.WARN, 16, false );
+
+        ringTarget.processEvent( createEvent( Priority.DEBUG, "a" ) );
+        ringTarget.processEvent( createEvent( Priority.DEBUG, "b" ) );
+        ringTarget.processEvent( createEvent( Priority.INFO, "c" ) );
+        assertEquals( 1, ringTarget.getDroppedEventCount() );
+
+        // an error waits for room instead
+        final Thread producer = new Thread()
+        {
+            public void run()
+            {
+                ringTarget.processEvent( createEvent( Priority.ERROR, "d" ) );
+            }
+        };
+        producer.start();
+        producer.join( 100 );
+        assertTrue( "error event waits", producer.isAlive() );
+
+        final Thread thread = start( ringTarget );
+        producer.join( 5000 );
+        ringTarget.close();
+        thread.join( 5000 );
+
+        assertEquals( 1, ringTarget.getDroppedEventCount() );
+        assertMessages( new String[]{"a", "b", "d"}, target );
+    }
+
+    public void testPolicyNames()
+    {
+        assertEquals( RingBufferLogTarget.BLOCK,
+                      RingBufferLogTarget.getPolicyForName( "block" ) );
+        assertEquals( RingBufferLogTarget.DROP_OLDEST,
+                      RingBufferLogTarget.getPolicyForName( "drop-oldest" ) );
+        assertEquals( RingBufferLogTarget.DROP_NEW,
+                      RingBufferLogTarget.getPolicyForName( "drop-new" ) );
+        assertEquals( RingBufferLogTarget.DROP_BELOW_PRIORITY,
+                      RingBufferLogTarget.getPolicyForName( "drop-below-priority" ) );
+    }
+
+    private static LogEvent createEvent( final Priority priority, final String message )
+    {
+        final LogEvent event = new LogEvent();
+        event.setCategory( "test" );
+        event.setPriority( priority );
+        event.setMessage( message );
+        event.setTime( System.currentTimeMillis() );
+        return event;
+    }
+
+    private static Thread start( final RingBufferLogTarget ringTarget )
+    {
+        final Thread thread = new Thread( ringTarget );
+        thread.setDaemon( true );
+        thread.start();
+        return thread;
+    }
+
+    private static void drain( final RingBufferLogTarget ringTarget )
+        throws InterruptedException
+    {
+        final Thread thread = start( ringTarget );
+        ringTarget.close();
+        thread.join( 5000 );
+    }
+
+    private static void assertMessages( final String[] messages, final ListTarget target )
+    {
+        final List events = target.getEvents();
+        assertEquals( messages.length, events.size() );
+        for( int i = 0; i < messages.length; i++ )
+        {
+            assertEquals( messages[ i ], ( (LogEvent)events.get( i ) ).getMessage() );
+        }
+    }
+
+    private static final class ListTarget
+        implements LogTarget
+    {
+        private final List m_events = new ArrayList();
+
+        public synchronized void processEvent( final LogEvent event )
+        {
+            m_events.add( event );
+        }
+
+        public synchronized List getEvents()
+        {
+            return new ArrayList( m_events );
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.output.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.zip.GZIPInputStream;
+import junit.framework.TestCase;
+import org.apache.log.Hierarchy;
+import org.apache.log.Logger;
+import org.apache.log.format.RawFormatter;
+import org.apache.log.output.io.rotate.FileStrategy;
+import org.apache.log.output.io.rotate.RevolvingFileStrategy;
+import org.apache.log.output.io.rotate.RotateStrategyBySize;
+import org.apache.log.output.io.rotate.RotatingFileTarget;
+import org.apache.log.output.io.rotate.UniqueFileStrategy;
+
+/**
+ * Test suite for the background rotation of the RotatingFileTarget.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class RotatingFileTargetTestCase
+    extends TestCase
+{
+    private static final int MESSAGES = 40;
+
+    private final File m_directory;
+
+    public RotatingFileTargetTestCase( final String name )
+        throws IOException
+    {
+        super( name );
+
+        m_directory = ( new File( "build/testdata/rotate" ) ).getCanonicalFile();
+    }
+
+    protected void setUp()
+        throws Exception
+    {
+        m_directory.mkdirs();
+
+        final File[] files = m_directory.listFiles();
+        for( int i = 0; i < files.length; i++ )
+        {
+            if( !files[ i ].delete() )
+            {
+                throw new IOException( "Failed to delete file " + files[ i ] );
+            }
+        }
+    }
+
+    public void testBackgroundRotation()
+        throws Exception
+    {
+        final RotatingFileTarget target =
+            new RotatingFileTarget( new RawFormatter(),
+                                    new RotateStrategyBySize( 100 ),
+                                    new RevolvingFileStrategy( new File( m_directory, "log" ), 0, 100 ) );
+        target.setBackgroundRotation( true, 0 );
+
+        final Hierarchy hierarchy = new Hierarchy();
+        hierarchy.setDefaultLogTarget( target );
+        final Logger logger = hierarchy.getLoggerFor( "myLogger" );
+
+        for( int i = 0; i < MESSAGES; i++ )
+        {
+            logger.warn( "message " + ( 1000 + i ) + " of the background rotation test\n" );
+            Thread.sleep( 20 );
+        }
+        target.close();
+
+        //Every message is either in the current file or in an archive
+        final StringBuffer content = new StringBuffer();
+        int archives = 0;
+        for( int rotation = 0; rotation < 100; rotation++ )
+        {
+            final String name = "log.0000" + ( ( rotation < 10 ) ? "0" : "" ) + rotation;
+            final File file = new File( m_directory, name );
+            final File archive = new File( m_directory, name + ".gz" );
+
+            waitFor( archive, file );
+            if( archive.exists() )
+            {
+                archives++;
+                assertFalse( file.exists() );
+                content.append( read( new InputStreamReader(
+                    new GZIPInputStream( new FileInputStream( archive ) ) ) ) );
+            }
+            else if( file.exists() )
+            {
+                content.append( read( new FileReader( file ) ) );
+            }
+        }
+
+        assertTrue( "archives " + archives, archives > 1 );
+        for( int i = 0; i < MESSAGES; i++ )
+        {
+            final String message = "message " + ( 1000 + i ) + " ";
+            final int index = content.toString().indexOf( message );
+            assertTrue( message, index >= 0 );
+            assertEquals( message, -1, content.toString().indexOf( message, index + 1 ) );
+        }
+    }
+
+    public void testRetention()
+        throws Exception
+    {
+        final RotatingFileTarget target =
+            new RotatingFileTarget( new RawFormatter(),
+                                    new RotateStrategyBySize( 10 ),
+                                    new RevolvingFileStrategy( new File( m_directory, "log" ), 0, 100 ) );
+        target.setBackgroundRotation( false, 3 );
+
+        final Hierarchy hierarchy = new Hierarchy();
+        hierarchy.setDefaultLogTarget( target );
+        final Logger logger = hierarchy.getLoggerFor( "myLogger" );
+
+        for( int i = 0; i < 20; i++ )
+        {
+            logger.warn( "message " + i + "\n" );
+            Thread.sleep( 20 );
+        }
+        target.close();
+
+        //the current file, at most 3 archives and maybe one archive on its way
+        for( int wait = 0; wait < 100 && m_directory.listFiles().length > 4; wait++ )
+        {
+            Thread.sleep( 20 );
+        }
+        final int files = m_directory.listFiles().length;
+        assertTrue( "files " + files, files >= 2 && files <= 4 );
+    }
+
+    public void testUniqueFileSamePeriodAppend()
+        throws Exception
+    {
+        assertSamePeriod( true );
+    }
+
+    public void testUniqueFileSamePeriod()
+        throws Exception
+    {
+        assertSamePeriod( false );
+    }
+
+    /**
+     * While the UniqueFileStrategy names the current file as the next one,
+     * nothing is rotated, truncated or compressed.
+     */
+    private void assertSamePeriod( final boolean append )
+        throws Exception
+    {
+        final UniqueFileStrategy fileStrategy =
+            new UniqueFileStrategy( new File( m_directory, "log" ), "yyyyMMdd", ".log" );
+        final RotatingFileTarget target =
+            new RotatingFileTarget( append, new RawFormatter(),
+                                    new RotateStrategyBySize( 10 ), fileStrategy );
+        target.setBackgroundRotation( true, 0 );
+
+        logMessages( target, 30 );
+
+        final File[] files = m_directory.listFiles();
+        assertEquals( 1, files.length );
+        assertTrue( files[ 0 ].getName().endsWith( ".log" ) );
+
+        final String content = read( new FileReader( files[ 0 ] ) );
+        for( int i = 0; i < 30; i++ )
+        {
+            assertTrue( "message " + i, content.indexOf( "message " + ( 1000 + i ) + "\n" ) >= 0 );
+        }
+    }
+
+    public void testUniqueFileCompression()
+        throws Exception
+    {
+        final FileStrategy fileStrategy =
+            new UniqueFileStrategy( new File( m_directory, "log" ), "yyyyMMddHHmmssSSS", ".log" );
+        final RotatingFileTarget target =
+            new RotatingFileTarget( new RawFormatter(),
+                                    new RotateStrategyBySize( 40 ), fileStrategy );
+        target.setBackgroundRotation( true, 0 );
+
+        logMessages( target, 30 );
+
+        //wait until every file but the current one is compressed
+        File[] files = m_directory.listFiles();
+        for( int wait = 0; wait < 100 && countPlainFiles( files ) > 1; wait++ )
+        {
+            Thread.sleep( 20 );
+            files = m_directory.listFiles();
+        }
+        assertEquals( 1, countPlainFiles( files ) );
+        assertTrue( "files " + files.length, files.length > 2 );
+
+        final StringBuffer content = new StringBuffer();
+        for( int i = 0; i < files.length; i++ )
+        {
+            if( files[ i ].getName().endsWith( ".gz" ) )
+            {
+                content.append( read( new InputStreamReader(
+                    new GZIPInputStream( new FileInputStream( files[ i ] ) ) ) ) );
+            }
+            else
+            {
+                content.append( read( new FileReader( files[ i ] ) ) );
+            }
+        }
+
+        for( int i = 0; i < 30; i++ )
+        {
+            final String message = "message " + ( 1000 + i ) + "\n";
+            final int index = content.toString().indexOf( message );
+            assertTrue( message, index >= 0 );
+            assertEquals( message, -1, content.toString().indexOf( message, index + 1 ) );
+        }
+    }
+
+    private void logMessages( final RotatingFileTarget target, final int count )
+        throws Exception
+    {
+        final Hierarchy hierarchy = new Hierarchy();
+        hierarchy.setDefaultLogTarget( target );
+        final Logger logger = hierarchy.getLoggerFor( "myLogger" );
+
+        for( int i = 0; i < count; i++ )
+        {
+            logger.warn( "message " + ( 1000 + i ) + "\n" );
+            Thread.sleep( 20 );
+        }
+        target.close();
+    }
+
+    private int countPlainFiles( final File[] files )
+    {
+        int count = 0;
+        for( int i = 0; i < files.length; i++ )
+        {
+            if( !files[ i ].getName().endsWith( ".gz" ) )
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void waitFor( final File archive, final File file )
+        throws InterruptedException
+    {
+        for( int wait = 0; wait < 100 && file.exists() && !archive.exists(); wait++ )
+        {
+            Thread.sleep( 20 );
+        }
+    }
+
+    private String read( final Reader reader )
+        throws IOException
+    {
+        final BufferedReader input = new BufferedReader( reader );
+        final StringBuffer sb = new StringBuffer();
+        try
+        {
+            String line;
+            while( null != ( line = input.readLine() ) )
+            {
+                sb.append( line );
+                sb.append( '\n' );
+            }
+        }
+        finally
+        {
+            input.close();
+        }
+        return sb.toString();
+    }
+}
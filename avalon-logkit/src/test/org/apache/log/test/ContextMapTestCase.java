@@ -0,0 +1,198 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.Hashtable;
+import junit.framework.TestCase;
+import org.apache.log.ContextMap;
+import org.apache.log.Hierarchy;
+import org.apache.log.LogEvent;
+import org.apache.log.LogTarget;
+import org.apache.log.Logger;
+
+/**
+ * Test suite for the ContextMap and its snapshots.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class ContextMapTestCase
+    extends TestCase
+{
+    public ContextMapTestCase( final String name )
+    {
+        super( name );
+    }
+
+    public void testSetAndRemove()
+        throws Exception
+    {
+        final ContextMap map = new ContextMap();
+        map.set( "a", "1" );
+        map.set( "b", "2" );
+        map.set( "c", "3" );
+        map.set( "b", "4" );
+
+        assertEquals( 3, map.getSize() );
+        assertEquals( "1", map.get( "a" ) );
+        assertEquals( "4", map.get( "b" ) );
+        assertEquals( "3", map.get( "c" ) );
+
+        map.set( "a", null );
+        assertEquals( 2, map.getSize() );
+        assertNull( map.get( "a" ) );
+        assertEquals( "x", map.get( "a", "x" ) );
+
+        map.clear();
+        assertEquals( 0, map.getSize() );
+        assertEquals( 0, map.getKeys().length );
+    }
+
+    public void testSnapshot()
+        throws Exception
+    {
+        final ContextMap parent = new ContextMap();
+        parent.set( "host", "helm" );
+        final ContextMap map = new ContextMap( parent );
+        map.set( "user", "fred" );
+
+        final ContextMap snapshot = map.getSnapshot();
+        assertTrue( snapshot.isReadOnly() );
+        assertSame( snapshot, map.getSnapshot() );
+        assertSame( snapshot, snapshot.getSnapshot() );
+
+        map.set( "user", "barney" );
+        parent.set( "host", "rubble" );
+        map.set( "ip", "1.2.3.4" );
+
+        assertEquals( "fred", snapshot.get( "user" ) );
+        assertEquals( "helm", snapshot.get( "host" ) );
+        assertNull( snapshot.get( "ip" ) );
+        assertEquals( 2, snapshot.getKeys().length );
+
+        final ContextMap later = map.getSnapshot();
+        assertNotSame( snapshot, later );
+        assertEquals( "barney", later.get( "user" ) );
+        assertEquals( "rubble", later.get( "host" ) );
+        assertEquals( 3, later.getKeys().length );
+
+        try
+        {
+            snapshot.set( "user", "wilma" );
+            fail( "Expected an IllegalStateException" );
+        }
+        catch( final IllegalStateException ise )
+        {
+            //expected
+        }
+    }
+
+    public void testLoggerAttachesSnapshot()
+        throws Exception
+    {
+        final LogEvent[] events = new LogEvent[ 1 ];
+        final Hierarchy hierarchy = new Hierarchy();
+        hierarchy.setDefaultLogTarget( new LogTarget()
+        {
+            public void processEvent( final LogEvent event )
+            {
+                events[ 0 ] = event;
+            }
+        } );
+        final Logger logger = hierarchy.getLoggerFor( "myLogger" );
+
+        final ContextMap previous = ContextMap.getCurrentContext( false );
+        final ContextMap map = new ContextMap();
+        ContextMap.bind( map );
+        try
+        {
+            map.set( "user", "fred" );
+            logger.warn( "message" );
+            map.set( "user", "barney" );
+
+            assertEquals( "fred", events[ 0 ].getContextMap().get( "user" ) );
+            assertTrue( events[ 0 ].getContextMap().isReadOnly() );
+        }
+        finally
+        {
+            ContextMap.bind( previous );
+        }
+    }
+
+    public void testSerialization()
+        throws Exception
+    {
+        final ContextMap map = new ContextMap();
+        map.set( "user", "fred" );
+        map.set( "host", "helm" );
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream output = new ObjectOutputStream( bytes );
+        output.writeObject( map.getSnapshot() );
+        output.close();
+
+        final ObjectInputStream input =
+            new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) );
+        final ContextMap result = (ContextMap)input.readObject();
+
+        assertTrue( result.isReadOnly() );
+        assertEquals( 2, result.getSize() );
+        assertEquals( "fred", result.get( "user" ) );
+        assertEquals( "helm", result.get( "host" ) );
+    }
+
+    public void testSerializationWithParent()
+        throws Exception
+    {
+        final ContextMap parent = new ContextMap();
+        parent.set( "user", "fred" );
+        final ContextMap map = new ContextMap( parent );
+        map.set( "host", "helm" );
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream output = new ObjectOutputStream( bytes );
+        output.writeObject( map );
+        output.close();
+
+        final ObjectInputStream input =
+            new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) );
+        final ContextMap result = (ContextMap)input.readObject();
+
+        assertTrue( result.isReadOnly() );
+        assertEquals( 1, result.getSize() );
+        assertEquals( "helm", result.get( "host" ) );
+        assertEquals( "fred", result.get( "user" ) );
+    }
+
+    /**
+     * The serialized form must stay that of the Hashtable based versions,
+     * so that maps can be exchanged with them.
+     */
+    public void testSerializedForm()
+    {
+        final ObjectStreamClass form = ObjectStreamClass.lookup( ContextMap.class );
+
+        assertEquals( -6002364222819853880L, form.getSerialVersionUID() );
+        assertEquals( 2, form.getFields().length );
+        assertEquals( ContextMap.class, form.getField( "m_parent" ).getType() );
+        assertEquals( Hashtable.class, form.getField( "m_map" ).getType() );
+    }
+}
@@ -0,0 +1,108 @@
+/* 
+ * Copyright 2004 The Apache Software Foundation
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.test;
+
+import junit.framework.TestCase;
+import org.apache.log.Hierarchy;
+import org.apache.log.Logger;
+
+/**
+ * Test suite for the category lookup of Hierarchy.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class HierarchyTestCase
+    extends TestCase
+{
+    public HierarchyTestCase( final String name )
+    {
+        super( name );
+    }
+
+    public void testLookupMatchesTree()
+        throws Exception
+    {
+        final Hierarchy hierarchy = new Hierarchy();
+
+        final Logger bcd = hierarchy.getLoggerFor( "b.c.d" );
+        final Logger bc = hierarchy.getLoggerFor( "b.c" );
+
+        assertSame( bcd, hierarchy.getLoggerFor( "b.c.d" ) );
+        assertSame( bc, hierarchy.getLoggerFor( "b" ).getChildLogger( "c" ) );
+        assertSame( bcd, hierarchy.getRootLogger().getChildLogger( "b.c.d" ) );
+        assertSame( bcd, bc.getChildLogger( "d" ) );
+    }
+
+    public void testInvalidCategory()
+        throws Exception
+    {
+        final Hierarchy hierarchy = new Hierarchy();
+
+        for( int i = 0; i < 2; i++ )
+        {
+            try
+            {
+                hierarchy.getLoggerFor( "b..c" );
+                fail( "Expected an IllegalArgumentException" );
+            }
+            catch( final IllegalArgumentException iae )
+            {
+                //expected, and not cached
+            }
+        }
+    }
+
+    public void testConcurrentLookup()
+        throws Exception
+    {
+        final Hierarchy hierarchy = new Hierarchy();
+        final Logger[][] loggers = new Logger[ 8 ][ 100 ];
+        final Thread[] threads = new Thread[ loggers.length ];
+
+        for( int t = 0; t < threads.length; t++ )
+        {
+            final Logger[] results = loggers[ t ];
+            threads[ t ] = new Thread()
+            {
+                public void run()
+                {
+                    for( int i = 0; i < results.length; i++ )
+                    {
+                        results[ i ] = hierarchy.getLoggerFor( "tenant" + ( i % 10 ) + ".request" + i );
+                    }
+                }
+            };
+            threads[ t ].start();
+        }
+
+        for( int t = 0; t < threads.length; t++ )
+        {
+            threads[ t ].join();
+        }
+
+        for( int i = 0; i < 100; i++ )
+        {
+            final Logger expected =
+                hierarchy.getRootLogger().getChildLogger( "tenant" + ( i % 10 ) + ".request" + i );
+            for( int t = 0; t < threads.length; t++ )
+            {
+                assertSame( expected, loggers[ t ][ i ] );
+            }
+        }
+        assertEquals( 10, hierarchy.getRootLogger().getChildren().length );
+    }
+}
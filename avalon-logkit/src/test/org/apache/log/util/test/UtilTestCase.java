@@ -22,8 +22,11 @@ import junit.framework.TestCase;
 import org.apache.log.Hierarchy;
 import org.apache.log.Logger;
 import org.apache.log.Priority;
+import org.apache.log.format.ExtendedPatternFormatter;
 import org.apache.log.format.RawFormatter;
 import org.apache.log.output.io.StreamTarget;
+import org.apache.log.util.CallerLocator;
+import org.apache.log.util.StackIntrospector;
 import org.apache.log.util.LoggerOutputStream;
 
 /**
@@ -72,6 +75,46 @@ public final class UtilTestCase
         */
     }
 
+    public void testCallerLocator()
+        throws Exception
+    {
+        final String expected = UtilTestCase.class.getName() + ".testCallerLocator(";
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final StreamTarget target =
+            new StreamTarget( output, new ExtendedPatternFormatter( "%{method}" ) );
+        final Hierarchy hierarchy = new Hierarchy();
+        hierarchy.setDefaultLogTarget( target );
+
+        final Logger logger = hierarchy.getLoggerFor( "myLogger" );
+
+        for( int i = 0; i < 2; i++ )
+        {
+            logger.debug( MSG );
+            final String result = getResult( output );
+            assertTrue( result, result.startsWith( expected ) );
+        }
+
+        final String location = new Caller().locate();
+        assertTrue( location, location.startsWith( expected ) );
+        final String method = new Caller().introspect();
+        assertTrue( method, method.startsWith( expected ) );
+        assertNull( CallerLocator.getCallerLocation( String.class, 0 ) );
+        assertEquals( "", StackIntrospector.getCallerMethod( String.class ) );
+    }
+
+    private static final class Caller
+    {
+        String locate()
+        {
+            return CallerLocator.getCallerLocation( Caller.class, 0 );
+        }
+
+        String introspect()
+        {
+            return StackIntrospector.getCallerMethod( Caller.class );
+        }
+    }
+
     public void testLoggerOutputStream()
         throws Exception
     {